@@ -1,4 +1,6 @@
+import controller.EdtStallDetector;
 import controller.MainController;
+import controller.PlayHistoryRecorder;
 import database.DatabaseHandler;
 import view.SongListView;
 
@@ -14,12 +16,19 @@ public class Main {
         //handler.saveShowHideColumns(array);
         //returnArray = handler.getShowHideColumns();
 
+        //log anything blocking the event dispatch thread for more than 100 ms
+        EdtStallDetector.install();
+
         boolean[] visibility = DatabaseHandler.getInstance().getShowHideColumns();
         MainController controller = new MainController(appName);
 
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             public void run() {
                 DatabaseHandler.getInstance().saveShowHideColumns(SongListView.getColumnVisibility());
+                //write the plays not saved yet
+                PlayHistoryRecorder.getInstance().close();
+                //close pooled connections and shut Derby down cleanly
+                DatabaseHandler.getInstance().shutdown();
             }
         }));
 
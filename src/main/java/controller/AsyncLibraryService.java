@@ -0,0 +1,255 @@
+package controller;
+
+import database.BulkInsertResult;
+import database.DatabaseHandler;
+import model.FrameIndex;
+import model.Mp3MetadataReader;
+import model.Playlist;
+import model.Song;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AsyncLibraryService runs the database and tag parsing work of the listeners off the event dispatch thread.
+ * Database calls run one at a time, in the order they were asked for, on a dedicated thread,
+ * and tags are parsed on a small pool (-Dmytunes.import.threads=...).
+ * Every method returns a CompletableFuture. Continue on the event dispatch thread with
+ * thenAcceptAsync(..., AsyncLibraryService.EDT) and update the songs in memory and the views there,
+ * so the models are still only touched by the event dispatch thread.
+ */
+public class AsyncLibraryService {
+
+    /** Runs a continuation on the event dispatch thread. */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    private static AsyncLibraryService service_instance = null;
+
+    private final ExecutorService databaseExecutor;
+    private final ExecutorService parserExecutor;
+
+    /**
+     * What addSongFiles() did, for the caller to apply to the songs in memory.
+     */
+    public static class AddedSongs {
+        private final List<Song> parsed = new ArrayList<Song>();
+        private final List<Song> addedToLibrary = new ArrayList<Song>();
+        private final List<Song> addedToPlaylist = new ArrayList<Song>();
+        private int invalidCount;
+
+        /** @return the valid songs parsed from the files, in the order of the files */
+        public List<Song> getParsed() { return parsed; }
+        /** @return the songs inserted into the library, which weren't in it before */
+        public List<Song> getAddedToLibrary() { return addedToLibrary; }
+        /** @return the songs inserted into the playlist, in order, empty if no playlist was given */
+        public List<Song> getAddedToPlaylist() { return addedToPlaylist; }
+        /** @return the number of files that are not valid mp3 files */
+        public int getInvalidCount() { return invalidCount; }
+    }
+
+    private AsyncLibraryService() {
+        databaseExecutor = Executors.newSingleThreadExecutor(daemonThreads("mytunes-db"));
+        int threadCount = Integer.getInteger("mytunes.import.threads", Runtime.getRuntime().availableProcessors());
+        parserExecutor = Executors.newFixedThreadPool(Math.max(threadCount, 1), daemonThreads("mytunes-parser"));
+    }
+
+    /**
+     * Gets the service shared by the whole application.
+     * @return the service
+     */
+    public static synchronized AsyncLibraryService getInstance() {
+        if (service_instance == null)
+            service_instance = new AsyncLibraryService();
+
+        return service_instance;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs any database work on the database thread, after the work asked for before it.
+     * @param task the work, which must not touch the models or the views
+     * @return the result of the task
+     */
+    public <T> CompletableFuture<T> supplyDatabase(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, databaseExecutor);
+    }
+
+    /**
+     * Parses mp3 files on the parser pool.
+     * @param paths absolute paths of the files
+     * @return the songs in the order of the paths, a song with a null path for a file that is not valid
+     */
+    public CompletableFuture<List<Song>> parseSongs(List<String> paths) {
+        List<CompletableFuture<Song>> futures = new ArrayList<CompletableFuture<Song>>(paths.size());
+        for (String path : paths) {
+            futures.add(CompletableFuture.supplyAsync(() -> new Song(path), parserExecutor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(done -> {
+            List<Song> songs = new ArrayList<Song>(futures.size());
+            for (CompletableFuture<Song> future : futures) {
+                songs.add(future.join());
+            }
+            return songs;
+        });
+    }
+
+    /**
+     * Parses mp3 files and saves the valid ones in the library and optionally at the end of a playlist,
+     * the same as Playlist.addMultipleSongs() but without touching the songs in memory.
+     * @param paths absolute paths of the files
+     * @param playlist the playlist to add the songs to, null to add them to the library only
+     * @return what was saved
+     */
+    public CompletableFuture<AddedSongs> addSongFiles(List<String> paths, Playlist playlist) {
+        return parseSongs(paths).thenApplyAsync(songs -> {
+            AddedSongs result = new AddedSongs();
+            for (Song song : songs) {
+                if (song.getPath() == null) {
+                    result.invalidCount++;
+                } else {
+                    result.parsed.add(song);
+                }
+            }
+            if (result.parsed.isEmpty()) {
+                return result;
+            }
+            DatabaseHandler db = DatabaseHandler.getInstance();
+            HashMap<String, Song> songsByPath = new HashMap<String, Song>();
+            for (Song song : result.parsed) {
+                songsByPath.put(song.getPath(), song);
+            }
+            for (String path : db.addSongs(result.parsed).getInserted()) {
+                result.addedToLibrary.add(songsByPath.get(path));
+            }
+            if (playlist != null) {
+                BulkInsertResult inserted = db.addSongsToPlaylist(playlist, result.parsed);
+                //the inserted rows are in the order of the songs, a song may be there twice
+                List<String> insertedPaths = inserted.getInserted();
+                int next = 0;
+                for (Song song : result.parsed) {
+                    if (next < insertedPaths.size() && insertedPaths.get(next).equals(song.getPath())) {
+                        result.addedToPlaylist.add(song);
+                        next++;
+                    }
+                }
+            }
+            return result;
+        }, databaseExecutor);
+    }
+
+    /**
+     * Gets the seek table of a song from the database, or builds it from the file on the parser pool
+     * and saves it if there is none yet.
+     * @param path the path of the song
+     * @return the index, null if the file has no mp3 frames or can't be read
+     */
+    public CompletableFuture<FrameIndex> getFrameIndex(String path) {
+        return supplyDatabase(() -> DatabaseHandler.getInstance().getFrameIndex(path)).thenCompose(saved -> {
+            if (saved != null) {
+                return CompletableFuture.completedFuture(saved);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                long startTime = System.currentTimeMillis();
+                try {
+                    FrameIndex built = Mp3MetadataReader.readFrameIndex(path);
+                    System.out.println("[FrameIndex] Indexed " + (built == null ? 0 : built.getFrameCount())
+                            + " frames in " + (System.currentTimeMillis() - startTime) + " ms. '" + path + "'");
+                    return built;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }, parserExecutor).thenApplyAsync(built -> {
+                if (built != null) {
+                    DatabaseHandler.getInstance().saveFrameIndex(path, built);
+                }
+                return built;
+            }, databaseExecutor);
+        });
+    }
+
+    /**
+     * Adds songs already in the library at the end of a playlist.
+     * @param playlist the playlist
+     * @param songs the songs to be added
+     * @return the songs inserted, in order
+     */
+    public CompletableFuture<List<Song>> addSongsToPlaylist(Playlist playlist, List<Song> songs) {
+        return supplyDatabase(() -> {
+            List<String> insertedPaths = DatabaseHandler.getInstance().addSongsToPlaylist(playlist, songs).getInserted();
+            List<Song> inserted = new ArrayList<Song>(insertedPaths.size());
+            int next = 0;
+            for (Song song : songs) {
+                if (next < insertedPaths.size() && insertedPaths.get(next).equals(song.getPath())) {
+                    inserted.add(song);
+                    next++;
+                }
+            }
+            return inserted;
+        });
+    }
+
+    /**
+     * Deletes songs from the library, and by the foreign keys from all the playlists.
+     * @param paths the paths of the songs
+     * @return the number of songs deleted, -1 if nothing was deleted because of an error
+     */
+    public CompletableFuture<Integer> deleteSongs(Collection<String> paths) {
+        ArrayList<String> copy = new ArrayList<String>(paths);
+        return supplyDatabase(() -> DatabaseHandler.getInstance().deleteSongs(copy));
+    }
+
+    /**
+     * Deletes the first occurrence of each song from a playlist.
+     * @param playlist the playlist
+     * @param songs the songs to be deleted, a song listed twice is deleted twice
+     * @return true if all were deleted
+     */
+    public CompletableFuture<Boolean> deleteSongsFromPlaylist(Playlist playlist, List<Song> songs) {
+        ArrayList<Song> copy = new ArrayList<Song>(songs);
+        return supplyDatabase(() -> {
+            boolean success = true;
+            for (Song song : copy) {
+                success = DatabaseHandler.getInstance().deleteSongFromPlaylist(playlist, song) && success;
+            }
+            return success;
+        });
+    }
+
+    /**
+     * Saves a new playlist.
+     * @param playlistName the name of the playlist
+     * @return true if added, false if not (e.g. the playlist already exists)
+     */
+    public CompletableFuture<Boolean> addPlaylist(String playlistName) {
+        return supplyDatabase(() -> DatabaseHandler.getInstance().addPlaylist(playlistName));
+    }
+
+    /**
+     * Deletes a playlist with its songs.
+     * @param playlistName the name of the playlist
+     * @return true if deleted
+     */
+    public CompletableFuture<Boolean> deletePlaylist(String playlistName) {
+        return supplyDatabase(() -> DatabaseHandler.getInstance().deletePlaylist(playlistName));
+    }
+}
@@ -0,0 +1,650 @@
+package controller;
+
+import model.FrameIndex;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AudioEngine plays mp3 files through a single SourceDataLine that stays open from one song to the next.
+ * The song expected to come next can be opened ahead of time with prepareNext(): its file is opened and its
+ * first buffers are decoded on a preloader thread while the current song plays. When the current song ends,
+ * the samples of the prepared one are written right after its last samples, so the line never runs dry and
+ * there is no gap. Without a prepared song, the line is drained and the listener gets endOfMedia().
+ * With a crossfade set (setCrossfade()), the prepared song is instead started that long before the end
+ * of the current one, and both are decoded and mixed by a CrossfadeMixer until the current one ends.
+ * Every transition is timed, from the end of the decoded song (or from play()) to the first samples
+ * of the next one written to the line, and logged with the running average.
+ * Songs decoded to their end are kept in a PcmCache, so a song played again is not decoded again.
+ * seek() moves within the song being played, with the FrameIndex of its file to find the frame to decode from.
+ */
+public class AudioEngine {
+
+    //same values as BasicPlayer, which the engine replaces
+    public static final int PLAYING = 0;
+    public static final int PAUSED = 1;
+    public static final int STOPPED = 2;
+
+    private static final int PRE_DECODE_BYTES = 64 * 1024;  //about 370 ms of 44.1 kHz stereo
+    private static final int CHUNK_BYTES = 4096;
+    private static final int LINE_BUFFER_MILLIS = 250;
+    private static final long FOLLOW_UP_NANOS = 1000000000L;    //a play() this soon after an end continues it
+
+    /**
+     * Callbacks of the engine, all called on its playback thread.
+     */
+    public interface Listener {
+        /**
+         * Called several times per second while playing.
+         * @param microseconds position of the song being heard
+         */
+        void progress(long microseconds);
+
+        /**
+         * Called when the first samples of a song are heard.
+         * @param path the path of the song
+         * @param gapless true if it follows the song before it without a gap
+         * @param transitionMicros the time between the end of the song before and this song, see AudioEngine
+         */
+        void trackStarted(String path, boolean gapless, long transitionMicros);
+
+        /**
+         * Called when a song was heard to its end and no song was prepared to follow it.
+         * @param path the path of the song
+         */
+        void endOfMedia(String path);
+    }
+
+    private final Listener listener;
+    private final ExecutorService preloader;
+    private final PcmCache cache = PcmCache.fromSystemProperties();
+    private final Object lock = new Object();
+
+    private volatile int status = STOPPED;
+    private volatile float gain = 1f;
+    private volatile SourceDataLine line;   //opened by the playback thread, kept open across songs
+    private volatile long lastEndNanos;
+    private volatile CrossfadeMixer crossfade;  //null for gapless switches
+
+    //guarded by lock
+    private Playback playback;
+    private String preparedPath;
+    private Future<DecodedTrack> prepared;
+
+    //transition statistics, only touched by the playback thread
+    private int gaplessCount;
+    private long gaplessTotalNanos;
+    private long gaplessMaxNanos;
+    private int underrunCount;
+
+    /**
+     * Constructs an engine, which starts stopped.
+     * @param listener the callbacks for progress and song changes
+     */
+    public AudioEngine(Listener listener) {
+        this.listener = listener;
+        this.preloader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mytunes-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the current song and plays a song from its start.
+     * If the song is the one prepared with prepareNext(), its decoded buffers are used.
+     * @param path the path of the mp3 file
+     */
+    public void play(String path) {
+        long requestNanos = System.nanoTime();
+        stop();
+        Playback next = new Playback(path, requestNanos);
+        synchronized (lock) {
+            playback = next;
+            status = PLAYING;
+        }
+        next.thread.start();
+    }
+
+    /**
+     * Stops playing. The line is flushed and kept open for the next song.
+     */
+    public void stop() {
+        Playback old;
+        synchronized (lock) {
+            old = playback;
+            playback = null;
+            status = STOPPED;
+            if (old != null) {
+                old.stopped = true;
+            }
+            lock.notifyAll();
+        }
+        SourceDataLine current = line;
+        if (current != null) {
+            current.stop();
+            current.flush();
+        }
+        if (old != null && old.thread != Thread.currentThread()) {
+            try {
+                old.thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Pauses the song being played.
+     */
+    public void pause() {
+        synchronized (lock) {
+            if (status != PLAYING) {
+                return;
+            }
+            status = PAUSED;
+        }
+        SourceDataLine current = line;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    /**
+     * Moves the song being played to a time, on the playback thread, also while paused.
+     * @param path the song to move, nothing is done if another song is being played
+     * @param microseconds the time from the start of the song
+     * @param index the frame index of the song, null to decode from the start up to the time
+     */
+    public void seek(String path, long microseconds, FrameIndex index) {
+        synchronized (lock) {
+            if (playback != null) {
+                playback.seekRequest = new SeekRequest(path, microseconds, index);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Resumes the song paused with pause().
+     */
+    public void resume() {
+        synchronized (lock) {
+            if (status != PAUSED) {
+                return;
+            }
+            status = PLAYING;
+            SourceDataLine current = line;
+            if (current != null) {
+                current.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Gets the status of the engine.
+     * @return PLAYING, PAUSED or STOPPED
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets the volume, applied to the samples before they are written to the line.
+     * @param gain from 0 (silent) to 1 (as decoded)
+     */
+    public void setGain(double gain) {
+        this.gain = (float) Math.max(0, Math.min(1, gain));
+    }
+
+    /**
+     * Sets the crossfade between a song and the song prepared to follow it.
+     * The songs whose length is not known are switched gaplessly.
+     * @param overlapMillis the length of the fade, up to CrossfadeMixer.MAX_OVERLAP_MILLIS, 0 for no fade
+     * @param curve the shape of the fade
+     */
+    public void setCrossfade(int overlapMillis, CrossfadeMixer.FadeCurve curve) {
+        crossfade = (overlapMillis > 0) ? new CrossfadeMixer(overlapMillis, curve) : null;
+        System.out.println("[Audio] crossfade: " + (overlapMillis > 0
+                ? crossfade.getOverlapMillis() + " ms " + curve : "off"));
+    }
+
+    /**
+     * Opens and pre-decodes the song expected to follow the current one, replacing the one prepared before.
+     * Nothing is done if the same song is already prepared.
+     * @param path the path of the mp3 file
+     */
+    public void prepareNext(String path) {
+        synchronized (lock) {
+            if (path.equals(preparedPath)) {
+                return;
+            }
+            discardPrepared();
+            preparedPath = path;
+            prepared = preloader.submit(() -> DecodedTrack.open(path, PRE_DECODE_BYTES, cache));
+        }
+    }
+
+    /**
+     * Drops the prepared song, e.g. when nothing should follow the current song.
+     */
+    public void clearNext() {
+        synchronized (lock) {
+            discardPrepared();
+        }
+    }
+
+    /**
+     * Gets the song prepared to follow the current one.
+     * @return the path, null if none
+     */
+    public String getPreparedPath() {
+        synchronized (lock) {
+            return preparedPath;
+        }
+    }
+
+    //must hold lock
+    private void discardPrepared() {
+        if (prepared != null) {
+            Future<DecodedTrack> discarded = prepared;
+            //queued after the open, so it closes the track once it is opened
+            preloader.execute(() -> {
+                try {
+                    discarded.get().close();
+                } catch (Exception e) {
+                    //nothing to close
+                }
+            });
+        }
+        prepared = null;
+        preparedPath = null;
+    }
+
+    /**
+     * Takes the prepared song, waiting for it if it is still being opened.
+     * @param path the song wanted, null for whatever is prepared
+     * @return the track, null if no such song is prepared or it can't be opened
+     */
+    private DecodedTrack takePrepared(String path) {
+        return takePrepared(path, true);
+    }
+
+    /**
+     * Takes the prepared song.
+     * @param path the song wanted, null for whatever is prepared
+     * @param wait false to leave a song that is still being opened
+     * @return the track, null if no such song is prepared or ready, or it can't be opened
+     */
+    private DecodedTrack takePrepared(String path, boolean wait) {
+        Future<DecodedTrack> future;
+        synchronized (lock) {
+            if (prepared == null || (path != null && !path.equals(preparedPath)) || (!wait && !prepared.isDone())) {
+                return null;
+            }
+            future = prepared;
+            prepared = null;
+            preparedPath = null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("[Audio] Can't open the next song.");
+            e.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Swaps a prepared song for its cached samples, e.g. in repeat mode, where the song was prepared
+     * before the same song had been decoded to its end and cached.
+     * @param endedPath the song that just ended
+     */
+    private DecodedTrack fromCache(DecodedTrack prepared, String endedPath) {
+        if (prepared == null || prepared.isFromCache() || !prepared.getPath().equals(endedPath)) {
+            return prepared;
+        }
+        DecodedTrack cached = DecodedTrack.openCached(prepared.getPath(), cache);
+        if (cached == null) {
+            return prepared;
+        }
+        prepared.close();
+        return cached;
+    }
+
+    /**
+     * Gets the cache of decoded songs, e.g. for its counters.
+     * @return the cache
+     */
+    public PcmCache getCache() {
+        return cache;
+    }
+
+    private SourceDataLine openLine(AudioFormat format) throws LineUnavailableException {
+        SourceDataLine current = line;
+        if (current != null && current.isOpen() && current.getFormat().matches(format)) {
+            current.start();
+            return current;
+        }
+        if (current != null) {
+            current.close();
+        }
+        SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+        int bufferBytes = (int) (format.getFrameRate() * LINE_BUFFER_MILLIS / 1000) * format.getFrameSize();
+        opened.open(format, bufferBytes);
+        opened.start();
+        line = opened;
+        return opened;
+    }
+
+    private void applyGain(byte[] buffer, int length) {
+        float currentGain = gain;
+        if (currentGain == 1f) {
+            return;
+        }
+        for (int i = 0; i + 1 < length; i += 2) {
+            int sample = Math.round((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)) * currentGain);
+            buffer[i] = (byte) sample;
+            buffer[i + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private static String fileName(String path) {
+        return new File(path).getName();
+    }
+
+    private static class SeekRequest {
+        private final String path;
+        private final long microseconds;
+        private final FrameIndex index;
+
+        SeekRequest(String path, long microseconds, FrameIndex index) {
+            this.path = path;
+            this.microseconds = microseconds;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Plays from one song for as long as prepared songs follow it, on its own thread.
+     */
+    private class Playback implements Runnable {
+        private final String path;
+        private final long requestNanos;
+        private final Thread thread;
+        private volatile boolean stopped;
+        private volatile SeekRequest seekRequest;
+        private boolean followsEnd;     //played right after the song before it ended, e.g. without a prepared song
+
+        //the song written to the line and the song heard, which differ for a moment after a switch
+        private DecodedTrack track;
+        private DecodedTrack fadingIn;  //mixed with track during a crossfade
+        private CrossfadeMixer fadeMixer;
+        private long fadeStartFrame;
+        private long fadePosition;
+        private long fadeFrames;
+        private boolean fadeSkipped;    //the prepared song can't be mixed with track
+        private long trackStartFrame;
+        private long framesWritten;
+        private String heardPath;
+        private long heardStartFrame;
+        private String pendingPath;     //written but not heard yet
+        private long pendingStartFrame;
+        private boolean pendingGapless;
+        private long pendingTransitionNanos;
+
+        Playback(String path, long requestNanos) {
+            this.path = path;
+            this.requestNanos = requestNanos;
+            this.thread = new Thread(this, "mytunes-playback");
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                track = takePrepared(path);
+                if (track == null) {
+                    track = DecodedTrack.open(path, PRE_DECODE_BYTES, cache);
+                }
+                SourceDataLine output = openLine(track.getFormat());
+                trackStartFrame = output.getLongFramePosition();
+                long lastEnd = lastEndNanos;
+                followsEnd = lastEnd != 0 && requestNanos - lastEnd < FOLLOW_UP_NANOS;
+                pendingPath = path;
+                pendingStartFrame = trackStartFrame;
+                pendingGapless = false;
+                pendingTransitionNanos = -(followsEnd ? lastEnd : requestNanos);  //completed at the first write
+                playLoop(output);
+            } catch (Exception e) {
+                System.out.println("[Audio] Can't play '" + path + "'");
+                e.printStackTrace();
+            } finally {
+                if (track != null) {
+                    track.close();
+                }
+                if (fadingIn != null) {
+                    fadingIn.close();
+                }
+                synchronized (lock) {
+                    if (playback == this) {
+                        playback = null;
+                        status = STOPPED;
+                    }
+                }
+            }
+        }
+
+        private void playLoop(SourceDataLine output) throws Exception {
+            AudioFormat format = track.getFormat();
+            int frameSize = format.getFrameSize();
+            byte[] buffer = new byte[CHUNK_BYTES - CHUNK_BYTES % frameSize];
+            byte[] scratch = new byte[buffer.length];   //the song fading in
+            boolean firstWrite = true;
+            while (!stopped) {
+                synchronized (lock) {
+                    while (status == PAUSED && !stopped && seekRequest == null) {
+                        lock.wait();
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                if (seekRequest != null) {
+                    seek(output, format);
+                    continue;
+                }
+                if (fadingIn == null) {
+                    startCrossfade(format);
+                }
+                int read;
+                if (fadingIn != null) {
+                    read = fadeMixer.mixNext(track, fadingIn, buffer, scratch, fadePosition, fadeFrames);
+                    if (read >= 0) {
+                        fadePosition += read / frameSize;
+                    }
+                    if (read < 0 || fadePosition >= fadeFrames) {
+                        endCrossfade();
+                    }
+                } else {
+                    read = track.read(buffer, 0, buffer.length);
+                }
+                if (read < 0) {
+                    long endNanos = System.nanoTime();
+                    DecodedTrack next = fromCache(takePrepared(null), track.getPath());
+                    if (next != null && next.getFormat().matches(format)) {
+                        //switch at the sample: the next song starts at the frame after the last one written
+                        boolean underrun = output.available() >= output.getBufferSize();
+                        track.close();
+                        track = next;
+                        fadeSkipped = false;
+                        trackStartFrame += framesWritten;
+                        framesWritten = 0;
+                        pendingPath = next.getPath();
+                        pendingStartFrame = trackStartFrame;
+                        pendingGapless = true;
+                        pendingTransitionNanos = System.nanoTime() - endNanos;
+                        recordGapless(pendingTransitionNanos, underrun, next);
+                        continue;
+                    }
+                    //nothing to follow, or it needs another line: play out what is left
+                    output.drain();
+                    notifyPending(true);
+                    if (next != null) {
+                        giveBack(next);
+                    }
+                    if (!stopped) {
+                        lastEndNanos = System.nanoTime();
+                        listener.endOfMedia(track.getPath());
+                    }
+                    return;
+                }
+                applyGain(buffer, read);
+                output.write(buffer, 0, read);
+                framesWritten += read / frameSize;
+                if (firstWrite) {
+                    firstWrite = false;
+                    pendingTransitionNanos += System.nanoTime();
+                    System.out.println("[Audio] Started '" + fileName(path) + "' "
+                            + pendingTransitionNanos / 1000000 + " ms after "
+                            + (followsEnd ? "the last song ended." : "play was asked."));
+                }
+                notifyPending(false);
+                if (heardPath != null) {
+                    long frames = Math.max(output.getLongFramePosition() - heardStartFrame, 0);
+                    listener.progress((long) (frames * 1000000L / format.getFrameRate()));
+                }
+            }
+        }
+
+        /**
+         * Moves the song written to the line to the time asked for and drops what the line still had of it.
+         * A crossfade is cut short, the song fading in being the one moved.
+         */
+        private void seek(SourceDataLine output, AudioFormat format) throws Exception {
+            SeekRequest request = seekRequest;
+            seekRequest = null;
+            if (fadingIn != null) {
+                endCrossfade();
+            }
+            if (!track.getPath().equals(request.path)) {
+                System.out.println("[Audio] Not seeking, '" + fileName(request.path) + "' is not playing.");
+                return;
+            }
+            long startTime = System.nanoTime();
+            long frame = (long) (request.microseconds * (double) format.getFrameRate() / 1000000);
+            track.seek(frame, request.index);
+            output.stop();
+            output.flush();
+            if (status == PLAYING) {
+                output.start();
+            }
+            notifyPending(true);
+            trackStartFrame = output.getLongFramePosition() - frame;
+            framesWritten = frame;
+            heardStartFrame = trackStartFrame;
+            fadeSkipped = false;
+            listener.progress(request.microseconds);
+            System.out.println("[Audio] Seeked to " + request.microseconds / 1000 + " ms in "
+                    + (System.nanoTime() - startTime) / 1000 + " us"
+                    + (track.isFromCache() ? " from the cache." : request.index == null ? " without a frame index." : "."));
+        }
+
+        /**
+         * Starts to mix in the prepared song once the current one is within the crossfade of its end.
+         */
+        private void startCrossfade(AudioFormat format) {
+            CrossfadeMixer mixer = crossfade;
+            if (mixer == null || fadeSkipped) {
+                return;
+            }
+            long remaining = track.framesRemaining();
+            if (remaining < 0 || remaining > mixer.getOverlapFrames(format)) {
+                return;
+            }
+            DecodedTrack next = takePrepared(null, false);
+            if (next == null) {
+                return;
+            }
+            if (!next.getFormat().matches(format)) {
+                giveBack(next);
+                fadeSkipped = true;
+                return;
+            }
+            fadingIn = next;
+            fadeMixer = mixer;
+            fadePosition = 0;
+            fadeFrames = Math.max(remaining, 1);
+            pendingPath = next.getPath();
+            fadeStartFrame = trackStartFrame + framesWritten;
+            pendingStartFrame = fadeStartFrame;
+            pendingGapless = true;
+            pendingTransitionNanos = 0;
+            System.out.println("[Audio] Crossfading to '" + fileName(next.getPath()) + "' over "
+                    + (long) (fadeFrames * 1000 / format.getFrameRate()) + " ms, " + mixer.getCurve() + ".");
+        }
+
+        /**
+         * Makes the song faded in the current one, its first frame being where the fade started.
+         */
+        private void endCrossfade() {
+            track.close();
+            track = fadingIn;
+            fadingIn = null;
+            fadeSkipped = false;
+            //the same frames, counted from the start of the new song
+            framesWritten = trackStartFrame + framesWritten - fadeStartFrame;
+            trackStartFrame = fadeStartFrame;
+        }
+
+        /**
+         * Tells the listener about the song written last once the line has started to play it.
+         * @param drained true if the line has played everything written
+         */
+        private void notifyPending(boolean drained) {
+            if (pendingPath == null || stopped || (!drained && line.getLongFramePosition() < pendingStartFrame)) {
+                return;
+            }
+            heardPath = pendingPath;
+            heardStartFrame = pendingStartFrame;
+            pendingPath = null;
+            listener.trackStarted(heardPath, pendingGapless, pendingTransitionNanos / 1000);
+        }
+
+        private void giveBack(DecodedTrack next) {
+            synchronized (lock) {
+                if (prepared == null) {
+                    preparedPath = next.getPath();
+                    prepared = CompletableFuture.completedFuture(next);
+                    return;
+                }
+            }
+            next.close();
+        }
+    }
+
+    private void recordGapless(long transitionNanos, boolean underrun, DecodedTrack next) {
+        gaplessCount++;
+        gaplessTotalNanos += transitionNanos;
+        gaplessMaxNanos = Math.max(gaplessMaxNanos, transitionNanos);
+        if (underrun) {
+            underrunCount++;
+        }
+        System.out.println("[Audio] Gapless switch to '" + fileName(next.getPath()) + "' in "
+                + transitionNanos / 1000 + " us" + (underrun ? ", the line ran dry" : "")
+                + " (opened and decoded " + next.getOpenNanos() / 1000000 + " ms ahead). "
+                + "Average " + gaplessTotalNanos / gaplessCount / 1000 + " us, max " + gaplessMaxNanos / 1000
+                + " us, " + underrunCount + " of " + gaplessCount + " switches ran dry.");
+    }
+}
@@ -0,0 +1,133 @@
+package controller;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * CrossfadeMixer is the mixing stage of AudioEngine: during the last seconds of a song it reads the song
+ * fading out and the song fading in chunk by chunk, and mixes their 16 bit samples with the gains of a fade curve.
+ * The gains are looked up in tables built once per setting and the chunks are read into buffers
+ * owned by the caller, so mixing allocates nothing while playing.
+ * A mixer holds one setting and never changes, AudioEngine swaps the whole mixer to change the setting.
+ */
+public class CrossfadeMixer {
+
+    public static final int MAX_OVERLAP_MILLIS = 12000;
+    private static final int TABLE_SIZE = 1024;
+
+    /**
+     * Shapes of the fade.
+     * LINEAR dips in the middle of the fade, EQUAL_POWER keeps the loudness about even,
+     * S_CURVE holds both songs longer at the ends of the fade.
+     */
+    public enum FadeCurve { LINEAR, EQUAL_POWER, S_CURVE }
+
+    private final int overlapMillis;
+    private final FadeCurve curve;
+    private final float[] fadeOutGains = new float[TABLE_SIZE + 1];
+    private final float[] fadeInGains = new float[TABLE_SIZE + 1];
+
+    /**
+     * Constructs a mixer for a setting.
+     * @param overlapMillis the length of the fade, from 1 to MAX_OVERLAP_MILLIS
+     * @param curve the shape of the fade
+     */
+    public CrossfadeMixer(int overlapMillis, FadeCurve curve) {
+        this.overlapMillis = Math.max(1, Math.min(overlapMillis, MAX_OVERLAP_MILLIS));
+        this.curve = curve;
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double t = (double) i / TABLE_SIZE;
+            switch (curve) {
+                case EQUAL_POWER:
+                    fadeOutGains[i] = (float) Math.cos(t * Math.PI / 2);
+                    fadeInGains[i] = (float) Math.sin(t * Math.PI / 2);
+                    break;
+                case S_CURVE:
+                    double s = t * t * (3 - 2 * t);
+                    fadeOutGains[i] = (float) (1 - s);
+                    fadeInGains[i] = (float) s;
+                    break;
+                default:
+                    fadeOutGains[i] = (float) (1 - t);
+                    fadeInGains[i] = (float) t;
+                    break;
+            }
+        }
+    }
+
+    public int getOverlapMillis() { return overlapMillis; }
+    public FadeCurve getCurve() { return curve; }
+
+    /**
+     * Gets the length of the fade in frames of a format.
+     * @param format the PCM format of the songs
+     * @return the number of frames
+     */
+    public long getOverlapFrames(AudioFormat format) {
+        return (long) (format.getFrameRate() * overlapMillis / 1000);
+    }
+
+    /**
+     * Reads the next chunk of both songs and mixes it into buffer.
+     * A song that ends in the middle of the chunk is padded with silence.
+     * @param ending the song fading out
+     * @param starting the song fading in, with the same format
+     * @param buffer gets the mix, its length is the size of the chunk
+     * @param scratch a buffer at least as long as buffer, for the starting song
+     * @param position frames of the fade mixed before this chunk
+     * @param fadeFrames the length of the fade in frames
+     * @return the number of bytes mixed, -1 if both songs ended
+     */
+    int mixNext(DecodedTrack ending, DecodedTrack starting, byte[] buffer, byte[] scratch,
+                long position, long fadeFrames) throws IOException {
+        AudioFormat format = starting.getFormat();
+        int frameSize = format.getFrameSize();
+        int channels = format.getChannels();
+        int length = buffer.length - buffer.length % frameSize;
+        int endingRead = readFully(ending, buffer, length);
+        int startingRead = readFully(starting, scratch, length);
+        if (endingRead <= 0 && startingRead <= 0) {
+            return -1;
+        }
+        int mixed = Math.max(endingRead, startingRead);
+        for (int i = Math.max(endingRead, 0); i < mixed; i++) {
+            buffer[i] = 0;
+        }
+        for (int i = Math.max(startingRead, 0); i < mixed; i++) {
+            scratch[i] = 0;
+        }
+
+        for (int frame = 0; frame * frameSize < mixed; frame++) {
+            long done = Math.min(position + frame, fadeFrames);
+            int index = (int) (done * TABLE_SIZE / Math.max(fadeFrames, 1));
+            float outGain = fadeOutGains[index];
+            float inGain = fadeInGains[index];
+            for (int channel = 0; channel < channels; channel++) {
+                int i = frame * frameSize + channel * 2;
+                short out = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+                short in = (short) ((scratch[i] & 0xFF) | (scratch[i + 1] << 8));
+                int sample = Math.round(out * outGain + in * inGain);
+                sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                buffer[i] = (byte) sample;
+                buffer[i + 1] = (byte) (sample >> 8);
+            }
+        }
+        return mixed;
+    }
+
+    /**
+     * Reads until the buffer is full or the song ended.
+     * @return the number of bytes read, -1 if the song had already ended
+     */
+    static int readFully(DecodedTrack track, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = track.read(buffer, total, length - total);
+            if (read < 0) {
+                return (total == 0) ? -1 : total;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
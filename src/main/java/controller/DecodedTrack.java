@@ -0,0 +1,401 @@
+package controller;
+
+import database.FileStamp;
+import model.FrameIndex;
+import model.Mp3MetadataReader;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * DecodedTrack is an mp3 file opened for AudioEngine, decoded to 16 bit little-endian PCM.
+ * The first bytes are decoded when the track is opened, so a track opened ahead of time
+ * can be written to the line as soon as the track before it ends.
+ * If the file has a LAME tag, the silence the encoder and the decoder add before the audio
+ * and the padding after it are cut, so two tracks of a gapless album join without a gap.
+ * The frames left to play are counted, so a crossfade can start before the end.
+ * With a PcmCache, a song decoded to its end is cached, and a cached song is read from memory without decoding.
+ * The samples are recorded in a PcmRecording while decoding, in room reserved in the cache, released if the
+ * track is closed or seeks forward before its end.
+ * seek() moves to any frame: back into what was decoded already without decoding again,
+ * elsewhere by decoding again from the closest frame of the FrameIndex of the file.
+ */
+class DecodedTrack implements Closeable {
+
+    private static final int DECODER_DELAY = 529;   //samples of the mp3 synthesis filter, as counted by LAME
+    private static final int PREROLL_FRAMES = 4;    //mp3 frames decoded before a seek target, to fill the decoder
+    private static final int MAX_SEEK_RETRIES = 4;
+
+    private final String path;
+    private AudioInputStream stream;        //null if read from the cache
+    private final ByteBuffer cached;        //null if decoded
+    private final AudioFormat format;
+    private final int frameSize;
+
+    private byte[] head;            //decoded when opened
+    private int headLength;
+    private int headPosition;
+    private long skipFrames;        //left to skip before the audio
+    private long leadingFrames;     //the frames skipped from the start of the file
+    private long framesLeft = -1;   //left to play when the end is trimmed, -1 if not trimmed
+    private long totalFrames = -1;  //frames to play, -1 if not known
+    private long framesRead;
+    private long openNanos;
+    private PcmCache cache;             //gets the samples once the song was decoded to its end
+    private PcmRecording recording;     //the samples read so far, null if not recorded
+    private FileStamp recordedStamp;
+    private long replayPosition = -1;   //of the recorded samples played again after a seek back, -1 if none
+
+    /**
+     * Constructs a track reading a stream already decoded to 16 bit little-endian PCM, to its end.
+     * open() is the way to play a file, this is also used to mix generated samples in tests.
+     * @param path the path identifying the track
+     * @param stream the PCM stream
+     */
+    DecodedTrack(String path, AudioInputStream stream) {
+        this.path = path;
+        this.stream = stream;
+        this.cached = null;
+        this.format = stream.getFormat();
+        this.frameSize = format.getFrameSize();
+    }
+
+    private DecodedTrack(String path, PcmCache.Entry entry) {
+        this.path = path;
+        this.stream = null;
+        this.cached = entry.getSamples();
+        this.format = entry.getFormat();
+        this.frameSize = format.getFrameSize();
+        this.totalFrames = cached.remaining() / frameSize;
+    }
+
+    /**
+     * Opens an mp3 file and decodes its first bytes.
+     * @param path the path of the file
+     * @param preDecodeBytes how many bytes to decode now
+     * @return the track, to be closed by the caller
+     */
+    static DecodedTrack open(String path, int preDecodeBytes) throws IOException, UnsupportedAudioFileException {
+        return open(path, preDecodeBytes, null);
+    }
+
+    /**
+     * Opens an mp3 file from the cache, or decodes its first bytes and records it for the cache.
+     * @param path the path of the file
+     * @param preDecodeBytes how many bytes to decode now if it isn't cached
+     * @param cache the cache, null for none
+     * @return the track, to be closed by the caller
+     */
+    static DecodedTrack open(String path, int preDecodeBytes, PcmCache cache)
+            throws IOException, UnsupportedAudioFileException {
+        long startTime = System.nanoTime();
+        DecodedTrack cachedTrack = openCached(path, cache);
+        if (cachedTrack != null) {
+            return cachedTrack;
+        }
+        DecodedTrack track = new DecodedTrack(path, decode(AudioSystem.getAudioInputStream(new File(path))));
+        try {
+            track.readEncoderGap();
+            if (track.totalFrames < 0) {
+                track.readDuration(new File(path));
+            }
+            track.startRecording(cache);
+            track.preDecode(preDecodeBytes);
+        } catch (IOException e) {
+            track.close();
+            throw e;
+        }
+        track.openNanos = System.nanoTime() - startTime;
+        return track;
+    }
+
+    /**
+     * Decodes an mp3 stream to 16 bit little-endian PCM.
+     */
+    private static AudioInputStream decode(AudioInputStream encoded) {
+        AudioFormat encodedFormat = encoded.getFormat();
+        AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, encodedFormat.getSampleRate(), 16,
+                encodedFormat.getChannels(), encodedFormat.getChannels() * 2, encodedFormat.getSampleRate(), false);
+        return AudioSystem.getAudioInputStream(pcmFormat, encoded);
+    }
+
+    /**
+     * Opens a song from the cache.
+     * @return the track, null if the song isn't cached
+     */
+    static DecodedTrack openCached(String path, PcmCache cache) {
+        long startTime = System.nanoTime();
+        PcmCache.Entry entry = (cache != null) ? cache.get(path) : null;
+        if (entry == null) {
+            return null;
+        }
+        DecodedTrack track = new DecodedTrack(path, entry);
+        track.openNanos = System.nanoTime() - startTime;
+        System.out.println("[PcmCache] Playing '" + new File(path).getName() + "' from memory. " + cache.getStatistics());
+        return track;
+    }
+
+    /**
+     * Collects the samples for the cache, if the length is known and the cache has room for it.
+     * A second is added to the estimated length, a song longer than that isn't cached.
+     * Nothing is recorded if the song is cached or being recorded by another track already,
+     * e.g. the same song prepared again in repeat mode.
+     */
+    private void startRecording(PcmCache cache) {
+        if (cache == null || !cache.isEnabled() || totalFrames < 0) {
+            return;
+        }
+        long capacity = (totalFrames + (long) format.getFrameRate()) * frameSize;
+        if (cache.reserve(path, capacity)) {
+            this.cache = cache;
+            recordedStamp = FileStamp.of(path);
+            recording = new PcmRecording(capacity);
+        }
+    }
+
+    private void readEncoderGap() {
+        try {
+            Mp3MetadataReader.Metadata metadata = Mp3MetadataReader.read(path);
+            if (metadata != null && metadata.getEncoderDelay() >= 0 && metadata.getSampleCount() > 0) {
+                skipFrames = metadata.getEncoderDelay() + DECODER_DELAY;
+                leadingFrames = skipFrames;
+                framesLeft = Math.max(metadata.getSampleCount() - metadata.getEncoderDelay()
+                        - metadata.getEncoderPadding(), 0);
+                totalFrames = framesLeft;
+            } else if (metadata != null && metadata.getSampleCount() > 0) {
+                totalFrames = metadata.getSampleCount();
+            }
+        } catch (IOException e) {
+            //played with the gap then
+        }
+    }
+
+    /**
+     * Estimates the length from the duration mp3spi reads from the headers, e.g. of a CBR file without a Xing header.
+     */
+    private void readDuration(File file) {
+        try {
+            Object duration = AudioSystem.getAudioFileFormat(file).properties().get("duration");
+            if (duration instanceof Long) {
+                totalFrames = (long) ((Long) duration * (double) format.getFrameRate() / 1000000);
+            }
+        } catch (IOException | UnsupportedAudioFileException e) {
+            //not known then
+        }
+    }
+
+    private void preDecode(int length) throws IOException {
+        head = new byte[length - length % frameSize];
+        while (headLength < head.length) {
+            int read = stream.read(head, headLength, head.length - headLength);
+            if (read <= 0) {
+                break;
+            }
+            headLength += read;
+        }
+    }
+
+    /**
+     * Reads the next whole frames of audio.
+     * @return the number of bytes read, -1 at the end of the track
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException {
+        length -= length % frameSize;
+        if (cached != null) {
+            int count = Math.min(length, cached.remaining());
+            if (count <= 0) {
+                return -1;
+            }
+            cached.get(buffer, offset, count);
+            framesRead += count / frameSize;
+            return count;
+        }
+        if (replayPosition >= 0) {
+            int count = recording.read(replayPosition, buffer, offset, length);
+            replayPosition += count;
+            framesRead += count / frameSize;
+            if (replayPosition >= recording.size()) {
+                replayPosition = -1;    //back to where the decoder is
+            }
+            if (count > 0) {
+                return count;
+            }
+        }
+        while (skipFrames > 0) {
+            int read = readDecoded(buffer, offset, (int) Math.min(length, skipFrames * frameSize));
+            if (read <= 0) {
+                return -1;
+            }
+            skipFrames -= read / frameSize;
+        }
+        if (framesLeft == 0) {
+            endRecording();
+            return -1;
+        }
+        if (framesLeft > 0) {
+            length = (int) Math.min(length, framesLeft * frameSize);
+        }
+        int read = readDecoded(buffer, offset, length);
+        if (read <= 0) {
+            endRecording();
+            return -1;
+        }
+        if (framesLeft > 0) {
+            framesLeft -= read / frameSize;
+        }
+        framesRead += read / frameSize;
+        if (recording != null && !recording.write(buffer, offset, read)) {
+            dropRecording();    //longer than estimated
+        }
+        return read;
+    }
+
+    /**
+     * Moves to a frame of the song, counted like framesRemaining() from the first frame after the trimmed silence.
+     * A cached song, or a frame before the last one decoded while the song is being recorded, is read from memory.
+     * Otherwise the file is opened again at the frame of the index a few frames before the target and decoded
+     * from there, dropping the samples before the target. The frames the decoder outputs nothing for,
+     * missing their bit reservoir, are counted from the file, so the target is hit to the sample.
+     * @param frame the frame to play next
+     * @param index the frame index of the file, null to decode again from the start
+     */
+    void seek(long frame, FrameIndex index) throws IOException, UnsupportedAudioFileException {
+        frame = Math.max(0, (totalFrames >= 0) ? Math.min(frame, totalFrames) : frame);
+        if (cached != null) {
+            cached.position((int) (frame * frameSize));
+            framesRead = frame;
+            return;
+        }
+        if (recording != null && frame * frameSize <= recording.size()) {
+            replayPosition = (frame * frameSize < recording.size()) ? frame * frameSize : -1;
+            framesRead = frame;
+            return;
+        }
+
+        long sourceFrame = frame + leadingFrames;   //counted from the first frame of the file
+        long discardFrames = sourceFrame;
+        InputStream file = new BufferedInputStream(new FileInputStream(path));
+        try {
+            if (index != null && index.getSampleRate() == (int) format.getSampleRate()) {
+                int samplesPerFrame = index.getSamplesPerFrame();
+                long targetFrame = sourceFrame / samplesPerFrame;
+                int keyFrame = index.getKeyFrame(sourceFrame - (long) PREROLL_FRAMES * samplesPerFrame);
+                int skipped = 0;
+                for (int retry = 0; retry < MAX_SEEK_RETRIES && keyFrame <= targetFrame; retry++) {
+                    int before = (int) (targetFrame - keyFrame);
+                    skipped = Mp3MetadataReader.countSkippedFrames(path, index.getOffset(keyFrame), before);
+                    //the target frame itself has to be decoded, go back further if it isn't
+                    if (Mp3MetadataReader.countSkippedFrames(path, index.getOffset(keyFrame), before + 1) == skipped
+                            || keyFrame == 0) {
+                        break;
+                    }
+                    keyFrame = Math.max(keyFrame - FrameIndex.STRIDE, 0);
+                }
+                skipFully(file, index.getOffset(keyFrame));
+                discardFrames = sourceFrame - (long) (keyFrame + skipped) * samplesPerFrame;
+            }
+            AudioInputStream reopened = decode(AudioSystem.getAudioInputStream(file));
+            stream.close();
+            stream = reopened;
+        } catch (IOException | UnsupportedAudioFileException e) {
+            file.close();
+            throw e;
+        }
+        head = null;
+        headLength = 0;
+        headPosition = 0;
+        replayPosition = -1;
+        dropRecording();    //not from the start anymore
+        skipFrames = discardFrames;
+        framesRead = frame;
+        if (framesLeft >= 0) {
+            framesLeft = totalFrames - frame;
+        }
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new EOFException("Seek past the end of the file.");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    /**
+     * Caches the samples recorded from the first to the last.
+     */
+    private void endRecording() {
+        if (recording != null) {
+            cache.put(path, recording.toBuffer(), format, recordedStamp);
+            recording = null;
+        }
+    }
+
+    /**
+     * Gives up the recording and its room in the cache.
+     */
+    private void dropRecording() {
+        if (recording != null) {
+            recording = null;
+            replayPosition = -1;
+            cache.release(path);
+        }
+    }
+
+    private int readDecoded(byte[] buffer, int offset, int length) throws IOException {
+        if (headPosition < headLength) {
+            int count = Math.min(length, headLength - headPosition);
+            System.arraycopy(head, headPosition, buffer, offset, count);
+            headPosition += count;
+            if (headPosition == headLength) {
+                head = null;
+            }
+            return count;
+        }
+        return stream.read(buffer, offset, length);
+    }
+
+    String getPath() { return path; }
+
+    /** @return true if the samples are read from the cache */
+    boolean isFromCache() { return cached != null; }
+
+    /**
+     * Gets the number of frames left to play, exact for files with a LAME tag and estimated for others.
+     * @return the number of frames, -1 if the length is not known
+     */
+    long framesRemaining() {
+        return (totalFrames < 0) ? -1 : Math.max(totalFrames - framesRead, 0);
+    }
+
+    /** @return the PCM format the track is decoded to */
+    AudioFormat getFormat() { return format; }
+
+    /** @return the time it took to open the file and decode its first bytes, in nanoseconds */
+    long getOpenNanos() { return openNanos; }
+
+    @Override
+    public void close() {
+        dropRecording();
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package controller;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+/**
+ * EdtStallDetector logs every event that blocks the event dispatch thread for longer than a threshold
+ * (-Dmytunes.edt.stallMillis=..., 100 by default).
+ * It replaces the system event queue with one that times each dispatched event.
+ * A watchdog thread prints the stack of the event dispatch thread while it is still blocked,
+ * which shows the code to be moved off it, and the total time is printed when the event is done.
+ */
+public class EdtStallDetector extends EventQueue {
+
+    public static final long DEFAULT_STALL_MILLIS = 100;
+
+    private final long stallMillis;
+    private volatile long dispatchStart;        //0 while idle
+    private volatile Thread dispatchThread;
+    private volatile boolean stallReported;
+
+    private EdtStallDetector(long stallMillis) {
+        this.stallMillis = stallMillis;
+    }
+
+    /**
+     * Installs the detector on the system event queue, with its watchdog on a daemon thread.
+     */
+    public static void install() {
+        long stallMillis = Long.getLong("mytunes.edt.stallMillis", DEFAULT_STALL_MILLIS);
+        EdtStallDetector detector = new EdtStallDetector(stallMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(detector);
+
+        Thread watchdog = new Thread(detector::watch, "EdtStallDetector");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        System.out.println("[EDT] Logging events blocking the event dispatch thread for more than " + stallMillis + " ms.");
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        dispatchThread = Thread.currentThread();
+        long start = System.nanoTime();
+        //nested dispatches, e.g. of a modal dialog, time their own events
+        long outerStart = dispatchStart;
+        boolean outerReported = stallReported;
+        dispatchStart = start;
+        stallReported = false;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long millis = (System.nanoTime() - start) / 1000000;
+            if (millis > stallMillis) {
+                System.out.println("[EDT] Blocked for " + millis + " ms by " + event.getClass().getSimpleName()
+                        + " from " + event.getSource().getClass().getSimpleName());
+            }
+            dispatchStart = (outerStart == 0) ? 0 : System.nanoTime();   //the outer event restarts counting
+            stallReported = outerReported;
+        }
+    }
+
+    /**
+     * Checks the running event a few times per threshold and prints the stack once per stall.
+     */
+    private void watch() {
+        long interval = Math.max(stallMillis / 4, 10);
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStart;
+            Thread thread = dispatchThread;
+            if (start != 0 && thread != null && !stallReported
+                    && (System.nanoTime() - start) / 1000000 > stallMillis) {
+                stallReported = true;
+                StringBuilder trace = new StringBuilder("[EDT] Event dispatch thread blocked for more than "
+                        + stallMillis + " ms at:");
+                for (StackTraceElement element : thread.getStackTrace()) {
+                    trace.append("\n\tat ").append(element);
+                }
+                System.out.println(trace);
+            }
+        }
+    }
+}
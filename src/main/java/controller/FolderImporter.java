@@ -0,0 +1,208 @@
+package controller;
+
+import database.BulkInsertResult;
+import database.DatabaseHandler;
+import model.Song;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * FolderImporter adds all mp3 files under a folder to the library without blocking the window.
+ * The folder is walked first, then the tags are parsed on a fixed pool of worker threads
+ * (one per core by default, -Dmytunes.import.threads=...). Parsed songs go through a bounded queue
+ * to this worker's own thread, the single writer, which saves them with DatabaseHandler.addSongs() in batches.
+ * Saved songs are handed to the event dispatch thread through process(), and the progress (0-100)
+ * is reported through the "progress" property. The import can be stopped with cancel(false).
+ */
+public class FolderImporter extends SwingWorker<Void, Song> {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;  //parsed songs waiting for the writer
+
+    private final Path root;
+    private final Set<String> knownPaths;
+    private final Consumer<List<Song>> onImported;
+    private final int threadCount;
+    private final int batchSize;
+
+    private final AtomicInteger fileCount = new AtomicInteger();
+    private final AtomicInteger importedCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger invalidCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    /**
+     * The outcome of parsing one file, song is null if the file is not a valid mp3.
+     */
+    private static class ParseResult {
+        final String path;
+        final Song song;
+
+        ParseResult(String path, Song song) {
+            this.path = path;
+            this.song = song;
+        }
+    }
+
+    /**
+     * Constructs an importer, call execute() to start it.
+     * @param root the folder to be imported with all its sub folders
+     * @param knownPaths paths already in the library, which are skipped without parsing them
+     * @param onImported called on the event dispatch thread with the songs saved in the database
+     */
+    public FolderImporter(Path root, Set<String> knownPaths, Consumer<List<Song>> onImported) {
+        this.root = root;
+        this.knownPaths = knownPaths;
+        this.onImported = onImported;
+        this.threadCount = Integer.getInteger("mytunes.import.threads", Runtime.getRuntime().availableProcessors());
+        this.batchSize = Math.max(1, Integer.getInteger("mytunes.db.batchSize", DatabaseHandler.DEFAULT_BATCH_SIZE));
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        long startTime = System.currentTimeMillis();
+        //remembered so that a rescan picks up files added to the folder later
+        DatabaseHandler.getInstance().addLibraryFolder(root.toAbsolutePath().toString());
+        List<Path> files = findMp3Files();
+        fileCount.set(files.size());
+        System.out.println("[Import] Found " + files.size() + " new mp3 files under '" + root + "'.");
+        if (files.isEmpty() || isCancelled()) {
+            return null;
+        }
+
+        BlockingQueue<ParseResult> queue = new ArrayBlockingQueue<ParseResult>(DEFAULT_QUEUE_SIZE);
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(threadCount, 1));
+        try {
+            for (Path file : files) {
+                final String path = file.toAbsolutePath().toString();
+                parsers.execute(() -> parse(path, queue));
+            }
+            parsers.shutdown();
+            writeSongs(queue, files.size());
+        } finally {
+            parsers.shutdownNow();
+        }
+        System.out.println("[Import] Finished in " + (System.currentTimeMillis() - startTime) + " ms. " + getSummary());
+        return null;
+    }
+
+    @Override
+    protected void process(List<Song> songs) {
+        onImported.accept(songs);
+    }
+
+    /**
+     * Walks the folder tree for regular files ending with .mp3 that aren't in the library yet.
+     */
+    private List<Path> findMp3Files() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase().endsWith(".mp3"))
+                    .filter(path -> {
+                        if (knownPaths.contains(path.toAbsolutePath().toString())) {
+                            skippedCount.incrementAndGet();
+                            return false;
+                        }
+                        return true;
+                    })
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Runs on a parser thread. Blocks while the queue is full, so parsing never runs far ahead of the writer.
+     */
+    private void parse(String path, BlockingQueue<ParseResult> queue) {
+        if (isCancelled()) {
+            return;
+        }
+        Song song = new Song(path);
+        try {
+            queue.put(new ParseResult(path, (song.getPath() == null) ? null : song));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the parsed songs from the queue and saves them in batches until all files are done or it is cancelled.
+     */
+    private void writeSongs(BlockingQueue<ParseResult> queue, int total) throws InterruptedException {
+        ArrayList<Song> batch = new ArrayList<Song>(batchSize);
+        int done = 0;
+        while (done < total && !isCancelled()) {
+            ParseResult result = queue.poll(200, TimeUnit.MILLISECONDS);
+            if (result != null) {
+                done++;
+                if (result.song == null) {
+                    invalidCount.incrementAndGet();
+                    System.out.println("[Import] Not a valid file. '" + result.path + "'");
+                } else {
+                    batch.add(result.song);
+                }
+                setProgress(done * 100 / total);
+            }
+            //write a full batch, or whatever is there when the parsers are slower than the writer
+            if (batch.size() >= batchSize || (result == null && !batch.isEmpty()) || done == total) {
+                saveBatch(batch);
+            }
+        }
+        //songs parsed after a cancel are dropped
+        if (!batch.isEmpty() && !isCancelled()) {
+            saveBatch(batch);
+        }
+    }
+
+    private void saveBatch(ArrayList<Song> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        BulkInsertResult result = DatabaseHandler.getInstance().addSongs(batch);
+        skippedCount.addAndGet(result.getDuplicates().size());
+        failedCount.addAndGet(result.getFailed().size());
+        importedCount.addAndGet(result.getInsertedCount());
+
+        HashMap<String, Song> songsByPath = new HashMap<String, Song>();
+        for (Song song : batch) {
+            songsByPath.put(song.getPath(), song);
+        }
+        ArrayList<Song> inserted = new ArrayList<Song>(result.getInsertedCount());
+        for (String path : result.getInserted()) {
+            inserted.add(songsByPath.get(path));
+        }
+        if (!inserted.isEmpty()) {
+            publish(inserted.toArray(new Song[inserted.size()]));
+        }
+        batch.clear();
+    }
+
+    public int getFileCount() { return fileCount.get(); }
+    public int getImportedCount() { return importedCount.get(); }
+    public int getSkippedCount() { return skippedCount.get(); }
+    public int getInvalidCount() { return invalidCount.get(); }
+    public int getFailedCount() { return failedCount.get(); }
+
+    /**
+     * Gets the counts of the import so far, e.g. for a message dialog.
+     * @return a one line summary
+     */
+    public String getSummary() {
+        return importedCount.get() + " imported, " + skippedCount.get() + " already in the library, "
+                + invalidCount.get() + " not valid, " + failedCount.get() + " failed";
+    }
+}
@@ -0,0 +1,205 @@
+package controller;
+
+import database.BulkInsertResult;
+import database.DatabaseHandler;
+import database.FileStamp;
+import model.Song;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * LibraryRescanner brings the library up to date with the files on disk without blocking the window.
+ * Every song file is compared with the size, last-modified time and file key saved in the database
+ * with a single stat, and only the files that changed are parsed again, on a fixed pool of worker threads
+ * (-Dmytunes.import.threads=...). Songs whose files are gone are deleted with their playlist entries,
+ * and new mp3 files in the folders imported with FolderImporter are added.
+ * The changes are applied to the database here, the caller applies them to the library in done().
+ */
+public class LibraryRescanner extends SwingWorker<LibraryRescanner.Result, Void> {
+
+    private final int threadCount;
+
+    /**
+     * What a rescan changed in the database.
+     */
+    public static class Result {
+        private final HashSet<String> vanishedPaths = new HashSet<String>();
+        private final HashMap<String, Song> updatedSongs = new HashMap<String, Song>();
+        private final ArrayList<Song> addedSongs = new ArrayList<Song>();
+        private int unchangedCount;
+        private int invalidCount;
+        private long elapsedMillis;
+
+        /** @return the paths of the songs deleted since their files are gone or no longer valid */
+        public HashSet<String> getVanishedPaths() { return vanishedPaths; }
+        /** @return the parsed songs by path, for the files that changed */
+        public HashMap<String, Song> getUpdatedSongs() { return updatedSongs; }
+        /** @return the songs added from new files */
+        public ArrayList<Song> getAddedSongs() { return addedSongs; }
+        public int getUnchangedCount() { return unchangedCount; }
+        public int getInvalidCount() { return invalidCount; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        /**
+         * Gets the counts of the rescan, e.g. for a message dialog.
+         * @return a one line summary
+         */
+        public String getSummary() {
+            return addedSongs.size() + " added, " + updatedSongs.size() + " updated, "
+                    + vanishedPaths.size() + " removed, " + unchangedCount + " unchanged";
+        }
+    }
+
+    /**
+     * Constructs a rescanner, call execute() to start it.
+     */
+    public LibraryRescanner() {
+        this.threadCount = Integer.getInteger("mytunes.import.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    protected Result doInBackground() throws Exception {
+        long startTime = System.currentTimeMillis();
+        DatabaseHandler db = DatabaseHandler.getInstance();
+        Result result = new Result();
+
+        //1. stat every song file against its saved stamp
+        HashMap<String, FileStamp> savedStamps = db.getFileStamps();
+        ArrayList<String> changedPaths = new ArrayList<String>();
+        for (Map.Entry<String, FileStamp> entry : savedStamps.entrySet()) {
+            FileStamp current = FileStamp.of(entry.getKey());
+            if (current == null) {
+                result.vanishedPaths.add(entry.getKey());
+            } else if (!current.equals(entry.getValue())) {
+                changedPaths.add(entry.getKey());
+            } else {
+                result.unchangedCount++;
+            }
+        }
+        setProgress(20);
+
+        //2. look for new files in the imported folders
+        ArrayList<String> newPaths = new ArrayList<String>();
+        for (String folder : db.getLibraryFolders()) {
+            if (isCancelled()) {
+                return result;
+            }
+            findNewMp3Files(Paths.get(folder), savedStamps, newPaths);
+        }
+        setProgress(40);
+        System.out.println("[Rescan] " + changedPaths.size() + " changed, " + newPaths.size() + " new, "
+                + result.vanishedPaths.size() + " vanished, " + result.unchangedCount + " unchanged files.");
+
+        //3. parse only the changed and the new files
+        List<Song> changedSongs = parseAll(changedPaths, 40, 60);
+        List<Song> newSongs = parseAll(newPaths, 60, 80);
+        if (isCancelled()) {
+            return result;
+        }
+
+        //4. apply the changes, a changed file that is no longer a valid mp3 is dropped like a vanished one
+        ArrayList<Song> validChangedSongs = new ArrayList<Song>(changedSongs.size());
+        for (int i = 0; i < changedSongs.size(); i++) {
+            Song song = changedSongs.get(i);
+            if (song == null) {
+                result.invalidCount++;
+                result.vanishedPaths.add(changedPaths.get(i));
+            } else {
+                validChangedSongs.add(song);
+            }
+        }
+        if (!result.vanishedPaths.isEmpty()) {
+            db.deleteSongs(result.vanishedPaths);
+        }
+        if (!validChangedSongs.isEmpty() && db.updateSongs(validChangedSongs) >= 0) {
+            for (Song song : validChangedSongs) {
+                result.updatedSongs.put(song.getPath(), song);
+            }
+        }
+        setProgress(90);
+        addNewSongs(db, newSongs, result);
+        setProgress(100);
+
+        result.elapsedMillis = System.currentTimeMillis() - startTime;
+        System.out.println("[Rescan] Finished in " + result.elapsedMillis + " ms. " + result.getSummary());
+        return result;
+    }
+
+    /**
+     * Walks a folder tree for regular mp3 files that aren't in the library. A missing folder is skipped.
+     */
+    private void findNewMp3Files(Path folder, Map<String, FileStamp> knownPaths, List<String> newPaths) {
+        if (!Files.isDirectory(folder)) {
+            System.out.println("[Rescan] Library folder is gone. '" + folder + "'");
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".mp3"))
+                    .filter(Files::isRegularFile)
+                    .map(path -> path.toAbsolutePath().toString())
+                    .filter(path -> !knownPaths.containsKey(path))
+                    .forEach(newPaths::add);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parses files on the worker pool.
+     * @return the songs in the order of the paths, null for a file that is not a valid mp3
+     */
+    private List<Song> parseAll(List<String> paths, int progressFrom, int progressTo) throws Exception {
+        ArrayList<Song> songs = new ArrayList<Song>(paths.size());
+        if (paths.isEmpty()) {
+            return songs;
+        }
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(threadCount, 1));
+        try {
+            ArrayList<Future<Song>> futures = new ArrayList<Future<Song>>(paths.size());
+            for (String path : paths) {
+                futures.add(parsers.submit(() -> {
+                    Song song = new Song(path);
+                    return (song.getPath() == null) ? null : song;
+                }));
+            }
+            for (int i = 0; i < futures.size() && !isCancelled(); i++) {
+                songs.add(futures.get(i).get());
+                setProgress(progressFrom + (i + 1) * (progressTo - progressFrom) / futures.size());
+            }
+        } finally {
+            parsers.shutdownNow();
+        }
+        return songs;
+    }
+
+    private void addNewSongs(DatabaseHandler db, List<Song> newSongs, Result result) {
+        HashMap<String, Song> songsByPath = new HashMap<String, Song>();
+        for (Song song : newSongs) {
+            if (song == null) {
+                result.invalidCount++;
+            } else {
+                songsByPath.put(song.getPath(), song);
+            }
+        }
+        if (songsByPath.isEmpty()) {
+            return;
+        }
+        BulkInsertResult inserted = db.addSongs(songsByPath.values());
+        for (String path : inserted.getInserted()) {
+            result.addedSongs.add(songsByPath.get(path));
+        }
+    }
+}
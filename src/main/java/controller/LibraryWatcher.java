@@ -0,0 +1,298 @@
+package controller;
+
+import database.DatabaseHandler;
+import database.FileStamp;
+import database.LibraryChanges;
+import model.Song;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * LibraryWatcher keeps the library in sync with the watched music folders through a WatchService.
+ * Events are not applied one by one. The paths they touch are coalesced until no event came for
+ * the debounce window (-Dmytunes.watch.debounceMillis=..., 1000 by default), or at the latest after
+ * ten windows during a long burst such as copying thousands of files. Each flush parses the touched files,
+ * applies everything with DatabaseHandler.applyLibraryChanges() in a single transaction, and hands
+ * the result to the event dispatch thread in a single call, so a burst costs one table refresh per flush.
+ * If the WatchService overflows, the affected folders are compared with the saved file stamps instead.
+ */
+public class LibraryWatcher implements Runnable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 1000;
+    private static final int MAX_DEBOUNCE_WINDOWS = 10;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private final Consumer<LibraryChanges> onChanges;
+    private final long debounceMillis;
+    private final int threadCount;
+
+    //pending changes, only touched by the watcher thread
+    private final LinkedHashSet<Path> touchedFiles = new LinkedHashSet<Path>();
+    private final LinkedHashSet<Path> touchedDirs = new LinkedHashSet<Path>();  //deleted or overflowed
+    private long firstEventTime;
+    private long lastEventTime;
+
+    private volatile boolean running = true;
+    private Thread thread;
+    private List<String> initialFolders;    //registered on the watcher thread, off the EDT
+
+    /**
+     * Constructs a watcher, call start() to start watching.
+     * @param onChanges called on the event dispatch thread with the changes of each flush
+     */
+    public LibraryWatcher(Consumer<LibraryChanges> onChanges) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChanges = onChanges;
+        this.debounceMillis = Long.getLong("mytunes.watch.debounceMillis", DEFAULT_DEBOUNCE_MILLIS);
+        this.threadCount = Integer.getInteger("mytunes.import.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts watching the folders on a daemon thread.
+     * @param folders the music folders, each watched with all its sub folders
+     */
+    public synchronized void start(Collection<String> folders) {
+        initialFolders = new ArrayList<String>(folders);
+        thread = new Thread(this, "LibraryWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watches one more folder with all its sub folders, e.g. after it was imported.
+     * @param folder the music folder
+     */
+    public synchronized void watchFolder(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            System.out.println("[Watcher] Not a folder, not watched. '" + folder + "'");
+            return;
+        }
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            System.out.println("[Watcher] Watching '" + folder + "'");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the watcher thread. Pending changes are dropped, a rescan picks them up.
+     */
+    public void stop() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.put(key, dir.toAbsolutePath());
+    }
+
+    private synchronized Path getWatchedDir(WatchKey key) {
+        return watchedDirs.get(key);
+    }
+
+    private synchronized void unregister(WatchKey key) {
+        watchedDirs.remove(key);
+    }
+
+    @Override
+    public void run() {
+        for (String folder : initialFolders) {
+            watchFolder(Paths.get(folder));
+        }
+        try {
+            while (running) {
+                WatchKey key;
+                if (touchedFiles.isEmpty() && touchedDirs.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long now = System.currentTimeMillis();
+                    long wait = Math.min(lastEventTime + debounceMillis,
+                            firstEventTime + debounceMillis * MAX_DEBOUNCE_WINDOWS) - now;
+                    key = (wait > 0) ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
+                collectEvents(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //stopped
+        }
+        System.out.println("[Watcher] Stopped.");
+    }
+
+    /**
+     * Records the paths touched by the events of a key, only the latest state of each path matters.
+     */
+    private void collectEvents(WatchKey key) {
+        Path dir = getWatchedDir(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                System.out.println("[Watcher] Events lost, '" + dir + "' will be compared with the database.");
+                touchedDirs.add(dir);
+            } else {
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    //files may have been copied into it before it was registered
+                    watchFolder(path);
+                    touchedDirs.add(path);
+                } else if (isMp3(path)) {
+                    touchedFiles.add(path);
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    touchedDirs.add(path);  //maybe a folder of songs
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (touchedFiles.size() + touchedDirs.size() == 1) {
+                firstEventTime = now;
+            }
+            lastEventTime = now;
+        }
+        if (!key.reset()) {
+            unregister(key);
+        }
+    }
+
+    /**
+     * Turns the touched paths into one set of changes, saves them in one transaction
+     * and passes them to the event dispatch thread.
+     */
+    private void flush() {
+        long startTime = System.currentTimeMillis();
+        DatabaseHandler db = DatabaseHandler.getInstance();
+        HashSet<String> removedPaths = new HashSet<String>();
+        LinkedHashSet<String> changedPaths = new LinkedHashSet<String>();
+        if (!touchedDirs.isEmpty()) {
+            //compare the song files under the folders with the saved stamps
+            HashMap<String, FileStamp> savedStamps = db.getFileStamps();
+            for (Path dir : touchedDirs) {
+                String prefix = dir.toString() + dir.getFileSystem().getSeparator();
+                for (Map.Entry<String, FileStamp> entry : savedStamps.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        FileStamp current = FileStamp.of(entry.getKey());
+                        if (current == null) {
+                            removedPaths.add(entry.getKey());
+                        } else if (!current.equals(entry.getValue())) {
+                            changedPaths.add(entry.getKey());
+                        }
+                    }
+                }
+                findNewMp3Files(dir, savedStamps, changedPaths);
+            }
+        }
+        for (Path file : touchedFiles) {
+            String path = file.toString();
+            if (Files.isRegularFile(file)) {
+                changedPaths.add(path);
+            } else {
+                removedPaths.add(path);
+            }
+        }
+        touchedFiles.clear();
+        touchedDirs.clear();
+
+        //a file that can't be parsed (yet) is left as it is, its next event brings it back
+        List<Song> songs = parseAll(new ArrayList<String>(changedPaths));
+        if (songs.isEmpty() && removedPaths.isEmpty()) {
+            return;
+        }
+        LibraryChanges changes = db.applyLibraryChanges(songs, removedPaths);
+        System.out.println("[Watcher] Flushed in " + (System.currentTimeMillis() - startTime) + " ms: " + changes);
+        if (!changes.isEmpty()) {
+            SwingUtilities.invokeLater(() -> onChanges.accept(changes));
+        }
+    }
+
+    private void findNewMp3Files(Path dir, Map<String, FileStamp> knownPaths, Collection<String> newPaths) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(LibraryWatcher::isMp3)
+                    .filter(Files::isRegularFile)
+                    .map(Path::toString)
+                    .filter(path -> !knownPaths.containsKey(path))
+                    .forEach(newPaths::add);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parses the files on a pool of worker threads.
+     * @return the valid songs
+     */
+    private List<Song> parseAll(List<String> paths) {
+        ArrayList<Song> songs = new ArrayList<Song>(paths.size());
+        if (paths.isEmpty()) {
+            return songs;
+        }
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(Math.min(threadCount, paths.size()), 1));
+        try {
+            ArrayList<Future<Song>> futures = new ArrayList<Future<Song>>(paths.size());
+            for (String path : paths) {
+                futures.add(parsers.submit(() -> new Song(path)));
+            }
+            for (Future<Song> future : futures) {
+                Song song = future.get();
+                if (song.getPath() != null) {
+                    songs.add(song);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            parsers.shutdownNow();
+        }
+        return songs;
+    }
+
+    private static boolean isMp3(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().toLowerCase().endsWith(".mp3");
+    }
+}
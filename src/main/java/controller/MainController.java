@@ -1,12 +1,14 @@
 package controller;
 
 import database.DatabaseHandler;
-import javazoom.jlgui.basicplayer.BasicPlayer;
 import model.Playlist;
+import model.SearchIndex;
 import model.PlaylistLibrary;
 import model.Song;
+import model.SongArray;
 import model.SongLibrary;
 import view.ColorTheme;
+import view.ControlView;
 import view.MusicPlayerGUI;
 import view.SongListView;
 
@@ -23,7 +25,13 @@ import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This controller is a Supervising Controller or messenger
@@ -46,6 +54,7 @@ public class MainController {
 
     //Other Controllers
     private PlayerController playerControl;
+    private LibraryWatcher libraryWatcher;  //null if watching is off or not supported
 
     //...
     private int selectedRow;
@@ -66,7 +75,7 @@ public class MainController {
 
         //assign modules
         playerView = new MusicPlayerGUI(appName, 800, 600, "main", "library");
-        library = new SongLibrary(); //should always be up-to-date with db
+        library = SongLibrary.getInstance(); //filled by LibraryLoader, should always be up-to-date with db
         playlistLibrary = new PlaylistLibrary(); //should always be up-to-date with db
         playerView.addControlsMenuItemListener(new ControlsMenuItemListener());
         playerControl = new PlayerController(library, playerView);
@@ -87,6 +96,8 @@ public class MainController {
         //Add listeners to buttons and slider
         playerView.addPlayerControlButtonListener(new PlayerControlButtonListener());
         playerView.addVolumeSliderListener(new VolumeSliderListener());
+        playerView.addProgressBarListener(new ProgressBarListener());
+        playerView.addSearchFieldListener(new SearchFieldListener(playerView));
 
         //Add listeners to standard menu bar / popup menu items
         playerView.addMenuItemListener(new MenuItemListener());
@@ -120,13 +131,16 @@ public class MainController {
         playerView.getSongListFromTable();
 
         //sort the library on 'Title' column by default
-        RowSorter rowSorter = playerView.getSongListView().getSongTable().getRowSorter();
-        rowSorter.addRowSorterListener(new RowSorterListener());
+        RowSorter<?> rowSorter = playerView.getSongListView().getSongTable().getRowSorter();
+        rowSorter.addRowSorterListener(new RowSorterListener(playerView.getSongListView()));
         //rowSorter.toggleSortOrder(1);
         rowSorter.toggleSortOrder(1);
         //sort - update the library
         library.sortByColumn(SortOrder.ASCENDING,"Title");
 
+        //load the songs after the window is shown, the table fills in as rows arrive
+        new LibraryLoader().execute();
+
         //restore shown/hidden columns from last session
         //playerView.getSongListView().setColumnVisibility(DatabaseHandler.getInstance().getShowHideColumns(),
         //        playerView.getSongListView().getTableHeaderPopup());
@@ -138,7 +152,6 @@ public class MainController {
      */
     private void playAction() {
         //update the current song of the player
-        playerControl.setCurrSongIndex(selectedRow);
         playerControl.setCurrentSong(selectedSong);
 
         //play song
@@ -219,17 +232,17 @@ public class MainController {
 
                 switch (playerStatus) {
                     //Pause Action
-                    case BasicPlayer.PLAYING:
+                    case AudioEngine.PLAYING:
                         playerControl.pauseSong();
                         updatePlayBtnTextInAllWindow(MusicPlayerGUI.BTNTEXT_PLAY);
                         break;
                     //Resume Action
-                    case BasicPlayer.PAUSED:
+                    case AudioEngine.PAUSED:
                         playerControl.resumeSong();
                         updatePlayBtnTextInAllWindow(MusicPlayerGUI.BTNTEXT_PAUSE);
                         break;
                     //Play Action
-                    case BasicPlayer.STOPPED:
+                    case AudioEngine.STOPPED:
                     default:
                         playAction();
                         break;
@@ -269,6 +282,76 @@ public class MainController {
         }
     }
 
+    /**
+     * Pressing or dragging the progress bar shows the time under the mouse,
+     * releasing it moves the song to that time.
+     */
+    class ProgressBarListener extends MouseAdapter {
+        @Override
+        public void mousePressed(MouseEvent e) {
+            showDraggedTime(e);
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            showDraggedTime(e);
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            ControlView controlView = playerView.getControlView();
+            int millis = controlView.getProgressAt(e.getX());
+            controlView.releaseProgressView();
+            playerControl.seekSong(millis);
+        }
+
+        private void showDraggedTime(MouseEvent e) {
+            ControlView controlView = playerView.getControlView();
+            controlView.dragProgressView(controlView.getProgressAt(e.getX()));
+        }
+    }
+
+
+    /**
+     * SearchFieldListener searches the library as the text of the search field of a window changes,
+     * and filters the table of that window, showing the library or a playlist, to the songs found.
+     */
+    class SearchFieldListener implements DocumentListener {
+        private final MusicPlayerGUI window;
+
+        /**
+         * @param window the window of the search field
+         */
+        SearchFieldListener(MusicPlayerGUI window) {
+            this.window = window;
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            search();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            search();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            //attributes only, the text is the same
+        }
+
+        private void search() {
+            String query = window.getSongListView().getSearchField().getText();
+            long start = System.nanoTime();
+            SearchIndex.Result result = library.getSearchIndex().search(query);
+            long searched = System.nanoTime();
+            window.getSongListView().setSearchResult(result);
+            long filtered = System.nanoTime();
+            System.out.println("[Search] '" + query + "' found " + ((result == null) ? "all" : result.size())
+                    + ((result != null && result.isFuzzy()) ? " similarly spelled" : "") + " songs in " + (searched - start) / 1000 + " us, table filtered in " + (filtered - searched) / 1000 + " us");
+        }
+    }
 
     /**
      * MenuItemListener class implements
@@ -276,11 +359,15 @@ public class MainController {
      * by the name of the components.
      * "openSong"       Open Song (not in the library and play)
      * "lib-addSong"    Add Song To Library
+     * "lib-importFolder" Import Folder To Library
+     * "lib-rescan"     Rescan Library
      * "lib-deleteSong" Delete Song From Library
      * "newPlaylist"    New Playlist
      * "about"          About
      * "exit"           Exit
      * "addToPlaylist"  Add To Playlist
+     * "playNext"       Play Next (queue the selected songs right after the current song)
+     * "addToUpNext"    Add To Up Next (queue the selected songs after the songs already queued)
      */
     class MenuItemListener implements ActionListener {
         String menuName;
@@ -302,14 +389,18 @@ public class MainController {
                 chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
                 if (chooser.showOpenDialog(playerView) == JFileChooser.APPROVE_OPTION) {
                     String selectedPath = chooser.getSelectedFile().getAbsolutePath();
-                    Song newSong = new Song(selectedPath);
-                    if (newSong.getPath() == null) {
-                        System.out.println("[FileChooser] Not a valid file.\n");
-                        JOptionPane.showMessageDialog(null, "This file is not a valid " +
-                                "mp3 file.");
-                    } else {
-                        playerControl.playSong(newSong);
-                    }
+                    //parse the tags on the parser pool, play on the event dispatch thread
+                    AsyncLibraryService.getInstance().parseSongs(Collections.singletonList(selectedPath))
+                            .thenAcceptAsync(songs -> {
+                        Song newSong = songs.get(0);
+                        if (newSong.getPath() == null) {
+                            System.out.println("[FileChooser] Not a valid file.\n");
+                            JOptionPane.showMessageDialog(null, "This file is not a valid " +
+                                    "mp3 file.");
+                        } else {
+                            playerControl.playSong(newSong);
+                        }
+                    }, AsyncLibraryService.EDT);
                 }
 
             } else if (menuName.equals("lib-addSong")) {
@@ -320,120 +411,58 @@ public class MainController {
                 //save windowname in case loosing focus when choosing song
                 String windowName = focusedWindowName;
                 if (chooser.showOpenDialog(playerView) == JFileChooser.APPROVE_OPTION) {
-                    String selectedPath = chooser.getSelectedFile().getAbsolutePath();
-                    Song newSong = new Song(selectedPath);
-                    //Check if the chosen file is valid input
-                    if (newSong.getPath() == null) {
-                        System.out.println("[FileChooser] Not a valid file.\n");
-                        JOptionPane.showMessageDialog(null, "This file is not a valid " +
-                                "mp3 file.");
-                    } else {
-                        if (!windowName.equals("main")) {
-                            //TODO suspicious a bit...
-                            playlistLibrary.getPlaylistByName(windowName).addSong(newSong);
-                            getPlaylistWindow(windowName).
-                                    updateTableView(playlistLibrary.getPlaylistByName(windowName),
-                                            getPlaylistWindow(windowName).getSongTable());
-                        }
-                        library.addSong(newSong);
-
-                        playerView.updateTableView(library, playerView.getSongTable());
-                        playerControl.updateSongList(library);
-                    }
+                    List<String> paths = new ArrayList<String>();
+                    paths.add(chooser.getSelectedFile().getAbsolutePath());
+                    //added to the playlist too if it was chosen on a playlist window
+                    Playlist playlist = windowName.equals("main") ? null : playlistLibrary.getPlaylistByName(windowName);
+                    addSongFilesAction(paths, playlist, "This file is not a valid mp3 file.");
+                }
 
+            } else if (menuName.equals("lib-importFolder")) {
+                //[Import Folder To Library] menu actions
+                System.out.println("[Menu] Import Folder To Library is pressed.");
+                JFileChooser chooser = new JFileChooser();
+                chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                if (chooser.showOpenDialog(playerView) == JFileChooser.APPROVE_OPTION) {
+                    importFolderAction(chooser.getSelectedFile());
                 }
 
+            } else if (menuName.equals("lib-rescan")) {
+                //[Rescan Library] menu actions
+                System.out.println("[Menu] Rescan Library is pressed.");
+                rescanLibraryAction();
+
             } else if (menuName.equals("lib-deleteSong")) {
                 //[Delete Song From Library] menu actions
                 if (focusedWindowName.equals("main")) {
                     if (playerView.getDisplayingListName().equals("library")) {
                     //library is displaying on the main window
                         System.out.println("[Menu] Delete Song is pressed.");
-                        int counterDeletedSongs = 0;
-                        int[] selectedRows = playerView.getSongTable().getSelectedRows();
-                        for (int i = 0; i < selectedRows.length; i++) {
-                            selectedRows[i] = selectedRows[i] - counterDeletedSongs;
-                            boolean isRowInbound = (selectedRows[i] >= 0) && (selectedRows[i] < library.size());
-
-                            if (isRowInbound) {
-                                counterDeletedSongs++;
-                                Song selectedSong = library.get(selectedRows[i]);
-                                System.out.println("row:" + selectedRows[i] + " is selected to delete.");
-
-                                //delete song from the library
-                                library.deleteSong(selectedSong);
-                                //delete song from all playlists
-                                playlistLibrary.deleteSongFromAllPlaylists(selectedSong);
-                                //update the view
-                                playerView.updateTableView(library, playerView.getSongTable());
-                                playerControl.updateSongList(library);
-                                //reflect deleted song to all opened playlist window
-                                for (String plistName : playlistLibrary.getAllPlaylistNames()) {
-                                    if (getPlaylistWindow(plistName) != null) {
-                                        getPlaylistWindow(plistName).
-                                                updateTableView(playlistLibrary.getPlaylistByName(plistName),
-                                                        getPlaylistWindow(plistName).getSongTable());
-                                    }
-                                }
-
-                            } else {
-                                System.out.println("row:" + selectedRows[i] + ", nothing selected to delete.");
+                        HashSet<String> selectedPaths = new HashSet<String>();
+                        for (int row : playerView.getSongListView().getSelectedModelRows()) {
+                            if ((row >= 0) && (row < library.size())) {
+                                System.out.println("row:" + row + " is selected to delete.");
+                                selectedPaths.add(library.get(row).getPath());
                             }
                         }
+                        //delete from the database first, the foreign keys delete them from all playlists
+                        AsyncLibraryService.getInstance().deleteSongs(selectedPaths).thenAcceptAsync(deleted -> {
+                            if (deleted >= 0) {
+                                applyLibraryChanges(selectedPaths, new HashMap<String, Song>(), new ArrayList<Song>());
+                            }
+                        }, AsyncLibraryService.EDT);
                     } else {
                     //playlist is displaying on the main window
-                        int[] selectedRows = playerView.getSongTable().getSelectedRows();
                         String playlistName = playerView.getDisplayingListName();
-                        int counterDeletedSongs = 0;
-                        for (int i = 0; i < selectedRows.length; i++) {
-                            selectedRows[i] = selectedRows[i]-counterDeletedSongs;
-                            boolean isRowInbound = (selectedRows[i] >= 0) &&
-                                    (selectedRows[i] < playlistLibrary.getPlaylistByName(playlistName).
-                                            getSongList().size());
-                            if (isRowInbound) {
-                                counterDeletedSongs++;
-                                Song selectedSong = playlistLibrary.getPlaylistByName(playlistName).
-                                        getSongList().get(selectedRows[i]);
-                                playlistLibrary.getPlaylistByName(playlistName).deleteSong(selectedSong);
-
-                            }
-                        }
-                        //TODO refactoring point
-                        playerView.updateTableView(playlistLibrary.getPlaylistByName(playlistName),
-                                playerView.getSongTable());
-                        getPlaylistWindow(playlistName).updateTableView(
-                                playlistLibrary.getPlaylistByName(playlistName),
-                                getPlaylistWindow(playlistName).getSongTable());
+                        deleteSongsFromPlaylistAction(playlistLibrary.getPlaylistByName(playlistName),
+                                playerView.getSongListView().getSelectedModelRows());
                     }
                 } else {
                 //[Delete Song] menu actions on the playlist window
                     //TODO Delete Song from Playlist should be separated (from delete song from library) for playlist in main window or playlist window
                     System.out.println("[PlaylistWindow] Delete Song is pressed");
-                    int counterDeletedSongs = 0;
-                    int[] selectedRows = getPlaylistWindow(focusedWindowName).getSongTable().getSelectedRows();
-                    for (int i = 0; i < selectedRows.length; i++) {
-                        selectedRows[i] = selectedRows[i] - counterDeletedSongs;
-                        boolean isRowInbound = (selectedRows[i] >= 0) &&
-                                (selectedRows[i] < playlistLibrary.getPlaylistByName(focusedWindowName).getSongList().size());
-                        if (isRowInbound) {
-                            counterDeletedSongs++;
-                            Song selectedSong =
-                                    playlistLibrary.getPlaylistByName(focusedWindowName).getSongList().get(selectedRows[i]);
-                            System.out.println("[PlaylistWindow] row: " + selectedRows[i] + " is selected to delete.");
-
-                            //delete song from playlist
-                            playlistLibrary.getPlaylistByName(focusedWindowName).deleteSong(selectedSong);
-
-                        } else {
-                            System.out.println("[PlaylistWindow] row: " + selectedRows[i] + " nothing selected to delete.");
-                        }
-                    }
-                    //TODO refactoring point
-                    getPlaylistWindow(focusedWindowName).updateTableView(
-                            playlistLibrary.getPlaylistByName(focusedWindowName),
-                            getPlaylistWindow(focusedWindowName).getSongTable());
-                    playerView.updateTableView(playlistLibrary.getPlaylistByName(focusedWindowName),
-                            playerView.getSongTable());
+                    deleteSongsFromPlaylistAction(playlistLibrary.getPlaylistByName(focusedWindowName),
+                            getPlaylistWindow(focusedWindowName).getSongListView().getSelectedModelRows());
                 }
 
             } else if (menuName.equals("about")) {
@@ -453,24 +482,35 @@ public class MainController {
                 String msg = "Name the Playlist";
                 String playlistName = JOptionPane.showInputDialog(playerView, msg, title, JOptionPane.PLAIN_MESSAGE);
                 //ask again if the name exists
-                while (playlistLibrary.exists(playlistName) || playlistName.equalsIgnoreCase("library")) {
+                while (playlistName != null
+                        && (playlistLibrary.exists(playlistName) || playlistName.equalsIgnoreCase("library"))) {
                     msg = "Playlist \"" + playlistName + "\" already exists.\nName the Playlist";
                     playlistName = JOptionPane.showInputDialog(playerView, msg, title, JOptionPane.PLAIN_MESSAGE);
                 }
-                //name
-                playlistLibrary.addPlaylist(playlistName);
-                //update side panel
-                playerView.getSideView().updatePlaylistTree(playlistLibrary.getAllPlaylistNames());
-                //update playlists in the popup menu
-                playerView.setAddToPlaylistPopupMenuItem(playlistLibrary.getAllPlaylistNames(), this);
-                //select the playlist in the side panel tree
-                playerView.getSideView().getLibraryTree().clearSelection();
-                int lastRow = playerView.getSideView().getPlaylistTree().getRowCount() - 1;
-                playerView.getSideView().getPlaylistTree().setSelectionRow(lastRow);
-                //open it on the main window
-                Playlist playlist = playlistLibrary.getPlaylistByName(playlistName);
-                playerView.updateTableView(playlist, playerView.getSongTable());
-                playerControl.updateSongList(playlist.getSongList());
+                if (playlistName == null) {
+                    return;     //canceled
+                }
+                //name, saved in the database first
+                final String newPlaylistName = playlistName;
+                final MenuItemListener menuListener = this;
+                AsyncLibraryService.getInstance().addPlaylist(newPlaylistName).thenAcceptAsync(added -> {
+                    if (!added) {
+                        return;
+                    }
+                    playlistLibrary.add(new Playlist(newPlaylistName));
+                    //update side panel
+                    playerView.getSideView().updatePlaylistTree(playlistLibrary.getAllPlaylistNames());
+                    //update playlists in the popup menu
+                    playerView.setAddToPlaylistPopupMenuItem(playlistLibrary.getAllPlaylistNames(), menuListener);
+                    //select the playlist in the side panel tree
+                    playerView.getSideView().getLibraryTree().clearSelection();
+                    int lastRow = playerView.getSideView().getPlaylistTree().getRowCount() - 1;
+                    playerView.getSideView().getPlaylistTree().setSelectionRow(lastRow);
+                    //open it on the main window
+                    Playlist playlist = playlistLibrary.getPlaylistByName(newPlaylistName);
+                    playerView.updateTableView(playlist, playerView.getSongTable());
+                    playerControl.updateSongList(playlist.getSongList());
+                }, AsyncLibraryService.EDT);
 
             } else if (menuName.equals("exit")) {
                 //[Exit] menu actions
@@ -482,23 +522,38 @@ public class MainController {
                 System.out.println("[PopupMenu] Add To Playlist \"" + playlistName + "\" is clicked.");
                 Playlist playlist = playlistLibrary.getPlaylistByName(playlistName);
                 if (playlist != null) {
-                    int[] selectedRow = playerView.getSongTable().getSelectedRows();
-
-                    for (int i = 0; i < selectedRow.length; i++) {
-                        boolean isRowInbound = (selectedRow[i] >= 0) && (selectedRow[i] < library.size());
-
-                        if (isRowInbound) {
-                            Song selectedSong = library.get(selectedRow[i]);
-                            System.out.println("row:" + selectedRow[i] + " is selected to be added.");
-                            playlist.addSong(selectedSong);
-                            //update the opened playlist window view where the song was added
-                            if (getPlaylistWindow(playlistName) != null) {
-                                getPlaylistWindow(playlistName).
-                                        updateTableView(playlistLibrary.getPlaylistByName(playlistName),
-                                                getPlaylistWindow(playlistName).getSongTable());
-                            }
+                    List<Song> selectedSongs = new ArrayList<Song>();
+                    for (int row : playerView.getSongListView().getSelectedModelRows()) {
+                        if ((row >= 0) && (row < library.size())) {
+                            System.out.println("row:" + row + " is selected to be added.");
+                            selectedSongs.add(library.get(row));
                         } else {
-                            System.out.println("row:" + selectedRow[i] + ", nothing selected to add.");
+                            System.out.println("row:" + row + ", nothing selected to add.");
+                        }
+                    }
+                    AsyncLibraryService.getInstance().addSongsToPlaylist(playlist, selectedSongs).thenAcceptAsync(added -> {
+                        playlist.getSongList().addAll(added);
+                        System.out.println("[Playlist: " + playlist.getName() + "] Added " + added.size() + " songs.");
+                        //update the opened playlist window view where the songs were added
+                        refreshSongViews();
+                    }, AsyncLibraryService.EDT);
+                }
+
+            } else if (menuName.equals("playNext") || menuName.equals("addToUpNext")) {
+                //[Play Next] & [Add To Up Next] menu actions on the focused window
+                List<Song> shownSongs = focusedWindow.getSongListView().getTableModel().getSongs();
+                int[] rows = focusedWindow.getSongListView().getSelectedModelRows();
+                if (menuName.equals("playNext")) {
+                    //queued in reverse so the selected songs play in the order shown
+                    for (int i = rows.length - 1; i >= 0; i--) {
+                        if ((rows[i] >= 0) && (rows[i] < shownSongs.size())) {
+                            playerControl.playSongNext(shownSongs.get(rows[i]));
+                        }
+                    }
+                } else {
+                    for (int row : rows) {
+                        if ((row >= 0) && (row < shownSongs.size())) {
+                            playerControl.enqueueSong(shownSongs.get(row));
                         }
                     }
                 }
@@ -658,6 +713,7 @@ public class MainController {
                 row = table.getSelectedRow();
                 isRowInbound = row >= 0 && row < table.getRowCount();
                 if (isRowInbound) {
+                    row = table.convertRowIndexToModel(row);    //the rows may be filtered by a search
                     //get the song from library or playlist
                     if(displaying.equals("library")){
                         selectedSong = library.get(row);
@@ -731,8 +787,9 @@ public class MainController {
                 if(!e.isPopupTrigger()) {   //exclude right click
                     if ((e.getClickCount() == 2) && !e.isConsumed()) {
                         System.out.println("[Table] double clicked");
-                        selectedSong = playerControl.getSongList().get(row);
-                        selectedRow = row;
+                        int index = source.convertRowIndexToModel(row);    //the rows may be filtered by a search
+                        selectedSong = playerControl.getSongList().get(index);
+                        selectedRow = index;
                         playAction();
                     }
                 }
@@ -741,23 +798,304 @@ public class MainController {
     }
 
     /**
-     * RowSorterListener also triggers sorting on the library/playlist object
+     * Sorts the library in the order of the main table view, since rows are selected by view index.
+     * When songs were only appended to a sorted library, this is a merge rather than a full sort.
+     */
+    private void sortLibraryLikeTable() {
+        List<? extends RowSorter.SortKey> sortKeys = playerView.getSongTable().getRowSorter().getSortKeys();
+        if (!sortKeys.isEmpty()) {
+            RowSorter.SortKey key = sortKeys.get(0);
+            library.sortByColumn(key.getSortOrder(), SongListView.columnHeader[key.getColumn()]);
+        }
+    }
+
+    /**
+     * Action of "Import Folder To Library".
+     * Imports all mp3 files under the folder with a FolderImporter, showing the progress in a ProgressMonitor
+     * which also cancels the import. Imported songs show up in the library as they are saved.
+     * @param folder the folder to be imported
+     */
+    private void importFolderAction(File folder) {
+        //snapshot of the library for the importer thread
+        HashSet<String> knownPaths = new HashSet<String>(library.size() * 2);
+        for (Song song : library) {
+            knownPaths.add(song.getPath());
+        }
+        FolderImporter importer = new FolderImporter(folder.toPath(), knownPaths, songs -> {
+            library.addLoadedSongs(songs);
+            if (playerView.getDisplayingListName().equals("library")) {
+                //a sorted table places the rows, and the RowSorterListener sorts the library like it
+                playerView.appendToTableView(songs);
+            }
+        });
+        ProgressMonitor monitor = new ProgressMonitor(playerView, "Importing '" + folder.getName() + "'",
+                "Looking for mp3 files...", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        //the monitor has no listener for its Cancel button, so it is polled
+        Timer cancelCheck = new Timer(250, evt -> {
+            if (monitor.isCanceled()) {
+                importer.cancel(false);
+            }
+        });
+        importer.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+                monitor.setNote(importer.getImportedCount() + " of " + importer.getFileCount() + " songs imported");
+            } else if ("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.DONE) {
+                cancelCheck.stop();
+                monitor.close();
+                if (playerView.getDisplayingListName().equals("library")) {
+                    playerControl.updateSongList(library);
+                }
+                if (libraryWatcher != null) {
+                    libraryWatcher.watchFolder(folder.toPath().toAbsolutePath());
+                }
+                JOptionPane.showMessageDialog(playerView, (importer.isCancelled() ? "Import cancelled. " : "")
+                        + importer.getSummary() + ".");
+            }
+        });
+        cancelCheck.start();
+        importer.execute();
+    }
+
+    /**
+     * Action of "Rescan Library".
+     * Runs a LibraryRescanner and applies its changes to the library, the playlists and the open views.
+     */
+    private void rescanLibraryAction() {
+        LibraryRescanner rescanner = new LibraryRescanner();
+        ProgressMonitor monitor = new ProgressMonitor(playerView, "Rescanning the library",
+                "Checking files...", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        Timer cancelCheck = new Timer(250, evt -> {
+            if (monitor.isCanceled()) {
+                rescanner.cancel(false);
+            }
+        });
+        rescanner.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+            } else if ("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.DONE) {
+                cancelCheck.stop();
+                monitor.close();
+                if (rescanner.isCancelled()) {
+                    return;
+                }
+                try {
+                    LibraryRescanner.Result result = rescanner.get();
+                    applyLibraryChanges(result.getVanishedPaths(), result.getUpdatedSongs(), result.getAddedSongs());
+                    JOptionPane.showMessageDialog(playerView, "Rescan finished. " + result.getSummary() + ".");
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        cancelCheck.start();
+        rescanner.execute();
+    }
+
+    /**
+     * Starts a LibraryWatcher on the folders of the library.
+     * Each flush of its changes arrives here once, on the event dispatch thread.
+     */
+    private void startLibraryWatcher() {
+        try {
+            libraryWatcher = new LibraryWatcher(changes -> {
+                HashMap<String, Song> updatedSongs = new HashMap<String, Song>();
+                for (Song song : changes.getUpdated()) {
+                    updatedSongs.put(song.getPath(), song);
+                }
+                applyLibraryChanges(new HashSet<String>(changes.getRemoved()), updatedSongs, changes.getAdded());
+            });
+            libraryWatcher.start(library.getWatchedFolders());
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("[Watcher] Folders can't be watched: " + e.getMessage());
+            libraryWatcher = null;
+        }
+    }
+
+    /**
+     * Applies changes already saved in the database, by a rescan or the LibraryWatcher,
+     * to the library, the playlists and the views, refreshing each table once.
+     */
+    private void applyLibraryChanges(Set<String> removedPaths, Map<String, Song> updatedSongs, List<Song> addedSongs) {
+        library.applyChanges(removedPaths, updatedSongs, addedSongs);
+        sortLibraryLikeTable();
+        //the playlists share the songs of the library, so they already have the new tags
+        for (Playlist playlist : playlistLibrary) {
+            playlist.getSongList().removeByPaths(removedPaths);
+        }
+        refreshSongViews();
+    }
+
+    /**
+     * Refreshes the main window and the opened playlist windows after the songs in memory changed,
+     * and gives the player the list shown on the main window.
+     */
+    private void refreshSongViews() {
+        for (MusicPlayerGUI playlistWindow : playlistWindowArray) {
+            Playlist playlist = playlistLibrary.getPlaylistByName(playlistWindow.getDisplayingListName());
+            if (playlist != null) {
+                playlistWindow.updateTableView(playlist, playlistWindow.getSongTable());
+            }
+        }
+        String displaying = playerView.getDisplayingListName();
+        if (displaying.equals("library")) {
+            playerView.updateTableView(library, playerView.getSongTable());
+            playerControl.updateSongList(library);
+        } else if (playlistLibrary.getPlaylistByName(displaying) != null) {
+            Playlist playlist = playlistLibrary.getPlaylistByName(displaying);
+            playerView.updateTableView(playlist, playerView.getSongTable());
+            playerControl.updateSongList(playlist.getSongList());
+        }
+    }
+
+    /**
+     * Parses mp3 files and adds them to the library, and optionally to a playlist, off the event dispatch thread.
+     * The songs in memory and the views are updated when the database is done.
+     * @param paths absolute paths of the files
+     * @param playlist the playlist to add the songs to, null to add them to the library only
+     * @param invalidMessage shown if any file is not a valid mp3 file
+     */
+    private void addSongFilesAction(List<String> paths, Playlist playlist, String invalidMessage) {
+        AsyncLibraryService.getInstance().addSongFiles(paths, playlist).thenAcceptAsync(result -> {
+            library.addLoadedSongs(result.getAddedToLibrary());
+            if (playlist != null) {
+                //the playlist shares the song objects of the library
+                for (Song song : result.getAddedToPlaylist()) {
+                    Song inLibrary = library.getSongByPath(song.getPath());
+                    playlist.getSongList().add((inLibrary == null) ? song : inLibrary);
+                }
+            }
+            sortLibraryLikeTable();
+            refreshSongViews();
+            if (result.getInvalidCount() > 0) {
+                System.out.println("[AddSongs] Added " + result.getParsed().size() + " songs out of "
+                        + paths.size() + " files.\n");
+                JOptionPane.showMessageDialog(playerView, invalidMessage, "Notice", JOptionPane.PLAIN_MESSAGE);
+            }
+        }, AsyncLibraryService.EDT);
+    }
+
+    /**
+     * Deletes the songs in the selected rows from a playlist, from the database first
+     * off the event dispatch thread, then from memory and the views.
+     * @param playlist the playlist shown in the table
+     * @param selectedRows the selected rows of the table
+     */
+    private void deleteSongsFromPlaylistAction(Playlist playlist, int[] selectedRows) {
+        if (playlist == null) {
+            return;
+        }
+        List<Song> selectedSongs = new ArrayList<Song>();
+        for (int row : selectedRows) {
+            if ((row >= 0) && (row < playlist.getSongList().size())) {
+                System.out.println("[Playlist] row: " + row + " is selected to delete.");
+                selectedSongs.add(playlist.getSongList().get(row));
+            }
+        }
+        AsyncLibraryService.getInstance().deleteSongsFromPlaylist(playlist, selectedSongs).thenAcceptAsync(success -> {
+            //the database deleted the first occurrence of each song, so does the list
+            for (Song song : selectedSongs) {
+                playlist.getSongList().remove(song);
+            }
+            System.out.println("[Playlist: " + playlist.getName() + "] Deleted " + selectedSongs.size() + " songs.");
+            refreshSongViews();
+        }, AsyncLibraryService.EDT);
+    }
+
+    /**
+     * LibraryLoader streams the songs from the database on a background thread
+     * and adds them to the library and the main table view in chunks on the event dispatch thread.
+     * The chunks are not sorted here: if the table is sorted, the sorter puts the new rows in place
+     * and the RowSorterListener sorts the library like it, with a single model event.
+     */
+    class LibraryLoader extends SwingWorker<Integer, Song> {
+        private long startTime;
+
+        @Override
+        protected Integer doInBackground() {
+            startTime = System.currentTimeMillis();
+            return DatabaseHandler.getInstance().forEachSong(this::publish);
+        }
+
+        @Override
+        protected void process(List<Song> songs) {
+            library.addLoadedSongs(songs);
+            if (playerView.getDisplayingListName().equals("library")) {
+                playerView.appendToTableView(songs);
+            }
+        }
+
+        @Override
+        protected void done() {
+            System.out.println("[Library] Loaded " + library.size() + " songs in "
+                    + (System.currentTimeMillis() - startTime) + " ms.");
+            SearchIndex searchIndex = library.getSearchIndex();
+            System.out.println("[Search] Indexed " + searchIndex.getTokenCount() + " tokens, "
+                    + searchIndex.getFuzzyTokenCount() + " looked up for misspellings.");
+            //keep the library in sync with the imported folders (-Dmytunes.watch=false to turn it off)
+            if (!"false".equals(System.getProperty("mytunes.watch"))) {
+                startLibraryWatcher();
+            }
+        }
+    }
+
+    /**
+     * RowSorterListener also triggers sorting on the library/playlist object shown in a table,
+     * whenever the sorter of the table sorts it.
      */
     class RowSorterListener implements javax.swing.event.RowSorterListener {
+        private final SongListView songListView;
+        private boolean resyncing = false;
+
+        /**
+         * @param songListView the view whose sorter is listened to
+         */
+        RowSorterListener(SongListView songListView) {
+            this.songListView = songListView;
+        }
+
+        /**
+         * Rows are selected by view index and played in list order, so the list shown (library or playlist)
+         * is sorted like the view. The model reads the list directly, so after sorting the list
+         * the sorter is told once and its new mapping is the identity.
+         */
         @Override
         public void sorterChanged(RowSorterEvent e) {
-            if (e.getType() == RowSorterEvent.Type.SORTED) {
-                System.out.println("sorterChanged... ");
-                for (int i = 0; i < e.getSource().getSortKeys().size(); i++) {
-                    RowSorter.SortKey k = (RowSorter.SortKey) e.getSource().getSortKeys().get(i);
-                    int col = k.getColumn();
-                    System.out.println("column:" + col + " '" + SongListView.columnHeader[col] + "' " + k.getSortOrder());
-                }
+            if (e.getType() != RowSorterEvent.Type.SORTED || resyncing || e.getSource().getSortKeys().isEmpty()) {
+                return;
+            }
+            RowSorter<?> sorter = e.getSource();
+            if (isInModelOrder(sorter)) {
+                return;     //e.g. rows deleted or updated in place
+            }
+            List<Song> songs = songListView.getTableModel().getSongs();
+            if (!(songs instanceof SongArray)) {
+                return;
+            }
+            RowSorter.SortKey recentKey = sorter.getSortKeys().get(0);
+            System.out.println("sorterChanged... column:" + recentKey.getColumn() + " '"
+                    + SongListView.columnHeader[recentKey.getColumn()] + "' " + recentKey.getSortOrder());
+            ((SongArray) songs).sortByColumn(recentKey.getSortOrder(), SongListView.columnHeader[recentKey.getColumn()]);
+            resyncing = true;
+            try {
+                songListView.getTableModel().fireTableDataChanged();
+            } finally {
+                resyncing = false;
+            }
+        }
 
-                RowSorter.SortKey recentKey = (RowSorter.SortKey) e.getSource().getSortKeys().get(0);
-                //TODO: library should be changed to the corresponding SongArray (library/playlist)
-                library.sortByColumn(recentKey.getSortOrder(), SongListView.columnHeader[recentKey.getColumn()]);
+        /**
+         * Checks if the rows shown are in the order of the list, skipping the rows hidden by a search.
+         */
+        private boolean isInModelOrder(RowSorter<?> sorter) {
+            for (int i = 1; i < sorter.getViewRowCount(); i++) {
+                if (sorter.convertRowIndexToModel(i) < sorter.convertRowIndexToModel(i - 1)) {
+                    return false;
+                }
             }
+            return true;
         }
     }
     /**
@@ -795,9 +1133,8 @@ public class MainController {
         @Override
         public void itemStateChanged(ItemEvent e) {
             boolean[] visibility = new boolean[5];
-            for (int i = 0; i < playerView.getSongListView().getTableHeaderPopup().getComponentCount(); i++) {
-                JCheckBoxMenuItem item = (JCheckBoxMenuItem) playerView.getSongListView().
-                        getTableHeaderPopup().getComponent(i);
+            for (int i = 0; i < SongListView.getTableHeaderPopup().getComponentCount(); i++) {
+                JCheckBoxMenuItem item = (JCheckBoxMenuItem) SongListView.getTableHeaderPopup().getComponent(i);
                 System.out.println("Item changed: " + item.getText());
                 playerView.updateTableView(library, playerView.getSongTable());
                 for (int j = 0; j < playlistWindowArray.size(); j++) {
@@ -826,7 +1163,8 @@ public class MainController {
                 */
                 if (i > 0) visibility[i-1] = item.isSelected();
             }
-            DatabaseHandler.getInstance().saveShowHideColumns(visibility);
+            AsyncLibraryService.getInstance().supplyDatabase(
+                    () -> DatabaseHandler.getInstance().saveShowHideColumns(visibility));
         }
 
     }
@@ -852,68 +1190,24 @@ public class MainController {
             //bring the target window to the front
             targetWindow.toFront();
 
-            boolean invalidFilesFound = false;
-            String filePath;
-            int successCount = 0;
-            int draggedCount = 0;
-            int droppedSongsCount = 0;
+            Playlist displayedPlaylist = displaying.equals("library") ? null : playlistLibrary.getPlaylistByName(displaying);
+            String invalidFilesMessage = "Some files have not been added\nsince they are not valid mp3 files.";
 
             evt.acceptDrop(DnDConstants.ACTION_COPY);
-            List<File> droppedFiles = null;
+            List<?> droppedFiles = null;
             String droppedSongs = null;
             try {
                 if (evt.getTransferable().isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
                 //Drag-and-Drop mp3 files to the app
-                    droppedFiles = (List<File>) evt.getTransferable()
+                    droppedFiles = (List<?>) evt.getTransferable()
                             .getTransferData(DataFlavor.javaFileListFlavor);
-                    draggedCount = droppedFiles.size();
-                    for (File file : droppedFiles) {
-                        filePath = file.getAbsolutePath();
-                        Song newSong = new Song(filePath);
-                        if (newSong.getPath() == null) {
-                            //not a valid song file
-                            System.out.println("[DragDrop] Not a valid file. '" + filePath + "'\n");
-                            invalidFilesFound = true;
-                        } else {
-                            //add the song to the library
-                            //if library successfully adds the song
-                            //which is valid mp3 and not present in library..
-                            if(library.addSong(newSong) != SongLibrary.ADDSONG_FILEPATH_NULL) {
-                                successCount++;
-
-                                if (!displaying.equals("library")) {
-                                //if displaying a playlist on the target window(either main or new)
-                                    //add the song also to the playlist
-                                    Playlist playlist = playlistLibrary.getPlaylistByName(displaying);
-                                    playlist.addSong(newSong);
-                                    //update the view and the player control
-                                    targetWindow.updateTableView(playlist, targetWindow.getSongTable());
-                                    playerControl.updateSongList(playlist.getSongList());
-
-                                    //if library is on the main window
-                                    if(playerView.getDisplayingListName().equals("library")) {
-                                        //also update the view of the main window
-                                        playerView.updateTableView(library, playerView.getSongTable());
-                                    } else {
-                                    //if playlist is opened in main window
-                                        playerView.updateTableView(playlist, playerView.getSongTable());
-                                    }
-
-                                    //update a playlist window if the playlist is also opened in a window
-                                    if (getPlaylistWindow(displaying) != null) {
-                                        getPlaylistWindow(displaying).updateTableView(playlist,
-                                                getPlaylistWindow(displaying).getSongTable());
-                                    }
-
-                                } else {
-                                //if displaying library on the targetWindow
-                                    //update the view and the player control
-                                    targetWindow.updateTableView(library, targetWindow.getSongTable());
-                                    playerControl.updateSongList(library);
-                                }
-                            }
-                        }
+                    //parsed and saved off the event dispatch thread, in one batch
+                    List<String> paths = new ArrayList<String>(droppedFiles.size());
+                    for (Object file : droppedFiles) {
+                        paths.add(((File) file).getAbsolutePath());
                     }
+                    //if displaying a playlist on the target window (either main or new), add the songs also to it
+                    addSongFilesAction(paths, displayedPlaylist, invalidFilesMessage);
 
                 } else if (evt.getTransferable().isDataFlavorSupported(DataFlavor.stringFlavor)) {
                 //Drag-and-Drop inter windows
@@ -921,43 +1215,15 @@ public class MainController {
                             getTransferData(DataFlavor.stringFlavor);
 
                     System.out.println("[DragDrop] string transferable" + droppedSongs);
-                    draggedCount = droppedSongs.split("\n").length;
                     //TODO drag&drop between windows stopped working.
                     // Maybe because the string doesn't contain the content of hidden columns.
+                    List<String> paths = new ArrayList<String>();
                     for (String song : droppedSongs.split("\n")) {
                         String songPath = song.split("\t")[0];
                         System.out.println("[DragDrop] song name is " + songPath);
-                        Song addedSong = new Song(songPath);
-                        if (addedSong == null) {
-                            invalidFilesFound = true;
-                        } else {
-                            if (displaying.equals("library")) {
-                            //to library
-                                library.addSong(addedSong);
-                                System.out.println("Song was added to the library");
-                                targetWindow.updateTableView(library, targetWindow.getSongTable());
-                                playerControl.updateSongList(library);
-                            } else {
-                            //to playlist
-                                Playlist playlist = playlistLibrary.getPlaylistByName(displaying);
-                                playlist.addSong(addedSong);
-                                System.out.println("Song was added to the playlist" + displaying);
-                                //update the view
-                                targetWindow.updateTableView(playlist, targetWindow.getSongTable());
-                                //TODO refactoring point for the update
-                                if(playerView.getDisplayingListName().equals(displaying)) {
-                                    //if the main window is showing the same playlist
-                                    playerView.updateTableView(playlist, playerView.getSongTable());
-                                }
-                                playerControl.updateSongList(playlist.getSongList());
-                            }
-                        }
+                        paths.add(songPath);
                     }
-                }
-                if (invalidFilesFound) {
-                    System.out.println("[DragDrop] Added " + successCount + " songs out of " + draggedCount + " files.\n");
-                    String msg = "Some files have not been added\nsince they are not valid mp3 files.";
-                    JOptionPane.showMessageDialog(playerView, msg, "Notice", JOptionPane.PLAIN_MESSAGE);
+                    addSongFilesAction(paths, displayedPlaylist, invalidFilesMessage);
                 }
 
             } catch (UnsupportedFlavorException e) {
@@ -979,7 +1245,7 @@ public class MainController {
             );
 
             Cursor cursor = Cursor.getDefaultCursor();
-            int[] songIndices = sourceWindow.getSongTable().getSelectedRows();
+            int[] songIndices = sourceWindow.getSongListView().getSelectedModelRows();
             String songNames = "";
             System.out.println("[DragDrop] selected row count: "+songIndices.length);
 
@@ -1183,18 +1449,24 @@ public class MainController {
                 int flag = JOptionPane.showConfirmDialog(playerView, msg, title, JOptionPane.YES_NO_OPTION, JOptionPane.PLAIN_MESSAGE);
                 if (flag == JOptionPane.YES_OPTION) {
                     System.out.println("[DeletePlaylist] Yes is pressed on deleting "+selectedPlaylistName+".");
-                    //delete the selected playlist
-                    playlistLibrary.deletePlaylist(selectedPlaylistName);
-                    //update the playlist tree view on the side
-                    playerView.getSideView().updatePlaylistTree(playlistLibrary.getAllPlaylistNames());
-                    //show library on the main window
-                    playerView.updateTableView(library, playerView.getSongTable());
-                    //if the playlist window was opened, close the window
-                    MusicPlayerGUI playlistWindow = getPlaylistWindow(selectedPlaylistName);
-                    if(playlistWindow!=null) {
-                        playlistWindow.dispose();
-                        playlistWindowArray.remove(playlistWindow);
-                    }
+                    //delete the selected playlist, from the database first
+                    final String deletedPlaylistName = selectedPlaylistName;
+                    AsyncLibraryService.getInstance().deletePlaylist(deletedPlaylistName).thenAcceptAsync(deleted -> {
+                        if (!deleted) {
+                            return;
+                        }
+                        playlistLibrary.remove(playlistLibrary.getPlaylistByName(deletedPlaylistName));
+                        //update the playlist tree view on the side
+                        playerView.getSideView().updatePlaylistTree(playlistLibrary.getAllPlaylistNames());
+                        //show library on the main window
+                        playerView.updateTableView(library, playerView.getSongTable());
+                        //if the playlist window was opened, close the window
+                        MusicPlayerGUI playlistWindow = getPlaylistWindow(deletedPlaylistName);
+                        if(playlistWindow!=null) {
+                            playlistWindow.dispose();
+                            playlistWindowArray.remove(playlistWindow);
+                        }
+                    }, AsyncLibraryService.EDT);
                 } else {
                     System.out.println("[DeletePlaylist] Canceled.");
                 }
@@ -1205,7 +1477,7 @@ public class MainController {
 
     /**
      * FocusListenerForWindow class implements the actions when a window is focused.
-     * This changes the song lists loaded on the BasicPlayer
+     * This changes the song lists loaded on the player
      */
     public class FocusListenerForWindow implements WindowFocusListener {
         @Override
@@ -1260,6 +1532,8 @@ public class MainController {
 
         //Set songs on the view
         playlistWindow.getSongListView().updateTableView(playlistLibrary.getPlaylistByName(playlistName).getSongList());
+        playlistWindow.getSongTable().getRowSorter().addRowSorterListener(
+                new RowSorterListener(playlistWindow.getSongListView()));
 
         //copy the play btn text
         playlistWindow.setPlayBtnText(parentView.getControlView().getPlayBtn().getText());
@@ -1275,6 +1549,7 @@ public class MainController {
         //controls
         playlistWindow.addPlayerControlButtonListener(new PlayerControlButtonListener());
         playlistWindow.addVolumeSliderListener(new VolumeSliderListener());
+        playlistWindow.addSearchFieldListener(new SearchFieldListener(playlistWindow));
         //table
         playlistWindow.addSelectionListenerForTable(new SelectionListenerForTable());
         playlistWindow.addMouseListenerForTable(new MouseListenerForTable());
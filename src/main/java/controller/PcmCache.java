@@ -0,0 +1,188 @@
+package controller;
+
+import database.FileStamp;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PcmCache keeps the decoded PCM of the songs played last, so playing one of them again,
+ * e.g. in repeat mode, reads its samples from memory instead of decoding the file again.
+ * The samples are stored off the heap in direct ByteBuffers, the least recently used songs are evicted
+ * to stay under the memory cap (-Dmytunes.pcmCache.megabytes=..., 128 by default, 0 to turn the cache off).
+ * A song is only cached once it was decoded to its end, and only used while its file is unchanged.
+ * The size of a song being recorded is reserved when its recording starts (reserve()), so the songs cached
+ * and the songs being recorded together stay under the cap, and a song is never recorded twice at once.
+ */
+public class PcmCache {
+
+    public static final int DEFAULT_MEGABYTES = 128;
+
+    private final long capacityBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long usedBytes;
+    private final HashMap<String, Long> reservations = new HashMap<String, Long>();   //by path of the recordings
+    private long reservedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Decoded samples of a song, read only once cached.
+     */
+    static class Entry {
+        private final ByteBuffer samples;
+        private final AudioFormat format;
+        private final FileStamp stamp;
+
+        Entry(ByteBuffer samples, AudioFormat format, FileStamp stamp) {
+            this.samples = samples;
+            this.format = format;
+            this.stamp = stamp;
+        }
+
+        /** @return a view of the samples with its own position, from the first sample */
+        ByteBuffer getSamples() { return samples.duplicate(); }
+        AudioFormat getFormat() { return format; }
+    }
+
+    /**
+     * Constructs a cache.
+     * @param capacityBytes the memory cap, 0 to cache nothing
+     */
+    public PcmCache(long capacityBytes) {
+        this.capacityBytes = Math.max(capacityBytes, 0);
+    }
+
+    /**
+     * Constructs a cache with the memory cap of -Dmytunes.pcmCache.megabytes.
+     * @return the cache
+     */
+    public static PcmCache fromSystemProperties() {
+        return new PcmCache(Long.getLong("mytunes.pcmCache.megabytes", DEFAULT_MEGABYTES) * 1024 * 1024);
+    }
+
+    public boolean isEnabled() { return capacityBytes > 0; }
+
+    /**
+     * Gets the samples of a song if they are cached and the file hasn't changed since, and counts a hit or a miss.
+     * @param path the path of the song
+     * @return the entry, null if not cached
+     */
+    synchronized Entry get(String path) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(path);
+        if (entry != null && !entry.stamp.equals(FileStamp.of(path))) {
+            remove(path);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Checks if a song with a given number of bytes may be cached, before its samples are collected.
+     * @param bytes the size of the samples
+     * @return true if it fits under the cap
+     */
+    boolean fits(long bytes) {
+        return isEnabled() && bytes <= capacityBytes;
+    }
+
+    /**
+     * Reserves room for a song about to be recorded, evicting the least recently used songs if needed.
+     * Nothing is reserved for a song already cached or being recorded, or if the recordings in progress
+     * leave no room. The reservation ends with put() or release().
+     * @param path the path of the song
+     * @param bytes the most bytes the samples may take
+     * @return true if the song may be recorded
+     */
+    synchronized boolean reserve(String path, long bytes) {
+        if (!fits(bytes) || entries.containsKey(path) || reservations.containsKey(path)) {
+            return false;
+        }
+        evict(bytes);
+        if (usedBytes + reservedBytes + bytes > capacityBytes) {
+            return false;
+        }
+        reservations.put(path, bytes);
+        reservedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Ends the reservation of a song whose recording was given up, e.g. a song skipped before its end.
+     * @param path the path of the song
+     */
+    synchronized void release(String path) {
+        Long bytes = reservations.remove(path);
+        if (bytes != null) {
+            reservedBytes -= bytes;
+        }
+    }
+
+    /**
+     * Caches the decoded samples of a song in place of its reservation,
+     * evicting the least recently used songs to make room.
+     * @param path the path of the song
+     * @param samples the samples from position 0 to the limit, in a direct buffer not written to anymore
+     * @param format the format of the samples
+     * @param stamp the stamp of the file when it was decoded
+     */
+    synchronized void put(String path, ByteBuffer samples, AudioFormat format, FileStamp stamp) {
+        release(path);
+        long bytes = samples.capacity();
+        if (stamp == null || !fits(bytes)) {
+            return;
+        }
+        remove(path);
+        evict(bytes);
+        if (usedBytes + reservedBytes + bytes > capacityBytes) {
+            return;
+        }
+        entries.put(path, new Entry(samples, format, stamp));
+        usedBytes += bytes;
+        System.out.println("[PcmCache] Cached '" + path + "'. " + getStatistics());
+    }
+
+    /**
+     * Evicts the least recently used songs until a number of bytes fits next to the songs and the reservations.
+     */
+    private void evict(long bytes) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes + reservedBytes + bytes > capacityBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().samples.capacity();
+            eldest.remove();
+        }
+    }
+
+    private void remove(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            usedBytes -= removed.samples.capacity();
+        }
+    }
+
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    /**
+     * Gets the counters of the cache, e.g. for the log.
+     * @return a one line summary
+     */
+    public synchronized String getStatistics() {
+        return entries.size() + " songs, " + usedBytes / (1024 * 1024) + " of " + capacityBytes / (1024 * 1024)
+                + " MB, " + reservedBytes / (1024 * 1024) + " MB reserved for " + reservations.size() + " recordings, "
+                + hits.get() + " hits, " + misses.get() + " misses";
+    }
+}
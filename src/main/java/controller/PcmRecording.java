@@ -0,0 +1,85 @@
+package controller;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * PcmRecording collects the samples of a DecodedTrack while it is decoded, for the PcmCache.
+ * The samples are kept on the heap in chunks allocated as the song plays, so a track closed before its end,
+ * e.g. a skipped song, only held what it decoded. Once the song ended, toBuffer() copies them
+ * to a direct buffer of their exact size, which the cache keeps.
+ */
+class PcmRecording {
+
+    static final int CHUNK_BYTES = 1 << 20;     //about 6 seconds of 44.1 kHz stereo
+
+    private final long capacity;
+    private final ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+    private long size;
+
+    /**
+     * Constructs an empty recording.
+     * @param capacity the most bytes it takes, the size reserved in the cache
+     */
+    PcmRecording(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** @return the number of bytes recorded */
+    long size() { return size; }
+
+    /**
+     * Appends samples.
+     * @return false if they don't fit in the capacity, nothing is appended then
+     */
+    boolean write(byte[] buffer, int offset, int length) {
+        if (size + length > capacity) {
+            return false;
+        }
+        while (length > 0) {
+            int chunkOffset = (int) (size % CHUNK_BYTES);
+            if (chunkOffset == 0 && size / CHUNK_BYTES == chunks.size()) {
+                chunks.add(new byte[(int) Math.min(CHUNK_BYTES, capacity - size)]);
+            }
+            int count = Math.min(length, CHUNK_BYTES - chunkOffset);
+            System.arraycopy(buffer, offset, chunks.get((int) (size / CHUNK_BYTES)), chunkOffset, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+        return true;
+    }
+
+    /**
+     * Copies recorded samples, e.g. to play them again after a seek back.
+     * @param position the byte to start from
+     * @return the number of bytes copied, 0 at the end of the recording
+     */
+    int read(long position, byte[] buffer, int offset, int length) {
+        int total = (int) Math.max(Math.min(length, size - position), 0);
+        for (int copied = 0; copied < total; ) {
+            long at = position + copied;
+            int chunkOffset = (int) (at % CHUNK_BYTES);
+            int count = Math.min(total - copied, CHUNK_BYTES - chunkOffset);
+            System.arraycopy(chunks.get((int) (at / CHUNK_BYTES)), chunkOffset, buffer, offset + copied, count);
+            copied += count;
+        }
+        return total;
+    }
+
+    /**
+     * Copies the samples to a direct buffer for the cache.
+     * @return the buffer, from position 0 to the limit
+     */
+    ByteBuffer toBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        long left = size;
+        for (byte[] chunk : chunks) {
+            int count = (int) Math.min(chunk.length, left);
+            buffer.put(chunk, 0, count);
+            left -= count;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
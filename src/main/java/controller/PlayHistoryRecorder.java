@@ -0,0 +1,156 @@
+package controller;
+
+import database.DatabaseHandler;
+import model.PlayEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlayHistoryRecorder turns the callbacks of the AudioEngine into PlayEvents and saves them in batches.
+ * A play starts when its song is first heard and ends when the song ends (completed),
+ * or when another song starts or the player stops first (skipped). Only the time heard is counted,
+ * from the progress of the song, so pauses and seeks don't add to it.
+ * The events are queued in memory and written by a background thread, once
+ * -Dmytunes.history.batchSize=... events are waiting (32 by default) or after -Dmytunes.history.flushMillis=...
+ * (10000 by default), so the playback thread never waits on the database. close() writes what is left at exit.
+ */
+public class PlayHistoryRecorder {
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_FLUSH_MILLIS = 10000;
+    private static final long MAX_PROGRESS_STEP_MICROS = 1000000;  //a longer step is a seek, not playing
+
+    private static PlayHistoryRecorder recorder_instance = null;
+
+    private final int batchSize;
+    private final long flushMillis;
+    private final ScheduledThreadPoolExecutor writer;
+
+    //the play in progress, guarded by this
+    private String playingPath;
+    private long playStartedAt;
+    private long heardMicros;
+    private long lastProgressMicros;
+
+    //events waiting to be written, guarded by this
+    private List<PlayEvent> pending = new ArrayList<PlayEvent>();
+    private boolean flushScheduled;
+
+    private PlayHistoryRecorder() {
+        batchSize = Math.max(Integer.getInteger("mytunes.history.batchSize", DEFAULT_BATCH_SIZE), 1);
+        flushMillis = Math.max(Long.getLong("mytunes.history.flushMillis", DEFAULT_FLUSH_MILLIS), 0);
+        writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mytunes-history");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Gets the recorder shared by the whole application.
+     * @return the recorder
+     */
+    public static synchronized PlayHistoryRecorder getInstance() {
+        if (recorder_instance == null)
+            recorder_instance = new PlayHistoryRecorder();
+
+        return recorder_instance;
+    }
+
+    /**
+     * A song started to be heard. The play before it, if still going, ends as completed
+     * when the engine switched to this song at the end of it, or as skipped otherwise.
+     * @param path the path of the song
+     * @param followedEnd true if the song before ended into this one (gapless or crossfaded)
+     */
+    public synchronized void songStarted(String path, boolean followedEnd) {
+        endPlay(followedEnd);
+        playingPath = path;
+        playStartedAt = System.currentTimeMillis();
+        heardMicros = 0;
+        lastProgressMicros = 0;
+    }
+
+    /**
+     * The song heard is at a position.
+     * @param micros the position in the song, in microseconds
+     */
+    public synchronized void progress(long micros) {
+        long step = micros - lastProgressMicros;
+        if (step > 0 && step <= MAX_PROGRESS_STEP_MICROS) {
+            heardMicros += step;
+        }
+        lastProgressMicros = micros;
+    }
+
+    /**
+     * The song heard ended, the play is completed.
+     * @param path the path of the song
+     */
+    public synchronized void songEnded(String path) {
+        if (path.equals(playingPath)) {
+            endPlay(true);
+        }
+    }
+
+    /**
+     * The player stopped, the play in progress is skipped.
+     */
+    public synchronized void stopped() {
+        endPlay(false);
+    }
+
+    private void endPlay(boolean completed) {
+        if (playingPath == null) {
+            return;
+        }
+        pending.add(new PlayEvent(playingPath, playStartedAt, heardMicros / 1000, completed));
+        playingPath = null;
+        if (writer.isShutdown()) {
+            return;     //written by close()
+        }
+        if (pending.size() >= batchSize) {
+            writer.execute(this::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flush, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ends the play in progress as skipped, stops the background writer and writes the events left.
+     * This should be called once when the application exits, before the database shuts down.
+     */
+    public void close() {
+        stopped();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);   //a batch being written, or waiting to be
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Writes the events waiting, on the calling thread.
+     */
+    private void flush() {
+        List<PlayEvent> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<PlayEvent>();
+        }
+        if (!DatabaseHandler.getInstance().addPlayEvents(batch)) {
+            System.out.println("[History] " + batch.size() + " play events could not be saved.");
+        }
+    }
+}
@@ -1,61 +1,83 @@
 package controller;
 
 import database.DatabaseHandler;
-import javazoom.jlgui.basicplayer.*;
+import model.FrameIndex;
+import model.PlayQueue;
+import model.RecentSongs;
 import model.Song;
 import view.MusicPlayerGUI;
+import view.ProgressRenderScheduler;
 
-import java.io.File;
+import javax.swing.*;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
 
 /**
  * PlayerController manages actions related to playing songs
  * Play, Stop, Pause, Resume, Previous, Next.
+ * In gapless mode (-Dmytunes.player.gapless=false to turn it off), the song that will follow the current one
+ * is predicted from the song list and the repeat and shuffle settings, and opened ahead of time by the AudioEngine.
+ * The prepared song can also be crossfaded in (-Dmytunes.crossfade.millis=..., 0 to 12000,
+ * and -Dmytunes.crossfade.curve=LINEAR, EQUAL_POWER or S_CURVE), see setCrossfade().
+ * The order of the songs, with the up-next queue, shuffle and the back/forward history, is kept by a PlayQueue.
+ * Every play is recorded in the play history by the PlayHistoryRecorder.
+ * Seeking uses the frame index of the current song, loaded (or built on its first play) in the background.
  */
 public class PlayerController {
-    private BasicPlayer player;
+    private AudioEngine player;
+    private final boolean gapless;
 
     private ArrayList<Song> songList;  //can be either a library or a playlist
     private String songListName;
-    private Song currentSong;          //the song currently loaded on the BasicPlayer
-    private int currSongIndex;         //the current song index within songList
+    private Song currentSong;          //the song currently loaded on the AudioEngine
+    private final PlayQueue playQueue = new PlayQueue();
+    private Song nextSong;             //the song prepared to follow the current one, null if none
+    private FrameIndex frameIndex;     //seek table of the current song, null until loaded
+    private String frameIndexPath;     //the song frameIndex belongs to
 
     private MusicPlayerGUI playerView; //to reflect player's action to the view
+    private ProgressRenderScheduler progressScheduler;  //renders the progress on the EDT at a fixed rate
 
     //Recently Played Songs
-    private ArrayList<Song> recentlyPlayedSongs;
-    private int recentlyPlayedLimit = 10;
-
-    private boolean isRepeating = false;
-    private boolean isShuffling = false;
+    private final RecentSongs recentlyPlayedSongs = new RecentSongs(DatabaseHandler.RECENT_SONGS_LIMIT);
 
     /**
      * Constructor for this class
      * @param songList a list of all songs currently contained in the songList
      */
     public PlayerController(ArrayList<Song> songList, MusicPlayerGUI playerView){
-        player = new BasicPlayer();
+        player = new AudioEngine(new MyAudioListener());
+        gapless = Boolean.parseBoolean(System.getProperty("mytunes.player.gapless", "true"));
+        int crossfadeMillis = Integer.getInteger("mytunes.crossfade.millis", 0);
+        if (crossfadeMillis > 0) {
+            try {
+                setCrossfade(crossfadeMillis, CrossfadeMixer.FadeCurve.valueOf(
+                        System.getProperty("mytunes.crossfade.curve", "EQUAL_POWER")));
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
         this.songList = songList;
+        playQueue.setSongList(songList);
         if (songList.size() > 0) {
             //first song in the songList by default
-            currSongIndex = 0;
-            currentSong = songList.get(currSongIndex);
+            currentSong = songList.get(0);
         }
         this.playerView = playerView;
-
-        //add listener to the basic player
-        player.addBasicPlayerListener(new MyBasicPlayerListener());
+        progressScheduler = new ProgressRenderScheduler(playerView.getControlView());
 
         //initialize the recently played songs
-        //recentlyPlayedSongs = new ArrayList<Song>();
-        recentlyPlayedSongs = DatabaseHandler.getInstance().getRecentSongs();
-        initializeRecentlyPlayedMenu();
+        initializeRecentlyPlayedMenu(DatabaseHandler.getInstance().getRecentSongs());
     }
 
-    private void initializeRecentlyPlayedMenu() {
-        for (Song song : recentlyPlayedSongs) {
-            playerView.addMenuItemToPlayRecent(song.getFileName());
+    /**
+     * Fills the recently played songs and the [Play Recent] submenu, the most recent song on top.
+     * @param recentSongs the saved recent songs, the most recent one first
+     */
+    private void initializeRecentlyPlayedMenu(List<Song> recentSongs) {
+        for (int i = recentSongs.size() - 1; i >= 0; i--) {
+            recentlyPlayedSongs.add(recentSongs.get(i));
+            playerView.addMenuItemToPlayRecent(recentSongs.get(i).getFileName());
         }
     }
 
@@ -81,6 +103,7 @@ public class PlayerController {
      */
     public void setSongList(ArrayList<Song> songList) {
         this.songList = songList;
+        playQueue.setSongList(songList);
     }
 
     /**
@@ -89,6 +112,11 @@ public class PlayerController {
      */
     public void updateSongList(ArrayList<Song> songList) {
         this.songList = songList;
+        playQueue.setSongList(songList);
+        //the song after the current one may have changed
+        if (nextSong != null && playQueue.peekNext() != nextSong) {
+            prepareNextSong();
+        }
     }
 
     /**
@@ -99,43 +127,79 @@ public class PlayerController {
         currentSong = song;
     }
 
-    public void setCurrSongIndex(int index) {
-        currSongIndex = index;
-    }
-
     /**
-     * This method returns the current status of the basic player.
-     * @return the current status of the basic player (STOP, RESUME, PLAY, SEEKING)
+     * This method returns the current status of the player.
+     * @return the current status of the player (AudioEngine.PLAYING, PAUSED or STOPPED)
      */
     public int getPlayerStatus(){
         return player.getStatus();
     }
 
     /**
-     * Gets the recentlyPlayedSongs
-     * @return ArrayList<Song>
+     * Gets the recentlyPlayedSongs in the order of the [Play Recent] submenu
+     * @return List<Song>, the most recent one first
      */
-    public ArrayList<Song> getRecentlyPlayedSongs() { return DatabaseHandler.getInstance().getRecentSongs(); }
+    public List<Song> getRecentlyPlayedSongs() { return recentlyPlayedSongs.toList(); }
 
     /**
-     * Sets isRepeating.
+     * Sets the repeat mode of the play queue.
      * If true, repeat the currently playing song.
      * @param repeating the boolean
      */
     public void setRepeat(boolean repeating) {
-        isRepeating = repeating;
-        System.out.println("[Player] repeat: " + (isRepeating ? "on" : "off") );
+        playQueue.setRepeat(repeating);
+        System.out.println("[Player] repeat: " + (repeating ? "on" : "off") );
         //TODO better to have updateRepeatMenuCheck here...
+        if (player.getStatus() != AudioEngine.STOPPED) {
+            prepareNextSong();
+        }
     }
 
     /**
-     * Sets isShuffling.
+     * Sets the shuffle mode of the play queue.
      * If true, shuffle the next song to play.
      * @param shuffling the boolean
      */
     public void setShuffle(boolean shuffling) {
-        isShuffling = shuffling;
-        System.out.println("[Player] shuffle: " + (isShuffling ? "on" : "off"));
+        playQueue.setShuffle(shuffling);
+        System.out.println("[Player] shuffle: " + (shuffling ? "on" : "off"));
+        if (player.getStatus() != AudioEngine.STOPPED) {
+            prepareNextSong();
+        }
+    }
+
+    /**
+     * Queues a song to be played after the songs already queued, before the rest of the song list.
+     * @param song the song
+     */
+    public void enqueueSong(Song song) {
+        playQueue.enqueue(song);
+        System.out.println("[PlayerControl] Up next: '"+song.getTitleAndArtist()+"', "+playQueue.getUpNext().size()+" queued");
+        if (player.getStatus() != AudioEngine.STOPPED) {
+            prepareNextSong();
+        }
+    }
+
+    /**
+     * Queues a song to be played right after the current one.
+     * @param song the song
+     */
+    public void playSongNext(Song song) {
+        playQueue.enqueueFirst(song);
+        System.out.println("[PlayerControl] Play next: '"+song.getTitleAndArtist()+"'");
+        if (player.getStatus() != AudioEngine.STOPPED) {
+            prepareNextSong();
+        }
+    }
+
+    /**
+     * Sets the crossfade from a song to the next one.
+     * Only songs prepared in gapless mode are crossfaded, the others start after the song before them ends.
+     * @param overlapMillis the length of the fade, from 0 (off) to 12000
+     * @param curve the shape of the fade
+     */
+    public void setCrossfade(int overlapMillis, CrossfadeMixer.FadeCurve curve) {
+        player.setCrossfade(overlapMillis, curve);
     }
 
     //------------- Music player control --------------
@@ -159,85 +223,121 @@ public class PlayerController {
             System.out.println("[Player] selecting the first song on the list.");
         }
 
+        playQueue.jumpTo(song);
+        startSong(song);
+    }
+
+    /**
+     * Plays a song the play queue already moved to.
+     * @param song to be played
+     */
+    private void startSong(Song song){
         this.setCurrentSong(song);
+        int currSongIndex = getCurrSongIndex();
 
         //play the song
-        try {
-            player.open(new File(currentSong.getPath()));
-            player.play();
-        } catch(BasicPlayerException e) {
-            e.printStackTrace();
-        }
+        player.play(currentSong.getPath());
 
         System.out.println("[PlayerControl] Play Song '"+currentSong.getTitleAndArtist()+"' currSongIndex:"+currSongIndex);
 
         //reflect to the view
-        //TODO make this to be handled in stateUpdated() of MyBasicPlayerListener (line 350)
+        //TODO make this to be handled in trackStarted() of MyAudioListener
         playerView.getControlView().updateCurrentPlayingView(currentSong);
         if(playerView.isFocused()) {
             playerView.changeTableRowSelection(currSongIndex);
         }
 
         addRecentlyPlayed();
+        prepareNextSong();
+        loadFrameIndex();
 
         System.out.println();
     }
 
     /**
-     * Plays the song and updates the currSongIndex
-     * @param song to be played
-     * @param index set the currSongIndex
+     * Asks the play queue for the song to be played after the current one
+     * and has the player open it ahead of time so it follows without a gap.
      */
-    //TODO index should be not assigned this way..
-    public void playSong(Song song, int index){
-        playSong(song);
-        currSongIndex = index;
+    private void prepareNextSong() {
+        nextSong = (gapless && currentSong != null) ? playQueue.peekNext() : null;
+        if (nextSong == null) {
+            player.clearNext();
+            return;
+        }
+        player.prepareNext(nextSong.getPath());
     }
 
     /**
      * Adds currently playing song to the list of recentlyPlayedSongs and [Play Recent] submenu.
-     * Note that only the most recently played songs are kept within recentlyPlayedLimit.
+     * Note that only the most recently played songs are kept within DatabaseHandler.RECENT_SONGS_LIMIT,
+     * and a song played again moves to the top instead of being listed twice.
      */
     public void addRecentlyPlayed(){
-        //keep the number of songs stored under limit
-        int size = recentlyPlayedSongs.size();
-        if(size==recentlyPlayedLimit) {
-            recentlyPlayedSongs.remove(size-1);
-            playerView.removeLastMenuItemUnderPlayRecent();
+        //take the song out of the menu if listed, or the oldest song if the list is full
+        int index = recentlyPlayedSongs.indexOf(currentSong);
+        if (index >= 0) {
+            playerView.removeMenuItemUnderPlayRecent(index);
+        } else if (recentlyPlayedSongs.size() == recentlyPlayedSongs.getCapacity()) {
+            playerView.removeMenuItemUnderPlayRecent(recentlyPlayedSongs.size() - 1);
         }
 
         //add the song to the top of the recently played list
-        recentlyPlayedSongs.add(0, currentSong);
-        //System.out.println("recentlyPlayedSongs.size(): "+recentlyPlayedSongs.size());
+        recentlyPlayedSongs.add(currentSong);
         //add the song title$artist to the [Play Recent] menu
         playerView.addMenuItemToPlayRecent(currentSong.getFileName());
-        //System.out.println("[PlayerControl] '"+currentSong.getFileName()+"' is added to the recently played list.");
         System.out.println("'"+currentSong.getFileName()+"' is added to recentlyPlayedSongs and [Play Recent] submenu.");
-        DatabaseHandler.getInstance().addRecentSong(currentSong.getPath());
+        String path = currentSong.getPath();
+        AsyncLibraryService.getInstance().supplyDatabase(() -> DatabaseHandler.getInstance().addRecentSong(path));
     }
 
     /**
      * Stop the song currently playing.
      */
     public void stopSong(){
-        try {
-            player.stop();
-        } catch (BasicPlayerException e) {
-            e.printStackTrace();
-        }
+        player.stop();
+        PlayHistoryRecorder.getInstance().stopped();
         System.out.println("[PlayerControl] Stop Song\n");
     }
 
+    /**
+     * Loads the seek table of the current song off the event dispatch thread.
+     * It is built from the file and saved the first time the song is played.
+     */
+    private void loadFrameIndex() {
+        String path = currentSong.getPath();
+        if (path.equals(frameIndexPath)) {
+            return;
+        }
+        frameIndex = null;
+        frameIndexPath = null;
+        AsyncLibraryService.getInstance().getFrameIndex(path).thenAcceptAsync(index -> {
+            if (index != null && currentSong != null && path.equals(currentSong.getPath())) {
+                frameIndex = index;
+                frameIndexPath = path;
+            }
+        }, AsyncLibraryService.EDT);
+    }
+
+    /**
+     * Moves the song currently playing to a time.
+     * Without its frame index yet, the song is decoded again from the start up to the time.
+     * @param millis the time from the start of the song in MILLISECONDS
+     */
+    public void seekSong(int millis) {
+        if (player.getStatus() == AudioEngine.STOPPED || currentSong == null) {
+            return;
+        }
+        String path = currentSong.getPath();
+        player.seek(path, millis * 1000L, path.equals(frameIndexPath) ? frameIndex : null);
+        System.out.println("[PlayerControl] Seek Song '"+currentSong.getTitleAndArtist()+"' to "+millis+" ms");
+    }
+
     /**
      * Pause the song currently playing.
      */
     public void pauseSong(){
-        if(player.getStatus() == BasicPlayer.PLAYING){
-            try {
-                player.pause();
-            } catch (BasicPlayerException e) {
-                e.printStackTrace();
-            }
+        if(player.getStatus() == AudioEngine.PLAYING){
+            player.pause();
             System.out.println("[PlayerControl] Pause Song\n");
         }
     }
@@ -247,59 +347,39 @@ public class PlayerController {
      * from the position it was paused.
      */
     public void resumeSong(){
-        if(player.getStatus() == BasicPlayer.PAUSED){
-            try {
-                player.resume();
-            } catch (BasicPlayerException e) {
-                e.printStackTrace();
-            }
+        if(player.getStatus() == AudioEngine.PAUSED){
+            player.resume();
             System.out.println("[PlayerControl] Resume Song '"+currentSong.getTitleAndArtist()+"'\n");
         }
     }
 
     /**
-     * Play the song that comes before the currently playing song in the songList
+     * Play the song played before the currently playing song,
+     * or the one before it in the songList if there is no history.
      */
     public void playPrevSong(){
-        int lastIndex = songList.size() - 1;
-
-        int prevIndex;
-        //rotate
-        if(currSongIndex == 0) {
-            prevIndex = lastIndex;  //prevRow goes to the last
-        } else {
-            prevIndex = currSongIndex - 1;
+        Song prevSong = playQueue.previous();
+        if (prevSong != null) {
+            System.out.println("[playPrevSong] back to '" + prevSong.getTitleAndArtist() + "'");
+            startSong(prevSong);
         }
-        System.out.println("[playPrevSong] song index from:" + currSongIndex+" to:"+prevIndex);
-
-        // Get the previous song in the songList and play it
-        Song prevSong = songList.get(prevIndex);
-        this.playSong(prevSong, prevIndex);
     }
 
     /**
-     * Play the song that comes after the currently playing song in the songList
+     * Play the song that comes after the currently playing song:
+     * the next queued song, or the next one of the songList (repeated or shuffled).
      */
     public void playNextSong(){
-        int lastIndex = songList.size() - 1;
-
-        int nextIndex;
-        //rotate
-        if(currSongIndex == lastIndex) {
-            nextIndex = 0;
-        } else {
-            nextIndex = currSongIndex + 1;
+        Song nextSong = playQueue.next();
+        if (nextSong != null) {
+            System.out.println("[playNextSong] forward to '" + nextSong.getTitleAndArtist() + "'");
+            startSong(nextSong);
         }
-        System.out.println("[playNextSong] song index from:" + currSongIndex+" to:"+nextIndex);
-
-        // Get the next song in the songList and play it
-        Song nextSong = songList.get(nextIndex);
-        this.playSong(nextSong, nextIndex);
     }
 
     /**
-     * Changes the volume of the basic player.
-     * Note that the value is converted for the basic player setGain() method.
+     * Changes the volume of the player.
+     * Note that the value is converted for the player setGain() method.
      * @param val value to be set as volume, range from 0 to 100
      */
     public void setVolume(int val) {
@@ -308,12 +388,7 @@ public class PlayerController {
         } if (val >= 100) {
             System.out.println("volume max 100");
         } else {
-            double convertedVal = val / Math.abs(player.getMaximumGain() - player.getMinimumGain());
-            try {
-                player.setGain(convertedVal);
-            } catch (BasicPlayerException e) {
-                e.printStackTrace();
-            }
+            player.setGain(val / 100.0);
             System.out.println("volume: " + val);
         }
     }
@@ -346,72 +421,85 @@ public class PlayerController {
         playerView.setVolumeSlider(decreasedVolume);
     }
 
-    //TODO below should be removed and the related parts should be refactored.
+    /**
+     * Gets the index of the current song in the songList, e.g. to select its row.
+     * @return the index, -1 if it is not in the songList
+     */
     public int getCurrSongIndex() {
-        return this.currSongIndex;
+        return playQueue.indexOf(currentSong);
     }
 
     /**
-     * MyBasicPlayerListener class implements the actions triggered from basic player
+     * MyAudioListener class implements the actions triggered from the audio engine
      * 1. Update the progress bar as a song is playing
-     * 2. Auto play the next song
+     * 2. Follow the songs the engine switched to without a gap
+     * 3. Auto play the next song
      */
-    public class MyBasicPlayerListener implements BasicPlayerListener {
+    public class MyAudioListener implements AudioEngine.Listener {
         /**
          * Progress callback while playing.
          * This method is called several time per seconds while playing.
-         * properties map includes audio format features
-         * such as instant bitrate, microseconds position, current frame number, ...
-         * @param b         bytesread - from encoded stream.
-         * @param microsec  microseconds - elapsed (reseted after a seek !).
-         * @param bytes     pcmdata - PCM samples.
-         * @param map       java.util.Map properties - audio stream parameters.
+         * @param microsec  microseconds - elapsed in the song being heard.
          */
         @Override
-        public void progress(int b, long microsec, byte[] bytes, Map map) {
-            // Update the progress bar
-            playerView.getControlView().updateProgressView((int)microsec/1000, currentSong.getTime());
+        public void progress(long microsec) {
+            // Update the progress bar, on the next frame of the scheduler
+            progressScheduler.update((int)(microsec/1000), currentSong.getTime());
+            PlayHistoryRecorder.getInstance().progress(microsec);
             //TODO update all windows
         }
 
         /**
-         * Notification callback for basicplayer events such as opened, eom ...
-         * Repeat / Shuffle / Autoplay features are implemented.
-         * @param basicPlayerEvent
+         * Notification callback when a song starts to be heard.
+         * A gapless switch went to the song prepared by prepareNextSong(), which becomes the current song.
+         * @param path the path of the song
+         * @param gapless true if the engine switched to it without a gap
+         * @param transitionMicros time from the end of the song before until this one was written
          */
         @Override
-        public void stateUpdated(BasicPlayerEvent basicPlayerEvent) {
-            //Autoplay the next music when the player finishes playing the current music
-            if(basicPlayerEvent.getCode() == BasicPlayerEvent.EOM) {    //EOM: End of MP3
-                if(isRepeating){
-                    System.out.println("[Player] Repeat the song.");
-                    playSong();
-
-                }else if (isShuffling){
-                    int nextSongIndex = (int)(Math.random() * songList.size());
-                    System.out.println("[Player] shuffled next song index: " + nextSongIndex);
-                    setCurrSongIndex(nextSongIndex);
-                    playSong(songList.get(nextSongIndex));
-
+        public void trackStarted(String path, boolean gapless, long transitionMicros) {
+            System.out.println("[Player] " + (gapless ? "gapless" : "new") + " transition took " + transitionMicros + " us");
+            PlayHistoryRecorder.getInstance().songStarted(path, gapless);
+            if (!gapless) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (nextSong == null || !nextSong.getPath().equals(path)) {
+                    return;
+                }
+                if (playQueue.peekNext() == nextSong) {
+                    playQueue.next();
                 } else {
-                    //if not, Auto play the next song
-                    System.out.println("[Player] Auto play the next song.");
-                    playNextSong();
+                    playQueue.jumpTo(nextSong);     //the queue changed after the song was prepared
                 }
-            }
-
-            //TODO might be better to handle the ui updates of play/stop/resume states...
-            if(basicPlayerEvent.getCode() == BasicPlayerEvent.PLAYING) {
-                System.out.println("[Player] state changed to BasicPlayerEvent.PLAYING");
-                //TODO update row selection on the focused window?
-                //TODO change the play button to "||"
-            }
-
+                currentSong = nextSong;
+                int currSongIndex = getCurrSongIndex();
+                System.out.println("[PlayerControl] Gapless Song '"+currentSong.getTitleAndArtist()+"' currSongIndex:"+currSongIndex);
+                playerView.getControlView().updateCurrentPlayingView(currentSong);
+                if(playerView.isFocused()) {
+                    playerView.changeTableRowSelection(currSongIndex);
+                }
+                addRecentlyPlayed();
+                prepareNextSong();
+                loadFrameIndex();
+            });
         }
 
+        /**
+         * Notification callback when a song ended and no song was prepared to follow it.
+         * Repeat / Shuffle / Autoplay features are implemented by the PlayQueue.
+         * @param path the path of the song
+         */
         @Override
-        public void opened(Object o, Map map) { }
-        @Override
-        public void setController(BasicController basicController) { }
+        public void endOfMedia(String path) {
+            PlayHistoryRecorder.getInstance().songEnded(path);
+            //Autoplay the next music when the player finishes playing the current music
+            SwingUtilities.invokeLater(() -> {
+                //the play queue repeats, shuffles or goes on in the list
+                System.out.println("[Player] Auto play the next song." + (playQueue.isRepeating() ? " (repeat)" : "")
+                        + (playQueue.isShuffling() ? " (shuffle)" : ""));
+                playNextSong();
+            });
+        }
     }
 }
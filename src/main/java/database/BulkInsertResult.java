@@ -0,0 +1,55 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BulkInsertResult reports what happened to each row of a batched insert,
+ * identified by the file path of the song.
+ * A duplicate row doesn't fail the whole batch, it is only listed in getDuplicates().
+ */
+public class BulkInsertResult {
+
+    private final List<String> inserted = new ArrayList<String>();
+    private final List<String> duplicates = new ArrayList<String>();
+    private final List<String> failed = new ArrayList<String>();
+
+    void addInserted(String path) { inserted.add(path); }
+    void addDuplicate(String path) { duplicates.add(path); }
+    void addFailed(String path) { failed.add(path); }
+
+    /**
+     * Gets the paths of the rows inserted and committed
+     * @return list of file paths
+     */
+    public List<String> getInserted() { return inserted; }
+
+    /**
+     * Gets the paths of the rows not inserted since they already exist (SQLState 23505)
+     * or appear more than once in the input.
+     * @return list of file paths
+     */
+    public List<String> getDuplicates() { return duplicates; }
+
+    /**
+     * Gets the paths of the rows not inserted because of any other error.
+     * If the transaction could not be committed, all rows are listed here.
+     * @return list of file paths
+     */
+    public List<String> getFailed() { return failed; }
+
+    public int getInsertedCount() { return inserted.size(); }
+
+    /**
+     * Moves all inserted rows to the failed list, used when the transaction is rolled back.
+     */
+    void rollback() {
+        failed.addAll(inserted);
+        inserted.clear();
+    }
+
+    @Override
+    public String toString() {
+        return inserted.size() + " inserted, " + duplicates.size() + " duplicates, " + failed.size() + " failed";
+    }
+}
@@ -0,0 +1,171 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConnectionPool keeps a bounded number of long-lived connections to the embedded Derby database
+ * so that DatabaseHandler doesn't pay a full connect for every query.
+ * Connections are handed out by getConnection() and must be given back with releaseConnection().
+ * Each pooled connection keeps its own cache of compiled statements.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final int maxSize;
+    private final int validationTimeout;   //seconds
+    private final long waitTimeout;        //milliseconds
+    private final int statementCacheSize;
+
+    private final BlockingQueue<PooledConnection> idleConnections;
+    private int openedCount = 0;           //idle + borrowed connections
+    private boolean isShutdown = false;
+
+    /**
+     * Constructs a pool without opening any connection yet.
+     * Connections are opened lazily up to maxSize.
+     * @param url the jdbc url to connect to
+     * @param maxSize the maximum number of connections opened at the same time
+     * @param validationTimeout seconds to wait for Connection.isValid() when a connection is borrowed
+     * @param waitTimeout milliseconds to wait for a free connection when all of them are borrowed
+     * @param statementCacheSize the number of compiled statements kept per connection
+     */
+    public ConnectionPool(String url, int maxSize, int validationTimeout, long waitTimeout,
+                          int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1: " + maxSize);
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.validationTimeout = validationTimeout;
+        this.waitTimeout = waitTimeout;
+        this.statementCacheSize = statementCacheSize;
+        this.idleConnections = new ArrayBlockingQueue<PooledConnection>(maxSize);
+    }
+
+    /**
+     * Borrows a connection from the pool.
+     * An idle connection is reused if it is still valid, otherwise a new one is opened
+     * as long as the pool is not full. If the pool is full, this waits for a released connection.
+     * @return an open connection with auto-commit on
+     * @throws SQLException if no connection could be opened or the pool is shut down
+     */
+    public PooledConnection getConnection() throws SQLException {
+        while (true) {
+            PooledConnection conn = idleConnections.poll();
+            if (conn == null) {
+                if (reserveSlot()) {
+                    return openConnection();
+                }
+                try {
+                    conn = idleConnections.poll(waitTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection.");
+                }
+                if (conn == null) {
+                    throw new SQLException("Timed out waiting for a database connection. (pool size " + maxSize + ")");
+                }
+            }
+            if (isValid(conn)) {
+                return conn;
+            }
+            //stale connection, drop it and try again
+            System.out.println("[ConnectionPool] Dropped an invalid connection.");
+            conn.close();
+            freeSlot();
+        }
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool.
+     * Any open transaction is rolled back and auto-commit is turned back on.
+     * @param conn the connection borrowed by getConnection(), null is ignored
+     */
+    public void releaseConnection(PooledConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            if (conn.isClosed()) {
+                freeSlot();
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            freeSlot();
+            return;
+        }
+        synchronized (this) {
+            if (!isShutdown && idleConnections.offer(conn)) {
+                return;
+            }
+        }
+        conn.close();
+        freeSlot();
+    }
+
+    /**
+     * Closes all idle connections and refuses to hand out new ones.
+     * Connections still borrowed are closed when they are released.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            isShutdown = true;
+        }
+        PooledConnection conn;
+        while ((conn = idleConnections.poll()) != null) {
+            conn.close();
+            freeSlot();
+        }
+        System.out.println("[ConnectionPool] Closed all idle connections.");
+    }
+
+    /**
+     * Gets the maximum number of connections of this pool
+     * @return the pool size
+     */
+    public int getMaxSize() { return maxSize; }
+
+    private synchronized boolean reserveSlot() throws SQLException {
+        if (isShutdown) {
+            throw new SQLException("The connection pool is shut down.");
+        }
+        if (openedCount < maxSize) {
+            openedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void freeSlot() {
+        openedCount--;
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        try {
+            Connection conn = DriverManager.getConnection(url);
+            System.out.println("[ConnectionPool] Opened a new connection.");
+            return new PooledConnection(conn, statementCacheSize);
+        } catch (SQLException e) {
+            freeSlot();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection conn) {
+        try {
+            return conn.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
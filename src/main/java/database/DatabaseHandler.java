@@ -1,16 +1,29 @@
 package database;
 
+import model.FrameIndex;
+import model.PlayEvent;
 import model.Playlist;
 import model.Song;
+import model.SongLibrary;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * This class is responsible for accessing and updating the database when songs are added / deleted, etc.
  * It represents the model in the Model - View - Controller  Pattern. It is updated by the controller and provides
  * the data displayed by the view.
+ * All queries are PreparedStatements compiled once per pooled connection, see PooledConnection.
  */
 public class DatabaseHandler {
 
@@ -18,26 +31,152 @@ public class DatabaseHandler {
     // NOTE: This value is specific for Java DB.
     private final String createDatabaseURL = "jdbc:derby:SongsDB;create=true";
     private final String shutdownURL = "jdbc:derby:;shutdown=true";
-    private final String songsTableName = "SONGS";
-    private final String playlistSongsTableName = "PLAYLIST_SONGS";
-    private final String playlistTableName = "PLAYLISTS";
-    private final String showHideColumnsTableName = "SHOW_HIDE_COLUMNS";
-    private final String recentSongsTableName = "RECENT_SONGS";
+    private static final String songsTableName = "SONGS";
+    private static final String playlistSongsTableName = "PLAYLIST_SONGS";
+    private static final String playlistTableName = "PLAYLISTS";
+    private static final String showHideColumnsTableName = "SHOW_HIDE_COLUMNS";
+    private static final String recentSongsTableName = "RECENT_SONGS";
+    private static final String libraryFoldersTableName = "LIBRARY_FOLDERS";
+    private static final String playHistoryTableName = "PLAY_HISTORY";
+    private static final String songPlaysTableName = "SONG_PLAYS";
+    private static final String songPlaysDailyTableName = "SONG_PLAYS_DAILY";
+    private static final String artistPlaysDailyTableName = "ARTIST_PLAYS_DAILY";
     private static DatabaseHandler handler_instance = null;
 
+    // Connection pool settings, can be overridden with -Dmytunes.db.poolSize=... etc.
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final int DEFAULT_VALIDATION_TIMEOUT = 2;        //seconds
+    public static final long DEFAULT_POOL_WAIT_TIMEOUT = 10000;    //milliseconds
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;     //statements per connection
+    public static final int DEFAULT_BATCH_SIZE = 500;              //rows per executeBatch() of bulk inserts
+    public static final int DEFAULT_FETCH_SIZE = 200;              //rows per round trip when streaming songs
+    public static final int RECENT_SONGS_LIMIT = 10;               //slots of the RECENT_SONGS ring
+    private final ConnectionPool connectionPool;
+    private final int batchSize;
+    private final int fetchSize;
+
+    // SQL of all queries. The parameters are bound by PreparedStatement, never concatenated.
+    private static final String SONG_COLUMNS =
+            "FILEPATH, TITLE, ARTIST, ALBUM, YEAR_PUBLISHED, COMMENT, GENRE, TIME";
+    private static final String INSERT_SONG =
+            "INSERT INTO " + songsTableName + " (" + SONG_COLUMNS + ", FILE_SIZE, LAST_MODIFIED, FILE_KEY)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SONG =
+            "UPDATE " + songsTableName + " SET TITLE = ?, ARTIST = ?, ALBUM = ?, YEAR_PUBLISHED = ?, COMMENT = ?," +
+            " GENRE = ?, TIME = ?, FILE_SIZE = ?, LAST_MODIFIED = ?, FILE_KEY = ?, FRAME_INDEX = NULL" +
+            " WHERE FILEPATH = ?";
+    private static final String SELECT_FILE_STAMPS =
+            "SELECT FILEPATH, FILE_SIZE, LAST_MODIFIED, FILE_KEY FROM " + songsTableName;
+    private static final String SELECT_FRAME_INDEX =
+            "SELECT FRAME_INDEX FROM " + songsTableName + " WHERE FILEPATH = ?";
+    private static final String UPDATE_FRAME_INDEX =
+            "UPDATE " + songsTableName + " SET FRAME_INDEX = ? WHERE FILEPATH = ?";
+    private static final String INSERT_LIBRARY_FOLDER =
+            "INSERT INTO " + libraryFoldersTableName + " (PATH) VALUES (?)";
+    private static final String SELECT_LIBRARY_FOLDERS =
+            "SELECT PATH FROM " + libraryFoldersTableName;
+    private static final String DELETE_SONG =
+            "DELETE FROM " + songsTableName + " WHERE FILEPATH = ?";
+    private static final String SELECT_ALL_SONGS =
+            "SELECT " + SONG_COLUMNS + " FROM " + songsTableName;
+    private static final String COUNT_SONGS =
+            "SELECT COUNT(*) FROM " + songsTableName;
+    private static final String INSERT_PLAYLIST =
+            "INSERT INTO " + playlistTableName + " (NAME) VALUES (?)";
+    private static final String DELETE_PLAYLIST =
+            "DELETE FROM " + playlistTableName + " WHERE NAME = ?";
+    private static final String SELECT_PLAYLIST_NAMES =
+            "SELECT NAME FROM " + playlistTableName;
+    private static final String SELECT_PLAYLIST_BY_NAME =
+            "SELECT ID FROM " + playlistTableName + " WHERE NAME = ?";
+    private static final String DELETE_ALL_PLAYLISTS =
+            "DELETE FROM " + playlistTableName;
+    private static final String INSERT_PLAYLIST_SONG =
+            "INSERT INTO " + playlistSongsTableName + " (PLAYLIST_ID, POSITION, FILEPATH) VALUES (?, ?, ?)";
+    private static final String SELECT_LAST_POSITION =
+            "SELECT MAX(POSITION) FROM " + playlistSongsTableName + " WHERE PLAYLIST_ID = ?";
+    private static final String DELETE_FIRST_PLAYLIST_SONG =
+            "DELETE FROM " + playlistSongsTableName + " WHERE PLAYLIST_ID = ? AND POSITION =" +
+            " (SELECT MIN(POSITION) FROM " + playlistSongsTableName + " WHERE PLAYLIST_ID = ? AND FILEPATH = ?)";
+    private static final String SELECT_SONGS_IN_PLAYLIST =
+            "SELECT S.FILEPATH, S.TITLE, S.ARTIST, S.ALBUM, S.YEAR_PUBLISHED, S.COMMENT, S.GENRE, S.TIME" +
+            " FROM " + playlistTableName + " P" +
+            " INNER JOIN " + playlistSongsTableName + " PS ON PS.PLAYLIST_ID = P.ID" +
+            " INNER JOIN " + songsTableName + " S ON PS.FILEPATH = S.FILEPATH" +
+            " WHERE P.NAME = ? ORDER BY PS.POSITION";
+    private static final String SELECT_ALL_PLAYLIST_SONGS =
+            "SELECT P.NAME, S.FILEPATH, S.TITLE, S.ARTIST, S.ALBUM, S.YEAR_PUBLISHED, S.COMMENT, S.GENRE, S.TIME" +
+            " FROM " + playlistTableName + " P" +
+            " INNER JOIN " + playlistSongsTableName + " PS ON PS.PLAYLIST_ID = P.ID" +
+            " INNER JOIN " + songsTableName + " S ON PS.FILEPATH = S.FILEPATH" +
+            " ORDER BY PS.PLAYLIST_ID, PS.POSITION";
+    private static final String DELETE_SHOW_HIDE_COLUMNS =
+            "DELETE FROM " + showHideColumnsTableName;
+    private static final String INSERT_SHOW_HIDE_COLUMN =
+            "INSERT INTO " + showHideColumnsTableName + " (NAME, VISIBLE) VALUES (?, ?)";
+    private static final String SELECT_SHOW_HIDE_COLUMNS =
+            "SELECT NAME, VISIBLE FROM " + showHideColumnsTableName;
+    private static final String INSERT_PLAY_EVENT =
+            "INSERT INTO " + playHistoryTableName + " (FILEPATH, STARTED_AT, PLAYED_MILLIS, COMPLETED) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_SONG_ARTIST =
+            "SELECT ARTIST FROM " + songsTableName + " WHERE FILEPATH = ?";
+    private static final String SELECT_MOST_PLAYED_SONGS =
+            "SELECT FILEPATH, SUM(PLAYS) FROM " + songPlaysDailyTableName +
+            " WHERE DAY BETWEEN ? AND ? GROUP BY FILEPATH ORDER BY 2 DESC";
+    private static final String SELECT_MOST_PLAYED_ARTISTS =
+            "SELECT ARTIST, SUM(PLAYS) FROM " + artistPlaysDailyTableName +
+            " WHERE DAY BETWEEN ? AND ? GROUP BY ARTIST ORDER BY 2 DESC";
+    private static final String SELECT_SONG_PLAYS =
+            "SELECT PLAYS FROM " + songPlaysTableName + " WHERE FILEPATH = ?";
+    private static final String SELECT_RECENT_SLOTS =
+            "SELECT SLOT, FILEPATH, PLAYED_AT FROM " + recentSongsTableName;
+    private static final String UPDATE_RECENT_SLOT =
+            "UPDATE " + recentSongsTableName + " SET FILEPATH = ?, PLAYED_AT = ? WHERE SLOT = ?";
+    private static final String INSERT_RECENT_SLOT =
+            "INSERT INTO " + recentSongsTableName + " (FILEPATH, PLAYED_AT, SLOT) VALUES (?, ?, ?)";
+    private static final String DELETE_EXTRA_RECENT_SLOTS =
+            "DELETE FROM " + recentSongsTableName + " WHERE SLOT >= ?";
+    private static final String SELECT_RECENT_SONGS =
+            "SELECT S.FILEPATH, S.TITLE, S.ARTIST, S.ALBUM, S.YEAR_PUBLISHED, S.COMMENT, S.GENRE, S.TIME" +
+            " FROM " + recentSongsTableName + " R INNER JOIN " + songsTableName + " S" +
+            " ON R.FILEPATH = S.FILEPATH WHERE R.SLOT < ? ORDER BY R.PLAYED_AT DESC";
+
+    // Names of the columns saved in SHOW_HIDE_COLUMNS, in the order of getShowHideColumns()
+    private static final String[] showHideColumnNames = {"ARTIST", "ALBUM", "YEAR", "COMMENT", "GENRE"};
+
+    // Sort keys allowed in getSongPage(), from the table view column names to the SONGS columns
+    private static final HashMap<String, String> songSortColumns = new HashMap<String, String>();
+    static {
+        songSortColumns.put("Path", "FILEPATH");
+        songSortColumns.put("Title", "TITLE");
+        songSortColumns.put("Artist", "ARTIST");
+        songSortColumns.put("Album", "ALBUM");
+        songSortColumns.put("Year", "YEAR_PUBLISHED");
+        songSortColumns.put("Comment", "COMMENT");
+        songSortColumns.put("Genre", "GENRE");
+    }
+
     /**
      * Constructor for this class
      */
     private DatabaseHandler() {
+        connectionPool = new ConnectionPool(createDatabaseURL,
+                Integer.getInteger("mytunes.db.poolSize", DEFAULT_POOL_SIZE),
+                Integer.getInteger("mytunes.db.validationTimeout", DEFAULT_VALIDATION_TIMEOUT),
+                Long.getLong("mytunes.db.poolWaitTimeout", DEFAULT_POOL_WAIT_TIMEOUT),
+                Integer.getInteger("mytunes.db.statementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE));
+        batchSize = Math.max(1, Integer.getInteger("mytunes.db.batchSize", DEFAULT_BATCH_SIZE));
+        fetchSize = Integer.getInteger("mytunes.db.fetchSize", DEFAULT_FETCH_SIZE);
         //dropAllTables();  //this is for testing
         createSongTable();
         createPlaylistTable();
         createPlaylistSongsTable();
         createColShowHideTable();
         createRecentSongsTable();
+        migrateSchema();
     }
 
-    public static DatabaseHandler getInstance()
+    public static synchronized DatabaseHandler getInstance()
     {
         if (handler_instance == null)
             handler_instance = new DatabaseHandler();
@@ -45,15 +184,49 @@ public class DatabaseHandler {
         return handler_instance;
     }
 
+    /**
+     * Borrows a connection from the connection pool.
+     * Every connection must be given back by releaseConnection().
+     * @return an open connection to the database
+     * @throws SQLException if no connection is available
+     */
+    private PooledConnection getConnection() throws SQLException {
+        return connectionPool.getConnection();
+    }
+
+    /**
+     * Gives the connection back to the pool.
+     * The cached statements of the connection stay open for the next use.
+     * @param conn the borrowed connection, can be null
+     */
+    private void releaseConnection(PooledConnection conn) {
+        connectionPool.releaseConnection(conn);
+    }
+
+    /**
+     * Closes all pooled connections and shuts the embedded Derby database down.
+     * This should be called once when the application exits.
+     */
+    public void shutdown() {
+        connectionPool.shutdown();
+        try {
+            DriverManager.getConnection(shutdownURL);
+        } catch (SQLException e) {
+            if (e.getSQLState().equals("XJ015")) {
+                System.out.println("[Database] Derby shutdown normally.");
+            } else {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * This method creates the table that holds the songs in the database. If the table already exists, it won't
      * create a new one. The ID for each row is just the absolute path to the mp3 file.
      * The table contains the following columns: SONG_PATH, TITLE; ARTIST, ALBUM, YEAR_PUBLISHED, COMMENT, GENRE
      */
     public void createSongTable(){
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "CREATE TABLE "+ songsTableName + "( " +
+        createTable(songsTableName, "CREATE TABLE "+ songsTableName + "( " +
                 "FILEPATH VARCHAR(512) PRIMARY KEY," +
                 "TITLE VARCHAR(256), " +
                 "ARTIST VARCHAR(256), " +
@@ -62,105 +235,70 @@ public class DatabaseHandler {
                 "COMMENT VARCHAR(256), " +
                 "GENRE VARCHAR(256), " +
                 "TIME INTEGER" +
-                " )";
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql);
-            DriverManager.getConnection(shutdownURL);
-        } catch (SQLException e) {
-            if (e.getSQLState().equals("X0Y32")) {
-                System.out.println(songsTableName +" table already exists, won't create a new one.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
-        }
+                " )");
     }
 
     public void createPlaylistSongsTable() {
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "CREATE TABLE " + playlistSongsTableName + "( " +
+        createTable(playlistSongsTableName, "CREATE TABLE " + playlistSongsTableName + "( " +
                 "NAME VARCHAR(512), " +
-                "FILEPATH VARCHAR(512) )";
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql);
-            DriverManager.getConnection(shutdownURL);
-        } catch (SQLException e) {
-            if (e.getSQLState().equals("X0Y32")) {
-                System.out.println(playlistSongsTableName +" table already exists, won't create a new one.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
-        }
+                "FILEPATH VARCHAR(512) )");
     }
 
     public void createPlaylistTable() {
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "CREATE TABLE " + playlistTableName + "( " +
-                "NAME VARCHAR(512) PRIMARY KEY )";
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql);
-            DriverManager.getConnection(shutdownURL);
-        } catch (SQLException e) {
-            if (e.getSQLState().equals("X0Y32")) {
-                System.out.println(playlistTableName +" table already exists, won't create a new one.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
-        }
+        createTable(playlistTableName, "CREATE TABLE " + playlistTableName + "( " +
+                "NAME VARCHAR(512) PRIMARY KEY )");
     }
 
     public void createColShowHideTable() {
-        Connection conn = null;
+        createTable(showHideColumnsTableName, "CREATE TABLE " + showHideColumnsTableName + "( " +
+                "NAME VARCHAR(512), VISIBLE BOOLEAN )");
+    }
+
+    public void createRecentSongsTable() {
+        createTable(recentSongsTableName, "CREATE TABLE " + recentSongsTableName + "( " +
+                "PATH VARCHAR(512) )");
+    }
+
+    /**
+     * Runs a CREATE TABLE statement. If the table already exists, it won't create a new one.
+     * @param tableName the name of the table for the log
+     * @param sql the CREATE TABLE statement
+     */
+    private void createTable(String tableName, String sql) {
+        PooledConnection conn = null;
         Statement statement = null;
-        String sql = "CREATE TABLE " + showHideColumnsTableName + "( " +
-                "NAME VARCHAR(512), VISIBLE BOOLEAN )";
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
+            conn = getConnection();
+            statement = conn.getConnection().createStatement();
             statement.execute(sql);
-            DriverManager.getConnection(shutdownURL);
+            System.out.println("[Database] Created " + tableName + " table.");
         } catch (SQLException e) {
             if (e.getSQLState().equals("X0Y32")) {
-                System.out.println(showHideColumnsTableName +" table already exists, won't create a new one.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
+                System.out.println(tableName + " table already exists, won't create a new one.");
             } else {
                 e.printStackTrace();
             }
+        } finally {
+            closeStatement(statement);
+            releaseConnection(conn);
         }
     }
 
-    public void createRecentSongsTable() {
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "CREATE TABLE " + recentSongsTableName + "( " +
-                "PATH VARCHAR(512) )";
+    /**
+     * Upgrades the tables created above to the latest schema version, see SchemaMigrator.
+     * The playlist and recent songs tables are always created in their first layout
+     * and then migrated, so new and existing databases go through the same steps.
+     */
+    private void migrateSchema() {
+        PooledConnection conn = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql);
-            DriverManager.getConnection(shutdownURL);
+            conn = getConnection();
+            new SchemaMigrator(conn.getConnection()).migrate();
         } catch (SQLException e) {
-            if (e.getSQLState().equals("X0Y32")) {
-                System.out.println(recentSongsTableName + " table already exists, won't create a new one.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            System.out.println("[Database] Schema migration failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
         }
     }
 
@@ -172,36 +310,23 @@ public class DatabaseHandler {
      */
     public boolean addSong(Song song) {
         boolean success = false;
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "INSERT INTO "+ songsTableName +
-                "      VALUES ('"
-                + song.getPath()    + "', '"
-                + song.getTitle()   + "', '"
-                + song.getArtist()  + "', '"
-                + song.getAlbum()   + "', '"
-                + song.getYear()    + "', '"
-                + song.getComment() + "', '"
-                + song.getGenre()   + "', "
-                + song.getTime()    //this field is integer
-                + ")";
-        System.out.println("[Database] sql executed: " + sql);
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.executeUpdate(sql);
-            conn.close();
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(INSERT_SONG);
+            bindSong(statement, song);
+            statement.executeUpdate();
             System.out.println("[Database] Added song successfully.");
             success = true;
         } catch (SQLException e) {
             success = false;
             if (e.getSQLState().equals("23505")) {
                 System.out.println("[Database] Song is already saved in the database.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
             } else {
                 e.printStackTrace();
             }
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
@@ -219,103 +344,565 @@ public class DatabaseHandler {
         //change the name to lower case.
         playlistName = playlistName.toLowerCase();
 
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "INSERT INTO "+ playlistTableName +
-                "      VALUES ('" + playlistName + "')";
-        System.out.println("[Database] sql executed: " + sql);
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.executeUpdate(sql);
-            conn.close();
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(INSERT_PLAYLIST);
+            statement.setString(1, playlistName);
+            statement.executeUpdate();
             System.out.println("[Database] Added playlist successfully.");
             success = true;
         } catch (SQLException e) {
             success = false;
             if (e.getSQLState().equals("23505")) {
                 System.out.println("[Database] playlist is already saved in the database.");
-                success = false;
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
             } else {
                 e.printStackTrace();
-                success = false;
             }
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
+    /**
+     * Appends a song to the end of a playlist.
+     * The song must already be in the songs table.
+     * @param playlist the playlist to add the song to
+     * @param song the song to be added
+     * @return true if added, false if not
+     */
     public boolean addSongToPlaylist(Playlist playlist, Song song) {
         boolean success = false;
-        Connection conn = null;
-        Statement statement = null;
-        if (!playlistExists(playlist.getName())) {
-            System.out.println("This playlist does not exist yet, needs to be created first.");
-            return false;
-        }
-        String sql = "INSERT INTO "+ playlistSongsTableName +
-                "      VALUES ('"
-                + playlist.getName() + "', '"
-                + song.getPath()     + "'"
-                + ")";
-        System.out.println("[Database] sql executed: " + sql);
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.executeUpdate(sql);
-            conn.close();
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            int playlistId = getPlaylistId(conn, playlist.getName());
+            if (playlistId < 0) {
+                System.out.println("This playlist does not exist yet, needs to be created first.");
+                return false;
+            }
+            PreparedStatement statement = conn.prepareStatement(INSERT_PLAYLIST_SONG);
+            statement.setInt(1, playlistId);
+            statement.setInt(2, getNextPosition(conn, playlistId));
+            statement.setString(3, song.getPath());
+            statement.executeUpdate();
             System.out.println("[Database] Added song successfully.");
             success = true;
         } catch (SQLException e) {
             success = false;
             if (e.getSQLState().equals("23505")) {
                 System.out.println("[Database] This song is already saved in the playlist.");
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
             } else {
                 e.printStackTrace();
             }
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
+    /**
+     * Adds many songs to the songs table in a single transaction using JDBC batches
+     * of the default batch size (mytunes.db.batchSize).
+     * @param songs the songs to be added, identified by their paths
+     * @return which songs were inserted, were duplicates, or failed
+     */
+    public BulkInsertResult addSongs(Collection<Song> songs) {
+        return addSongs(songs, batchSize);
+    }
+
+    /**
+     * Adds many songs to the songs table in a single transaction using JDBC batches.
+     * Songs already in the database are reported as duplicates without failing the others.
+     * @param songs the songs to be added, identified by their paths
+     * @param batchSize the number of rows sent to Derby per executeBatch()
+     * @return which songs were inserted, were duplicates, or failed
+     */
+    public BulkInsertResult addSongs(Collection<Song> songs, int batchSize) {
+        BulkInsertResult result = new BulkInsertResult();
+        ArrayList<Song> rows = removeDuplicatePaths(songs, result);
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            executeBatchInsert(conn.prepareStatement(INSERT_SONG), rows, batchSize, result, new RowBinder() {
+                @Override
+                public void bind(PreparedStatement statement, Song song) throws SQLException {
+                    bindSong(statement, song);
+                }
+            });
+            conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            result.rollback();
+        } finally {
+            releaseConnection(conn);
+        }
+        System.out.println("[Database] Bulk added songs: " + result);
+        return result;
+    }
+
+    /**
+     * Adds many songs to a playlist in a single transaction using JDBC batches
+     * of the default batch size (mytunes.db.batchSize).
+     * @param playlist the playlist to add the songs to, which must exist in the database
+     * @param songs the songs to be added
+     * @return which songs were inserted or failed
+     */
+    public BulkInsertResult addSongsToPlaylist(Playlist playlist, Collection<Song> songs) {
+        return addSongsToPlaylist(playlist, songs, batchSize);
+    }
+
+    /**
+     * Adds many songs to a playlist in a single transaction using JDBC batches.
+     * @param playlist the playlist to add the songs to, which must exist in the database
+     * @param songs the songs to be added
+     * @param batchSize the number of rows sent to Derby per executeBatch()
+     * @return which songs were inserted or failed
+     */
+    public BulkInsertResult addSongsToPlaylist(final Playlist playlist, Collection<Song> songs, int batchSize) {
+        BulkInsertResult result = new BulkInsertResult();
+        ArrayList<Song> rows = new ArrayList<Song>(songs);
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            final int playlistId = getPlaylistId(conn, playlist.getName());
+            if (playlistId < 0) {
+                System.out.println("This playlist does not exist yet, needs to be created first.");
+                for (Song song : rows) {
+                    result.addFailed(song.getPath());
+                }
+                return result;
+            }
+            conn.setAutoCommit(false);
+            //a failed row leaves a gap in the positions, which doesn't change the order
+            final int[] nextPosition = {getNextPosition(conn, playlistId)};
+            executeBatchInsert(conn.prepareStatement(INSERT_PLAYLIST_SONG), rows, batchSize, result, new RowBinder() {
+                @Override
+                public void bind(PreparedStatement statement, Song song) throws SQLException {
+                    statement.setInt(1, playlistId);
+                    statement.setInt(2, nextPosition[0]++);
+                    statement.setString(3, song.getPath());
+                }
+            });
+            conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            result.rollback();
+        } finally {
+            releaseConnection(conn);
+        }
+        System.out.println("[Database] Bulk added songs to playlist '" + playlist.getName() + "': " + result);
+        return result;
+    }
+
+    /**
+     * Binds the parameters of one row of a batched insert.
+     */
+    private interface RowBinder {
+        void bind(PreparedStatement statement, Song song) throws SQLException;
+    }
+
+    /**
+     * Inserts the rows with executeBatch() in chunks of batchSize on a connection with auto-commit off.
+     * When a row fails, Derby stops the batch at that row. The failed row is reported
+     * (as a duplicate for SQLState 23505) and the batch goes on from the next row,
+     * so the rows before it stay in the transaction.
+     */
+    private void executeBatchInsert(PreparedStatement statement, ArrayList<Song> rows, int batchSize,
+                                    BulkInsertResult result, RowBinder binder) throws SQLException {
+        if (batchSize < 1) {
+            batchSize = 1;
+        }
+        int start = 0;
+        while (start < rows.size()) {
+            int end = Math.min(start + batchSize, rows.size());
+            for (int i = start; i < end; i++) {
+                binder.bind(statement, rows.get(i));
+                statement.addBatch();
+            }
+            try {
+                statement.executeBatch();
+                for (int i = start; i < end; i++) {
+                    result.addInserted(rows.get(i).getPath());
+                }
+                start = end;
+            } catch (BatchUpdateException e) {
+                statement.clearBatch();
+                int[] counts = e.getUpdateCounts();
+                int executed = (counts == null) ? 0 : counts.length;
+                int failedIndex = start + executed;
+                for (int i = 0; i < executed; i++) {
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        //the driver went on after a failure, so the first failure is here
+                        failedIndex = start + i;
+                        break;
+                    }
+                    result.addInserted(rows.get(start + i).getPath());
+                }
+                if (failedIndex >= end) {
+                    throw e;    //no row to blame, give up on the whole transaction
+                }
+                String failedPath = rows.get(failedIndex).getPath();
+                if (isDuplicateKey(e)) {
+                    result.addDuplicate(failedPath);
+                } else {
+                    System.out.println("[Database] Failed to insert '" + failedPath + "': " + e.getMessage());
+                    result.addFailed(failedPath);
+                }
+                start = failedIndex + 1;
+            }
+        }
+    }
+
+    /**
+     * Checks if an exception or any chained one is a duplicate key violation (SQLState 23505)
+     */
+    private boolean isDuplicateKey(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if ("23505".equals(next.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops songs with a null path or a path appearing more than once, which are reported as duplicates.
+     */
+    private ArrayList<Song> removeDuplicatePaths(Collection<Song> songs, BulkInsertResult result) {
+        ArrayList<Song> rows = new ArrayList<Song>(songs.size());
+        HashSet<String> paths = new HashSet<String>();
+        for (Song song : songs) {
+            if (song.getPath() == null) {
+                continue;
+            }
+            if (paths.add(song.getPath())) {
+                rows.add(song);
+            } else {
+                result.addDuplicate(song.getPath());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Updates the tags and the file stamps of songs already in the songs table, in a single transaction.
+     * @param songs the songs with their new tags, identified by their paths
+     * @return the number of songs updated, -1 if the transaction was rolled back
+     */
+    public int updateSongs(Collection<Song> songs) {
+        int updated = 0;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            updated = sum(executeBatchUpdate(conn, new ArrayList<Song>(songs)));
+            conn.commit();
+            System.out.println("[Database] Updated " + updated + " songs.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            updated = -1;
+        } finally {
+            releaseConnection(conn);
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes songs from the songs table in a single transaction.
+     * The foreign keys delete them from all the playlists and recent songs as well.
+     * @param paths the paths of the songs to be deleted
+     * @return the number of songs deleted, -1 if the transaction was rolled back
+     */
+    public int deleteSongs(Collection<String> paths) {
+        int deleted = 0;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            deleted = sum(executeBatchDelete(conn, new ArrayList<String>(paths)));
+            conn.commit();
+            System.out.println("[Database] Deleted " + deleted + " songs.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            deleted = -1;
+        } finally {
+            releaseConnection(conn);
+        }
+        return deleted;
+    }
+
+    /**
+     * Applies a set of changes to the songs table in a single transaction:
+     * deletes the removed paths, updates the songs already saved and inserts the others.
+     * Nothing is applied if the transaction fails.
+     * @param changedSongs songs created or modified on disk, identified by their paths
+     * @param removedPaths paths of songs whose files are gone
+     * @return what was deleted, updated and added, all empty if the transaction was rolled back
+     */
+    public LibraryChanges applyLibraryChanges(Collection<Song> changedSongs, Collection<String> removedPaths) {
+        LibraryChanges changes = new LibraryChanges();
+        ArrayList<Song> songs = new ArrayList<Song>(changedSongs);
+        ArrayList<String> paths = new ArrayList<String>(removedPaths);
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            int[] deleteCounts = executeBatchDelete(conn, paths);
+            for (int i = 0; i < deleteCounts.length; i++) {
+                if (deleteCounts[i] > 0) {
+                    changes.addRemoved(paths.get(i));
+                }
+            }
+            //an update touching no row means the song is new
+            int[] updateCounts = executeBatchUpdate(conn, songs);
+            ArrayList<Song> newSongs = new ArrayList<Song>();
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] > 0) {
+                    changes.addUpdated(songs.get(i));
+                } else {
+                    newSongs.add(songs.get(i));
+                }
+            }
+            BulkInsertResult inserted = new BulkInsertResult();
+            executeBatchInsert(conn.prepareStatement(INSERT_SONG), newSongs, batchSize, inserted, new RowBinder() {
+                @Override
+                public void bind(PreparedStatement statement, Song song) throws SQLException {
+                    bindSong(statement, song);
+                }
+            });
+            HashSet<String> insertedPaths = new HashSet<String>(inserted.getInserted());
+            for (Song song : newSongs) {
+                if (insertedPaths.contains(song.getPath())) {
+                    changes.addAdded(song);
+                }
+            }
+            conn.commit();
+            System.out.println("[Database] Applied library changes: " + changes);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            changes = new LibraryChanges();     //the pool rolls back on release
+        } finally {
+            releaseConnection(conn);
+        }
+        return changes;
+    }
+
+    /**
+     * Runs UPDATE_SONG for the songs in batches on a connection with auto-commit off.
+     * @return the update count of each song, 0 if it isn't saved
+     */
+    private int[] executeBatchUpdate(PooledConnection conn, ArrayList<Song> songs) throws SQLException {
+        int[] counts = new int[songs.size()];
+        PreparedStatement statement = conn.prepareStatement(UPDATE_SONG);
+        int done = 0;
+        for (int i = 0; i < songs.size(); i++) {
+            Song song = songs.get(i);
+            statement.setString(1, song.getTitle());
+            statement.setString(2, song.getArtist());
+            statement.setString(3, song.getAlbum());
+            statement.setString(4, song.getYear());
+            statement.setString(5, song.getComment());
+            statement.setString(6, song.getGenre());
+            statement.setInt(7, song.getTime());
+            bindFileStamp(statement, 8, FileStamp.of(song.getPath()));
+            statement.setString(11, song.getPath());
+            statement.addBatch();
+            if ((i + 1) % batchSize == 0 || i == songs.size() - 1) {
+                int[] batchCounts = statement.executeBatch();
+                System.arraycopy(batchCounts, 0, counts, done, batchCounts.length);
+                done += batchCounts.length;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Runs DELETE_SONG for the paths in batches on a connection with auto-commit off.
+     * @return the delete count of each path, 0 if it isn't saved
+     */
+    private int[] executeBatchDelete(PooledConnection conn, ArrayList<String> paths) throws SQLException {
+        int[] counts = new int[paths.size()];
+        PreparedStatement statement = conn.prepareStatement(DELETE_SONG);
+        int done = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            statement.setString(1, paths.get(i));
+            statement.addBatch();
+            if ((i + 1) % batchSize == 0 || i == paths.size() - 1) {
+                int[] batchCounts = statement.executeBatch();
+                System.arraycopy(batchCounts, 0, counts, done, batchCounts.length);
+                done += batchCounts.length;
+            }
+        }
+        return counts;
+    }
+
+    private int sum(int[] updateCounts) {
+        int sum = 0;
+        for (int count : updateCounts) {
+            if (count > 0) {
+                sum += count;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the file stamps saved with the songs, to find the files changed since they were added.
+     * @return the stamps by song path, a null stamp for songs saved without one
+     */
+    public HashMap<String, FileStamp> getFileStamps() {
+        HashMap<String, FileStamp> stamps = new HashMap<String, FileStamp>();
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_FILE_STAMPS);
+            statement.setFetchSize(fetchSize);
+            results = statement.executeQuery();
+            while (results.next()) {
+                long size = results.getLong("FILE_SIZE");
+                FileStamp stamp = results.wasNull() ? null
+                        : new FileStamp(size, results.getLong("LAST_MODIFIED"), results.getString("FILE_KEY"));
+                stamps.put(results.getString("FILEPATH"), stamp);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return stamps;
+    }
+
+    /**
+     * Gets the seek table saved with a song.
+     * @param songPath the path of the song
+     * @return the index, null if none was saved (or it is from an older format)
+     */
+    public FrameIndex getFrameIndex(String songPath) {
+        FrameIndex index = null;
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_FRAME_INDEX);
+            statement.setString(1, songPath);
+            results = statement.executeQuery();
+            if (results.next()) {
+                byte[] bytes = results.getBytes("FRAME_INDEX");
+                index = (bytes == null) ? null : FrameIndex.fromBytes(bytes);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return index;
+    }
+
+    /**
+     * Saves the seek table of a song, it is cleared when the song is updated from a changed file.
+     * @param songPath the path of the song
+     * @param index the index built from the file
+     * @return true if saved, false if not (e.g. the song is not in the library)
+     */
+    public boolean saveFrameIndex(String songPath, FrameIndex index) {
+        boolean success = false;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(UPDATE_FRAME_INDEX);
+            statement.setBytes(1, index.toBytes());
+            statement.setString(2, songPath);
+            success = statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Remembers a folder imported to the library, to look for new files in it on rescan.
+     * @param folderPath the absolute path of the folder
+     * @return true if added, false if not (e.g. the folder is already saved)
+     */
+    public boolean addLibraryFolder(String folderPath) {
+        boolean success = false;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(INSERT_LIBRARY_FOLDER);
+            statement.setString(1, folderPath);
+            statement.executeUpdate();
+            System.out.println("[Database] Added library folder successfully.");
+            success = true;
+        } catch (SQLException e) {
+            success = false;
+            if (!e.getSQLState().equals("23505")) {
+                e.printStackTrace();
+            }
+        } finally {
+            releaseConnection(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Gets the folders imported to the library.
+     * @return an array list of absolute folder paths
+     */
+    public ArrayList<String> getLibraryFolders() {
+        ArrayList<String> list = new ArrayList<String>();
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            results = conn.prepareStatement(SELECT_LIBRARY_FOLDERS).executeQuery();
+            while (results.next()) {
+                list.add(results.getString("PATH"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return list;
+    }
+
     /**
      * This method deletes a song from the database table.
+     * The foreign keys delete it from all the playlists and recent songs as well.
      * @param song the song to be deleted from the database; is identified by its absolute path
      * @return true if the song was deleted successfully; false if not
      */
     public boolean deleteSong(Song song) {
         boolean success = true;
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "DELETE FROM " + songsTableName +
-                "      WHERE FILEPATH = '" + song.getPath() + "'";
+        PooledConnection conn = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql);
-            conn.close();
+            conn = getConnection();
+            PreparedStatement deleteSong = conn.prepareStatement(DELETE_SONG);
+            deleteSong.setString(1, song.getPath());
+            deleteSong.executeUpdate();
             System.out.println("[Database] Deleted song.");
         } catch (SQLException e) {
             success = false;
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
-        }
-        if (success) {
-            for (Playlist playlist : this.getAllPlaylistsObjects()) {
-                this.deleteSongFromPlaylist(playlist, song);
-            }
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
     /**
-     * Deletes a playlist from PLAYLIST table
-     * and all songs in the playlist from PLAYLIST_SONG table.
+     * Deletes a playlist from PLAYLIST table.
+     * The foreign key deletes all songs in the playlist from PLAYLIST_SONG table.
      * Note that this doesn't delete songs from the library.
      * Note that all playlist names stored in db are lower-cased.
      * @param playlistName the name of the playlist to be deleted
@@ -327,111 +914,170 @@ public class DatabaseHandler {
         //change the name to lower case.
         playlistName = playlistName.toLowerCase();
 
-        Connection conn = null;
-        Statement statement = null;
-        String sql1 = "DELETE FROM " + playlistTableName +
-                "      WHERE NAME = '" + playlistName + "'";
-        String sql2 = "DELETE FROM " + playlistSongsTableName +
-                "      WHERE NAME = '" + playlistName + "'";
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql1);
-            statement.execute(sql2);
-            conn.close();
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement deletePlaylist = conn.prepareStatement(DELETE_PLAYLIST);
+            deletePlaylist.setString(1, playlistName);
+            deletePlaylist.executeUpdate();
             System.out.println("[Database] Deleted playlist from database.");
         } catch (SQLException e) {
             success = false;
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
+    /**
+     * Deletes the first occurrence of a song from a playlist.
+     * @param playlist the playlist to delete the song from
+     * @param song the song to be deleted
+     * @return true if no error occurred
+     */
     public boolean deleteSongFromPlaylist(Playlist playlist, Song song) {
         boolean success = true;
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "SELECT * FROM " + playlistSongsTableName +
-                "      WHERE FILEPATH = '" + song.getPath() + "' AND NAME = '" + playlist.getName() + "'";
-
-        //String sql = "DELETE FROM " + playlistSongsTableName +
-        //        "      WHERE FILEPATH = '" + song.getPath() + "' AND NAME = '" + playlist.getName() + "'";
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
-                    ResultSet.CONCUR_UPDATABLE);
-            //statement.execute(sql);
-            ResultSet results = statement.executeQuery(sql);
-
-            int size = results.getFetchSize();
-            int counter = 0;
-            while(results.next()) {
-                if (counter == results.getFetchSize() - 1)  {
-                    System.out.println("[Database] Deleting song at counter " + counter  + " out of size " + size );
-                    results.deleteRow();
-                    break;
-                }
-                counter++;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            int playlistId = getPlaylistId(conn, playlist.getName());
+            if (playlistId < 0) {
+                return true;
+            }
+            PreparedStatement statement = conn.prepareStatement(DELETE_FIRST_PLAYLIST_SONG);
+            statement.setInt(1, playlistId);
+            statement.setInt(2, playlistId);
+            statement.setString(3, song.getPath());
+            if (statement.executeUpdate() > 0) {
+                System.out.println("[Database] Deleted song from playlist.");
             }
-            results.close();
-            conn.close();
-            System.out.println("[Database] Deleted song from playlist.");
         } catch (SQLException e) {
             success = false;
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
     /**
-     * This method returns all the songs saved in the database
-     * @return an ArrayList of songs
+     * This method returns all the songs saved in the database.
+     * Prefer forEachSong() for large libraries, which doesn't need a second copy of all songs.
+     * @return an ArrayList of songs, null if an error occurred
      */
     public ArrayList<Song> getSongLibrary() {
-        Connection conn = null;
-        Statement statement = null;
         ArrayList<Song> list = new ArrayList<Song>();
-        String sql = "SELECT * FROM " + songsTableName;
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
+        if (forEachSong(list::add) < 0) {
+            return null;
+        }
+        return list;
+    }
 
-            while(results.next())
-            {
-                String file_path = results.getString(results.findColumn("FILEPATH"));
-                String title = results.getString(results.findColumn("TITLE"));
-                String artist = results.getString(results.findColumn("ARTIST"));
-                String album = results.getString(results.findColumn("ALBUM"));
-                String year = results.getString(results.findColumn("YEAR_PUBLISHED"));
-                String comment = results.getString(results.findColumn("COMMENT"));
-                String genre = results.getString(results.findColumn("GENRE"));
-                int time = results.getInt(results.findColumn("TIME"));
-                Song song = new Song(file_path, title, artist, album, year, comment, genre, time);
-                list.add(song);
-            }
-            results.close();
-            conn.close();
+    /**
+     * Streams all songs of the songs table to the consumer, fetching the default number of rows
+     * (mytunes.db.fetchSize) per round trip.
+     * @param consumer called with each song, in the order of the table
+     * @return the number of songs read, -1 if an error occurred
+     */
+    public int forEachSong(Consumer<Song> consumer) {
+        return forEachSong(consumer, fetchSize);
+    }
 
+    /**
+     * Streams all songs of the songs table to the consumer over a forward-only cursor,
+     * so only fetchSize rows are held by the driver at a time.
+     * The consumer is called on the calling thread while a pooled connection is held,
+     * so it should not block for long.
+     * @param consumer called with each song, in the order of the table
+     * @param fetchSize the number of rows fetched per round trip
+     * @return the number of songs read, -1 if an error occurred
+     */
+    public int forEachSong(Consumer<Song> consumer, int fetchSize) {
+        int count = 0;
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_ALL_SONGS);
+            statement.setFetchSize(Math.max(fetchSize, 1));
+            results = statement.executeQuery();
+            while (results.next()) {
+                consumer.accept(readSong(results));
+                count++;
+            }
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
+            e.printStackTrace();
+            return -1;
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return count;
+    }
+
+    /**
+     * Gets one page of songs sorted on a column, case-insensitive. Unlike SongArray.sortByColumn(),
+     * the database compares characters, so spaces and accents may order songs differently.
+     * Songs with the same value are ordered by path, so pages never overlap.
+     * @param columnName "Path", "Title", "Artist", "Album", "Year", "Comment", or "Genre"
+     * @param ascending true for A-Z, false for Z-A
+     * @param offset the number of songs to skip
+     * @param limit the maximum number of songs of the page
+     * @return an array list of at most limit songs, empty if offset is past the end or an error occurred
+     */
+    public ArrayList<Song> getSongPage(String columnName, boolean ascending, int offset, int limit) {
+        ArrayList<Song> list = new ArrayList<Song>();
+        String column = songSortColumns.get(columnName);
+        if (column == null) {
+            System.out.println("getSongPage() improper parameter: columnName " + columnName);
+            return list;
+        }
+        String direction = ascending ? "ASC" : "DESC";
+        //the sort key comes from the whitelist above, the page bounds are parameters
+        String sql = SELECT_ALL_SONGS + " ORDER BY LOWER(" + column + ") " + direction + ", FILEPATH " + direction +
+                " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(sql);
+            statement.setInt(1, Math.max(offset, 0));
+            statement.setInt(2, Math.max(limit, 1));
+            statement.setFetchSize(Math.max(limit, 1));
+            results = statement.executeQuery();
+            while (results.next()) {
+                list.add(readSong(results));
             }
-            return null;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
         return list;
     }
 
+    /**
+     * Counts the songs in the songs table, e.g. to know the number of pages of getSongPage().
+     * @return the number of songs, -1 if an error occurred
+     */
+    public int getSongCount() {
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            results = conn.prepareStatement(COUNT_SONGS).executeQuery();
+            return results.next() ? results.getInt(1) : 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+    }
+
     /**
      * Gets all songs in a playlist by a Playlist instance.
      * This method reuses getSongsInPlayList(String playlistName){}
@@ -448,308 +1094,580 @@ public class DatabaseHandler {
      * @return an array list of songs
      */
     public ArrayList<Song> getSongsInPlaylist(String playlistName) {
-        Connection conn = null;
-
         //lower case the playlist name
         playlistName = playlistName.toLowerCase();
 
-        Statement statement = null;
         ArrayList<Song> list = new ArrayList<Song>();
-        String sql = "SELECT * FROM " + playlistSongsTableName + " INNER JOIN " + songsTableName + " ON " +
-                playlistSongsTableName + ".FILEPATH = " + songsTableName + ".FILEPATH " +
-                "WHERE " + playlistSongsTableName + ".NAME = '" + playlistName + "'";
-
+        PooledConnection conn = null;
+        ResultSet results = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
-
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_SONGS_IN_PLAYLIST);
+            statement.setString(1, playlistName);
+            results = statement.executeQuery();
             while(results.next())
             {
-                String file_path = results.getString(results.findColumn("FILEPATH"));
-                String title = results.getString(results.findColumn("TITLE"));
-                String artist = results.getString(results.findColumn("ARTIST"));
-                String album = results.getString(results.findColumn("ALBUM"));
-                String year = results.getString(results.findColumn("YEAR_PUBLISHED"));
-                String comment = results.getString(results.findColumn("COMMENT"));
-                String genre = results.getString(results.findColumn("GENRE"));
-                int time = results.getInt(results.findColumn("TIME"));
-
-                System.out.println("[Database] returning Song path " + file_path);
-
-                Song song = new Song(file_path, title, artist, album, year, comment, genre, time);
-                list.add(song);
+                list.add(readSong(results));
             }
-            results.close();
-            conn.close();
-
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
         return list;
     }
 
-    public ArrayList<Playlist> getAllPlaylistsObjects() {
-        Connection conn = null;
-        Statement statement = null;
-        ArrayList<Playlist> list = new ArrayList<Playlist>();
-        String sql = "SELECT NAME FROM " + playlistTableName;
+    /**
+     * Gets all playlists with their songs in order.
+     * All playlist songs are read by a single query, instead of one query per playlist.
+     * The songs are the objects of the library, see SongLibrary.shareSong(), so a song in many playlists is kept once.
+     * @param library the library sharing its songs
+     * @return an array list of playlists, null if an error occurred
+     */
+    public ArrayList<Playlist> getAllPlaylistsObjects(SongLibrary library) {
+        ArrayList<String> names = getAllPlaylistsStrings();
+        if (names == null) {
+            return null;
+        }
+        LinkedHashMap<String, Playlist> playlists = new LinkedHashMap<String, Playlist>();
+        for (String name : names) {
+            playlists.put(name, new Playlist(name));
+        }
+        PooledConnection conn = null;
+        ResultSet results = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
-
-            while(results.next())
-            {
-                String name = results.getString(results.findColumn("NAME"));
-                Playlist playlist = new Playlist(name);
-                list.add(playlist);
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_ALL_PLAYLIST_SONGS);
+            statement.setFetchSize(fetchSize);
+            results = statement.executeQuery();
+            while (results.next()) {
+                Playlist playlist = playlists.get(results.getString("NAME"));
+                if (playlist != null) {
+                    Song song = library.getSharedSong(results.getString("FILEPATH"));
+                    if (song == null) {
+                        song = library.shareSong(readSong(results));
+                    }
+                    playlist.getSongList().add(song);
+                }
             }
-            results.close();
-            conn.close();
-
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
-            return null;
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
-        return list;
+        return new ArrayList<Playlist>(playlists.values());
     }
 
     public ArrayList<String> getAllPlaylistsStrings() {
-        Connection conn = null;
-        Statement statement = null;
         ArrayList<String> list = new ArrayList<String>();
-        String sql = "SELECT NAME FROM " + playlistTableName;
+        PooledConnection conn = null;
+        ResultSet results = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
-
+            conn = getConnection();
+            results = conn.prepareStatement(SELECT_PLAYLIST_NAMES).executeQuery();
             while(results.next())
             {
-                String name = results.getString(results.findColumn("NAME"));
-                list.add(name);
+                list.add(results.getString("NAME"));
             }
-            results.close();
-            conn.close();
-
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            e.printStackTrace();
             return null;
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
         return list;
     }
 
     public boolean playlistExists(String playlistName) {
         boolean exists = false;
-        Connection conn = null;
-        Statement statement = null;
-        ArrayList<Song> list = new ArrayList<Song>();
-        String sql = "SELECT NAME FROM " + playlistTableName + " WHERE NAME = '" + playlistName + "'";
+        PooledConnection conn = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
+            conn = getConnection();
+            exists = getPlaylistId(conn, playlistName) >= 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exists = false;
+        } finally {
+            releaseConnection(conn);
+        }
+        return exists;
+    }
 
-            while(results.next())
-            {
-                exists = true;
-                System.out.println(results.getString(results.findColumn("NAME")));
-            }
+    /**
+     * Gets the surrogate key of a playlist by its name, which is lower-cased like in addPlaylist().
+     * @return the ID of the playlist, -1 if it doesn't exist
+     */
+    private int getPlaylistId(PooledConnection conn, String playlistName) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(SELECT_PLAYLIST_BY_NAME);
+        statement.setString(1, playlistName.toLowerCase());
+        ResultSet results = statement.executeQuery();
+        try {
+            return results.next() ? results.getInt("ID") : -1;
+        } finally {
             results.close();
-            conn.close();
+        }
+    }
 
-        } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-                exists = false;
+    /**
+     * Gets the position after the last song of a playlist, 0 for an empty playlist.
+     */
+    private int getNextPosition(PooledConnection conn, int playlistId) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(SELECT_LAST_POSITION);
+        statement.setInt(1, playlistId);
+        ResultSet results = statement.executeQuery();
+        try {
+            if (results.next()) {
+                int lastPosition = results.getInt(1);
+                return results.wasNull() ? 0 : lastPosition + 1;
             }
+            return 0;
+        } finally {
+            results.close();
         }
-        return exists;
     }
 
     public boolean saveShowHideColumns(boolean[] columnVisibility) {
         boolean success = false;
-        Connection conn = null;
-        Statement statement = null;
-        ArrayList<Song> list = new ArrayList<Song>();
-        String sql1 = "DELETE FROM " + showHideColumnsTableName + " WHERE 1 = 1";
-        String sql2 = "INSERT INTO " + showHideColumnsTableName + " VALUES ('" +
-                        "ARTIST' , " + columnVisibility[0] + "), ('" +
-                        "ALBUM', " + columnVisibility[1] + "), ('" +
-                        "YEAR', " + columnVisibility[2] + "), ('" +
-                        "COMMENT', " + columnVisibility[3] + "), ('" +
-                        "GENRE', " + columnVisibility[4] + ")";
-
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql1);
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            conn.prepareStatement(DELETE_SHOW_HIDE_COLUMNS).executeUpdate();
             System.out.println("[Database] Deleted everything in saveShowHideColumns");
-            statement.execute(sql2);
+            PreparedStatement insert = conn.prepareStatement(INSERT_SHOW_HIDE_COLUMN);
+            for (int i = 0; i < showHideColumnNames.length; i++) {
+                insert.setString(1, showHideColumnNames[i]);
+                insert.setBoolean(2, columnVisibility[i]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            conn.commit();
             System.out.println("[Database] Input everything in saveShowHideColumns");
-            conn.close();
             success = true;
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-                success = true;
-            } else {
-                e.printStackTrace();
-                success = false;
-            }
+            e.printStackTrace();
+            success = false;
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
     public boolean[] getShowHideColumns() {
-        Connection conn = null;
-        Statement statement = null;
-        boolean[] columnVisibility = new boolean[5];
-        String sql = "SELECT * FROM " + showHideColumnsTableName;
+        boolean[] columnVisibility = new boolean[showHideColumnNames.length];
+        PooledConnection conn = null;
+        ResultSet results = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
+            conn = getConnection();
+            results = conn.prepareStatement(SELECT_SHOW_HIDE_COLUMNS).executeQuery();
             int index = 0;
-            while(results.next())
+            while(results.next() && index < columnVisibility.length)
             {
-                columnVisibility[index] = results.getBoolean(results.findColumn("VISIBLE"));
+                columnVisibility[index] = results.getBoolean("VISIBLE");
                 index++;
             }
-            results.close();
-            conn.close();
-
         } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
-            }
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
         return columnVisibility;
     }
 
     /**
-     * Clears Playlist_Songs and Playlist table
+     * Clears Playlist_Songs and Playlist table.
+     * The rows of Playlist_Songs are deleted by the foreign key.
      */
     public boolean clearPlaylists(){
         boolean success = false;
-        Connection conn = null;
-        Statement statement = null;
-        String sql1 = "DELETE FROM " + playlistTableName;
-        String sql2 = "DELETE FROM " + playlistSongsTableName;
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.execute(sql1);
-            statement.execute(sql2);
-            conn.close();
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.prepareStatement(DELETE_ALL_PLAYLISTS).executeUpdate();
             success = true;
             System.out.println("[Database] Cleared "+playlistTableName+" and "+playlistSongsTableName+".");
-
         } catch (SQLException e) {
             success = false;
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
-            } else {
-                e.printStackTrace();
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
+        }
+        return success;
+    }
+
+    /**
+     * Play counts of one bucket of a rollup table, summed over a batch of play events.
+     */
+    private static class PlayCounts {
+        int plays;
+        int skips;
+        long playedMillis;
+
+        void add(PlayEvent event) {
+            plays++;
+            skips += event.isCompleted() ? 0 : 1;
+            playedMillis += event.getPlayedMillis();
+        }
+    }
+
+    /**
+     * Appends play events to the play history and adds them to the rollups in one transaction:
+     * SONG_PLAYS per song, SONG_PLAYS_DAILY per song and day, ARTIST_PLAYS_DAILY per artist and day.
+     * The events are summed per bucket first, so each bucket is written once per batch.
+     * @param events the events, in the order they happened
+     * @return true if all were saved, false if none were
+     */
+    public boolean addPlayEvents(List<PlayEvent> events) {
+        boolean success = false;
+        PooledConnection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement insert = conn.prepareStatement(INSERT_PLAY_EVENT);
+            HashMap<String, String> artists = new HashMap<String, String>();
+            PreparedStatement selectArtist = conn.prepareStatement(SELECT_SONG_ARTIST);
+            LinkedHashMap<List<Object>, PlayCounts> songTotals = new LinkedHashMap<List<Object>, PlayCounts>();
+            LinkedHashMap<List<Object>, PlayCounts> songDays = new LinkedHashMap<List<Object>, PlayCounts>();
+            LinkedHashMap<List<Object>, PlayCounts> artistDays = new LinkedHashMap<List<Object>, PlayCounts>();
+            for (PlayEvent event : events) {
+                insert.setString(1, event.getPath());
+                insert.setLong(2, event.getStartedAt());
+                insert.setLong(3, event.getPlayedMillis());
+                insert.setShort(4, (short) (event.isCompleted() ? 1 : 0));
+                insert.addBatch();
+
+                String artist = artists.get(event.getPath());
+                if (artist == null) {
+                    selectArtist.setString(1, event.getPath());
+                    ResultSet results = selectArtist.executeQuery();
+                    artist = results.next() ? results.getString("ARTIST") : null;
+                    results.close();
+                    artist = (artist == null || artist.isEmpty()) ? "unknown" : artist;    //e.g. opened with "Open Song"
+                    artists.put(event.getPath(), artist);
+                }
+                countPlay(songTotals, Collections.<Object>singletonList(event.getPath()), event);
+                countPlay(songDays, Arrays.<Object>asList(event.getDay(), event.getPath()), event);
+                countPlay(artistDays, Arrays.<Object>asList(event.getDay(), artist), event);
             }
+            insert.executeBatch();
+            addToRollup(conn, songPlaysTableName, new String[]{"FILEPATH"}, songTotals);
+            addToRollup(conn, songPlaysDailyTableName, new String[]{"DAY", "FILEPATH"}, songDays);
+            addToRollup(conn, artistPlaysDailyTableName, new String[]{"DAY", "ARTIST"}, artistDays);
+            conn.commit();
+            System.out.println("[Database] Added " + events.size() + " play events successfully.");
+            success = true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            releaseConnection(conn);
         }
         return success;
     }
 
+    private static void countPlay(Map<List<Object>, PlayCounts> buckets, List<Object> key, PlayEvent event) {
+        PlayCounts counts = buckets.get(key);
+        if (counts == null) {
+            counts = new PlayCounts();
+            buckets.put(key, counts);
+        }
+        counts.add(event);
+    }
+
+    /**
+     * Adds the counts of a batch to the buckets of a rollup table, inserting the buckets not there yet.
+     * @param tableName the rollup table, with PLAYS, SKIPS and PLAYED_MILLIS columns
+     * @param keyColumns the columns of its key, in the order of the values of the keys
+     * @param buckets the counts to add, by key
+     */
+    private void addToRollup(PooledConnection conn, String tableName, String[] keyColumns,
+                             Map<List<Object>, PlayCounts> buckets) throws SQLException {
+        StringBuilder where = new StringBuilder();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (String column : keyColumns) {
+            where.append(where.length() == 0 ? " WHERE " : " AND ").append(column).append(" = ?");
+            columns.append(", ").append(column);
+            values.append(", ?");
+        }
+        PreparedStatement update = conn.prepareStatement("UPDATE " + tableName +
+                " SET PLAYS = PLAYS + ?, SKIPS = SKIPS + ?, PLAYED_MILLIS = PLAYED_MILLIS + ?" + where);
+        List<Map.Entry<List<Object>, PlayCounts>> entries = new ArrayList<Map.Entry<List<Object>, PlayCounts>>(buckets.entrySet());
+        for (Map.Entry<List<Object>, PlayCounts> entry : entries) {
+            bindPlayCounts(update, entry.getValue(), entry.getKey());
+            update.addBatch();
+        }
+        int[] updated = update.executeBatch();
+
+        PreparedStatement insert = conn.prepareStatement("INSERT INTO " + tableName +
+                " (PLAYS, SKIPS, PLAYED_MILLIS" + columns + ") VALUES (?, ?, ?" + values + ")");
+        int inserted = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (updated[i] == 0) {
+                bindPlayCounts(insert, entries.get(i).getValue(), entries.get(i).getKey());
+                insert.addBatch();
+                inserted++;
+            }
+        }
+        if (inserted > 0) {
+            insert.executeBatch();
+        }
+    }
+
+    private void bindPlayCounts(PreparedStatement statement, PlayCounts counts, List<Object> key) throws SQLException {
+        statement.setInt(1, counts.plays);
+        statement.setInt(2, counts.skips);
+        statement.setLong(3, counts.playedMillis);
+        for (int i = 0; i < key.size(); i++) {
+            statement.setObject(4 + i, key.get(i));
+        }
+    }
+
+    /**
+     * Gets the songs played most between two days, e.g. this month, from the daily rollup.
+     * The cost depends on the number of songs played each day, not on the number of plays.
+     * @param from the first day
+     * @param to the last day
+     * @param limit the number of songs
+     * @return play counts by song path, the most played first
+     */
+    public LinkedHashMap<String, Integer> getMostPlayedSongs(LocalDate from, LocalDate to, int limit) {
+        return getMostPlayed(SELECT_MOST_PLAYED_SONGS, from, to, limit);
+    }
+
+    /**
+     * Gets the artists played most between two days, from the daily rollup.
+     * @param from the first day
+     * @param to the last day
+     * @param limit the number of artists
+     * @return play counts by artist, the most played first
+     */
+    public LinkedHashMap<String, Integer> getMostPlayedArtists(LocalDate from, LocalDate to, int limit) {
+        return getMostPlayed(SELECT_MOST_PLAYED_ARTISTS, from, to, limit);
+    }
+
+    private LinkedHashMap<String, Integer> getMostPlayed(String query, LocalDate from, LocalDate to, int limit) {
+        LinkedHashMap<String, Integer> playCounts = new LinkedHashMap<String, Integer>();
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(query);
+            statement.setInt(1, (int) from.toEpochDay());
+            statement.setInt(2, (int) to.toEpochDay());
+            statement.setMaxRows(limit);
+            results = statement.executeQuery();
+            while (results.next()) {
+                playCounts.put(results.getString(1), results.getInt(2));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return playCounts;
+    }
+
+    /**
+     * Gets how many times a song was played in total, from the per song rollup.
+     * @param songPath the path of the song
+     * @return the number of plays, skipped ones included
+     */
+    public int getPlayCount(String songPath) {
+        int plays = 0;
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_SONG_PLAYS);
+            statement.setString(1, songPath);
+            results = statement.executeQuery();
+            if (results.next()) {
+                plays = results.getInt("PLAYS");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return plays;
+    }
+
+    /**
+     * Writes a song into the ring of recent songs, RECENT_SONGS_LIMIT slots keyed by SLOT.
+     * A song already in the ring gets a new PLAYED_AT in its slot, otherwise it takes a free slot
+     * or the slot played longest ago, so the table never grows past the limit.
+     * @param songPath the path of a song in the songs table
+     * @return true if written, false if not
+     */
     public boolean addRecentSong(String songPath) {
         boolean success = false;
-
-        Connection conn = null;
-        Statement statement = null;
-        String sql = "INSERT INTO "+ recentSongsTableName +
-                "      VALUES ('" + songPath + "')";
-        System.out.println("[Database] sql executed: " + sql);
-        try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            statement.executeUpdate(sql);
-            conn.close();
-            System.out.println("[Database] Added playlist successfully.");
+        PooledConnection conn = null;
+        ResultSet results = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+            //the ring is at most RECENT_SONGS_LIMIT rows, read all of them to pick the slot
+            boolean[] used = new boolean[RECENT_SONGS_LIMIT];
+            int slot = -1;
+            int oldestSlot = 0;
+            long oldest = Long.MAX_VALUE;
+            long latest = 0;
+            results = conn.prepareStatement(SELECT_RECENT_SLOTS).executeQuery();
+            while (results.next()) {
+                int rowSlot = results.getInt("SLOT");
+                long playedAt = results.getLong("PLAYED_AT");
+                if (rowSlot < 0 || rowSlot >= RECENT_SONGS_LIMIT) {
+                    continue;   //trimmed below
+                }
+                used[rowSlot] = true;
+                latest = Math.max(latest, playedAt);
+                if (songPath.equals(results.getString("FILEPATH"))) {
+                    slot = rowSlot;
+                }
+                if (playedAt < oldest) {
+                    oldest = playedAt;
+                    oldestSlot = rowSlot;
+                }
+            }
+            closeResultSet(results);
+            results = null;
+            boolean insert = false;
+            if (slot < 0) {
+                slot = oldestSlot;
+                for (int i = 0; i < RECENT_SONGS_LIMIT; i++) {
+                    if (!used[i]) {
+                        slot = i;
+                        insert = true;
+                        break;
+                    }
+                }
+            }
+            //strictly increasing, even for songs played within the same millisecond
+            long playedAt = Math.max(System.currentTimeMillis(), latest + 1);
+            PreparedStatement statement = conn.prepareStatement(insert ? INSERT_RECENT_SLOT : UPDATE_RECENT_SLOT);
+            statement.setString(1, songPath);
+            statement.setLong(2, playedAt);
+            statement.setInt(3, slot);
+            statement.executeUpdate();
+            PreparedStatement trim = conn.prepareStatement(DELETE_EXTRA_RECENT_SLOTS);
+            trim.setInt(1, RECENT_SONGS_LIMIT);
+            trim.executeUpdate();
+            conn.commit();
+            System.out.println("[Database] Added recent song in slot " + slot + " successfully.");
             success = true;
         } catch (SQLException e) {
             success = false;
-            if (e.getSQLState().equals("23505")) {
-                System.out.println("[Database] playlist is already saved in the database.");
-                success = false;
-            } else if (e.getSQLState().equals("XJ015")) {
-                System.out.println("[Database] Derby shutdown normally.");
+            if (e.getSQLState().equals("23503")) {
+                //opened with "Open Song", only songs in the library are kept as recent songs
+                System.out.println("[Database] Song is not in the library, not saved as a recent song.");
             } else {
                 e.printStackTrace();
-                success = false;
             }
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
         }
         return success;
     }
 
+    /**
+     * Gets the recent songs from the ring, the most recent one first.
+     * @return an array list of at most RECENT_SONGS_LIMIT songs
+     */
     public ArrayList<Song> getRecentSongs() {
-        Connection conn = null;
-        Statement statement = null;
         ArrayList<Song> songList = new ArrayList<Song>();
-        String sql = "SELECT * FROM " + recentSongsTableName+ " INNER JOIN " + songsTableName +  " ON " +
-                        recentSongsTableName + ".PATH = " + songsTableName + ".FILEPATH ";
-
+        PooledConnection conn = null;
+        ResultSet results = null;
         try {
-            conn = DriverManager.getConnection(createDatabaseURL);
-            statement = conn.createStatement();
-            ResultSet results = statement.executeQuery(sql);
-            int index = 0;
+            conn = getConnection();
+            PreparedStatement statement = conn.prepareStatement(SELECT_RECENT_SONGS);
+            statement.setInt(1, RECENT_SONGS_LIMIT);
+            results = statement.executeQuery();
             while(results.next())
             {
-                String file_path = results.getString(results.findColumn("FILEPATH"));
-                String title = results.getString(results.findColumn("TITLE"));
-                String artist = results.getString(results.findColumn("ARTIST"));
-                String album = results.getString(results.findColumn("ALBUM"));
-                String year = results.getString(results.findColumn("YEAR_PUBLISHED"));
-                String comment = results.getString(results.findColumn("COMMENT"));
-                String genre = results.getString(results.findColumn("GENRE"));
-                int time = results.getInt(results.findColumn("TIME"));
+                songList.add(readSong(results));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            closeResultSet(results);
+            releaseConnection(conn);
+        }
+        return songList;
+    }
 
-                System.out.println("[Database] returning Song path " + file_path);
+    /**
+     * Binds all fields of a song and the stamp of its file to the parameters of INSERT_SONG.
+     * @param statement the insert statement
+     * @param song the song to be bound
+     */
+    private void bindSong(PreparedStatement statement, Song song) throws SQLException {
+        statement.setString(1, song.getPath());
+        statement.setString(2, song.getTitle());
+        statement.setString(3, song.getArtist());
+        statement.setString(4, song.getAlbum());
+        statement.setString(5, song.getYear());
+        statement.setString(6, song.getComment());
+        statement.setString(7, song.getGenre());
+        statement.setInt(8, song.getTime());
+        bindFileStamp(statement, 9, FileStamp.of(song.getPath()));
+    }
 
-                Song song = new Song(file_path, title, artist, album, year, comment, genre, time);
-                songList.add(song);
-            }
-            results.close();
-            conn.close();
+    /**
+     * Binds FILE_SIZE, LAST_MODIFIED and FILE_KEY from the parameter index, nulls if the file is missing.
+     */
+    private void bindFileStamp(PreparedStatement statement, int index, FileStamp stamp) throws SQLException {
+        if (stamp == null) {
+            statement.setNull(index, Types.BIGINT);
+            statement.setNull(index + 1, Types.BIGINT);
+            statement.setNull(index + 2, Types.VARCHAR);
+        } else {
+            statement.setLong(index, stamp.getSize());
+            statement.setLong(index + 1, stamp.getLastModified());
+            statement.setString(index + 2, stamp.getFileKey());
+        }
+    }
 
-        } catch (SQLException e) {
-            if (e.getSQLState().equals("XJ015")) {
-                System.out.println("Derby shutdown normally.");
-            } else {
+    /**
+     * Creates a Song from the current row of a result set with the SONGS columns.
+     * @param results the result set positioned on a row
+     * @return the song of the row
+     */
+    private Song readSong(ResultSet results) throws SQLException {
+        return new Song(results.getString("FILEPATH"),
+                results.getString("TITLE"),
+                results.getString("ARTIST"),
+                results.getString("ALBUM"),
+                results.getString("YEAR_PUBLISHED"),
+                results.getString("COMMENT"),
+                results.getString("GENRE"),
+                results.getInt("TIME"));
+    }
+
+    private void closeResultSet(ResultSet results) {
+        if (results != null) {
+            try {
+                results.close();
+            } catch (SQLException e) {
                 e.printStackTrace();
             }
         }
+    }
 
-        //return only last 10 songs
-        ArrayList<Song> recentSongs = new ArrayList<Song>();
-        Collections.reverse(songList);
-        for (int i = 0; i < Math.min(songList.size(), 10); i++) {
-            recentSongs.add(songList.get(i));
+    private void closeStatement(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
-        Collections.reverse(recentSongs);
-        return recentSongs;
     }
 
     /**
@@ -757,10 +1675,12 @@ public class DatabaseHandler {
      * the database.
      */
     private void dropAllTables(){
+        PooledConnection conn = null;
+        Statement stmt = null;
         try {
             //Get connection and statement
-            Connection conn = DriverManager.getConnection(createDatabaseURL);
-            Statement stmt = conn.createStatement();
+            conn = getConnection();
+            stmt = conn.getConnection().createStatement();
 
             try {
                 // Drop the 'SONGS' table from DB
@@ -779,10 +1699,12 @@ public class DatabaseHandler {
         } catch (SQLException ex) {
             System.out.println("ERROR: " + ex.getMessage());
             ex.printStackTrace();
+        } finally {
+            closeStatement(stmt);
+            releaseConnection(conn);
         }
     }
 
 
 }
 
-
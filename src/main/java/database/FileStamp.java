@@ -0,0 +1,78 @@
+package database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * FileStamp is the size, last-modified time and file key (e.g. device and inode) of a song file,
+ * saved in SONGS so that a rescan can tell whether a file changed without parsing it again.
+ */
+public final class FileStamp {
+
+    private final long size;
+    private final long lastModified;   //milliseconds since the epoch
+    private final String fileKey;      //null if the file system has none
+
+    public FileStamp(long size, long lastModified, String fileKey) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * Reads the stamp of a file with a single stat.
+     * @param path the path of the file
+     * @return the stamp, null if the file doesn't exist or isn't a regular file
+     */
+    public static FileStamp of(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            Object key = attributes.fileKey();
+            return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    (key == null) ? null : key.toString());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stamp of a file with a single stat.
+     * @param path the path of the file
+     * @return the stamp, null if the file doesn't exist or isn't a regular file
+     */
+    public static FileStamp of(String path) {
+        return of(Paths.get(path));
+    }
+
+    public long getSize() { return size; }
+    public long getLastModified() { return lastModified; }
+    public String getFileKey() { return fileKey; }
+
+    /**
+     * Stamps are equal if the size, the time and the file key are the same.
+     * A missing file key on either side is not compared.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FileStamp)) {
+            return false;
+        }
+        FileStamp stamp = (FileStamp) o;
+        return size == stamp.size && lastModified == stamp.lastModified
+                && (fileKey == null || stamp.fileKey == null || fileKey.equals(stamp.fileKey));
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+    }
+}
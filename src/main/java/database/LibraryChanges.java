@@ -0,0 +1,48 @@
+package database;
+
+import model.Song;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LibraryChanges reports what DatabaseHandler.applyLibraryChanges() committed in its single transaction,
+ * so that the songs in memory can be updated the same way.
+ */
+public class LibraryChanges {
+
+    private final List<String> removed = new ArrayList<String>();
+    private final List<Song> updated = new ArrayList<Song>();
+    private final List<Song> added = new ArrayList<Song>();
+
+    void addRemoved(String path) { removed.add(path); }
+    void addUpdated(Song song) { updated.add(song); }
+    void addAdded(Song song) { added.add(song); }
+
+    /**
+     * Gets the paths of the songs deleted from the database
+     * @return list of file paths
+     */
+    public List<String> getRemoved() { return removed; }
+
+    /**
+     * Gets the songs whose tags and file stamps were updated
+     * @return list of songs as they are saved now
+     */
+    public List<Song> getUpdated() { return updated; }
+
+    /**
+     * Gets the songs inserted into the database
+     * @return list of songs
+     */
+    public List<Song> getAdded() { return added; }
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && updated.isEmpty() && added.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return added.size() + " added, " + updated.size() + " updated, " + removed.size() + " removed";
+    }
+}
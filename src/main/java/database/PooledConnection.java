@@ -0,0 +1,127 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PooledConnection wraps a connection handed out by ConnectionPool
+ * and keeps a cache of its compiled PreparedStatements keyed by the sql text,
+ * so that Derby parses and compiles each query only once per connection.
+ * Cached statements must not be closed by the caller; their result sets should be.
+ */
+public class PooledConnection {
+
+    private final Connection connection;
+    private final int statementCacheSize;
+    private final LinkedHashMap<String, PreparedStatement> statementCache;
+
+    /**
+     * Wraps a connection with an empty statement cache.
+     * @param connection the open connection
+     * @param statementCacheSize the maximum number of statements kept compiled, the least recently used is closed
+     */
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCacheSize = statementCacheSize;
+        this.statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the compiled statement for the sql, preparing it on the first call.
+     * The parameters of a reused statement are cleared.
+     * @param sql the sql with '?' parameters
+     * @return the cached PreparedStatement
+     * @throws SQLException if the sql cannot be compiled
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Gets the compiled statement for the sql with the given result set type and concurrency.
+     * @param sql the sql with '?' parameters
+     * @param resultSetType e.g. ResultSet.TYPE_FORWARD_ONLY
+     * @param resultSetConcurrency e.g. ResultSet.CONCUR_UPDATABLE
+     * @return the cached PreparedStatement
+     * @throws SQLException if the sql cannot be compiled
+     */
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        String key = resultSetType + ":" + resultSetConcurrency + ":" + sql;
+        PreparedStatement statement = statementCache.get(key);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            return statement;
+        }
+        statement = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        statementCache.put(key, statement);
+        evictLeastRecentlyUsed();
+        return statement;
+    }
+
+    /**
+     * Gets the wrapped jdbc connection, e.g. for DDL or transaction control.
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException { connection.setAutoCommit(autoCommit); }
+    public boolean getAutoCommit() throws SQLException { return connection.getAutoCommit(); }
+    public void commit() throws SQLException { connection.commit(); }
+    public void rollback() throws SQLException { connection.rollback(); }
+
+    /**
+     * Gets the number of statements currently compiled on this connection.
+     * @return the cache size
+     */
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    boolean isValid(int timeout) throws SQLException {
+        return connection.isValid(timeout);
+    }
+
+    boolean isClosed() throws SQLException {
+        return connection.isClosed();
+    }
+
+    /**
+     * Closes all cached statements and the connection.
+     */
+    void close() {
+        for (PreparedStatement statement : statementCache.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                //the connection is closed right after
+            }
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //nothing to do, the connection is dropped anyway
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<Map.Entry<String, PreparedStatement>> it = statementCache.entrySet().iterator();
+        while (statementCache.size() > statementCacheSize && it.hasNext()) {
+            PreparedStatement eldest = it.next().getValue();
+            it.remove();
+            try {
+                eldest.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
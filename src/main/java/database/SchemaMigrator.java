@@ -0,0 +1,370 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * SchemaMigrator upgrades an existing SongsDB database in place to the latest schema version.
+ * The version is kept in the SCHEMA_VERSION table. A database without that table is version 1,
+ * which is the layout created by the create...Table() methods of DatabaseHandler.
+ * Each migration step runs in its own transaction, so a failed step leaves the previous version intact.
+ */
+class SchemaMigrator {
+
+    static final int LATEST_VERSION = 6;
+
+    private static final String schemaVersionTableName = "SCHEMA_VERSION";
+    private static final String PLAY_COUNT_COLUMNS =
+            "PLAYS INTEGER NOT NULL, SKIPS INTEGER NOT NULL, PLAYED_MILLIS BIGINT NOT NULL, ";
+
+    private final Connection conn;
+
+    SchemaMigrator(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Applies all migration steps from the current version up to LATEST_VERSION.
+     * @throws SQLException if a step fails, the step is rolled back
+     */
+    void migrate() throws SQLException {
+        int version = readVersion();
+        if (version == LATEST_VERSION) {
+            System.out.println("[Database] Schema is up to date. (version " + version + ")");
+            return;
+        }
+        while (version < LATEST_VERSION) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                switch (version) {
+                    case 1:
+                        migrateToVersion2();
+                        break;
+                    case 2:
+                        migrateToVersion3();
+                        break;
+                    case 3:
+                        migrateToVersion4();
+                        break;
+                    case 4:
+                        migrateToVersion5();
+                        break;
+                    case 5:
+                        migrateToVersion6();
+                        break;
+                    default:
+                        throw new SQLException("No migration from schema version " + version);
+                }
+                version++;
+                writeVersion(version);
+                conn.commit();
+                System.out.println("[Database] Migrated schema to version " + version + ".");
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Version 2 gives playlists a surrogate key and keeps the order of the songs in a playlist.
+     * PLAYLISTS(ID, NAME)
+     * PLAYLIST_SONGS(PLAYLIST_ID, POSITION, FILEPATH) keyed on (PLAYLIST_ID, POSITION), indexed on FILEPATH
+     * RECENT_SONGS(ID, FILEPATH) keyed on ID, indexed on FILEPATH
+     * Rows referring to songs not in SONGS are dropped, and the foreign keys
+     * remove playlist entries and recent songs together with their song or playlist.
+     */
+    private void migrateToVersion2() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            //keep the old tables aside to copy from them
+            statement.execute("RENAME TABLE PLAYLISTS TO PLAYLISTS_V1");
+            statement.execute("RENAME TABLE PLAYLIST_SONGS TO PLAYLIST_SONGS_V1");
+            statement.execute("RENAME TABLE RECENT_SONGS TO RECENT_SONGS_V1");
+
+            statement.execute("CREATE TABLE PLAYLISTS ( " +
+                    "ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY, " +
+                    "NAME VARCHAR(512) NOT NULL, " +
+                    "CONSTRAINT PLAYLISTS_PK PRIMARY KEY (ID), " +
+                    "CONSTRAINT PLAYLISTS_NAME_UNIQUE UNIQUE (NAME) )");
+            statement.execute("CREATE TABLE PLAYLIST_SONGS ( " +
+                    "PLAYLIST_ID INTEGER NOT NULL, " +
+                    "POSITION INTEGER NOT NULL, " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    "CONSTRAINT PLAYLIST_SONGS_PK PRIMARY KEY (PLAYLIST_ID, POSITION), " +
+                    "CONSTRAINT PLAYLIST_SONGS_PLAYLIST_FK FOREIGN KEY (PLAYLIST_ID) " +
+                    "REFERENCES PLAYLISTS (ID) ON DELETE CASCADE, " +
+                    "CONSTRAINT PLAYLIST_SONGS_SONG_FK FOREIGN KEY (FILEPATH) " +
+                    "REFERENCES SONGS (FILEPATH) ON DELETE CASCADE )");
+            statement.execute("CREATE INDEX PLAYLIST_SONGS_FILEPATH_IDX ON PLAYLIST_SONGS (FILEPATH)");
+            statement.execute("CREATE TABLE RECENT_SONGS ( " +
+                    "ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY, " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    "CONSTRAINT RECENT_SONGS_PK PRIMARY KEY (ID), " +
+                    "CONSTRAINT RECENT_SONGS_SONG_FK FOREIGN KEY (FILEPATH) " +
+                    "REFERENCES SONGS (FILEPATH) ON DELETE CASCADE )");
+            statement.execute("CREATE INDEX RECENT_SONGS_FILEPATH_IDX ON RECENT_SONGS (FILEPATH)");
+
+            statement.executeUpdate("INSERT INTO PLAYLISTS (NAME) SELECT NAME FROM PLAYLISTS_V1");
+            copyPlaylistSongs();
+            copyRecentSongs();
+
+            statement.execute("DROP TABLE PLAYLIST_SONGS_V1");
+            statement.execute("DROP TABLE PLAYLISTS_V1");
+            statement.execute("DROP TABLE RECENT_SONGS_V1");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Version 3 keeps the file size, last-modified time and file key of each song for rescans,
+     * and the folders imported to the library.
+     * SONGS(..., FILE_SIZE, LAST_MODIFIED, FILE_KEY), null for songs added before
+     * LIBRARY_FOLDERS(PATH)
+     */
+    private void migrateToVersion3() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("ALTER TABLE SONGS ADD COLUMN FILE_SIZE BIGINT");
+            statement.execute("ALTER TABLE SONGS ADD COLUMN LAST_MODIFIED BIGINT");
+            statement.execute("ALTER TABLE SONGS ADD COLUMN FILE_KEY VARCHAR(256)");
+            statement.execute("CREATE TABLE LIBRARY_FOLDERS ( " +
+                    "PATH VARCHAR(512) NOT NULL, " +
+                    "CONSTRAINT LIBRARY_FOLDERS_PK PRIMARY KEY (PATH) )");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Version 4 keeps the seek table of each song, built the first time it is played.
+     * SONGS(..., FRAME_INDEX), null until built, see FrameIndex.toBytes()
+     */
+    private void migrateToVersion4() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("ALTER TABLE SONGS ADD COLUMN FRAME_INDEX BLOB(16M)");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Version 5 keeps the recent songs in a ring of DatabaseHandler.RECENT_SONGS_LIMIT slots
+     * instead of a row per play.
+     * RECENT_SONGS(SLOT, FILEPATH, PLAYED_AT) keyed on SLOT, unique on FILEPATH
+     * The most recent distinct songs are copied, the newest with the latest PLAYED_AT.
+     */
+    private void migrateToVersion5() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("RENAME TABLE RECENT_SONGS TO RECENT_SONGS_V2");
+            statement.execute("CREATE TABLE RECENT_SONGS ( " +
+                    "SLOT SMALLINT NOT NULL, " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    "PLAYED_AT BIGINT NOT NULL, " +
+                    "CONSTRAINT RECENT_SONGS_SLOT_PK PRIMARY KEY (SLOT), " +
+                    "CONSTRAINT RECENT_SONGS_FILEPATH_UNIQUE UNIQUE (FILEPATH), " +
+                    "CONSTRAINT RECENT_SONGS_RING_FK FOREIGN KEY (FILEPATH) " +
+                    "REFERENCES SONGS (FILEPATH) ON DELETE CASCADE )");
+            copyRecentSongsToRing();
+            statement.execute("DROP TABLE RECENT_SONGS_V2");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Version 6 keeps every play in an append-only history, and play counts rolled up as the plays are added.
+     * PLAY_HISTORY(ID, FILEPATH, STARTED_AT, PLAYED_MILLIS, COMPLETED) indexed on STARTED_AT
+     * SONG_PLAYS(FILEPATH, PLAYS, SKIPS, PLAYED_MILLIS) keyed on FILEPATH
+     * SONG_PLAYS_DAILY(DAY, FILEPATH, ...) keyed on (DAY, FILEPATH), DAY is the local day since 1970-01-01
+     * ARTIST_PLAYS_DAILY(DAY, ARTIST, ...) keyed on (DAY, ARTIST)
+     * The history has no foreign key to SONGS, plays are kept when a song leaves the library.
+     */
+    private void migrateToVersion6() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("CREATE TABLE PLAY_HISTORY ( " +
+                    "ID BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY, " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    "STARTED_AT BIGINT NOT NULL, " +
+                    "PLAYED_MILLIS BIGINT NOT NULL, " +
+                    "COMPLETED SMALLINT NOT NULL, " +
+                    "CONSTRAINT PLAY_HISTORY_PK PRIMARY KEY (ID) )");
+            statement.execute("CREATE INDEX PLAY_HISTORY_STARTED_AT_IDX ON PLAY_HISTORY (STARTED_AT)");
+            statement.execute("CREATE TABLE SONG_PLAYS ( " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    PLAY_COUNT_COLUMNS +
+                    "CONSTRAINT SONG_PLAYS_PK PRIMARY KEY (FILEPATH) )");
+            statement.execute("CREATE TABLE SONG_PLAYS_DAILY ( " +
+                    "DAY INTEGER NOT NULL, " +
+                    "FILEPATH VARCHAR(512) NOT NULL, " +
+                    PLAY_COUNT_COLUMNS +
+                    "CONSTRAINT SONG_PLAYS_DAILY_PK PRIMARY KEY (DAY, FILEPATH) )");
+            statement.execute("CREATE TABLE ARTIST_PLAYS_DAILY ( " +
+                    "DAY INTEGER NOT NULL, " +
+                    "ARTIST VARCHAR(512) NOT NULL, " +
+                    PLAY_COUNT_COLUMNS +
+                    "CONSTRAINT ARTIST_PLAYS_DAILY_PK PRIMARY KEY (DAY, ARTIST) )");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Copies PLAYLIST_SONGS_V1 rows numbering the songs of each playlist in the order they were read.
+     * The v1 table has no key to order by, so it is scanned alone, without a join that may reorder it:
+     * Derby reads a heap table in storage order, which is the order of insertion
+     * unless rows were deleted and their space reused.
+     * Rows of songs not in SONGS are dropped and counted.
+     */
+    private void copyPlaylistSongs() throws SQLException {
+        HashMap<String, Integer> playlistIds = new HashMap<String, Integer>();
+        Statement select = conn.createStatement();
+        ResultSet results = select.executeQuery("SELECT ID, NAME FROM PLAYLISTS");
+        while (results.next()) {
+            playlistIds.put(results.getString("NAME"), results.getInt("ID"));
+        }
+        results.close();
+        HashSet<String> songPaths = readSongPaths(select);
+
+        HashMap<Integer, Integer> nextPositions = new HashMap<Integer, Integer>();
+        PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO PLAYLIST_SONGS (PLAYLIST_ID, POSITION, FILEPATH) VALUES (?, ?, ?)");
+        results = select.executeQuery("SELECT NAME, FILEPATH FROM PLAYLIST_SONGS_V1");
+        int copied = 0;
+        int droppedSongs = 0;
+        int droppedPlaylists = 0;
+        while (results.next()) {
+            String path = results.getString("FILEPATH");
+            if (!songPaths.contains(path)) {
+                droppedSongs++;
+                continue;
+            }
+            //names were not always lower-cased when songs were added to a playlist
+            String name = results.getString("NAME");
+            Integer playlistId = (name == null) ? null : playlistIds.get(name.toLowerCase());
+            if (playlistId == null) {
+                droppedPlaylists++;
+                continue;
+            }
+            Integer position = nextPositions.get(playlistId);
+            if (position == null) {
+                position = 0;
+            }
+            nextPositions.put(playlistId, position + 1);
+            insert.setInt(1, playlistId);
+            insert.setInt(2, position);
+            insert.setString(3, path);
+            insert.addBatch();
+            if (++copied % DatabaseHandler.DEFAULT_BATCH_SIZE == 0) {
+                insert.executeBatch();
+            }
+        }
+        insert.executeBatch();
+        results.close();
+        insert.close();
+        select.close();
+        System.out.println("[Database] Copied " + copied + " playlist songs. Dropped " + droppedSongs
+                + " of songs not in the library and " + droppedPlaylists + " of unknown playlists.");
+    }
+
+    /**
+     * Copies RECENT_SONGS_V1 rows in the order they were read, so the newest gets the highest ID.
+     * As for copyPlaylistSongs(), the table is scanned alone, and rows of songs not in SONGS are dropped.
+     */
+    private void copyRecentSongs() throws SQLException {
+        Statement select = conn.createStatement();
+        HashSet<String> songPaths = readSongPaths(select);
+        PreparedStatement insert = conn.prepareStatement("INSERT INTO RECENT_SONGS (FILEPATH) VALUES (?)");
+        ResultSet results = select.executeQuery("SELECT PATH FROM RECENT_SONGS_V1");
+        int dropped = 0;
+        while (results.next()) {
+            String path = results.getString("PATH");
+            if (!songPaths.contains(path)) {
+                dropped++;
+                continue;
+            }
+            insert.setString(1, path);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        results.close();
+        insert.close();
+        select.close();
+        if (dropped > 0) {
+            System.out.println("[Database] Dropped " + dropped + " recent songs not in the library.");
+        }
+    }
+
+    private static HashSet<String> readSongPaths(Statement select) throws SQLException {
+        HashSet<String> paths = new HashSet<String>();
+        ResultSet results = select.executeQuery("SELECT FILEPATH FROM SONGS");
+        while (results.next()) {
+            paths.add(results.getString("FILEPATH"));
+        }
+        results.close();
+        return paths;
+    }
+
+    /**
+     * Copies the most recent distinct songs of RECENT_SONGS_V2 into the slots of the ring.
+     */
+    private void copyRecentSongsToRing() throws SQLException {
+        Statement select = conn.createStatement();
+        PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO RECENT_SONGS (SLOT, FILEPATH, PLAYED_AT) VALUES (?, ?, ?)");
+        ResultSet results = select.executeQuery("SELECT FILEPATH FROM RECENT_SONGS_V2 ORDER BY ID DESC");
+        HashSet<String> copied = new HashSet<String>();
+        long now = System.currentTimeMillis();
+        while (copied.size() < DatabaseHandler.RECENT_SONGS_LIMIT && results.next()) {
+            String path = results.getString("FILEPATH");
+            if (copied.add(path)) {
+                insert.setInt(1, copied.size() - 1);
+                insert.setString(2, path);
+                insert.setLong(3, now - copied.size());
+                insert.addBatch();
+            }
+        }
+        insert.executeBatch();
+        results.close();
+        insert.close();
+        select.close();
+    }
+
+    private int readVersion() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + schemaVersionTableName + " ( VERSION INTEGER NOT NULL )");
+            statement.executeUpdate("INSERT INTO " + schemaVersionTableName + " VALUES (1)");
+            return 1;
+        } catch (SQLException e) {
+            if (!e.getSQLState().equals("X0Y32")) {
+                throw e;
+            }
+            ResultSet results = statement.executeQuery("SELECT MAX(VERSION) FROM " + schemaVersionTableName);
+            int version = results.next() ? results.getInt(1) : 1;
+            results.close();
+            return version;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void writeVersion(int version) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement("UPDATE " + schemaVersionTableName + " SET VERSION = ?");
+        statement.setInt(1, version);
+        statement.executeUpdate();
+        statement.close();
+    }
+}
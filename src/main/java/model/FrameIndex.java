@@ -0,0 +1,106 @@
+package model;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * FrameIndex is the seek table of an mp3 file, built by Mp3MetadataReader.readFrameIndex().
+ * It keeps the byte offset of every STRIDE-th audio frame in a long array. All frames of a file
+ * have the same number of samples, so the frame holding a time is found by arithmetic and its offset
+ * by looking up the entry at or before it, even in a VBR file where bytes are not proportional to time.
+ * The first frame is the first one after a Xing/Info or VBRI header frame.
+ * It is saved with the song as a BLOB of its offsets, delta encoded (see toBytes()).
+ */
+public class FrameIndex {
+
+    public static final int STRIDE = 8;     //frames per entry, about 0.2 s at 44.1 kHz
+    private static final int FORMAT_VERSION = 1;
+
+    private final int sampleRate;
+    private final int samplesPerFrame;
+    private final int frameCount;
+    private final long[] offsets;   //offsets[i] is the offset of frame i * STRIDE
+
+    /**
+     * Constructs an index.
+     * @param sampleRate the sample rate of the frames
+     * @param samplesPerFrame the samples per channel of each frame
+     * @param frameCount the number of frames
+     * @param offsets the byte offset of every STRIDE-th frame, from the first
+     */
+    public FrameIndex(int sampleRate, int samplesPerFrame, int frameCount, long[] offsets) {
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.frameCount = frameCount;
+        this.offsets = offsets;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+    public int getSamplesPerFrame() { return samplesPerFrame; }
+    public int getFrameCount() { return frameCount; }
+
+    /**
+     * Gets the indexed frame at or before the frame holding a sample.
+     * @param sample the sample number from the first frame
+     * @return the number of the frame, a multiple of STRIDE
+     */
+    public int getKeyFrame(long sample) {
+        long frame = Math.max(0, Math.min(sample / samplesPerFrame, frameCount - 1));
+        return (int) (frame / STRIDE) * STRIDE;
+    }
+
+    /**
+     * Gets the byte offset of an indexed frame.
+     * @param keyFrame the number of the frame, as returned by getKeyFrame()
+     * @return the offset of its header in the file
+     */
+    public long getOffset(int keyFrame) {
+        return offsets[keyFrame / STRIDE];
+    }
+
+    /**
+     * Encodes the index for the database: a header, the first offset, then the distance to each next entry.
+     * @return the bytes
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(5 * 4 + 8 + Math.max(offsets.length - 1, 0) * 4);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(sampleRate);
+        buffer.putInt(samplesPerFrame);
+        buffer.putInt(frameCount);
+        buffer.putInt(offsets.length);
+        buffer.putLong(offsets.length > 0 ? offsets[0] : 0);
+        for (int i = 1; i < offsets.length; i++) {
+            buffer.putInt((int) (offsets[i] - offsets[i - 1]));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes an index saved with toBytes().
+     * @param bytes the saved bytes
+     * @return the index, null if the bytes are from another format version or broken
+     */
+    public static FrameIndex fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int sampleRate = buffer.getInt();
+            int samplesPerFrame = buffer.getInt();
+            int frameCount = buffer.getInt();
+            long[] offsets = new long[buffer.getInt()];
+            long offset = buffer.getLong();
+            for (int i = 0; i < offsets.length; i++) {
+                if (i > 0) {
+                    offset += buffer.getInt();
+                }
+                offsets[i] = offset;
+            }
+            return new FrameIndex(sampleRate, samplesPerFrame, frameCount, offsets);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,662 @@
+package model;
+
+import com.mpatric.mp3agic.ID3v1Genres;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mp3MetadataReader reads the tags and the duration of an mp3 file from its headers only,
+ * instead of scanning every frame like mp3agic's Mp3File does.
+ * It reads the ID3v2 tag frame by frame (skipping pictures and other large frames),
+ * the ID3v1 tag in the last 128 bytes, and the Xing/Info or VBRI header of the first audio frame,
+ * which holds the number of frames. Each read is a small positioned read on a FileChannel.
+ * If any of this is missing or not supported, read() returns null and the caller should use Mp3File.
+ * readFrameIndex() walks the frame headers of the whole file to build its seek table.
+ */
+public class Mp3MetadataReader {
+
+    private static final int MAX_TEXT_FRAME_SIZE = 64 * 1024;  //larger frames are skipped
+    private static final int SYNC_SEARCH_LENGTH = 16 * 1024;   //bytes after the tag searched for the first frame
+    private static final int ID3V1_SIZE = 128;
+    private static final int MAX_FRAME_LENGTH = 2881;           //layer I at 448 kbps and 32 kHz, with padding
+
+    // bitrates in kbps by [MPEG1 ? 0 : 1][layer - 1][bitrate index]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+    // sample rates in Hz by [version bits][sample rate index], version bits 1 is reserved
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},   //MPEG 2.5
+            {0, 0, 0},
+            {22050, 24000, 16000},  //MPEG 2
+            {44100, 48000, 32000}   //MPEG 1
+    };
+
+    /**
+     * Tags and duration of an mp3 file, in the same form as mp3agic gives them to Song.
+     * The fields of a missing tag are null.
+     */
+    public static class Metadata {
+        private String title;
+        private String artist;
+        private String album;
+        private String year;
+        private String comment;
+        private String genre;
+        private boolean hasTag;
+        private long lengthInMilliseconds;
+        private long sampleCount;
+        private int encoderDelay = -1;
+        private int encoderPadding = -1;
+
+        public String getTitle() { return title; }
+        public String getArtist() { return artist; }
+        public String getAlbum() { return album; }
+        public String getYear() { return year; }
+        public String getComment() { return comment; }
+        public String getGenre() { return genre; }
+
+        /**
+         * Checks if the file has an ID3v1 or ID3v2 tag
+         * @return true if any of the tags was found
+         */
+        public boolean hasTag() { return hasTag; }
+
+        public long getLengthInMilliseconds() { return lengthInMilliseconds; }
+
+        /**
+         * Gets the length rounded to seconds, like Mp3File.getLengthInSeconds()
+         * @return the length in seconds
+         */
+        public long getLengthInSeconds() { return (lengthInMilliseconds + 500) / 1000; }
+
+        /**
+         * Gets the number of samples per channel the frames decode to, including the encoder delay and padding
+         * @return the number of samples
+         */
+        public long getSampleCount() { return sampleCount; }
+
+        /**
+         * Gets the silent samples the encoder put before the audio, from the LAME tag
+         * @return the number of samples, -1 if the file has no LAME tag
+         */
+        public int getEncoderDelay() { return encoderDelay; }
+
+        /**
+         * Gets the samples the encoder appended to fill the last frame, from the LAME tag
+         * @return the number of samples, -1 if the file has no LAME tag
+         */
+        public int getEncoderPadding() { return encoderPadding; }
+    }
+
+    /**
+     * Reads the metadata of an mp3 file from its headers.
+     * Like Song, the ID3v1 tag is preferred over the ID3v2 tag.
+     * @param filePath the path of the mp3 file
+     * @return the metadata, null if the headers are not enough and the whole file has to be scanned
+     * @throws IOException if the file cannot be read
+     */
+    public static Metadata read(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            FileChannel channel = file.getChannel();
+            long fileLength = channel.size();
+
+            Metadata id3v2 = null;
+            long audioStart = 0;
+            ByteBuffer header = readAt(channel, 0, 10);
+            if (header.remaining() == 10 && header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3') {
+                int majorVersion = header.get(3);
+                int flags = header.get(5) & 0xFF;
+                audioStart = id3v2End(header);
+                id3v2 = readId3v2(channel, majorVersion, flags, audioStart);
+                if (id3v2 == null) {
+                    return null;
+                }
+            }
+
+            Metadata metadata = readId3v1(channel, fileLength);
+            if (metadata == null) {
+                metadata = (id3v2 != null) ? id3v2 : new Metadata();
+            }
+            long length = readLength(channel, audioStart, fileLength, metadata);
+            if (length < 0) {
+                return null;
+            }
+            metadata.lengthInMilliseconds = length;
+            return metadata;
+        }
+    }
+
+    /**
+     * Builds the seek table of an mp3 file by walking its frame headers, without decoding anything.
+     * A Xing/Info or VBRI header frame is not indexed. Garbage between frames is skipped
+     * by looking for the next pair of consistent frame headers.
+     * @param filePath the path of the mp3 file
+     * @return the index, null if no audio frame was found
+     * @throws IOException if the file cannot be read
+     */
+    public static FrameIndex readFrameIndex(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            FileChannel channel = file.getChannel();
+            long fileLength = channel.size();
+            if (fileLength > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer header = readAt(channel, 0, 10);
+            long audioStart = 0;
+            if (header.remaining() == 10 && header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3') {
+                audioStart = id3v2End(header);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            int end = (int) fileLength;
+            if (readId3v1(channel, fileLength) != null) {
+                end -= ID3V1_SIZE;
+            }
+
+            int position = findFrame(data, (int) Math.min(audioStart, end), end, 0);
+            if (position < 0) {
+                return null;
+            }
+            int first = data.getInt(position);
+            if (isVbrHeaderFrame(data, position, first)) {
+                position += frameLength(first);
+            }
+            long[] offsets = new long[1024];
+            int frameCount = 0;
+            while (position >= 0 && position + 4 <= end) {
+                int frameHeader = data.getInt(position);
+                int length = sameStream(frameHeader, first) ? frameLength(frameHeader) : -1;
+                if (length < 0) {
+                    position = findFrame(data, position + 1, end, first);
+                    continue;
+                }
+                if (position + length > end) {
+                    break;  //truncated last frame
+                }
+                if (frameCount % FrameIndex.STRIDE == 0) {
+                    int entry = frameCount / FrameIndex.STRIDE;
+                    if (entry == offsets.length) {
+                        long[] grown = new long[offsets.length * 2];
+                        System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                        offsets = grown;
+                    }
+                    offsets[entry] = position;
+                }
+                frameCount++;
+                position += length;
+            }
+            if (frameCount == 0) {
+                return null;
+            }
+            long[] trimmed = new long[(frameCount + FrameIndex.STRIDE - 1) / FrameIndex.STRIDE];
+            System.arraycopy(offsets, 0, trimmed, 0, trimmed.length);
+            return new FrameIndex(sampleRate(first), samplesPerFrame(first), frameCount, trimmed);
+        }
+    }
+
+    /**
+     * Counts the frames a decoder started at a frame skips: a layer III frame may take part of its data
+     * from the frames before it (the bit reservoir), and a decoder that didn't read those frames
+     * outputs nothing for it.
+     * @param filePath the path of the mp3 file
+     * @param offset the offset of the frame the decoder starts at
+     * @param frames the number of frames from there to check
+     * @return the number of those frames without output
+     * @throws IOException if the file cannot be read
+     */
+    public static int countSkippedFrames(String filePath, long offset, int frames) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer data = readAt(channel, offset, (int) Math.min((long) frames * MAX_FRAME_LENGTH + 4,
+                    channel.size() - offset));
+            int limit = data.remaining();
+            int skipped = 0;
+            int reservoir = 0;
+            int position = 0;
+            for (int i = 0; i < frames && position + 4 <= limit; i++) {
+                int header = data.getInt(position);
+                int length = frameLength(header);
+                int layer = 4 - ((header >> 17) & 3);
+                if (length < 0 || layer != 3) {
+                    break;
+                }
+                boolean mpeg1 = ((header >> 19) & 3) == 3;
+                boolean mono = ((header >> 6) & 3) == 3;
+                int sideInfoStart = position + 4 + (((header >> 16) & 1) == 0 ? 2 : 0);   //after the CRC
+                int sideInfoLength = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+                if (sideInfoStart + 2 > limit) {
+                    break;
+                }
+                int mainDataBegin = mpeg1
+                        ? ((data.get(sideInfoStart) & 0xFF) << 1) | ((data.get(sideInfoStart + 1) & 0xFF) >> 7)
+                        : data.get(sideInfoStart) & 0xFF;
+                if (mainDataBegin > reservoir) {
+                    skipped++;
+                }
+                reservoir += position + length - (sideInfoStart + sideInfoLength);
+                position += length;
+            }
+            return skipped;
+        }
+    }
+
+    /**
+     * Reads the text frames of an ID3v2.2, 2.3 or 2.4 tag.
+     * @return the tag, null if the tag uses unsynchronisation or compression, which are left to mp3agic
+     */
+    private static Metadata readId3v2(FileChannel channel, int majorVersion, int flags, long tagEnd)
+            throws IOException {
+        if (majorVersion < 2 || majorVersion > 4 || (flags & 0x80) != 0 || (majorVersion == 2 && (flags & 0x40) != 0)) {
+            return null;
+        }
+        long position = 10;
+        if (majorVersion > 2 && (flags & 0x40) != 0) {
+            //skip the extended header
+            ByteBuffer extended = readAt(channel, position, 4);
+            if (extended.remaining() < 4) {
+                return null;
+            }
+            position += (majorVersion == 3) ? 4 + extended.getInt(0) : syncSafeInt(extended, 0);
+        }
+
+        Metadata tag = new Metadata();
+        tag.hasTag = true;
+        int headerSize = (majorVersion == 2) ? 6 : 10;
+        boolean commentHasDescription = false;
+        while (position + headerSize <= tagEnd) {
+            ByteBuffer frameHeader = readAt(channel, position, headerSize);
+            if (frameHeader.remaining() < headerSize || frameHeader.get(0) == 0) {
+                break;  //padding
+            }
+            String id;
+            int size;
+            boolean readable = true;
+            if (majorVersion == 2) {
+                id = new String(new byte[]{frameHeader.get(0), frameHeader.get(1), frameHeader.get(2)},
+                        StandardCharsets.ISO_8859_1);
+                size = ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8)
+                        | (frameHeader.get(5) & 0xFF);
+            } else {
+                id = new String(new byte[]{frameHeader.get(0), frameHeader.get(1), frameHeader.get(2),
+                        frameHeader.get(3)}, StandardCharsets.ISO_8859_1);
+                size = (majorVersion == 4) ? syncSafeInt(frameHeader, 4) : frameHeader.getInt(4);
+                int formatFlags = frameHeader.get(9) & 0xFF;
+                //compressed, encrypted or unsynchronised frames
+                readable = (majorVersion == 3) ? (formatFlags & 0xC0) == 0 : (formatFlags & 0x0E) == 0;
+            }
+            if (size <= 0 || position + headerSize + size > tagEnd) {
+                break;
+            }
+            long bodyPosition = position + headerSize;
+            position = bodyPosition + size;
+            if (!readable || size > MAX_TEXT_FRAME_SIZE) {
+                continue;
+            }
+
+            switch (id) {
+                case "TIT2": case "TT2":
+                    tag.title = decodeText(readBody(channel, bodyPosition, size));
+                    break;
+                case "TPE1": case "TP1":
+                    tag.artist = decodeText(readBody(channel, bodyPosition, size));
+                    break;
+                case "TALB": case "TAL":
+                    tag.album = decodeText(readBody(channel, bodyPosition, size));
+                    break;
+                case "TYER": case "TYE": case "TDRC":
+                    String year = decodeText(readBody(channel, bodyPosition, size));
+                    tag.year = (year != null && year.length() > 4) ? year.substring(0, 4) : year;
+                    break;
+                case "TCON": case "TCO":
+                    tag.genre = genreDescription(decodeText(readBody(channel, bodyPosition, size)));
+                    break;
+                case "COMM": case "COM":
+                    //prefer the comment without a description, e.g. not iTunes' own comments
+                    if (tag.comment == null || commentHasDescription) {
+                        byte[] body = readBody(channel, bodyPosition, size);
+                        String[] comment = decodeComment(body);
+                        if (comment != null && (tag.comment == null || comment[0].isEmpty())) {
+                            tag.comment = comment[1];
+                            commentHasDescription = !comment[0].isEmpty();
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Reads the ID3v1 (or 1.1) tag at the end of the file.
+     * @return the tag, null if there isn't one
+     */
+    private static Metadata readId3v1(FileChannel channel, long fileLength) throws IOException {
+        if (fileLength < ID3V1_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = readAt(channel, fileLength - ID3V1_SIZE, ID3V1_SIZE);
+        if (buffer.remaining() < ID3V1_SIZE
+                || buffer.get(0) != 'T' || buffer.get(1) != 'A' || buffer.get(2) != 'G') {
+            return null;
+        }
+        byte[] bytes = new byte[ID3V1_SIZE];
+        buffer.get(bytes);
+        Metadata tag = new Metadata();
+        tag.hasTag = true;
+        tag.title = id3v1Text(bytes, 3, 30);
+        tag.artist = id3v1Text(bytes, 33, 30);
+        tag.album = id3v1Text(bytes, 63, 30);
+        tag.year = id3v1Text(bytes, 93, 4);
+        //ID3v1.1 keeps the track number in the last byte of the comment
+        boolean hasTrack = bytes[125] == 0 && bytes[126] != 0;
+        tag.comment = id3v1Text(bytes, 97, hasTrack ? 28 : 30);
+        int genre = bytes[127] & 0xFF;
+        tag.genre = (genre < ID3v1Genres.GENRES.length) ? ID3v1Genres.GENRES[genre] : null;
+        return tag;
+    }
+
+    /**
+     * Gets where the audio starts after an ID3v2 tag.
+     * @param header the 10 bytes of the tag header
+     * @return the offset of the first byte after the tag
+     */
+    private static long id3v2End(ByteBuffer header) {
+        long end = 10 + syncSafeInt(header, 6);
+        if (header.get(3) == 4 && (header.get(5) & 0x10) != 0) {
+            end += 10;  //footer
+        }
+        return end;
+    }
+
+    /**
+     * Gets the length of a frame from its header.
+     * @return the length in bytes, -1 if the header is not valid
+     */
+    private static int frameLength(int header) {
+        if ((header >>> 21) != 0x7FF) {
+            return -1;
+        }
+        int version = (header >> 19) & 3;
+        int layer = 4 - ((header >> 17) & 3);
+        int bitrateIndex = (header >> 12) & 0xF;
+        int sampleRateIndex = (header >> 10) & 3;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+        boolean mpeg1 = (version == 3);
+        int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+        int bitrate = BITRATES[mpeg1 ? 0 : 1][layer - 1][bitrateIndex] * 1000;
+        int padding = (header >> 9) & 1;
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        } else if (layer == 3 && !mpeg1) {
+            return 72 * bitrate / sampleRate + padding;
+        }
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    private static int sampleRate(int header) {
+        return SAMPLE_RATES[(header >> 19) & 3][(header >> 10) & 3];
+    }
+
+    private static int samplesPerFrame(int header) {
+        int layer = 4 - ((header >> 17) & 3);
+        boolean mpeg1 = ((header >> 19) & 3) == 3;
+        return (layer == 1) ? 384 : (layer == 3 && !mpeg1) ? 576 : 1152;
+    }
+
+    /**
+     * Checks if a header has the version, layer and sample rate of the first frame.
+     */
+    private static boolean sameStream(int header, int first) {
+        return (header & 0xFFFE0C00) == (first & 0xFFFE0C00);
+    }
+
+    /**
+     * Finds a frame followed by another frame of the same stream.
+     * @param like a header the frame must match, 0 for any
+     * @return the offset of the frame, -1 if none within SYNC_SEARCH_LENGTH bytes
+     */
+    private static int findFrame(ByteBuffer data, int from, int end, int like) {
+        int searchEnd = (int) Math.min((long) from + SYNC_SEARCH_LENGTH, end - 4);
+        for (int i = from; i <= searchEnd; i++) {
+            int header = data.getInt(i);
+            int length = frameLength(header);
+            if (length < 0 || (like != 0 && !sameStream(header, like))) {
+                continue;
+            }
+            int next = i + length;
+            if (next + 4 > end || (frameLength(data.getInt(next)) > 0 && sameStream(data.getInt(next), header))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a frame is a Xing/Info or VBRI header instead of audio.
+     */
+    private static boolean isVbrHeaderFrame(ByteBuffer data, int position, int header) {
+        boolean mpeg1 = ((header >> 19) & 3) == 3;
+        boolean mono = ((header >> 6) & 3) == 3;
+        int xingOffset = position + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        int vbriOffset = position + 4 + 32;
+        return (xingOffset + 4 <= data.limit() && (isTag(data, xingOffset, "Xing") || isTag(data, xingOffset, "Info")))
+                || (vbriOffset + 4 <= data.limit() && isTag(data, vbriOffset, "VBRI"));
+    }
+
+    /**
+     * Finds the first audio frame after the ID3v2 tag and reads the number of frames
+     * from its Xing/Info or VBRI header, and the encoder delay and padding from the LAME tag after a Xing header.
+     * @return the length in milliseconds, -1 if there is no frame or the header doesn't have the frame count
+     */
+    private static long readLength(FileChannel channel, long audioStart, long fileLength, Metadata metadata)
+            throws IOException {
+        int length = (int) Math.min(SYNC_SEARCH_LENGTH, fileLength - audioStart);
+        if (length < 4) {
+            return -1;
+        }
+        ByteBuffer buffer = readAt(channel, audioStart, length);
+        int limit = buffer.remaining();
+        for (int i = 0; i + 4 <= limit; i++) {
+            if ((buffer.get(i) & 0xFF) != 0xFF || (buffer.get(i + 1) & 0xE0) != 0xE0) {
+                continue;
+            }
+            int header = buffer.getInt(i);
+            int frameLength = frameLength(header);
+            if (frameLength < 0) {
+                continue;
+            }
+            boolean mpeg1 = ((header >> 19) & 3) == 3;
+            int sampleRate = sampleRate(header);
+            //a false sync in the data is unlikely to be followed by another frame header
+            int next = i + frameLength;
+            if (next + 2 <= limit
+                    && ((buffer.get(next) & 0xFF) != 0xFF || (buffer.get(next + 1) & 0xE0) != 0xE0)) {
+                continue;
+            }
+
+            boolean mono = ((header >> 6) & 3) == 3;
+            int samplesPerFrame = samplesPerFrame(header);
+            int xingOffset = i + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+            long frames = -1;
+            if (xingOffset + 12 <= limit && (isTag(buffer, xingOffset, "Xing") || isTag(buffer, xingOffset, "Info"))) {
+                int xingFlags = buffer.getInt(xingOffset + 4);
+                if ((xingFlags & 1) != 0) {
+                    frames = buffer.getInt(xingOffset + 8) & 0xFFFFFFFFL;
+                }
+                readEncoderGap(buffer, xingOffset, xingFlags, metadata);
+            } else {
+                int vbriOffset = i + 4 + 32;
+                if (vbriOffset + 18 <= limit && isTag(buffer, vbriOffset, "VBRI")) {
+                    frames = buffer.getInt(vbriOffset + 14) & 0xFFFFFFFFL;
+                }
+            }
+            if (frames <= 0) {
+                return -1;
+            }
+            metadata.sampleCount = frames * samplesPerFrame;
+            return frames * samplesPerFrame * 1000 / sampleRate;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the encoder delay and padding from the LAME tag, which follows the fields of the Xing header.
+     * The tag starts with the encoder name, e.g. "LAME3.100" or "Lavc58.54", and 21 bytes in,
+     * holds the delay and the padding as two 12 bit numbers.
+     */
+    private static void readEncoderGap(ByteBuffer buffer, int xingOffset, int xingFlags, Metadata metadata) {
+        int lameOffset = xingOffset + 8;
+        if ((xingFlags & 1) != 0) lameOffset += 4;      //frames
+        if ((xingFlags & 2) != 0) lameOffset += 4;      //bytes
+        if ((xingFlags & 4) != 0) lameOffset += 100;    //table of contents
+        if ((xingFlags & 8) != 0) lameOffset += 4;      //quality
+        if (lameOffset + 24 > buffer.limit()
+                || !(isTag(buffer, lameOffset, "LAME") || isTag(buffer, lameOffset, "Lavc")
+                || isTag(buffer, lameOffset, "Lavf"))) {
+            return;
+        }
+        int b0 = buffer.get(lameOffset + 21) & 0xFF;
+        int b1 = buffer.get(lameOffset + 22) & 0xFF;
+        int b2 = buffer.get(lameOffset + 23) & 0xFF;
+        metadata.encoderDelay = (b0 << 4) | (b1 >> 4);
+        metadata.encoderPadding = ((b1 & 0x0F) << 8) | b2;
+    }
+
+    /**
+     * Decodes the text of a text frame, the first byte being the encoding.
+     * Only the first value is kept if there are several separated by null characters.
+     */
+    private static String decodeText(byte[] body) {
+        if (body.length < 2) {
+            return null;
+        }
+        String text = new String(body, 1, body.length - 1, charset(body[0]));
+        int end = text.indexOf('\0');
+        return (end >= 0 ? text.substring(0, end) : text).trim();
+    }
+
+    /**
+     * Decodes a comment frame: encoding, language (3 bytes), description ending with null, text.
+     * @return {description, text}, null if the frame is malformed
+     */
+    private static String[] decodeComment(byte[] body) {
+        if (body.length < 5) {
+            return null;
+        }
+        Charset charset = charset(body[0]);
+        boolean wide = body[0] == 1 || body[0] == 2;
+        int descriptionEnd = -1;
+        for (int i = 4; i + (wide ? 1 : 0) < body.length; i += wide ? 2 : 1) {
+            if (body[i] == 0 && (!wide || body[i + 1] == 0)) {
+                descriptionEnd = i;
+                break;
+            }
+        }
+        if (descriptionEnd < 0) {
+            return null;
+        }
+        int textStart = descriptionEnd + (wide ? 2 : 1);
+        String description = new String(body, 4, descriptionEnd - 4, charset).trim();
+        String text = new String(body, textStart, body.length - textStart, charset);
+        int end = text.indexOf('\0');
+        return new String[]{description, (end >= 0 ? text.substring(0, end) : text).trim()};
+    }
+
+    /**
+     * Gets the genre name of a TCON frame, which can be a name, "(17)", "(17)Rock" or "17".
+     */
+    private static String genreDescription(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        String number = null;
+        if (text.charAt(0) == '(' && text.indexOf(')') > 1) {
+            number = text.substring(1, text.indexOf(')'));
+        } else if (text.chars().allMatch(Character::isDigit)) {
+            number = text;
+        }
+        if (number != null && number.length() <= 3 && number.chars().allMatch(Character::isDigit)) {
+            int genre = Integer.parseInt(number);
+            if (genre < ID3v1Genres.GENRES.length) {
+                return ID3v1Genres.GENRES[genre];
+            }
+        }
+        return text;
+    }
+
+    private static Charset charset(byte encoding) {
+        switch (encoding) {
+            case 1: return StandardCharsets.UTF_16;
+            case 2: return StandardCharsets.UTF_16BE;
+            case 3: return StandardCharsets.UTF_8;
+            default: return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private static String id3v1Text(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        String text = new String(bytes, offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static boolean isTag(ByteBuffer buffer, int offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (buffer.get(offset + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a 28 bit integer stored in 4 bytes of 7 bits, as used by ID3v2 sizes.
+     */
+    private static int syncSafeInt(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21) | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7) | (buffer.get(offset + 3) & 0x7F);
+    }
+
+    private static byte[] readBody(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = readAt(channel, position, size);
+        byte[] body = new byte[buffer.remaining()];
+        buffer.get(body);
+        return body;
+    }
+
+    /**
+     * Reads up to length bytes at a position of the file.
+     * @return the buffer flipped for reading, with fewer bytes at the end of the file
+     */
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
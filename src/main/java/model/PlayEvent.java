@@ -0,0 +1,43 @@
+package model;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * PlayEvent is one play of a song in the play history: when it started to be heard,
+ * how long it was heard, and whether it played to its end or was skipped.
+ */
+public class PlayEvent {
+
+    private final String path;
+    private final long startedAt;       //milliseconds since the epoch
+    private final long playedMillis;
+    private final boolean completed;
+
+    /**
+     * Constructs an event.
+     * @param path the path of the song
+     * @param startedAt when the song started to be heard, in milliseconds since the epoch
+     * @param playedMillis how long the song was heard, pauses and seeks excluded
+     * @param completed true if the song played to its end, false if it was skipped or stopped
+     */
+    public PlayEvent(String path, long startedAt, long playedMillis, boolean completed) {
+        this.path = path;
+        this.startedAt = startedAt;
+        this.playedMillis = playedMillis;
+        this.completed = completed;
+    }
+
+    public String getPath() { return path; }
+    public long getStartedAt() { return startedAt; }
+    public long getPlayedMillis() { return playedMillis; }
+    public boolean isCompleted() { return completed; }
+
+    /**
+     * Gets the local day the song started on, the bucket of the daily play counts.
+     * @return the number of days since 1970-01-01
+     */
+    public int getDay() {
+        return (int) Instant.ofEpochMilli(startedAt).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+}
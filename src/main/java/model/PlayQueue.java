@@ -0,0 +1,367 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * PlayQueue decides which song is played after or before the current one.
+ * The next song is taken, in this order, from
+ * 1. the up-next queue, songs the user asked to be played next,
+ * 2. the forward history, songs skipped back over with previous(),
+ * 3. the current song again in repeat mode,
+ * 4. a shuffled permutation of the song list in shuffle mode, which plays every song once before any repeats,
+ * 5. the song after the current one in the song list, rotating to the first.
+ * Songs are identified by their path (Song.equals()), not by their index, so sorting or editing the song list
+ * while playing doesn't change what plays next. The index of a song in the list is cached and checked on use,
+ * the list is only indexed again after it changed.
+ * The shuffle deals from its own copy of the list, one random swap per song (Fisher-Yates),
+ * so every step is O(1) however long the list is.
+ * A PlayQueue is used on the event dispatch thread only.
+ */
+public class PlayQueue {
+
+    public static final int HISTORY_LIMIT = 1000;     //songs kept to go back to
+
+    private static final int FROM_UP_NEXT = 0;
+    private static final int FROM_FORWARD = 1;
+    private static final int FROM_REPEAT = 2;
+    private static final int FROM_SHUFFLE = 3;
+    private static final int FROM_LIST = 4;
+
+    private List<Song> songList = Collections.emptyList();
+    private HashMap<Song, Integer> listIndex = new HashMap<Song, Integer>();   //cached index of each song in songList
+    private Song notInList;     //the last song looked up and not found since the list was indexed
+    private Song current;
+
+    private final ArrayDeque<Song> upNext = new ArrayDeque<Song>();
+    private final ArrayDeque<Song> backHistory = new ArrayDeque<Song>();       //most recent first
+    private final ArrayDeque<Song> forwardHistory = new ArrayDeque<Song>();    //next first
+
+    private boolean repeating = false;
+    private boolean shuffling = false;
+
+    //shuffle state: slots are the songs of the list when shuffling started, deal[] is a permutation of the slots
+    private Song[] slots = new Song[0];
+    private HashMap<Song, Integer> slotOf = new HashMap<Song, Integer>();
+    private int[] deal = new int[0];        //deal[0..dealt) were played in this round
+    private int[] dealIndex = new int[0];   //inverse of deal, dealIndex[slot] is its position in deal
+    private int dealt;
+    private boolean nextDealt;              //deal[dealt] was already drawn by peekNext()
+    private final Random random = new Random();
+
+    /**
+     * Sets the list of songs that is played through, either the library or a playlist.
+     * The list is kept, not copied, so it may be sorted in place afterwards.
+     * @param songList the song list
+     */
+    public void setSongList(List<Song> songList) {
+        this.songList = (songList == null) ? Collections.<Song>emptyList() : songList;
+        indexSongList();
+        if (shuffling && !isShuffledList(this.songList)) {
+            shuffleSongList(true);
+        }
+    }
+
+    public Song getCurrent() { return current; }
+    public boolean isRepeating() { return repeating; }
+    public boolean isShuffling() { return shuffling; }
+
+    /**
+     * Gets the songs the user queued, in the order they will be played.
+     * @return read only view of the up-next queue
+     */
+    public Collection<Song> getUpNext() {
+        return Collections.unmodifiableCollection(upNext);
+    }
+
+    /**
+     * Repeats the current song until a song is queued or picked.
+     * @param repeating true to repeat
+     */
+    public void setRepeat(boolean repeating) {
+        this.repeating = repeating;
+    }
+
+    /**
+     * Starts or stops shuffling the song list. A new shuffle starts with the current song as played.
+     * @param shuffling true to shuffle
+     */
+    public void setShuffle(boolean shuffling) {
+        if (shuffling && !this.shuffling) {
+            this.shuffling = true;
+            shuffleSongList(false);
+        }
+        this.shuffling = shuffling;
+    }
+
+    /**
+     * Queues a song to be played after the songs already queued.
+     * @param song the song
+     */
+    public void enqueue(Song song) {
+        upNext.addLast(song);
+    }
+
+    /**
+     * Queues a song to be played right after the current one, before the songs already queued.
+     * @param song the song
+     */
+    public void enqueueFirst(Song song) {
+        upNext.addFirst(song);
+    }
+
+    /**
+     * Empties the up-next queue.
+     */
+    public void clearUpNext() {
+        upNext.clear();
+    }
+
+    /**
+     * Makes a song picked by the user the current one. The current song goes to the back history,
+     * the forward history is dropped.
+     * @param song the song to be played
+     */
+    public void jumpTo(Song song) {
+        forwardHistory.clear();
+        moveTo(song);
+    }
+
+    /**
+     * Gets the song next() will move to, without moving.
+     * @return the next song, null if there is none
+     */
+    public Song peekNext() {
+        switch (nextSource()) {
+            case FROM_UP_NEXT:
+                return upNext.peekFirst();
+            case FROM_FORWARD:
+                return forwardHistory.peekFirst();
+            case FROM_REPEAT:
+                return current;
+            case FROM_SHUFFLE:
+                return drawShuffled();
+            case FROM_LIST:
+                return songList.get(rotate(indexOf(current) + 1));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Moves to the next song, the same song peekNext() returned.
+     * @return the new current song, null if there is none
+     */
+    public Song next() {
+        int source = nextSource();
+        Song song = peekNext();
+        if (song == null) {
+            return null;
+        }
+        if (source == FROM_UP_NEXT) {
+            upNext.pollFirst();
+        } else if (source == FROM_FORWARD) {
+            forwardHistory.pollFirst();
+        }
+        moveTo(song);
+        return song;
+    }
+
+    /**
+     * Moves back to the song played before the current one, or to the song before it in the song list
+     * if there is no history. The current song goes to the forward history.
+     * @return the new current song, null if there is none
+     */
+    public Song previous() {
+        Song song;
+        if (!backHistory.isEmpty()) {
+            song = backHistory.pollFirst();
+        } else if (!songList.isEmpty()) {
+            song = songList.get(rotate(Math.max(indexOf(current), 0) - 1));
+        } else {
+            return null;
+        }
+        if (current != null) {
+            forwardHistory.addFirst(current);
+        }
+        current = song;
+        markPlayed(song);
+        return song;
+    }
+
+    /**
+     * Gets the index of a song in the song list, e.g. to select its row.
+     * The cached index is checked first, the list is indexed again only if it changed.
+     * @param song the song
+     * @return the index, -1 if it is not in the list
+     */
+    public int indexOf(Song song) {
+        if (song == null) {
+            return -1;
+        }
+        Integer index = listIndex.get(song);
+        if (index != null && index < songList.size() && songList.get(index).equals(song)) {
+            return index;
+        }
+        if (song.equals(notInList)) {
+            return -1;
+        }
+        indexSongList();
+        index = listIndex.get(song);
+        if (index == null) {
+            notInList = song;   //e.g. a song opened from a file, don't index the list for it again
+            return -1;
+        }
+        return index;
+    }
+
+    private int nextSource() {
+        if (!upNext.isEmpty()) {
+            return FROM_UP_NEXT;
+        } else if (!forwardHistory.isEmpty()) {
+            return FROM_FORWARD;
+        } else if (repeating && current != null) {
+            return FROM_REPEAT;
+        } else if (songList.isEmpty()) {
+            return -1;
+        } else if (shuffling && slots.length > 0) {
+            return FROM_SHUFFLE;
+        } else {
+            return FROM_LIST;
+        }
+    }
+
+    private int rotate(int index) {
+        int size = songList.size();
+        return ((index % size) + size) % size;
+    }
+
+    private void moveTo(Song song) {
+        if (current != null && !current.equals(song)) {
+            backHistory.addFirst(current);
+            if (backHistory.size() > HISTORY_LIMIT) {
+                backHistory.pollLast();
+            }
+        }
+        current = song;
+        markPlayed(song);
+    }
+
+    private void indexSongList() {
+        HashMap<Song, Integer> index = new HashMap<Song, Integer>(songList.size() * 2);
+        for (int i = 0; i < songList.size(); i++) {
+            index.putIfAbsent(songList.get(i), i);
+        }
+        listIndex = index;
+        notInList = null;
+    }
+
+    //------------- Shuffle --------------
+
+    /**
+     * Draws the next song of the round, one step of Fisher-Yates: a random song not played yet
+     * is swapped to the front of the undealt part. It stays drawn until it is played.
+     */
+    private Song drawShuffled() {
+        if (dealt >= deal.length) {
+            dealt = 0;      //every song was played, start a new round
+            nextDealt = false;
+        }
+        if (!nextDealt) {
+            int pick = dealt + random.nextInt(deal.length - dealt);
+            if (deal.length - dealt > 1 && slots[deal[pick]].equals(current)) {
+                pick = (pick == dealt) ? pick + 1 : dealt;  //don't follow a song with itself across rounds
+            }
+            swapDeal(dealt, pick);
+            nextDealt = true;
+        }
+        return slots[deal[dealt]];
+    }
+
+    /**
+     * Marks a song as played in this round, however it came to be played, so the shuffle doesn't repeat it.
+     */
+    private void markPlayed(Song song) {
+        if (!shuffling || song == null) {
+            return;
+        }
+        Integer slot = slotOf.get(song);
+        if (slot == null || dealIndex[slot] < dealt) {
+            return;
+        }
+        swapDeal(dealt, dealIndex[slot]);
+        dealt++;
+        nextDealt = false;  //the drawn song was played, or was put back if another one was
+    }
+
+    private void swapDeal(int i, int j) {
+        int slot = deal[i];
+        deal[i] = deal[j];
+        deal[j] = slot;
+        dealIndex[deal[i]] = i;
+        dealIndex[deal[j]] = j;
+    }
+
+    private boolean isShuffledList(List<Song> songs) {
+        if (songs.size() != slots.length) {
+            return false;
+        }
+        for (Song song : songs) {
+            if (!slotOf.containsKey(song)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the song list into the slots of a round, with the current song as played.
+     * @param keepPlayed true to keep the songs played in the round so far as played,
+     *                   so editing the list doesn't make the shuffle repeat them
+     */
+    private void shuffleSongList(boolean keepPlayed) {
+        HashSet<Song> played = new HashSet<Song>();
+        for (int i = 0; keepPlayed && i < dealt; i++) {
+            played.add(slots[deal[i]]);
+        }
+        if (current != null) {
+            played.add(current);
+        }
+
+        HashMap<Song, Integer> newSlotOf = new HashMap<Song, Integer>(songList.size() * 2);
+        for (Song song : songList) {
+            newSlotOf.putIfAbsent(song, newSlotOf.size());
+        }
+        Song[] newSlots = new Song[newSlotOf.size()];
+        for (Map.Entry<Song, Integer> entry : newSlotOf.entrySet()) {
+            newSlots[entry.getValue()] = entry.getKey();
+        }
+        int[] newDeal = new int[newSlots.length];
+        int[] newDealIndex = new int[newSlots.length];
+        int front = 0;
+        int back = newSlots.length;
+        for (int slot = 0; slot < newSlots.length; slot++) {
+            int at = played.contains(newSlots[slot]) ? front++ : --back;
+            newDeal[at] = slot;
+            newDealIndex[slot] = at;
+        }
+        slots = newSlots;
+        slotOf = newSlotOf;
+        deal = newDeal;
+        dealIndex = newDealIndex;
+        dealt = front;
+        nextDealt = false;
+        if (dealt >= deal.length) {
+            dealt = 0;
+            if (current != null && slotOf.containsKey(current)) {
+                markPlayed(current);
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package model;
 
+import database.BulkInsertResult;
 import database.DatabaseHandler;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * Playlist class contains Songs by extending ArrayList Song.
@@ -11,12 +13,11 @@ import java.util.ArrayList;
 //TODO why not extend ArrayList<Song>??
 public class Playlist { //extends ArrayList<Song> {
 
-    private String name;
-    private static DatabaseHandler dbHandler = DatabaseHandler.getInstance();
-    //this needs to be instantiated just once at the very start of the application
-    private static SongLibrary library;
+    private final String name;
+    //lower-cased name, which identifies the playlist as in PlaylistLibrary and the database
+    private final String key;
 
-    private ArrayList<Song> songList;
+    private SongArray songList;     //indexed by path, a song may appear more than once
 
     //private constructor since we only instantiate this class using the static factory method in order to keep track
     //of all the playlists already instantiated
@@ -25,31 +26,46 @@ public class Playlist { //extends ArrayList<Song> {
     }
     public Playlist(String name) {
         this.name = name;
-        library = new SongLibrary(dbHandler.getSongLibrary());
-        songList = new ArrayList<Song>();
+        this.key = name.toLowerCase();
+        songList = new SongArray("playlist");
     }
 
     public Playlist(String name, ArrayList<Song> songArray) {
         this.name = name;
+        this.key = name.toLowerCase();
         //this.addAll(songArray);
-        songList = songArray;
-        library = new SongLibrary(dbHandler.getSongLibrary());
+        songList = new SongArray("playlist", songArray);
     }
 
     /**
-     * This method adds a list of song to this playlist
+     * This method adds a list of song to this playlist.
+     * Songs not in the library yet are added to the library first.
+     * Both are written to the database in batches within a single transaction.
      *
      * @param songs the songs to be added
      * @return true if all the songs could be added, false if at least one could not be added
      */
     public boolean addMultipleSongs(ArrayList<Song> songs) {
-        boolean success = true;
-        for (Song newSong : songs) {
-            if (success) {
-                success = success && this.addSong(newSong);
+        ArrayList<Song> validSongs = new ArrayList<Song>();
+        for (Song song : songs) {
+            if (song.getPath() == null) {
+                System.out.println("[Playlist_ERROR] Not added. filePath: null\n");
+            } else {
+                validSongs.add(song);
             }
         }
-        return success;
+        //add the songs missing in the library
+        SongLibrary.getInstance().addSongs(validSongs);
+        //add songs to the playlist in the database
+        BulkInsertResult result = DatabaseHandler.getInstance().addSongsToPlaylist(this, validSongs);
+        HashSet<String> insertedPaths = new HashSet<String>(result.getInserted());
+        for (Song song : validSongs) {
+            if (insertedPaths.contains(song.getPath())) {
+                songList.add(sharedSong(song));
+            }
+        }
+        System.out.println("[Playlist: " + this.name + "] Added " + result.getInsertedCount() + " songs.\n");
+        return result.getInsertedCount() == songs.size();
     }
 
     /**
@@ -66,9 +82,10 @@ public class Playlist { //extends ArrayList<Song> {
         }
         if (!songInLibrary(song)) {
             System.out.println("Song " + song.getPath() + "is not in library yet. Adding it now.");
-            int flag = library.addSong(song);
-            if(flag != SongLibrary.ADDSONG_FILEPATH_NULL){
-                success = true;
+            int flag = SongLibrary.getInstance().addSong(song);
+            if (flag == SongLibrary.ADDSONG_FAILED) {
+                System.out.println("[Playlist_ERROR] Not added. Not saved in the library.\t" + song.getTitleAndArtist());
+                return false;
             }
         }
         // Check if the song already exists in the playlist
@@ -77,14 +94,28 @@ public class Playlist { //extends ArrayList<Song> {
          return false;
          } else { **/
         //add song to Playlist the database
-        success = success && dbHandler.addSongToPlaylist(this, song);
-        songList.add(song);
-        System.out.print("[Playlist: " + this.name + "] Added a song. \t");
+        success = success && DatabaseHandler.getInstance().addSongToPlaylist(this, song);
+        if (success) {
+            songList.add(sharedSong(song));
+            System.out.print("[Playlist: " + this.name + "] Added a song. \t");
+        } else {
+            System.out.print("[Playlist: " + this.name + "] Not added. Not saved in the database.\t");
+        }
         //}
         System.out.println("'" + song.getTitleAndArtist() + "'\n");
         return success;
     }
 
+    /**
+     * Gets the object the library holds for a song, so that the library and all playlists share it.
+     * @param song the song added to the library
+     * @return the shared song, or this song if the library doesn't have it
+     */
+    private static Song sharedSong(Song song) {
+        Song shared = SongLibrary.getInstance().getSharedSong(song.getPath());
+        return (shared != null) ? shared : song;
+    }
+
     /**
      * Deletes a song from the playlist, if present.
      *
@@ -92,7 +123,7 @@ public class Playlist { //extends ArrayList<Song> {
      */
     public void deleteSong(Song song) {
         if (songList.contains(song)) {
-            dbHandler.deleteSongFromPlaylist(this, song);
+            DatabaseHandler.getInstance().deleteSongFromPlaylist(this, song);
             songList.remove(song);
             System.out.print("[Playlist: " + this.name + "] Deleted.\t");
         } else {
@@ -117,12 +148,7 @@ public class Playlist { //extends ArrayList<Song> {
      * @return true if the song is in the library, false if not
      */
     private boolean songInLibrary(Song song) {
-        for (Song currSong : dbHandler.getSongLibrary()) {
-            if (currSong.getPath().equals(song.getPath())) {
-                return true;
-            }
-        }
-        return false;
+        return SongLibrary.getInstance().getSongByPath(song.getPath()) != null;
     }
 
     /**
@@ -132,12 +158,7 @@ public class Playlist { //extends ArrayList<Song> {
      * @return true if the song is in this playlist, false if not
      */
     private boolean songInPlaylist(Song song) {
-        for (Song currSong : dbHandler.getSongsInPlaylist(this)) {
-            if (currSong.getPath().equals(song.getPath())) {
-                return true;
-            }
-        }
-        return false;
+        return songList.contains(song);
     }
 
     /*  //TODO: maybe have a DB method that returns a list of Playlist objects instead of Strings
@@ -153,21 +174,33 @@ public class Playlist { //extends ArrayList<Song> {
      }*/
 
     public void setSongList(ArrayList<Song> songList) {
-        this.songList = songList;
+        this.songList = new SongArray("playlist", songList);
     }
 
-    public ArrayList<Song> getSongList() {
+    public SongArray getSongList() {
         return this.songList;
     }
 
+    /**
+     * Hash code of the lower-cased name, consistent with equals(), so Playlists can be keys of hashed collections.
+     */
     @Override
     public int hashCode() {
-        return 0;
+        return key.hashCode();
     }
 
+    /**
+     * Playlists are equal if they have the same name, ignoring case as PlaylistLibrary does.
+     */
     @Override
     public boolean equals(java.lang.Object plist1) {
+        if (this == plist1) {
+            return true;
+        }
+        if (!(plist1 instanceof Playlist)) {
+            return false;
+        }
         Playlist playlist = (Playlist) plist1;
-        return this.getName().equals(playlist.getName());
+        return this.key.equals(playlist.key);
     }
 }
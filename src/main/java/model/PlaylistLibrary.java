@@ -3,21 +3,32 @@ package model;
 import database.DatabaseHandler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 
 /**
  * PlaylistLibrary class manages all Playlists.
+ * The playlists are also kept in a hash map by lower-cased name, so looking one up takes constant time.
  */
 public class PlaylistLibrary extends ArrayList<Playlist> {
 
     private DatabaseHandler dbHandler;
+    private final HashMap<String, Playlist> playlistsByName = new HashMap<String, Playlist>();
 
     /**
      * Construct PlaylistLibrary instance
-     * from existing playlists stored in the database
+     * from existing playlists stored in the database.
+     * The songs of all playlists are loaded here once, and then kept up to date by Playlist.
+     * They are the songs of the shared SongLibrary, so changes to their tags show in every playlist.
      */
     public PlaylistLibrary(){
         this.dbHandler = DatabaseHandler.getInstance();
-        this.addAll(dbHandler.getAllPlaylistsObjects());
+        ArrayList<Playlist> playlists = dbHandler.getAllPlaylistsObjects(SongLibrary.getInstance());
+        if (playlists == null) {
+            System.out.println("[PlaylistLibrary_ERROR] Playlists could not be read from the database.");
+            return;
+        }
+        this.addAll(playlists);
     }
 
     /**
@@ -26,28 +37,21 @@ public class PlaylistLibrary extends ArrayList<Playlist> {
      * @return true if exists, false if not.
      */
     public boolean exists(String playlistName){
-        for (Playlist playlist : this) {
-            if (playlist.getName().equalsIgnoreCase(playlistName)) {
-                return true;
-            }
-        }
-        return false;
+        return playlistName != null && playlistsByName.containsKey(playlistName.toLowerCase());
     }
 
     /**
      * This method returns a playlist object by its name
      * Note that the playlist names are not case sensitive.
+     * The songs are not reloaded from the database, since Playlist keeps them in sync.
      * @param pName the name of the playlist to be returned
      * @return the playlist with the name pName
      */
     public Playlist getPlaylistByName(String pName) {
-        for (Playlist playlist : this) {
-            if (playlist.getName().equals(pName)) {
-                playlist.setSongList(dbHandler.getSongsInPlaylist(pName));
-                return playlist;
-            }
+        if (pName == null) {
+            return null;
         }
-        return null;
+        return playlistsByName.get(pName.toLowerCase());
         /*
         //TODO need to refactor this part!!
         for (Playlist playlist : this) {
@@ -118,24 +122,25 @@ public class PlaylistLibrary extends ArrayList<Playlist> {
         if ( !dbHandler.deletePlaylist(playlistName) ) { return false; }
         // Delete playlist from this playlist library
         Playlist playlist = this.getPlaylistByName(playlistName);
-        this.remove(this.getPlaylistByName(playlistName));
+        this.remove(playlist);
         System.out.print("[PlaylistLibrary] Deleted the playlist \""+playlistName+"\".\n");
 
         return true;
     }
 
     /**
-     * Deletes a song from all playlists that contain the song.
+     * Deletes a song from all playlists that contain the song,
+     * after it was deleted from the library.
+     * The database rows are already gone with the song, this removes every occurrence in memory.
      * @param song the song to be deleted.
      */
     public void deleteSongFromAllPlaylists(Song song){
         String playlistNames = "";
         int count = 0;
         for (Playlist playlist : this) {
-            //if the playlist has the song
-            if(playlist.getSongList().contains(song)) {
-                //delete it from the playlist.
-                playlist.deleteSong(song);
+            //if the playlist has the song, delete it from the playlist.
+            if(playlist.getSongList().contains(song)
+                    && playlist.getSongList().removeIf(s -> s.equals(song))) {
                 playlistNames = playlistNames + playlist.getName() + ", ";
                 count++;
             }
@@ -145,5 +150,38 @@ public class PlaylistLibrary extends ArrayList<Playlist> {
         );
     }
 
+    @Override
+    public boolean add(Playlist playlist) {
+        playlistsByName.put(playlist.getName().toLowerCase(), playlist);
+        return super.add(playlist);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Playlist> playlists) {
+        for (Playlist playlist : playlists) {
+            playlistsByName.put(playlist.getName().toLowerCase(), playlist);
+        }
+        return super.addAll(playlists);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o instanceof Playlist) {
+            playlistsByName.remove(((Playlist) o).getName().toLowerCase());
+        }
+        return super.remove(o);
+    }
+
+    @Override
+    public Playlist remove(int index) {
+        Playlist playlist = super.remove(index);
+        playlistsByName.remove(playlist.getName().toLowerCase());
+        return playlist;
+    }
 
+    @Override
+    public void clear() {
+        playlistsByName.clear();
+        super.clear();
+    }
 }
@@ -0,0 +1,88 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RecentSongs keeps the last songs played in a fixed-size ring, the most recent one first.
+ * Adding a song overwrites the oldest one once the ring is full, and a song played again
+ * moves to the front instead of being kept twice. Nothing is allocated when adding, and the work
+ * is bounded by the capacity, not by the number of songs ever played.
+ */
+public class RecentSongs {
+
+    private final Song[] ring;
+    private int newest = -1;    //slot of the most recent song
+    private int size;
+
+    /**
+     * Constructs an empty ring.
+     * @param capacity the number of songs kept
+     */
+    public RecentSongs(int capacity) {
+        ring = new Song[Math.max(capacity, 1)];
+    }
+
+    public int size() { return size; }
+    public int getCapacity() { return ring.length; }
+
+    /**
+     * Gets a recent song.
+     * @param index 0 for the most recent song
+     * @return the song
+     */
+    public Song get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return ring[slot(index)];
+    }
+
+    /**
+     * Puts a song at the front. If it is already in the ring, the songs more recent than it
+     * move back by one, otherwise the oldest song is dropped when the ring is full.
+     * @param song the song played
+     */
+    public void add(Song song) {
+        int index = indexOf(song);
+        if (index < 0) {
+            newest = (newest + 1) % ring.length;
+            size = Math.min(size + 1, ring.length);
+        } else {
+            for (int i = index; i > 0; i--) {
+                ring[slot(i)] = ring[slot(i - 1)];
+            }
+        }
+        ring[newest] = song;
+    }
+
+    /**
+     * Gets the position of a song.
+     * @param song the song
+     * @return 0 for the most recent song, -1 if it is not in the ring
+     */
+    public int indexOf(Song song) {
+        for (int i = 0; i < size; i++) {
+            if (ring[slot(i)].equals(song)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the songs into a list.
+     * @return the songs, the most recent one first
+     */
+    public List<Song> toList() {
+        List<Song> songs = new ArrayList<Song>(size);
+        for (int i = 0; i < size; i++) {
+            songs.add(ring[slot(i)]);
+        }
+        return songs;
+    }
+
+    private int slot(int index) {
+        return (newest - index + ring.length) % ring.length;
+    }
+}
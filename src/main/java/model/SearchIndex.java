@@ -0,0 +1,431 @@
+package model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * SearchIndex is an inverted index over the title, artist, album, genre and comment of songs,
+ * kept by SongLibrary as songs are added and removed.
+ * Texts are split into tokens of letters and digits, folded to lower case without accents ("Beyoncé" is "beyonce").
+ * Each token maps to the ids of the songs that have it, the tokens are sorted so all tokens starting
+ * with a prefix are a range of the map. A query matches the songs having, for each of its words,
+ * a token starting with that word, so "beat abb" matches "The Beatles - Abbey Road".
+ * When nothing matches, the words are looked up again in a TrigramIndex of the tokens,
+ * so a misspelled word matches the tokens spelled like it: "beetles" matches "The Beatles".
+ * The "unknown" put by Song in place of a missing title, artist or album is not indexed,
+ * it would match most of a library without tags.
+ * Ids of removed songs are not reused. They are marked dead and left in the lists of ids,
+ * which queries filter out, until the ids are compacted once most of them are dead.
+ * The index is used on the event dispatch thread only, like the library.
+ */
+public class SearchIndex {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final String[] NO_TOKENS = new String[0];
+    private static final int PARALLEL_THRESHOLD = 512;     //songs added at once to tokenize them in parallel
+    private static final int MIN_DEAD_IDS = 1024;          //removed ids to compact, when they outnumber the songs
+
+    private final TreeMap<String, Postings> postings = new TreeMap<String, Postings>();
+    private final TrigramIndex trigrams = new TrigramIndex();
+    private final HashMap<Song, Integer> docIds = new HashMap<Song, Integer>();
+    private ArrayList<String[]> docTokens = new ArrayList<String[]>();     //by id, null once removed
+    private final BitSet deadIds = new BitSet();    //removed ids still in the lists of ids
+    private int docCount;
+    private int deadCount;      //removed ids below docCount
+    private int modCount;       //changes, for the results made before them
+
+    /**
+     * Sorted ids of the songs having a token. New ids are larger than all others, so adding is appending,
+     * and compact() keeps the order. Removed ids stay in the list until compact(), only counted out of live.
+     */
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+        int live;           //ids of songs not removed
+        int termId = -1;    //in the TrigramIndex, -1 for tokens too short to be looked up
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+            live++;
+        }
+    }
+
+    /**
+     * The songs matching a query. If songs were added to or removed from the index since it was made,
+     * e.g. while a table is filtered by it, the query is searched again on first use,
+     * so the result follows the library and never reads ids compacted since.
+     */
+    public class Result {
+        private final String[] words;
+        private BitSet matches;
+        private int count;
+        private boolean fuzzy;
+        private int matchedModCount;
+
+        private Result(String[] words) {
+            this.words = words;
+            match();
+        }
+
+        private void match() {
+            matchedModCount = modCount;
+            matches = findPrefixes(words);
+            fuzzy = matches.isEmpty();
+            if (fuzzy) {
+                matches = findSimilar(words);
+            }
+            count = matches.cardinality();
+        }
+
+        private void refresh() {
+            if (matchedModCount != modCount) {
+                match();
+            }
+        }
+
+        /**
+         * Checks if a song matches, in constant time.
+         * @param song a song of the library, or equal to one by path
+         * @return true if it matches
+         */
+        public boolean contains(Song song) {
+            refresh();
+            Integer id = docIds.get(song);
+            return id != null && matches.get(id);
+        }
+
+        /** @return the number of matching songs */
+        public int size() {
+            refresh();
+            return count;
+        }
+
+        /** @return true if the songs were found by words spelled like the query, none matching it exactly */
+        public boolean isFuzzy() {
+            refresh();
+            return fuzzy;
+        }
+    }
+
+    public int size() { return docIds.size(); }
+
+    /**
+     * Indexes a song. A song with the same path is replaced.
+     * @param song the song
+     */
+    public void add(Song song) {
+        add(song, tokenize(song));
+    }
+
+    /**
+     * Indexes songs. Many songs at once, e.g. the library loaded at startup, are tokenized
+     * in parallel on all cores, then added to the index in order.
+     * @param songs the songs
+     */
+    public void addAll(Collection<Song> songs) {
+        if (songs.size() < PARALLEL_THRESHOLD) {
+            for (Song song : songs) {
+                add(song);
+            }
+            return;
+        }
+        List<Song> list = new ArrayList<Song>(songs);
+        List<String[]> tokens = list.parallelStream().map(SearchIndex::tokenize).collect(Collectors.toList());
+        for (int i = 0; i < list.size(); i++) {
+            add(list.get(i), tokens.get(i));
+        }
+    }
+
+    private void add(Song song, String[] tokens) {
+        if (docIds.containsKey(song)) {
+            remove(song);
+        }
+        int id = docCount++;
+        for (String token : tokens) {
+            Postings list = postings.get(token);
+            if (list == null) {
+                list = new Postings();
+                if (token.length() >= TrigramIndex.MIN_WORD_LENGTH - 1) {
+                    list.termId = trigrams.add(token);
+                }
+                postings.put(token, list);
+            }
+            list.add(id);
+        }
+        docIds.put(song, id);
+        docTokens.add(tokens);
+        modCount++;
+    }
+
+    private static String[] tokenize(Song song) {
+        return tokenize(known(song.getTitle()), known(song.getArtist()), known(song.getAlbum()),
+                song.getGenre(), song.getComment());
+    }
+
+    private static String known(String tag) {
+        return Song.UNKNOWN.equals(tag) ? null : tag;
+    }
+
+    /**
+     * Removes a song from the index.
+     * @param song the song, or a song equal to it by path
+     */
+    public void remove(Song song) {
+        Integer id = docIds.remove(song);
+        if (id == null) {
+            return;
+        }
+        for (String token : docTokens.get(id)) {
+            Postings list = postings.get(token);
+            if (--list.live == 0) {
+                postings.remove(token);
+                if (list.termId >= 0) {
+                    trigrams.remove(list.termId);
+                }
+            }
+        }
+        docTokens.set(id, null);
+        deadIds.set(id);
+        deadCount++;
+        modCount++;
+        if (deadCount >= MIN_DEAD_IDS && deadCount > docIds.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Numbers the songs again from 0, in the order of their ids, so the ids of removed songs are freed
+     * and the sets of ids made per query are sized by the songs in the index, not by every song ever added.
+     * The dead ids are dropped from the lists of ids here, in one pass over each list.
+     * The new ids keep the order of the old ones, so every list of ids stays sorted.
+     */
+    private void compact() {
+        int[] newIds = new int[docCount];
+        ArrayList<String[]> liveTokens = new ArrayList<String[]>(docIds.size());
+        for (int id = 0; id < docCount; id++) {
+            String[] tokens = docTokens.get(id);
+            if (tokens != null) {
+                newIds[id] = liveTokens.size();
+                liveTokens.add(tokens);
+            }
+        }
+        for (Postings list : postings.values()) {
+            int size = 0;
+            for (int i = 0; i < list.size; i++) {
+                int id = list.ids[i];
+                if (!deadIds.get(id)) {
+                    list.ids[size++] = newIds[id];
+                }
+            }
+            list.size = size;
+        }
+        for (Map.Entry<Song, Integer> entry : docIds.entrySet()) {
+            entry.setValue(newIds[entry.getValue()]);
+        }
+        docTokens = liveTokens;
+        docCount = liveTokens.size();
+        deadIds.clear();
+        deadCount = 0;
+    }
+
+    /**
+     * Finds the songs matching every word of a query as the prefix of one of their tokens.
+     * The word with the fewest ids is looked up in the index, the songs found are then checked for the other words.
+     * If no song matches, searches again with the words spelled like the query, see findSimilar().
+     * @param query the words typed
+     * @return the matching songs, null if the query has no words (everything matches)
+     */
+    public Result search(String query) {
+        String[] words = tokenize(query);
+        if (words.length == 0) {
+            return null;
+        }
+        return new Result(words);
+    }
+
+    private BitSet findPrefixes(String[] words) {
+        int smallest = smallestPrefixRange(words);
+        BitSet matches = new BitSet(docCount);
+        for (Postings list : prefixRange(words[smallest]).values()) {
+            addIds(list, matches);
+        }
+        matches.andNot(deadIds);
+        if (words.length > 1) {
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                if (!hasEveryPrefix(docTokens.get(id), words, smallest)) {
+                    matches.clear(id);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Picks the word whose prefix range has the fewest ids, e.g. "abbey" rather than "the" or "a".
+     * A short word may cover most of the tokens, so each range is only counted up to the fewest found so far.
+     * @return the index of the word
+     */
+    private int smallestPrefixRange(String[] words) {
+        //the longest word first, its range is usually the smallest
+        int smallest = 0;
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].length() > words[smallest].length()) {
+                smallest = i;
+            }
+        }
+        if (words.length == 1) {
+            return smallest;
+        }
+        long fewest = countIds(words[smallest], Long.MAX_VALUE);
+        for (int i = 0; i < words.length; i++) {
+            if (i != smallest) {
+                long count = countIds(words[i], fewest);
+                if (count < fewest) {
+                    fewest = count;
+                    smallest = i;
+                }
+            }
+        }
+        return smallest;
+    }
+
+    private long countIds(String prefix, long limit) {
+        long count = 0;
+        for (Postings list : prefixRange(prefix).values()) {
+            count += list.size;
+            if (count >= limit) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the songs matching every word of a query as the prefix of one of their tokens,
+     * or as a token within the edit distance allowed by the TrigramIndex.
+     */
+    private BitSet findSimilar(String[] words) {
+        BitSet matches = null;
+        for (String word : words) {
+            BitSet wordMatches = new BitSet(docCount);
+            for (Postings list : prefixRange(word).values()) {
+                addIds(list, wordMatches);
+            }
+            for (String token : trigrams.findSimilar(word)) {
+                addIds(postings.get(token), wordMatches);
+            }
+            wordMatches.andNot(deadIds);
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private static void addIds(Postings list, BitSet ids) {
+        for (int i = 0; i < list.size; i++) {
+            ids.set(list.ids[i]);
+        }
+    }
+
+    private NavigableMap<String, Postings> prefixRange(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static boolean hasEveryPrefix(String[] tokens, String[] words, int checkedWord) {
+        for (int i = 0; i < words.length; i++) {
+            if (i == checkedWord) {
+                continue;
+            }
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.startsWith(words[i])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits texts into distinct folded tokens.
+     * @param texts the texts, null ones are skipped
+     * @return the tokens
+     */
+    static String[] tokenize(String... texts) {
+        LinkedHashSet<String> tokens = new LinkedHashSet<String>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            String folded = fold(text);
+            int start = -1;
+            for (int i = 0; i <= folded.length(); i++) {
+                boolean inToken = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+                if (inToken && start < 0) {
+                    start = i;
+                } else if (!inToken && start >= 0) {
+                    tokens.add(folded.substring(start, i));
+                    start = -1;
+                }
+            }
+        }
+        return tokens.isEmpty() ? NO_TOKENS : tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Folds a text to lower case without accents.
+     * ASCII texts, most tags, skip the Unicode normalization.
+     * @param text the text
+     * @return the folded text
+     */
+    public static String fold(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+                return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+            }
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the number of distinct tokens, e.g. for the log.
+     * @return the number of tokens
+     */
+    public int getTokenCount() {
+        return postings.size();
+    }
+
+    /**
+     * Gets the number of tokens looked up for misspelled words, e.g. for the log.
+     * @return the number of tokens in the TrigramIndex
+     */
+    public int getFuzzyTokenCount() {
+        return trigrams.size();
+    }
+}
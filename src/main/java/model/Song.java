@@ -4,9 +4,24 @@ import com.mpatric.mp3agic.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
 
 public class Song {
 
+    public static final int TITLE_FIELD = 1;    //index of the title in toArray(), see getSortKey()
+    public static final String UNKNOWN = "unknown";     //title, artist or album missing from the tags
+
+    /**
+     * Orders the tags for sorting: ignores case, spaces and punctuation ('Carry On' before 'Car Wash'),
+     * and puts accented letters after plain ones, in the rules of the default locale.
+     * Its methods are synchronized, so songs can be read on any thread.
+     */
+    private static final Collator SORT_COLLATOR = Collator.getInstance();
+    static {
+        SORT_COLLATOR.setStrength(Collator.SECONDARY);
+    }
+
     private String path;
     private String title;
     private String artist;
@@ -15,12 +30,15 @@ public class Song {
     private String comment;
     private String genre;
     private int time;
+    private int hash;   //hash of the path, which identifies the song, updated with the path
+    private volatile CollationKey[] sortKeys;    //by index in toArray(), computed once, dropped by setProperties()
 
     /**
      * Construct an empty Song object
      */
     public Song(int number){
         this.path = "randomPath" + number;
+        this.hash = path.hashCode();
     }
 
     /**
@@ -33,12 +51,38 @@ public class Song {
     }
 
     /**
-     * Construct a Song object from a valid MP3 File path
+     * Construct a Song object from a valid MP3 File path.
+     * The tags and the length are read from the headers by Mp3MetadataReader,
+     * and only if they are not enough, the whole file is scanned by mp3agic's Mp3File.
      * @param filePath of an MP3 file
      */
     public Song(String filePath){
         System.out.print("[Song] new filePath: '"+filePath+"' ");
 
+        try {
+            Mp3MetadataReader.Metadata metadata = Mp3MetadataReader.read(filePath);
+            if (metadata != null) {
+                System.out.println("\tMP3 headers");
+                if (metadata.hasTag()) {
+                    setProperties( filePath,
+                            metadata.getTitle(), metadata.getArtist(), metadata.getAlbum(),
+                            metadata.getYear(), metadata.getComment(), metadata.getGenre(),
+                            (int)metadata.getLengthInSeconds() );
+                }
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("[Song_ERROR] File Not Found. filePath='"+filePath+"'");
+            return;
+        }
+        readMp3File(filePath);
+    }
+
+    /**
+     * Reads the tags and the length by scanning the whole file with mp3agic.
+     * @param filePath of an MP3 file
+     */
+    private void readMp3File(String filePath){
         try {
             //Get MP3File
             Mp3File mp3file = new Mp3File(filePath);
@@ -111,6 +155,29 @@ public class Song {
     public String getGenre() { return genre; }
     public int getTime() { return time; }
 
+    /**
+     * Gets the key sorting the song on one of its properties, like the table view does.
+     * Keys are compared without allocating, each is made once per song and kept until the tags change.
+     * The title key, the default sort, is made with the tags, e.g. on the thread loading the library,
+     * the others when first asked for.
+     * @param field index of the property in toArray(), 0 for the path and 1 to 6 for title to genre
+     * @return the key
+     */
+    public CollationKey getSortKey(int field) {
+        CollationKey[] keys = sortKeys;
+        if (keys == null) {
+            keys = new CollationKey[7];
+            sortKeys = keys;
+        }
+        CollationKey key = keys[field];
+        if (key == null) {
+            String value = toArray()[field];
+            key = SORT_COLLATOR.getCollationKey((value == null) ? "" : value);
+            keys[field] = key;
+        }
+        return key;
+    }
+
     /**
      * Get title and artist of the song in 'title - artist' form
      * @return
@@ -129,24 +196,44 @@ public class Song {
 
     /**
      * Set properties of the song.
-     * Title, Artist, Album fields with null or blank String are replaced to "unknown".
+     * Title, Artist, Album fields with null or blank String are replaced to "unknown" (UNKNOWN).
      */
     public void setProperties(String pPath, String pTitle, String pArtist, String pAlbum,
                               String pYear, String pComment, String pGenre, int pTime) {
         this.path = pPath;
-        this.title = (pTitle==null || pTitle.equals("")) ? "unknown" : pTitle;
-        this.artist = (pArtist==null || pArtist.equals("")) ? "unknown" : pArtist;
-        this.album = (pAlbum==null || pAlbum.equals("")) ? "unknown" : pAlbum;
+        this.hash = (pPath == null) ? 0 : pPath.hashCode();
+        this.title = (pTitle==null || pTitle.equals("")) ? UNKNOWN : pTitle;
+        this.artist = (pArtist==null || pArtist.equals("")) ? UNKNOWN : pArtist;
+        this.album = (pAlbum==null || pAlbum.equals("")) ? UNKNOWN : pAlbum;
         this.year = (pYear==null) ? "" : pYear;
         this.comment = (pComment==null) ? "" : pComment;
         this.genre = (pGenre==null) ? "" : pGenre;
         this.time = pTime;
+        this.sortKeys = null;
+        getSortKey(TITLE_FIELD);
     }
 
+    /**
+     * Songs are equal if they have the same file path.
+     */
     @Override
     public boolean equals(java.lang.Object song1) {
+        if (this == song1) {
+            return true;
+        }
+        if (!(song1 instanceof Song)) {
+            return false;
+        }
         Song song = (Song) song1;
-        return this.getPath().equals(song.getPath());
+        return (this.path == null) ? song.path == null : this.path.equals(song.path);
+    }
+
+    /**
+     * Hash code of the file path, consistent with equals(), so Songs can be keys of hashed collections.
+     */
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
 }
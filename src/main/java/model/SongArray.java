@@ -1,12 +1,39 @@
 package model;
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
+/**
+ * SongArray is a list of Songs with a hash index keyed by file path,
+ * so that getSongByPath() and contains() take constant time instead of scanning the list.
+ * All the methods changing the list keep the index up to date.
+ * A path may appear more than once, e.g. in a playlist, so the index counts the occurrences.
+ */
 public class SongArray extends ArrayList<Song> {
     String type;    //library or playlist
 
+    private final HashMap<String, IndexEntry> pathIndex = new HashMap<String, IndexEntry>();
+
+    /**
+     * An entry of the path index, one of the songs with the path and how many times the path is in the list.
+     */
+    private static class IndexEntry {
+        Song song;
+        int count;
+
+        IndexEntry(Song song) {
+            this.song = song;
+        }
+    }
+
     /**
      * Constructs Array of Songs
      * @param type "library" or "playlist"
@@ -15,6 +42,16 @@ public class SongArray extends ArrayList<Song> {
         this.type = type;
     }
 
+    /**
+     * Constructs Array of Songs with the songs of a list
+     * @param type "library" or "playlist"
+     * @param songs the songs in their order
+     */
+    public SongArray(String type, Collection<Song> songs){
+        this.type = type;
+        addAll(songs);
+    }
+
     /**
      * Gets the type of the SongArray
      * @return "library" or "playlist"
@@ -28,36 +65,251 @@ public class SongArray extends ArrayList<Song> {
      * @return the song at the corresponding path or null if the path is not contained in the library
      */
     public Song getSongByPath(String path) {
+        IndexEntry entry = pathIndex.get(path);
+        return (entry == null) ? null : entry.song;
+    }
+
+    /**
+     * Checks if a song with the same path is in this array, in constant time.
+     * @param o the song to be checked
+     * @return true if the path is in this array
+     */
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Song) && pathIndex.containsKey(((Song) o).getPath());
+    }
+
+    /**
+     * Removes every song with one of the paths, in a single pass over the list.
+     * @param paths the paths of the songs to be removed
+     * @return true if any song was removed
+     */
+    public boolean removeByPaths(Set<String> paths) {
+        boolean found = false;
+        for (String path : paths) {
+            if (pathIndex.containsKey(path)) {
+                found = true;
+                break;
+            }
+        }
+        return found && removeIf(song -> paths.contains(song.getPath()));
+    }
+
+    //----------- index maintenance, every method changing the list goes through these -----------
+
+    private void indexSong(Song song) {
+        if (indexPath(song)) {
+            songAdded(song);
+        }
+    }
+
+    /**
+     * Indexes songs added at once, telling subclasses about the new paths in one call.
+     */
+    private void indexSongs(Collection<? extends Song> songs) {
+        List<Song> added = new ArrayList<Song>();
+        for (Song song : songs) {
+            if (indexPath(song)) {
+                added.add(song);
+            }
+        }
+        if (!added.isEmpty()) {
+            songsAdded(added);
+        }
+    }
+
+    /**
+     * @return true if the path of the song was not in the list yet
+     */
+    private boolean indexPath(Song song) {
+        String path = (song == null) ? null : song.getPath();
+        IndexEntry entry = pathIndex.get(path);
+        boolean added = (entry == null);
+        if (added) {
+            entry = new IndexEntry(song);
+            pathIndex.put(path, entry);
+        }
+        entry.count++;
+        return added;
+    }
+
+    private void unindexSong(Song song) {
+        String path = (song == null) ? null : song.getPath();
+        IndexEntry entry = pathIndex.get(path);
+        if (entry == null) {
+            return;
+        }
+        //if the path is still in the list, the entry keeps its song, which is equal by path
+        if (--entry.count == 0) {
+            pathIndex.remove(path);
+            songRemoved(entry.song);
+        }
+    }
+
+    /**
+     * Indexes the list again after a bulk change, telling subclasses only about the songs that changed.
+     */
+    private void rebuildIndex() {
+        HashMap<String, IndexEntry> oldIndex = new HashMap<String, IndexEntry>(pathIndex);
+        pathIndex.clear();
         for (Song song : this) {
-            if (song.getPath().equals(path)) {
-                return song;
+            String path = (song == null) ? null : song.getPath();
+            IndexEntry entry = pathIndex.get(path);
+            if (entry == null) {
+                entry = new IndexEntry(song);
+                pathIndex.put(path, entry);
+            }
+            entry.count++;
+        }
+        for (Map.Entry<String, IndexEntry> old : oldIndex.entrySet()) {
+            IndexEntry entry = pathIndex.get(old.getKey());
+            if (entry == null || entry.song != old.getValue().song) {
+                songRemoved(old.getValue().song);
             }
         }
-        return null;
-    }
-
-//    /**
-//     * Sort this library on Title
-//     * @param order SORT_ASCENDING for A-Z, SORT_DESCENDING for Z-A
-//     */
-//    public void sortByTitle(int order) {
-//        if(order != SORT_ASCENDING && order != SORT_DESCENDING ){
-//            System.out.println("sortByColumnName() improper parameter: order "+order);
-//        } else {
-//            Collections.sort(this, Comparator.comparing(song -> song.getTitle().toLowerCase()));
-//            System.out.print(this.type+", " + this.size() + " songs sorted");
-//            if (order == SORT_DESCENDING) {
-//                Collections.reverse(this);
-//                System.out.print(" in descending order.");
-//            } else {
-//                System.out.print(" in ascending order.");
-//            }
-//            System.out.println();
-//        }
-//    }
+        List<Song> added = new ArrayList<Song>();
+        for (Map.Entry<String, IndexEntry> entry : pathIndex.entrySet()) {
+            IndexEntry old = oldIndex.get(entry.getKey());
+            if (old == null || old.song != entry.getValue().song) {
+                added.add(entry.getValue().song);
+            }
+        }
+        if (!added.isEmpty()) {
+            songsAdded(added);
+        }
+    }
+
+    /**
+     * Called when a path comes into the list, or the song kept for it is replaced, e.g. to index it for search.
+     * @param song the song
+     */
+    protected void songAdded(Song song) {
+    }
+
+    /**
+     * Called when paths come into the list at once, e.g. by addAll(). Calls songAdded() for each song by default.
+     * @param songs the songs, in the order of the list
+     */
+    protected void songsAdded(List<Song> songs) {
+        for (Song song : songs) {
+            songAdded(song);
+        }
+    }
+
+    /**
+     * Called when a path leaves the list, or the song kept for it is replaced.
+     * @param song the song that was kept for the path
+     */
+    protected void songRemoved(Song song) {
+    }
+
+    @Override
+    public boolean add(Song song) {
+        super.add(song);
+        indexSong(song);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Song song) {
+        super.add(index, song);
+        indexSong(song);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> songs) {
+        boolean changed = super.addAll(songs);
+        indexSongs(songs);
+        return changed;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Song> songs) {
+        boolean changed = super.addAll(index, songs);
+        indexSongs(songs);
+        return changed;
+    }
+
+    @Override
+    public Song set(int index, Song song) {
+        Song old = super.set(index, song);
+        unindexSong(old);
+        indexSong(song);
+        return old;
+    }
+
+    @Override
+    public Song remove(int index) {
+        Song old = super.remove(index);
+        unindexSong(old);
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;   //no need to scan the list
+        }
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = super.removeAll(c);
+        if (changed) {
+            rebuildIndex();
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean changed = super.retainAll(c);
+        if (changed) {
+            rebuildIndex();
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Song> filter) {
+        boolean changed = super.removeIf(filter);
+        if (changed) {
+            rebuildIndex();
+        }
+        return changed;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Song> operator) {
+        super.replaceAll(operator);
+        rebuildIndex();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        super.removeRange(fromIndex, toIndex);
+        rebuildIndex();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (IndexEntry entry : pathIndex.values()) {
+            songRemoved(entry.song);
+        }
+        pathIndex.clear();
+    }
 
     /**
-     * Sorts the SongArray by the column name
+     * Sorts the SongArray by the column name, in the order of the table view sorted on that column.
+     * Songs are compared by their cached sort keys, see Song.getSortKey(), so nothing is allocated per comparison.
+     * Songs with equal values keep their order, in descending order too.
      * @param order SORT_ASCENDING or SORT_DESCENDING
      * @param columnName "Title", "Artist", "Album", "Year", "Comment", or "Genre"
      */
@@ -65,37 +317,27 @@ public class SongArray extends ArrayList<Song> {
         if(order != SortOrder.ASCENDING && order != SortOrder.DESCENDING ){
             System.out.println("sortByColumnName() improper parameter: order "+order);
         }
+        int field;
         switch (columnName) {
-            case "Title":
-                //TODO this still doesn't match exactly to the table view sort.
-                // 'Carry On' should come first than 'Car Wash'.
-                Collections.sort(this, Comparator.comparing(song -> song.getTitle().toLowerCase()));
-                break;
-            case "Artist":
-                Collections.sort(this, Comparator.comparing(song -> song.getArtist().toLowerCase()));
-                break;
-            case "Album":
-                Collections.sort(this, Comparator.comparing(song -> song.getAlbum().toLowerCase()));
-                break;
-            case "Year":
-                Collections.sort(this, Comparator.comparing(song -> song.getYear().toLowerCase()));
-                break;
-            case "Comment":
-                Collections.sort(this, Comparator.comparing(song -> song.getComment().toLowerCase()));
-                break;
-            case "Genre":
-                Collections.sort(this, Comparator.comparing(song -> song.getGenre().toLowerCase()));
-                break;
+            case "Title":   field = 1; break;
+            case "Artist":  field = 2; break;
+            case "Album":   field = 3; break;
+            case "Year":    field = 4; break;
+            case "Comment": field = 5; break;
+            case "Genre":   field = 6; break;
             default:
                 System.out.println("sortByColumnName() improper parameter: columnName "+columnName);
+                return;
         }
+        Comparator<Song> comparator = Comparator.comparing(song -> song.getSortKey(field));
         System.out.print(this.type+", "+this.size()+" songs sorted on '"+columnName+"'");
         if(order == SortOrder.DESCENDING) {
-            Collections.reverse(this);
+            comparator = comparator.reversed();
             System.out.print(" in descending order.");
         } else {
             System.out.print(" in ascending order.");
         }
+        Collections.sort(this, comparator);
         System.out.println();
     }
 }
@@ -1,30 +1,72 @@
 package model;
 
+import database.BulkInsertResult;
 import database.DatabaseHandler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 //same with SongDAO(Data Access Object). same concept same work.
 
 /**
  * Model class in the MVC pattern.
  * SongLibrary class manages all songs.
+ * The application shares a single catalog of all songs, see getInstance().
+ * The metadata of the songs is indexed for search as they are added and removed, see getSearchIndex().
  */
 public class SongLibrary extends SongArray{
 
+    private static SongLibrary library_instance = null;
+
     private DatabaseHandler dbHandler;
+    private SearchIndex searchIndex = new SearchIndex();
+    //songs of playlists read before the library loaded them, by path, see shareSong()
+    private final HashMap<String, Song> pendingSongs = new HashMap<String, Song>();
 
     public static final int     ADDSONG_FILEPATH_NULL = 0;
     public static final int     ADDSONG_SUCCESS = 1;
     public static final int     ADDSONG_ALREADY_EXIST = 2;
+    public static final int     ADDSONG_FAILED = 3;
 
     /**
-     * Construct an empty library
+     * Construct a library with all songs in the database.
+     * The songs are streamed from the database straight into this library.
      */
     public SongLibrary(){
         super("library");
         this.dbHandler = DatabaseHandler.getInstance();
-        this.addAll(dbHandler.getSongLibrary());
+        dbHandler.forEachSong(this::add);
+    }
+
+    /**
+     * Construct a library, optionally empty so that the caller can fill it
+     * incrementally with addLoadedSongs(), e.g. from DatabaseHandler.forEachSong() on a background thread.
+     * @param loadSongs true to load all songs from the database now, false to start empty
+     */
+    public SongLibrary(boolean loadSongs){
+        super("library");
+        this.dbHandler = DatabaseHandler.getInstance();
+        if (loadSongs) {
+            dbHandler.forEachSong(this::add);
+        }
+    }
+
+    /**
+     * Gets the catalog of all songs shared by the whole application, e.g. by every Playlist.
+     * It starts empty and is filled once with addLoadedSongs() by the controller loading the library,
+     * so it is never read from the database more than once.
+     * @return the shared library
+     */
+    public static synchronized SongLibrary getInstance(){
+        if (library_instance == null)
+            library_instance = new SongLibrary(false);
+
+        return library_instance;
     }
 
     /**
@@ -41,7 +83,8 @@ public class SongLibrary extends SongArray{
      * Add a Song to the library, if not present.
      * Should use addSong(Song) instead of add(Song) which is Array's inherited method.
      * @param song to be added to the list
-     * @return return code (ADDSONG_FILEPATH_NULL = 0, ADDSONG_SUCCESS = 1, ADDSONG_SONG_EXIST = 2)
+     * @return return code (ADDSONG_FILEPATH_NULL = 0, ADDSONG_SUCCESS = 1, ADDSONG_ALREADY_EXIST = 2,
+     *         ADDSONG_FAILED = 3 if it couldn't be saved in the database)
      */
     public int addSong(Song song){
         if(song.getPath() == null) {
@@ -53,8 +96,11 @@ public class SongLibrary extends SongArray{
                 System.out.println("[Library] Not added. Already in the library.\t"+song.getTitleAndArtist());
                 return ADDSONG_ALREADY_EXIST;
             }else{
-                //add song to the database
-                dbHandler.addSong(song);
+                //add song to the database, it may be there already if the library is still loading
+                if (!dbHandler.addSong(song)) {
+                    System.out.println("[Library_ERROR] Not added. Not saved in the database.\t"+song.getTitleAndArtist());
+                    return ADDSONG_FAILED;
+                }
                 this.add(song);
                 System.out.println("[Library] Added a new song.\t"+song.getTitleAndArtist());
                 return ADDSONG_SUCCESS;
@@ -62,6 +108,117 @@ public class SongLibrary extends SongArray{
         }
     }
 
+    /**
+     * Add many Songs to the library at once.
+     * Songs are written to the database in batches within a single transaction,
+     * instead of one insert and commit per song as addSong(Song) does.
+     * Songs with a null path or already in the library are skipped and reported as duplicates.
+     * @param songs to be added to the list
+     * @return the report of inserted, duplicate and failed songs by file path
+     */
+    public BulkInsertResult addSongs(Collection<Song> songs){
+        ArrayList<Song> newSongs = new ArrayList<Song>();
+        for (Song song : songs) {
+            if (song.getPath() != null && !exists(song)) {
+                newSongs.add(song);
+            }
+        }
+        BulkInsertResult result = dbHandler.addSongs(newSongs);
+        //add only the committed songs to this library
+        HashSet<String> insertedPaths = new HashSet<String>(result.getInserted());
+        for (Song song : newSongs) {
+            if (insertedPaths.remove(song.getPath())) {
+                this.add(song);
+            }
+        }
+        System.out.println("[Library] Added " + result.getInsertedCount() + " new songs out of " + songs.size() + ".");
+        return result;
+    }
+
+    /**
+     * Add songs read from the database to the library, without writing them back.
+     * A song a playlist already holds, see shareSong(), is added as that object.
+     * @param songs already saved in the database
+     */
+    public void addLoadedSongs(List<Song> songs){
+        if (!pendingSongs.isEmpty()) {
+            //take the objects the playlists already hold
+            List<Song> sharedSongs = new ArrayList<Song>(songs.size());
+            for (Song song : songs) {
+                Song pending = pendingSongs.remove(song.getPath());
+                sharedSongs.add((pending == null) ? song : pending);
+            }
+            songs = sharedSongs;
+        }
+        this.addAll(songs);
+    }
+
+    /**
+     * Gets the one Song object kept for a path, so that playlists hold the songs of this library
+     * instead of copies of them, and see their changes.
+     * @param path the path of the song
+     * @return the song, null if neither this library nor shareSong() has it
+     */
+    public Song getSharedSong(String path) {
+        Song song = getSongByPath(path);
+        return (song != null) ? song : pendingSongs.get(path);
+    }
+
+    /**
+     * Shares a song read from the database for a playlist.
+     * If the library hasn't loaded it yet, the song is kept and addLoadedSongs() adds this object instead.
+     * @param song the song read
+     * @return the song already shared for the path, or this song
+     */
+    public Song shareSong(Song song) {
+        Song shared = getSharedSong(song.getPath());
+        if (shared == null) {
+            pendingSongs.put(song.getPath(), song);
+            shared = song;
+        }
+        return shared;
+    }
+
+    /**
+     * Applies changes already committed to the database, e.g. by a rescan or the folder watcher,
+     * to the library in memory without writing them back.
+     * @param removedPaths paths of the songs deleted from the database
+     * @param updatedSongs songs whose tags changed, by path
+     * @param addedSongs songs inserted into the database
+     */
+    public void applyChanges(Set<String> removedPaths, Map<String, Song> updatedSongs, List<Song> addedSongs){
+        removeByPaths(removedPaths);
+        updateSongs(updatedSongs.values());
+        addAll(addedSongs);
+        System.out.println("[Library] " + addedSongs.size() + " added, " + updatedSongs.size() + " updated, "
+                + removedPaths.size() + " removed.");
+    }
+
+    /**
+     * Copies new tags into the songs of this library, which the playlists share, and indexes them again.
+     * @param updatedSongs songs with the new tags, matched by path
+     */
+    private void updateSongs(Collection<Song> updatedSongs){
+        for (Song updated : updatedSongs) {
+            Song song = getSongByPath(updated.getPath());
+            if (song == null || song == updated) {
+                continue;
+            }
+            songRemoved(song);
+            song.setProperties(updated.getPath(), updated.getTitle(), updated.getArtist(), updated.getAlbum(),
+                    updated.getYear(), updated.getComment(), updated.getGenre(), updated.getTime());
+            songAdded(song);
+        }
+    }
+
+    /**
+     * Gets the music folders watched for changes, i.e. the folders imported to the library.
+     * @return absolute paths of the folders
+     */
+    public List<String> getWatchedFolders(){
+        return dbHandler.getLibraryFolders();
+    }
+
     /**
      * Delete a song from the library, if present.
      * @param song the song to be removed from the list
@@ -78,20 +235,50 @@ public class SongLibrary extends SongArray{
         System.out.println("'"+song.getTitleAndArtist()+"'\n");
     }
 
+    /**
+     * Gets the search index over the title, artist, album, genre and comment of the songs in the library.
+     * @return the index, kept up to date by this library
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    @Override
+    protected void songAdded(Song song) {
+        if (searchIndex != null && song != null) {    //null while SongArray is being constructed
+            searchIndex.add(song);
+        }
+    }
+
+    @Override
+    protected void songsAdded(List<Song> songs) {
+        if (searchIndex == null) {
+            return;
+        }
+        List<Song> indexed = new ArrayList<Song>(songs.size());
+        for (Song song : songs) {
+            if (song != null) {
+                indexed.add(song);
+            }
+        }
+        searchIndex.addAll(indexed);
+    }
+
+    @Override
+    protected void songRemoved(Song song) {
+        if (searchIndex != null && song != null) {
+            searchIndex.remove(song);
+        }
+    }
+
     /**
      * Check if the Song already exists in the library
-     * by comparing the filePath of the song as a key
+     * by looking up the filePath of the song in the index of SongArray
      * @param song to be checked.
      * @return whether the song is in the library.
      */
     private boolean exists(Song song){
-        //TODO would be better to call a dbHandler method to check database by sql? and pass the result through this method.
-        for (Song currSong : this) {
-            if (currSong.getPath().equals(song.getPath())) {
-                return true;
-            }
-        }
-        return false;
+        return getSongByPath(song.getPath()) != null;
     }
 
 }
@@ -0,0 +1,323 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TrigramIndex finds the tokens of the SearchIndex that are spelled like a misspelled word,
+ * e.g. "beatles" for "beetles". Each token is cut into the three letter groups of "$token$",
+ * and each group maps to the ids of the tokens having it, in int arrays,
+ * through a table keyed by the int hash of the group, so nothing is boxed.
+ * Tokens sharing enough groups with the word are candidates, the best of them are checked
+ * with an edit distance bounded by the length of the word.
+ * Tokens shorter than MIN_WORD_LENGTH are not looked up, any short word is close to too many tokens.
+ */
+class TrigramIndex {
+
+    static final int MIN_WORD_LENGTH = 4;
+    static final int MAX_CANDIDATES = 32;       //candidates checked for edit distance, by shared groups
+    private static final double MIN_DICE = 0.4; //2 * shared / (groups of word + groups of token)
+
+    private final GramTable postings = new GramTable();
+    private final ArrayList<String> terms = new ArrayList<String>();     //by id, null once removed
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int[] shared = new int[16];      //scratch: groups shared with the word, by term id
+
+    /**
+     * Ids of the tokens having a group, in the order they were added.
+     */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];   //order doesn't matter
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Postings by group, in open addressing with linear probing on the int keys.
+     * Removing shifts the following entries of the run back, so lookups need no deleted markers.
+     */
+    private static class GramTable {
+        private int[] keys = new int[1024];
+        private Postings[] values = new Postings[1024];     //null for a free slot
+        private int size;
+
+        Postings get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return null;
+        }
+
+        void put(int key, Postings value) {
+            if (2 * (size + 1) > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                return;
+            }
+            //move back the entries after the free slot that can't be reached from their home slot anymore
+            int free = slot;
+            for (int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int home = mix(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    keys[free] = keys[next];
+                    values[free] = values[next];
+                    free = next;
+                }
+            }
+            values[free] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new int[capacity];
+            values = new Postings[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        //the hashes of groups differ mostly in their low bits, spread them over the table
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Indexes a token.
+     * @param term the folded token
+     * @return its id, to remove it
+     */
+    int add(String term) {
+        int id;
+        if (freeCount == 0) {
+            id = terms.size();
+            terms.add(term);
+        } else {
+            id = freeIds[--freeCount];
+            terms.set(id, term);
+        }
+        if (id >= shared.length) {
+            shared = Arrays.copyOf(shared, Math.max(id + 1, shared.length * 2));
+        }
+        for (int gram : trigrams(term)) {
+            Postings list = postings.get(gram);
+            if (list == null) {
+                list = new Postings();
+                postings.put(gram, list);
+            }
+            list.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Removes a token.
+     * @param id the id returned by add()
+     */
+    void remove(int id) {
+        String term = terms.get(id);
+        if (term == null) {
+            return;
+        }
+        for (int gram : trigrams(term)) {
+            Postings list = postings.get(gram);
+            if (list != null) {
+                list.remove(id);
+                if (list.size == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+        terms.set(id, null);
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Finds the tokens within the edit distance allowed for a word: 1 up to 5 letters, 2 for longer words.
+     * @param word the folded word
+     * @return the tokens, the closest first, empty if the word is too short
+     */
+    List<String> findSimilar(String word) {
+        List<String> similar = new ArrayList<String>();
+        if (word.length() < MIN_WORD_LENGTH) {
+            return similar;
+        }
+        int maxEdits = (word.length() <= 5) ? 1 : 2;
+        int[] grams = trigrams(word);
+
+        //count the groups each token shares with the word
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        for (int gram : grams) {
+            Postings list = postings.get(gram);
+            if (list == null) {
+                continue;
+            }
+            for (int i = 0; i < list.size; i++) {
+                int id = list.ids[i];
+                if (shared[id]++ == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = id;
+                }
+            }
+        }
+
+        //keep the tokens of a close length sharing enough groups, scored by their share
+        long[] candidates = new long[touchedCount];
+        int candidateCount = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int id = touched[i];
+            String term = terms.get(id);
+            int count = shared[id];
+            shared[id] = 0;
+            if (Math.abs(term.length() - word.length()) > maxEdits) {
+                continue;
+            }
+            double dice = 2.0 * count / (grams.length + term.length());
+            if (dice >= MIN_DICE) {
+                //the score in the high bits sorts the best last
+                candidates[candidateCount++] = ((long) (dice * 1000000) << 32) | id;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        //check the best candidates for their edit distance
+        int checked = 0;
+        int[] distances = new int[candidateCount];
+        String[] found = new String[candidateCount];
+        int foundCount = 0;
+        for (int i = candidateCount - 1; i >= 0 && checked < MAX_CANDIDATES; i--, checked++) {
+            String term = terms.get((int) candidates[i]);
+            int distance = editDistance(word, term, maxEdits);
+            if (distance <= maxEdits) {
+                distances[foundCount] = distance;
+                found[foundCount++] = term;
+            }
+        }
+        for (int distance = 0; distance <= maxEdits; distance++) {
+            for (int i = 0; i < foundCount; i++) {
+                if (distances[i] == distance) {
+                    similar.add(found[i]);
+                }
+            }
+        }
+        return similar;
+    }
+
+    /**
+     * Gets the number of tokens indexed, e.g. for the log.
+     * @return the number of tokens
+     */
+    int size() {
+        return terms.size() - freeCount;
+    }
+
+    /**
+     * Cuts "$term$" into its groups of three characters, hashed to ints, one group per character.
+     * Two groups may share a hash, which only adds a candidate checked by editDistance().
+     */
+    static int[] trigrams(String term) {
+        int[] grams = new int[term.length()];
+        for (int i = 0; i < grams.length; i++) {
+            char c1 = (i == 0) ? '$' : term.charAt(i - 1);
+            char c2 = term.charAt(i);
+            char c3 = (i + 1 == term.length()) ? '$' : term.charAt(i + 1);
+            grams[i] = (c1 * 31 + c2) * 31 + c3;
+        }
+        return grams;
+    }
+
+    /**
+     * Computes the Levenshtein distance of two words, giving up once it exceeds a bound.
+     * Only the cells within the bound of the diagonal are computed.
+     * @return the distance, or maxEdits + 1 if it is larger than maxEdits
+     */
+    static int editDistance(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return maxEdits + 1;
+        }
+        int over = maxEdits + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = (j <= maxEdits) ? j : over;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int from = Math.max(1, i - maxEdits);
+            int to = Math.min(b.length(), i + maxEdits);
+            current[0] = (i <= maxEdits) ? i : over;
+            if (from > 1) {
+                current[from - 1] = over;
+            }
+            int rowMin = current[0];
+            for (int j = from; j <= to; j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                int distance = Math.min(previous[j - 1] + cost, Math.min(previous[j] + 1, current[j - 1] + 1));
+                current[j] = Math.min(distance, over);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (to < b.length()) {
+                current[to + 1] = over;
+            }
+            if (rowMin > maxEdits) {
+                return over;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -31,6 +31,11 @@ public class ControlView extends JPanel {
     private JLabel songTimePlayingLbl;
     private JLabel songTimeRemainingLbl;
     private JProgressBar songProgressBar;
+    //what the progress view shows now, to skip updates that wouldn't change it
+    private int shownPlayedSec = -1;
+    private int shownDuration = -1;
+    private int shownPixel = -1;
+    private boolean progressDragged;    //the bar is being dragged, the player's positions are not shown
 
     public ControlView(){
         buttonPanel = new JPanel();
@@ -93,6 +98,7 @@ public class ControlView extends JPanel {
     public JButton getNextBtn(){ return nextBtn; }
     public JButton getPrevBtn(){ return prevBtn; }
     public JSlider getVolumeSlider(){ return volumeSlider; }
+    public JProgressBar getSongProgressBar(){ return songProgressBar; }
 
     /**
      * Create all components for song info panel
@@ -154,20 +160,71 @@ public class ControlView extends JPanel {
             songProgressBar.setMinimum(0);
             songProgressBar.setMaximum(song.getTime()*1000);
             //update the text and value at the progressbar
+            shownPlayedSec = -1;
+            shownPixel = -1;
             updateProgressView(0, song.getTime());
         }
     }
 
     /**
-     * Updates the progress bar value and the played/remained time text
+     * Updates the progress bar value and the played/remained time text.
+     * The labels are only set when the shown second changes
+     * and the bar only when its filled width changes by at least a pixel.
+     * Call it on the event dispatch thread, see ProgressRenderScheduler.
      * @param played    played time in MILLISECONDS (1000ms = 1s)
      * @param duration  song duration in SECONDS
      */
     public void updateProgressView(int played, int duration){
+        if (!progressDragged) {
+            renderProgress(played, duration);
+        }
+    }
+
+    /**
+     * Gets the time of a point of the progress bar, e.g. where it is dragged to.
+     * @param x the x coordinate within the bar
+     * @return time in MILLISECONDS, within the song
+     */
+    public int getProgressAt(int x){
+        int width = songProgressBar.getWidth();
+        int max = songProgressBar.getMaximum();
+        if (width <= 0) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min((long) x * max / width, max));
+    }
+
+    /**
+     * Shows the time the progress bar is dragged to, instead of the positions of the player until released.
+     * @param played time in MILLISECONDS where the bar is dragged to
+     */
+    public void dragProgressView(int played){
+        progressDragged = true;
+        renderProgress(played, shownDuration);
+    }
+
+    /**
+     * Stops showing the dragged time, the next position of the player is shown again.
+     */
+    public void releaseProgressView(){
+        progressDragged = false;
+    }
+
+    private void renderProgress(int played, int duration){
         int playedInSec = played/1000;
-        songTimePlayingLbl.setText(convertTimeToMinSec(playedInSec));
-        songTimeRemainingLbl.setText(convertTimeToMinSec(duration-playedInSec));
-        songProgressBar.setValue(played);
+        if (playedInSec != shownPlayedSec || duration != shownDuration) {
+            songTimePlayingLbl.setText(convertTimeToMinSec(playedInSec));
+            songTimeRemainingLbl.setText(convertTimeToMinSec(duration-playedInSec));
+            shownPlayedSec = playedInSec;
+            shownDuration = duration;
+        }
+        int width = songProgressBar.getWidth();
+        int max = songProgressBar.getMaximum();
+        int pixel = (width <= 0 || max <= 0) ? -1 : (int) ((long) played * width / max);
+        if (pixel != shownPixel || pixel < 0) {
+            songProgressBar.setValue(played);
+            shownPixel = pixel;
+        }
     }
 
     /**
@@ -5,6 +5,7 @@ import model.Song;
 
 import javax.swing.*;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.TableModel;
 import java.awt.*;
@@ -13,6 +14,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.WindowFocusListener;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class represents the main frame for our application. It holds all the GUI components.
@@ -46,6 +48,8 @@ public class MusicPlayerGUI extends JFrame {
     private JMenu fileMenu;
     private JMenuItem openSongMenuItem;
     private JMenuItem addSongMenuItem;
+    private JMenuItem importFolderMenuItem;
+    private JMenuItem rescanLibraryMenuItem;
     private JMenuItem deleteSongMenuItem;
     private JMenuItem aboutMenuItem;
     private JMenuItem newPlaylistMenuItem;
@@ -65,6 +69,8 @@ public class MusicPlayerGUI extends JFrame {
     //popup menu(right-click) and menu items
     private JPopupMenu popUpMenu;
     private JMenuItem deleteSongMenuItemPopup;
+    private JMenuItem playNextMenuItemPopup;
+    private JMenuItem addToUpNextMenuItemPopup;
     private JMenuItem addSongMenuItemPopup;
     private JMenu addToPlaylistPopupMenu;
 
@@ -111,7 +117,13 @@ public class MusicPlayerGUI extends JFrame {
         deleteSongMenuItemPopup.setName("lib-deleteSong");
         addSongMenuItemPopup.setName("lib-addSong");
         addToPlaylistPopupMenu.setName("addToPlaylist");
+        playNextMenuItemPopup = new JMenuItem("Play Next");
+        addToUpNextMenuItemPopup = new JMenuItem("Add To Up Next");
+        playNextMenuItemPopup.setName("playNext");
+        addToUpNextMenuItemPopup.setName("addToUpNext");
 
+        popUpMenu.add(playNextMenuItemPopup);
+        popUpMenu.add(addToUpNextMenuItemPopup);
         popUpMenu.add(deleteSongMenuItemPopup);
         popUpMenu.add(addToPlaylistPopupMenu);
         popUpMenu.addSeparator();
@@ -159,6 +171,8 @@ public class MusicPlayerGUI extends JFrame {
         fileMenu = new JMenu("File");
         openSongMenuItem = new JMenuItem("Open Song");
         addSongMenuItem = new JMenuItem("Add Song to Library");
+        importFolderMenuItem = new JMenuItem("Import Folder to Library");
+        rescanLibraryMenuItem = new JMenuItem("Rescan Library");
         deleteSongMenuItem = new JMenuItem("Delete Song from Library");
         newPlaylistMenuItem = new JMenuItem("New Playlist");
         aboutMenuItem = new JMenuItem("About");
@@ -166,6 +180,8 @@ public class MusicPlayerGUI extends JFrame {
         //setting name(key) of menu item components
         openSongMenuItem.setName("openSong");
         addSongMenuItem.setName("lib-addSong");
+        importFolderMenuItem.setName("lib-importFolder");
+        rescanLibraryMenuItem.setName("lib-rescan");
         deleteSongMenuItem.setName("lib-deleteSong");
         aboutMenuItem.setName("about");
         newPlaylistMenuItem.setName("newPlaylist");
@@ -173,6 +189,8 @@ public class MusicPlayerGUI extends JFrame {
         //add menu items to fileMenu
         fileMenu.add(openSongMenuItem);
         fileMenu.add(addSongMenuItem);
+        fileMenu.add(importFolderMenuItem);
+        fileMenu.add(rescanLibraryMenuItem);
         fileMenu.add(deleteSongMenuItem);
         fileMenu.add(newPlaylistMenuItem);
         fileMenu.addSeparator();
@@ -261,6 +279,14 @@ public class MusicPlayerGUI extends JFrame {
         setShowHideColumns(SongListView.getColumnVisibility(), SongListView.getTableHeaderPopup(), table);
     }
 
+    /**
+     * Appends songs to the table view, used while the library is loading.
+     * @param songs list of Songs to be added
+     */
+    public void appendToTableView(List<Song> songs){
+        songListView.appendToTableView(songs);
+    }
+
     public void updateTableView(Playlist playlist, JTable table){
         songListView.updateTableView(playlist.getSongList());
         //update displayingListName
@@ -297,10 +323,16 @@ public class MusicPlayerGUI extends JFrame {
 
     /**
      * Changes the row selection of the table view.
-     * @param rowIndex row to be selected.
+     * @param rowIndex index in the list shown of the song to be selected.
      */
     public void changeTableRowSelection(int rowIndex){
-        songListView.getSongTable().changeSelection(rowIndex,0,false,false);
+        if (rowIndex < 0 || rowIndex >= songListView.getTableModel().getRowCount()) {
+            return;     //e.g. the song is not in the list shown
+        }
+        int viewRow = songListView.getSongTable().convertRowIndexToView(rowIndex);
+        if (viewRow >= 0) {     //not hidden by a search
+            songListView.getSongTable().changeSelection(viewRow,0,false,false);
+        }
     }
 
     /**
@@ -349,11 +381,13 @@ public class MusicPlayerGUI extends JFrame {
     /**
      * Returns a popup menu when right-clicking on the table area
      * with deleteSong menu item.
-     * @return JPopupMenu containing menu items delete, add song, add song to playlist
+     * @return JPopupMenu containing menu items play next, add to up next, delete, add song, add song to playlist
      */
     public JPopupMenu getPopUpMenu() {
         deleteSongMenuItemPopup.setVisible(true);
         addToPlaylistPopupMenu.setVisible(true);
+        playNextMenuItemPopup.setVisible(true);
+        addToUpNextMenuItemPopup.setVisible(true);
         return popUpMenu;
     }
 
@@ -365,6 +399,8 @@ public class MusicPlayerGUI extends JFrame {
     public JPopupMenu getPopUpMenuInBlankspace(){
         deleteSongMenuItemPopup.setVisible(false);
         addToPlaylistPopupMenu.setVisible(false);
+        playNextMenuItemPopup.setVisible(false);
+        addToUpNextMenuItemPopup.setVisible(false);
         return popUpMenu;
     }
 
@@ -413,6 +449,8 @@ public class MusicPlayerGUI extends JFrame {
         //standard menu items in menu bar
         openSongMenuItem.addActionListener(listener);
         addSongMenuItem.addActionListener(listener);
+        importFolderMenuItem.addActionListener(listener);
+        rescanLibraryMenuItem.addActionListener(listener);
         deleteSongMenuItem.addActionListener(listener);
         newPlaylistMenuItem.addActionListener(listener);
         aboutMenuItem.addActionListener(listener);
@@ -421,6 +459,8 @@ public class MusicPlayerGUI extends JFrame {
         //popup menu items
         addSongMenuItemPopup.addActionListener(listener);
         deleteSongMenuItemPopup.addActionListener(listener);
+        playNextMenuItemPopup.addActionListener(listener);
+        addToUpNextMenuItemPopup.addActionListener(listener);
         //add listener to menu items in the "Add To Playlist" menu
         for (int i=0; i<addToPlaylistPopupMenu.getItemCount(); i++) {
             addToPlaylistPopupMenu.getItem(i).addActionListener(listener);
@@ -472,6 +512,23 @@ public class MusicPlayerGUI extends JFrame {
         controlView.getVolumeSlider().addChangeListener(listener);
     }
 
+    /**
+     * Adds a listener to the text typed in the search field above the table.
+     * @param listener the listener
+     */
+    public void addSearchFieldListener(DocumentListener listener){
+        songListView.getSearchField().getDocument().addDocumentListener(listener);
+    }
+
+    /**
+     * Adds a listener to press, drag and release the progress bar, to seek within the song.
+     * @param listener the listener for both mouse and mouse motion events
+     */
+    public void addProgressBarListener(MouseAdapter listener){
+        controlView.getSongProgressBar().addMouseListener(listener);
+        controlView.getSongProgressBar().addMouseMotionListener(listener);
+    }
+
 
 // Add listeners for table view interactions --------------------------
     //TODO These 3 listener attachers should be in SongListView class for further uses.
@@ -570,10 +627,13 @@ public class MusicPlayerGUI extends JFrame {
     }
 
     /**
-     * Removes the last menu item in [Play Recent] submenu
+     * Removes a menu item in [Play Recent] submenu
+     * @param index the index of the menu item, 0 for the top
      */
-    public void removeLastMenuItemUnderPlayRecent(){
-        playRecentMenu.remove(playRecentMenu.getItemCount()-1);
+    public void removeMenuItemUnderPlayRecent(int index){
+        if (index >= 0 && index < playRecentMenu.getItemCount()) {
+            playRecentMenu.remove(index);
+        }
     }
 
     /**
@@ -0,0 +1,77 @@
+package view;
+
+import javax.swing.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ProgressRenderScheduler decouples the playback position reported by the decoder thread
+ * from the progress view. update() only stores the latest position, whatever thread calls it
+ * and however often. A Swing timer samples it on the event dispatch thread
+ * at a fixed frame rate (-Dmytunes.progress.fps=..., 10 by default) and renders it with
+ * ControlView.updateProgressView(), which skips what wouldn't change on screen.
+ * The timer stops itself after a second without new positions, e.g. while paused or stopped.
+ */
+public class ProgressRenderScheduler {
+
+    public static final int DEFAULT_FPS = 10;
+
+    private final ControlView controlView;
+    private final Timer timer;
+    private final int fps;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    //written by the decoder thread, read by the event dispatch thread
+    private volatile int playedMillis;
+    private volatile int durationSec;
+    private volatile long sampleCount;
+
+    //only used on the event dispatch thread
+    private long renderedSample = -1;
+    private int idleTicks;
+
+    /**
+     * Constructs a scheduler rendering to a control view.
+     * @param controlView the view showing the progress
+     */
+    public ProgressRenderScheduler(ControlView controlView) {
+        this.controlView = controlView;
+        this.fps = Math.max(1, Integer.getInteger("mytunes.progress.fps", DEFAULT_FPS));
+        this.timer = new Timer(1000 / fps, e -> render());
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Stores the latest playback position, to be rendered on the next frame. Safe to call from any thread.
+     * @param played    played time in MILLISECONDS
+     * @param duration  song duration in SECONDS
+     */
+    public void update(int played, int duration) {
+        playedMillis = played;
+        durationSec = duration;
+        sampleCount++;      //a single writer, the decoder thread
+        if (running.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+
+    private void render() {
+        long sample = sampleCount;
+        if (sample == renderedSample) {
+            //nothing new, stop after a second of silence until the next update()
+            if (++idleTicks >= fps) {
+                idleTicks = 0;
+                running.set(false);
+                timer.stop();
+                //an update() racing the stop may have seen the timer running, or been stopped with it
+                if (sampleCount != renderedSample) {
+                    running.set(true);
+                    timer.start();
+                }
+            }
+            return;
+        }
+        idleTicks = 0;
+        renderedSample = sample;
+        controlView.updateProgressView(playedMillis, durationSec);
+    }
+}
@@ -1,6 +1,7 @@
 package view;
 
 import database.DatabaseHandler;
+import model.SearchIndex;
 import model.Song;
 
 import javax.swing.*;
@@ -11,20 +12,25 @@ import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 /**
  * SongListView class is to show either the library or a playlist.
  * This contains a table with column headers for songs.
  * Table related listeners are attached.
+ * A search field above the table filters the rows with a search of the library's SearchIndex.
+ * While filtered, view rows and list indexes differ, see getSelectedModelRows() and convertRowToModel().
  */
 public class SongListView extends JPanel {
     //components for table
     private JScrollPane tableScrollPane;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private SongTableModel tableModel;
     public static final String[] columnHeader = {"Path", "Title", "Artist", "Album", "Year", "Comment", "Genre"};
     private int tableRowHeight = 24;
     private static JPopupMenu tableHeaderPopup;
+    private JTextField searchField;
+    private SearchIndex.Result searchResult;    //null when not searching
 
     /**
      * Constructs a panel to show a list of songs
@@ -54,7 +60,8 @@ public class SongListView extends JPanel {
         table.setRowHeight(tableRowHeight);
         table.setShowGrid(false);
 
-        table.setAutoCreateRowSorter(true);
+        //sort by the same keys as SongArray.sortByColumn(), so the sorted view and the sorted list agree
+        table.setRowSorter(new SongRowSorter(tableModel));
         createTableHeaderPopup(DatabaseHandler.getInstance().getShowHideColumns());
         table.getColumnModel().getColumn(0).setWidth(0);
         table.getColumnModel().getColumn(0).setMinWidth(0);
@@ -67,6 +74,12 @@ public class SongListView extends JPanel {
         this.setLayout(new BorderLayout());
         this.add(tableScrollPane, BorderLayout.CENTER);
 
+        //search field on top of the table
+        searchField = new JTextField();
+        searchField.setFont(MusicPlayerGUI.FONT);
+        searchField.setToolTipText("Search title, artist, album, genre and comment");
+        this.add(searchField, BorderLayout.NORTH);
+
         //disable left and right keys
         KeyStroke leftArrow = KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, KeyEvent.CTRL_DOWN_MASK);
         KeyStroke rightArrow = KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, KeyEvent.CTRL_DOWN_MASK);
@@ -86,11 +99,10 @@ public class SongListView extends JPanel {
     }
 
     /**
-     * Initializes the table model to dynamically add rows later.
+     * Sets the table model, which is kept for the life of the view and only pointed at other lists.
      */
     private void initializeTable() {
-        //for dynamic row addition
-        tableModel = new DefaultTableModel(columnHeader,0);
+        tableModel = new SongTableModel();
         table.setModel(tableModel);
         table.getColumnModel().getColumn(0).setWidth(0);
         table.getColumnModel().getColumn(0).setMinWidth(0);
@@ -101,22 +113,104 @@ public class SongListView extends JPanel {
 
     /**
      * Updates the table view.
+     * The model reads the list itself, so this is a single event whether the list is new or only changed.
      * @param songList list of Songs to be reflected in table view,
      *                 which can be from the library or a playlist.
      */
     public void updateTableView(ArrayList<Song> songList) {
-        initializeTable();
-        for (Song song : songList) {
-            tableModel.addRow(song.toArray());
+        if (songList == tableModel.getSongs()) {
+            tableModel.fireTableDataChanged();
+        } else {
+            //another list is shown in its own order, e.g. a playlist in the order of its songs
+            table.getRowSorter().setSortKeys(null);
+            tableModel.setSongs(songList);
+        }
+    }
+
+    /**
+     * Shows songs appended to the end of the list already in the table view, without refreshing the other rows,
+     * e.g. while the library is loaded incrementally.
+     * If the table is sorted, the sorter puts the new rows in place.
+     * @param songs list of Songs just added at the end of the list
+     */
+    public void appendToTableView(List<Song> songs) {
+        int size = tableModel.getRowCount();
+        if (!songs.isEmpty()) {
+            tableModel.fireTableRowsInserted(size - songs.size(), size - 1);
         }
-        tableModel.fireTableDataChanged();
-        //table.getRowSorter().toggleSortOrder(1);
-        table.getColumnModel().getColumn(0).setWidth(0);
-        table.getColumnModel().getColumn(0).setMinWidth(0);
-        table.getColumnModel().getColumn(0).setMaxWidth(0);
-        table.getColumnModel().getColumn(0).setResizable(false);
-        table.repaint();
-        this.repaint();
+    }
+
+    /**
+     * Removes rows of songs already removed from the list in the table view.
+     * @param firstRow index of the first removed song in the list
+     * @param lastRow index of the last removed song in the list
+     */
+    public void songsDeleted(int firstRow, int lastRow) {
+        tableModel.fireTableRowsDeleted(firstRow, lastRow);
+    }
+
+    /**
+     * Repaints rows of songs whose tags changed in the list.
+     * @param firstRow index of the first changed song in the list
+     * @param lastRow index of the last changed song in the list
+     */
+    public void songsUpdated(int firstRow, int lastRow) {
+        tableModel.fireTableRowsUpdated(firstRow, lastRow);
+    }
+
+    /**
+     * Shows only the rows of the songs found by a search.
+     * The filter reads the result by song, so it keeps working on whichever list is shown.
+     * @param result the songs found, null to show all rows
+     */
+    @SuppressWarnings("unchecked")
+    public void setSearchResult(SearchIndex.Result result) {
+        searchResult = result;
+        TableRowSorter<SongTableModel> rowSorter = (TableRowSorter<SongTableModel>) table.getRowSorter();
+        if (result == null) {
+            rowSorter.setRowFilter(null);
+        } else {
+            rowSorter.setRowFilter(new RowFilter<SongTableModel, Integer>() {
+                @Override
+                public boolean include(Entry<? extends SongTableModel, ? extends Integer> entry) {
+                    return searchResult.contains(entry.getModel().getSongAt(entry.getIdentifier()));
+                }
+            });
+        }
+    }
+
+    public JTextField getSearchField() { return searchField; }
+
+    /**
+     * Converts a row of the table to the index of its song in the list shown.
+     * @param viewRow the row in the table, e.g. from rowAtPoint()
+     * @return the index in the list, -1 if the row is not valid
+     */
+    public int convertRowToModel(int viewRow) {
+        if (viewRow < 0 || viewRow >= table.getRowCount()) {
+            return -1;
+        }
+        return table.convertRowIndexToModel(viewRow);
+    }
+
+    /**
+     * Gets the indexes in the list shown of the selected rows.
+     * @return the indexes, in the order of the rows
+     */
+    public int[] getSelectedModelRows() {
+        int[] rows = table.getSelectedRows();
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = table.convertRowIndexToModel(rows[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the table model reading the songs shown in this view
+     * @return SongTableModel of the table
+     */
+    public SongTableModel getTableModel() {
+        return tableModel;
     }
 
     public void updateRowOrder() {
@@ -201,6 +295,11 @@ public class SongListView extends JPanel {
         //table row selection
         table.setSelectionBackground(pointColor[0]);
         table.setSelectionForeground(pointColor[1]);
+
+        //search field
+        searchField.setBackground(bgColor[1]);
+        searchField.setForeground(fgColor[1]);
+        searchField.setCaretColor(fgColor[1]);
     }
 
     public void addItemListenerTableHeader(ItemListener listener) {
@@ -0,0 +1,82 @@
+package view;
+
+import model.Song;
+
+import javax.swing.table.TableRowSorter;
+import java.text.CollationKey;
+import java.util.Comparator;
+
+/**
+ * SongRowSorter sorts the rows of a SongTableModel by the cached sort keys of their songs,
+ * see Song.getSortKey(), instead of the texts of the cells.
+ * The default sorter collates the texts again for every comparison, these keys are made once per song,
+ * and SongArray.sortByColumn() compares the same keys, so the sorted view and the sorted list agree.
+ * Filters still see the texts of the cells.
+ */
+public class SongRowSorter extends TableRowSorter<SongTableModel> {
+
+    private static final Comparator<CollationKey> KEY_ORDER = Comparator.naturalOrder();
+
+    /**
+     * Constructs a sorter of the rows of a model.
+     * @param model the model of the table
+     */
+    public SongRowSorter(SongTableModel model) {
+        super(model);
+    }
+
+    /**
+     * Compares the sort keys of every column. Comparators set with setComparator() are dropped by
+     * any structure change of the model, the keys can't be compared by the default Collator, so they are not used.
+     */
+    @Override
+    public Comparator<?> getComparator(int column) {
+        return KEY_ORDER;
+    }
+
+    @Override
+    protected boolean useToString(int column) {
+        return false;
+    }
+
+    @Override
+    public void setModel(SongTableModel model) {
+        super.setModel(model);
+        setModelWrapper(new SortKeyModelWrapper(model));
+    }
+
+    /**
+     * Reads the sort keys of the songs as the values of the cells, and the texts for filters.
+     */
+    private static class SortKeyModelWrapper extends ModelWrapper<SongTableModel, Integer> {
+        private final SongTableModel model;
+
+        SortKeyModelWrapper(SongTableModel model) {
+            this.model = model;
+        }
+
+        @Override
+        public SongTableModel getModel() { return model; }
+
+        @Override
+        public int getColumnCount() { return (model == null) ? 0 : model.getColumnCount(); }
+
+        @Override
+        public int getRowCount() { return (model == null) ? 0 : model.getRowCount(); }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Song song = model.getSongAt(row);
+            return song.getSortKey(column);
+        }
+
+        @Override
+        public String getStringValueAt(int row, int column) {
+            Object value = model.getValueAt(row, column);
+            return (value == null) ? "" : value.toString();
+        }
+
+        @Override
+        public Integer getIdentifier(int row) { return row; }
+    }
+}
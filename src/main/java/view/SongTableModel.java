@@ -0,0 +1,71 @@
+package view;
+
+import model.Song;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SongTableModel is the table model of a SongListView, backed directly by the list of songs it shows,
+ * e.g. the library or the SongArray of a playlist.
+ * Cells are read from the songs when the table paints them, nothing is copied,
+ * so showing another list or refreshing the same one costs a single event, not a rebuild.
+ * Whoever changes the list tells the model with the fire... methods of AbstractTableModel,
+ * e.g. fireTableRowsInserted() after appending songs.
+ */
+public class SongTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Song> songs = new ArrayList<Song>();
+
+    /**
+     * Shows another list of songs.
+     * @param songs the songs to be shown, read live from now on
+     */
+    public void setSongs(List<Song> songs) {
+        this.songs = (songs == null) ? new ArrayList<Song>() : songs;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Gets the list of songs this model reads from.
+     * @return the backing list
+     */
+    public List<Song> getSongs() { return songs; }
+
+    /**
+     * Gets the song of a row of the model (not of the view, see JTable.convertRowIndexToModel()).
+     * @param row index in the model
+     * @return the song at the row
+     */
+    public Song getSongAt(int row) { return songs.get(row); }
+
+    @Override
+    public int getRowCount() { return songs.size(); }
+
+    @Override
+    public int getColumnCount() { return SongListView.columnHeader.length; }
+
+    @Override
+    public String getColumnName(int column) { return SongListView.columnHeader[column]; }
+
+    @Override
+    public Class<?> getColumnClass(int column) { return String.class; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Song song = songs.get(row);
+        switch (column) {
+            case 0: return song.getPath();
+            case 1: return song.getTitle();
+            case 2: return song.getArtist();
+            case 3: return song.getAlbum();
+            case 4: return song.getYear();
+            case 5: return song.getComment();
+            case 6: return song.getGenre();
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package controller;
+
+import controller.CrossfadeMixer.FadeCurve;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders the crossfade of two generated songs to a WAV file without an audio device, the way AudioEngine plays it:
+ * the end of the first song, the fade mixed by CrossfadeMixer.mixNext(), and the start of the second song.
+ * Each song is a constant level, so every sample of the fade read back from the file is the sum of
+ * the two levels weighted by the gains of the curve.
+ */
+public class CrossfadeMixerTest {
+
+    private static final AudioFormat FORMAT = new AudioFormat(8000, 16, 2, true, false);
+    private static final int OVERLAP_MILLIS = 500;
+    private static final int LEAD_FRAMES = 1000;        //of each song outside the fade
+    //not a divisor of the fade, so the last chunk runs past it, as in AudioEngine
+    private static final int CHUNK_FRAMES = 256;
+    private static final short ENDING_LEVEL = 8000;
+    private static final short STARTING_LEVEL = 12000;
+    //the gain tables have 1024 steps: at most (8000 + 12000) * pi/2 / 1024 off the exact curve, plus rounding
+    private static final double TOLERANCE = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linearFadeFollowsItsCurve() throws Exception {
+        checkCrossfade(FadeCurve.LINEAR);
+    }
+
+    @Test
+    public void equalPowerFadeFollowsItsCurve() throws Exception {
+        checkCrossfade(FadeCurve.EQUAL_POWER);
+    }
+
+    @Test
+    public void sCurveFadeFollowsItsCurve() throws Exception {
+        checkCrossfade(FadeCurve.S_CURVE);
+    }
+
+    private void checkCrossfade(FadeCurve curve) throws Exception {
+        CrossfadeMixer mixer = new CrossfadeMixer(OVERLAP_MILLIS, curve);
+        int fadeFrames = (int) mixer.getOverlapFrames(FORMAT);
+        assertEquals(4000, fadeFrames);
+
+        File wavFile = folder.newFile(curve + ".wav");
+        renderToWav(mixer, fadeFrames, wavFile);
+        short[] samples = readWav(wavFile);
+        int channels = FORMAT.getChannels();
+        assertEquals((LEAD_FRAMES + fadeFrames + LEAD_FRAMES) * channels, samples.length);
+
+        for (int frame = 0; frame < samples.length / channels; frame++) {
+            double expected;
+            if (frame < LEAD_FRAMES) {
+                expected = ENDING_LEVEL;
+            } else if (frame < LEAD_FRAMES + fadeFrames) {
+                double t = (double) (frame - LEAD_FRAMES) / fadeFrames;
+                expected = ENDING_LEVEL * fadeOutGain(curve, t) + STARTING_LEVEL * fadeInGain(curve, t);
+            } else {
+                expected = STARTING_LEVEL;
+            }
+            for (int channel = 0; channel < channels; channel++) {
+                short sample = samples[frame * channels + channel];
+                //no silence: both songs are above their lower level all through the fade
+                assertTrue(curve + " silent at frame " + frame + ": " + sample, sample >= ENDING_LEVEL - TOLERANCE);
+                assertEquals(curve + " at frame " + frame, expected, sample, TOLERANCE);
+            }
+        }
+    }
+
+    private static double fadeOutGain(FadeCurve curve, double t) {
+        switch (curve) {
+            case EQUAL_POWER: return Math.cos(t * Math.PI / 2);
+            case S_CURVE: return 1 - t * t * (3 - 2 * t);
+            default: return 1 - t;
+        }
+    }
+
+    private static double fadeInGain(FadeCurve curve, double t) {
+        switch (curve) {
+            case EQUAL_POWER: return Math.sin(t * Math.PI / 2);
+            case S_CURVE: return t * t * (3 - 2 * t);
+            default: return t;
+        }
+    }
+
+    /**
+     * Writes the last LEAD_FRAMES of the ending song, the fade, and the first LEAD_FRAMES of the starting song.
+     */
+    private static void renderToWav(CrossfadeMixer mixer, long fadeFrames, File wavFile) throws IOException {
+        int frameSize = FORMAT.getFrameSize();
+        DecodedTrack ending = constantTrack("ending", ENDING_LEVEL, LEAD_FRAMES + fadeFrames);
+        DecodedTrack starting = constantTrack("starting", STARTING_LEVEL, fadeFrames + LEAD_FRAMES);
+        byte[] buffer = new byte[CHUNK_FRAMES * frameSize];
+        byte[] scratch = new byte[buffer.length];
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+
+        copyFrames(ending, buffer, LEAD_FRAMES, pcm);
+        long position = 0;
+        while (position < fadeFrames) {
+            int mixed = mixer.mixNext(ending, starting, buffer, scratch, position, fadeFrames);
+            if (mixed < 0) {
+                break;
+            }
+            pcm.write(buffer, 0, mixed);
+            position += mixed / frameSize;
+        }
+        copyFrames(starting, buffer, LEAD_FRAMES, pcm);
+        ending.close();
+        starting.close();
+
+        byte[] bytes = pcm.toByteArray();
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(bytes), FORMAT,
+                bytes.length / frameSize)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, wavFile);
+        }
+    }
+
+    private static DecodedTrack constantTrack(String name, short level, long frames) {
+        byte[] bytes = new byte[(int) frames * FORMAT.getFrameSize()];
+        for (int i = 0; i < bytes.length; i += 2) {
+            bytes[i] = (byte) level;
+            bytes[i + 1] = (byte) (level >> 8);
+        }
+        return new DecodedTrack(name, new AudioInputStream(new ByteArrayInputStream(bytes), FORMAT, frames));
+    }
+
+    private static void copyFrames(DecodedTrack track, byte[] buffer, long frames, ByteArrayOutputStream out)
+            throws IOException {
+        int frameSize = FORMAT.getFrameSize();
+        while (frames > 0) {
+            int read = track.read(buffer, 0, (int) Math.min(buffer.length, frames * frameSize));
+            if (read < 0) {
+                return;
+            }
+            out.write(buffer, 0, read);
+            frames -= read / frameSize;
+        }
+    }
+
+    private static short[] readWav(File wavFile) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile)) {
+            assertTrue(stream.getFormat().matches(FORMAT));
+            byte[] buffer = new byte[4096];
+            for (int read = stream.read(buffer); read > 0; read = stream.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        byte[] pcm = bytes.toByteArray();
+        short[] samples = new short[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+        }
+        return samples;
+    }
+}
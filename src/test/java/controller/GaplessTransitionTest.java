@@ -0,0 +1,141 @@
+package controller;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays one generated song into the next the way AudioEngine does at the end of a song, without an audio device:
+ * read the song to its end, take the next one and read its first chunk. The next song is either opened ahead
+ * on a preloader thread, as prepareNext() does, or opened only once the first one ended, as without gapless.
+ * The samples read are checked to be the two songs back to back, and the time from the end of the first song
+ * to the first chunk of the next is printed for both.
+ */
+public class GaplessTransitionTest {
+
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final int SONG_SECONDS = 5;
+    private static final int PRE_DECODE_BYTES = 64 * 1024;     //as AudioEngine
+    private static final int CHUNK_BYTES = 4096;
+    private static final int SWITCHES = 50;
+    private static final int WARM_UP_SWITCHES = 10;     //not reported, while the JIT compiles the decoding
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Times 50 switches each way. The first song is read far faster than it would play, so a prepared song
+     * still being opened is waited for and counted. The numbers are printed, not checked, e.g.
+     * mvn -Dtest=GaplessTransitionTest test
+     */
+    @Test
+    public void preparedSongFollowsAtTheSample() throws Exception {
+        byte[] first = samples(0);
+        byte[] second = samples(500);
+        File firstFile = writeWav("first.wav", first);
+        File secondFile = writeWav("second.wav", second);
+        byte[] expected = Arrays.copyOf(first, first.length + CHUNK_BYTES);
+        System.arraycopy(second, 0, expected, first.length, CHUNK_BYTES);
+
+        ExecutorService preloader = Executors.newSingleThreadExecutor();
+        try {
+            long[] prepared = new long[SWITCHES];
+            long[] cold = new long[SWITCHES];
+            for (int i = -WARM_UP_SWITCHES; i < SWITCHES; i++) {
+                Future<DecodedTrack> next = preloader.submit(
+                        () -> DecodedTrack.open(secondFile.getPath(), PRE_DECODE_BYTES));
+                long preparedNanos = playInto(firstFile, expected, () -> next.get());
+                long coldNanos = playInto(firstFile, expected,
+                        () -> DecodedTrack.open(secondFile.getPath(), PRE_DECODE_BYTES));
+                if (i >= 0) {
+                    prepared[i] = preparedNanos;
+                    cold[i] = coldNanos;
+                }
+            }
+            report("prepared", prepared);
+            report("opened at the end", cold);
+        } finally {
+            preloader.shutdown();
+        }
+    }
+
+    private interface NextTrack {
+        DecodedTrack take() throws Exception;
+    }
+
+    /**
+     * Reads the first song to its end, then the first chunk of the next one.
+     * @return the nanoseconds from the end of the first song to the first chunk of the next
+     */
+    private static long playInto(File firstFile, byte[] expected, NextTrack nextTrack) throws Exception {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(expected.length);
+        byte[] buffer = new byte[CHUNK_BYTES];
+        long transition;
+        try (DecodedTrack track = DecodedTrack.open(firstFile.getPath(), PRE_DECODE_BYTES)) {
+            int read;
+            while ((read = track.read(buffer, 0, buffer.length)) >= 0) {
+                line.write(buffer, 0, read);
+            }
+            long endNanos = System.nanoTime();
+            try (DecodedTrack next = nextTrack.take()) {
+                assertTrue(next.getFormat().matches(track.getFormat()));
+                read = next.read(buffer, 0, buffer.length);
+                transition = System.nanoTime() - endNanos;
+                line.write(buffer, 0, read);
+            }
+        }
+        assertArrayEquals(expected, line.toByteArray());
+        return transition;
+    }
+
+    private static void report(String what, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n : sorted) {
+            total += n;
+        }
+        System.out.println("[Benchmark] " + SWITCHES + " switches, next song " + what + ": median "
+                + sorted[sorted.length / 2] / 1000 + " us, average " + total / sorted.length / 1000
+                + " us, max " + sorted[sorted.length - 1] / 1000 + " us");
+    }
+
+    /**
+     * Generates a ramp kept between 0 and 1279, so no two bytes look like an mp3 frame sync
+     * to the metadata reader DecodedTrack.open() runs on the file.
+     */
+    private static byte[] samples(int offset) {
+        int frames = (int) FORMAT.getFrameRate() * SONG_SECONDS;
+        byte[] pcm = new byte[frames * FORMAT.getFrameSize()];
+        for (int i = 0; i < pcm.length; i += 2) {
+            int sample = (i / 2 + offset) % 1280;
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private File writeWav(String name, byte[] pcm) throws IOException {
+        File file = folder.newFile(name);
+        AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT,
+                pcm.length / FORMAT.getFrameSize());
+        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        return file;
+    }
+}
@@ -0,0 +1,181 @@
+package database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs ConnectionPool against an embedded Derby database in a temporary folder,
+ * times the inserts of 10k songs with a connection opened per call against a pooled one,
+ * and times statements prepared per call against the ones cached by PooledConnection.
+ */
+public class ConnectionPoolTest {
+
+    private static final int SONGS = 10000;
+    private static final String INSERT_SONG = "INSERT INTO SONGS (FILEPATH, TITLE) VALUES (?, ?)";
+    private static final String INSERT_PLAYLIST = "INSERT INTO PLAYLISTS (NAME) VALUES (?)";
+    private static final String SELECT_PLAYLIST_BY_NAME = "SELECT ID FROM PLAYLISTS WHERE NAME = ?";
+    private static final int PLAYLISTS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String databaseURL;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        databaseURL = "jdbc:derby:" + folder.getRoot().getAbsolutePath() + "/SongsDB";
+        try (Connection conn = DriverManager.getConnection(databaseURL + ";create=true");
+             Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE SONGS (FILEPATH VARCHAR(500) PRIMARY KEY, TITLE VARCHAR(200))");
+            statement.execute("CREATE TABLE PLAYLISTS (ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY, "
+                    + "NAME VARCHAR(100) NOT NULL UNIQUE)");
+        }
+    }
+
+    @After
+    public void shutdownDatabase() {
+        try {
+            DriverManager.getConnection(databaseURL + ";shutdown=true");
+        } catch (SQLException e) {
+            //Derby always reports a shutdown as an exception
+        }
+    }
+
+    @Test
+    public void reusesReleasedConnections() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(databaseURL, 2, 5, 1000, 4);
+        PooledConnection first = pool.getConnection();
+        pool.releaseConnection(first);
+        PooledConnection second = pool.getConnection();
+        assertSame(first, second);
+        pool.releaseConnection(second);
+        pool.shutdown();
+    }
+
+    /**
+     * Times inserting 10k songs, one connection opened and closed per insert as DatabaseHandler did,
+     * against one connection borrowed from the pool per insert. The statement is prepared on every insert
+     * in both runs, so only the connects differ. The numbers are printed, not checked, e.g.
+     * mvn -Dtest=ConnectionPoolTest test
+     */
+    @Test
+    public void timeInsertsPerConnectAgainstThePool() throws SQLException {
+        long start = System.nanoTime();
+        for (int i = 0; i < SONGS; i++) {
+            try (Connection conn = DriverManager.getConnection(databaseURL);
+                 PreparedStatement statement = conn.prepareStatement(INSERT_SONG)) {
+                insert(statement, "/connect/" + i + ".mp3", i);
+            }
+        }
+        report("insert " + SONGS + " songs, a connect per insert", start);
+
+        ConnectionPool pool = new ConnectionPool(databaseURL, 1, 5, 1000, 0);
+        start = System.nanoTime();
+        for (int i = 0; i < SONGS; i++) {
+            PooledConnection conn = pool.getConnection();
+            try (PreparedStatement statement = conn.getConnection().prepareStatement(INSERT_SONG)) {
+                insert(statement, "/pooled/" + i + ".mp3", i);
+            } finally {
+                pool.releaseConnection(conn);
+            }
+        }
+        report("insert " + SONGS + " songs, a pooled connection per insert", start);
+        pool.shutdown();
+
+        assertEquals(2 * SONGS, countSongs());
+    }
+
+    /**
+     * Times inserting 10k songs and looking up a playlist by name 10k times on one pooled connection,
+     * preparing the statement on every call against taking it from the statement cache.
+     * The numbers are printed, not checked, e.g.
+     * mvn -Dtest=ConnectionPoolTest test
+     */
+    @Test
+    public void timePreparedAgainstCachedStatements() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(databaseURL, 1, 5, 1000, 8);
+        PooledConnection conn = pool.getConnection();
+        try {
+            for (int i = 0; i < PLAYLISTS; i++) {
+                PreparedStatement statement = conn.prepareStatement(INSERT_PLAYLIST);
+                statement.setString(1, "Playlist " + i);
+                statement.executeUpdate();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < SONGS; i++) {
+                try (PreparedStatement statement = conn.getConnection().prepareStatement(INSERT_SONG)) {
+                    insert(statement, "/prepared/" + i + ".mp3", i);
+                }
+            }
+            report("insert " + SONGS + " songs, prepared per insert", start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < SONGS; i++) {
+                insert(conn.prepareStatement(INSERT_SONG), "/cached/" + i + ".mp3", i);
+            }
+            report("insert " + SONGS + " songs, cached statement", start);
+
+            int found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < SONGS; i++) {
+                try (PreparedStatement statement = conn.getConnection().prepareStatement(SELECT_PLAYLIST_BY_NAME)) {
+                    found += findPlaylist(statement, i);
+                }
+            }
+            report("find a playlist by name " + SONGS + " times, prepared per lookup", start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < SONGS; i++) {
+                found += findPlaylist(conn.prepareStatement(SELECT_PLAYLIST_BY_NAME), i);
+            }
+            report("find a playlist by name " + SONGS + " times, cached statement", start);
+
+            assertEquals(2 * SONGS, found);
+            assertEquals(3, conn.getCachedStatementCount());
+        } finally {
+            pool.releaseConnection(conn);
+            pool.shutdown();
+        }
+        assertEquals(2 * SONGS, countSongs());
+    }
+
+    private static int findPlaylist(PreparedStatement statement, int number) throws SQLException {
+        statement.setString(1, "Playlist " + number % PLAYLISTS);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? 1 : 0;
+        }
+    }
+
+    static void insert(PreparedStatement statement, String path, int number) throws SQLException {
+        statement.setString(1, path);
+        statement.setString(2, "Song " + number);
+        statement.executeUpdate();
+    }
+
+    int countSongs() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseURL);
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM SONGS")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    static void report(String what, long start) {
+        System.out.println("[Benchmark] " + what + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,225 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the order PlayQueue plays songs in: the list order with wrap-around, the up-next queue,
+ * repeat, the back and forward history, and the rounds of the shuffle.
+ */
+public class PlayQueueTest {
+
+    private static final int HISTORY_SONGS = PlayQueue.HISTORY_LIMIT + 100;
+
+    @Test
+    public void playsTheListInOrderAndWrapsAround() {
+        List<Song> songs = songs(3);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        assertSame(songs.get(0), queue.peekNext());
+        assertSame(songs.get(0), queue.next());
+        assertSame(songs.get(1), queue.next());
+        assertSame(songs.get(2), queue.next());
+        assertSame(songs.get(0), queue.next());
+        assertSame(songs.get(0), queue.getCurrent());
+    }
+
+    @Test
+    public void followsSongsWhenTheListIsSorted() {
+        List<Song> songs = songs(4);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.jumpTo(songs.get(1));
+        Collections.reverse(songs);     //sorted in place, as the table does
+        assertEquals(2, queue.indexOf(queue.getCurrent()));
+        assertSame(songs.get(3), queue.next());
+        assertEquals(-1, queue.indexOf(song(99)));
+    }
+
+    @Test
+    public void emptyListHasNoNextOrPrevious() {
+        PlayQueue queue = new PlayQueue();
+        assertNull(queue.next());
+        assertNull(queue.previous());
+        queue.setSongList(null);
+        assertNull(queue.peekNext());
+    }
+
+    @Test
+    public void repeatPlaysTheCurrentSongUntilOneIsQueued() {
+        List<Song> songs = songs(3);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.jumpTo(songs.get(1));
+        queue.setRepeat(true);
+        assertSame(songs.get(1), queue.next());
+        assertSame(songs.get(1), queue.next());
+
+        queue.enqueue(songs.get(0));
+        assertSame(songs.get(0), queue.next());
+        assertSame(songs.get(0), queue.next());
+        queue.setRepeat(false);
+        assertSame(songs.get(1), queue.next());
+    }
+
+    @Test
+    public void upNextComesBeforeTheList() {
+        List<Song> songs = songs(5);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.jumpTo(songs.get(0));
+        queue.enqueue(songs.get(3));
+        queue.enqueue(songs.get(4));
+        queue.enqueueFirst(songs.get(2));
+        assertEquals(Arrays.asList(songs.get(2), songs.get(3), songs.get(4)), new ArrayList<Song>(queue.getUpNext()));
+        assertSame(songs.get(2), queue.next());
+        assertSame(songs.get(3), queue.next());
+        queue.clearUpNext();
+        //back to the list after the current song
+        assertSame(songs.get(4), queue.next());
+    }
+
+    @Test
+    public void previousGoesBackAndNextReturns() {
+        List<Song> songs = songs(5);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.jumpTo(songs.get(0));
+        queue.jumpTo(songs.get(3));
+        queue.next();
+        assertSame(songs.get(3), queue.previous());
+        assertSame(songs.get(0), queue.previous());
+        //no history left: the song before in the list, wrapping to the last
+        assertSame(songs.get(4), queue.previous());
+        //the forward history first
+        assertSame(songs.get(0), queue.next());
+        assertSame(songs.get(3), queue.next());
+        assertSame(songs.get(4), queue.next());
+        assertSame(songs.get(0), queue.next());
+
+        //picking a song drops the forward history
+        queue.previous();
+        queue.jumpTo(songs.get(2));
+        assertSame(songs.get(3), queue.next());
+    }
+
+    @Test
+    public void historyIsBounded() {
+        List<Song> songs = songs(HISTORY_SONGS);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        for (int i = 0; i < songs.size(); i++) {
+            queue.next();
+        }
+        Song last = songs.get(songs.size() - 1);
+        assertSame(last, queue.getCurrent());
+        for (int i = 1; i <= PlayQueue.HISTORY_LIMIT; i++) {
+            assertSame(songs.get(songs.size() - 1 - i), queue.previous());
+        }
+        //the older songs were dropped, previous() falls back on the list
+        Song current = queue.getCurrent();
+        assertSame(songs.get(songs.indexOf(current) - 1), queue.previous());
+    }
+
+    @Test
+    public void shufflePlaysEverySongOncePerRound() {
+        List<Song> songs = songs(50);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.setShuffle(true);
+        Song previous = null;
+        for (int round = 0; round < 20; round++) {
+            HashSet<Song> played = new HashSet<Song>();
+            for (int i = 0; i < songs.size(); i++) {
+                Song peeked = queue.peekNext();
+                assertSame(peeked, queue.peekNext());
+                Song song = queue.next();
+                assertSame(peeked, song);
+                assertTrue("played twice in round " + round, played.add(song));
+                assertTrue("same song twice in a row", song != previous);
+                previous = song;
+            }
+            assertEquals(new HashSet<Song>(songs), played);
+        }
+    }
+
+    @Test
+    public void shuffleCountsTheCurrentAndPickedSongsAsPlayed() {
+        List<Song> songs = songs(10);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.jumpTo(songs.get(0));
+        queue.setShuffle(true);
+        Song drawn = queue.next();
+        queue.jumpTo(songs.get(5));
+        HashSet<Song> played = new HashSet<Song>(Arrays.asList(songs.get(0), drawn, songs.get(5)));
+        HashSet<Song> rest = new HashSet<Song>();
+        for (int i = 0; i < songs.size() - played.size(); i++) {
+            Song song = queue.next();
+            assertTrue("replayed " + song.getPath(), !played.contains(song));
+            assertTrue("played twice " + song.getPath(), rest.add(song));
+        }
+    }
+
+    @Test
+    public void shuffleDealsUniformly() {
+        List<Song> songs = songs(4);
+        int[] firsts = new int[songs.size()];
+        int runs = 8000;
+        for (int run = 0; run < runs; run++) {
+            PlayQueue queue = new PlayQueue();
+            queue.setSongList(songs);
+            queue.setShuffle(true);
+            firsts[songs.indexOf(queue.next())]++;
+        }
+        //2000 expected each, a standard deviation of about 39
+        for (int count : firsts) {
+            assertEquals(runs / songs.size(), count, 250);
+        }
+    }
+
+    @Test
+    public void shuffleKeepsThePlayedSongsWhenTheListChanges() {
+        List<Song> songs = songs(6);
+        PlayQueue queue = new PlayQueue();
+        queue.setSongList(songs);
+        queue.setShuffle(true);
+        HashSet<Song> played = new HashSet<Song>();
+        for (int i = 0; i < 3; i++) {
+            played.add(queue.next());
+        }
+        List<Song> edited = new ArrayList<Song>(songs);
+        Song added = song(6);
+        edited.add(added);
+        queue.setSongList(edited);
+        HashSet<Song> rest = new HashSet<Song>();
+        for (int i = 0; i < edited.size() - played.size(); i++) {
+            Song song = queue.next();
+            assertTrue("replayed " + song.getPath(), !played.contains(song));
+            rest.add(song);
+        }
+        assertTrue(rest.contains(added));
+    }
+
+    private static List<Song> songs(int count) {
+        List<Song> songs = new ArrayList<Song>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(song(i));
+        }
+        return songs;
+    }
+
+    private static Song song(int number) {
+        return new Song("/music/" + number + ".mp3", "Song " + number, "", "", "", "", "", 0);
+    }
+}
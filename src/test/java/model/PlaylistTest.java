@@ -0,0 +1,48 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that playlists are identified by their names ignoring case, as PlaylistLibrary looks them up
+ * by the lower-cased name and the database keeps it lower-cased.
+ */
+public class PlaylistTest {
+
+    @Test
+    public void namesDifferingInCaseAreTheSamePlaylist() {
+        Playlist rock = new Playlist("Rock");
+        Playlist lower = new Playlist("rock");
+        assertEquals(rock, lower);
+        assertEquals(rock.hashCode(), lower.hashCode());
+        assertEquals(new Playlist("ROCK").hashCode(), rock.hashCode());
+        //the name shown keeps its case
+        assertEquals("Rock", rock.getName());
+
+        assertNotEquals(rock, new Playlist("Rock 2"));
+        assertFalse(rock.equals("Rock"));
+    }
+
+    @Test
+    public void hashingAgreesWithTheLibraryLookups() {
+        HashSet<Playlist> playlists = new HashSet<Playlist>();
+        playlists.add(new Playlist("Road Trip"));
+        assertTrue(playlists.contains(new Playlist("road trip")));
+        assertFalse(playlists.add(new Playlist("ROAD TRIP")));
+
+        //PlaylistLibrary keys its map by getName().toLowerCase()
+        HashMap<String, Playlist> byName = new HashMap<String, Playlist>();
+        Playlist roadTrip = new Playlist("Road Trip");
+        byName.put(roadTrip.getName().toLowerCase(), roadTrip);
+        Playlist found = byName.get(new Playlist("ROAD trip").getName().toLowerCase());
+        assertEquals(new Playlist("road TRIP"), found);
+        assertEquals(found.hashCode(), new Playlist("road TRIP").hashCode());
+    }
+}
@@ -0,0 +1,101 @@
+package model;
+
+import database.DatabaseHandler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that RecentSongs keeps the last songs played, newest first, drops the oldest once
+ * its slots are full, and keeps a song played again once, at the front.
+ */
+public class RecentSongsTest {
+
+    private static final int SLOTS = DatabaseHandler.RECENT_SONGS_LIMIT;
+
+    @Test
+    public void keepsTheNewestFirst() {
+        RecentSongs recent = new RecentSongs(SLOTS);
+        assertEquals(0, recent.size());
+        assertEquals(SLOTS, recent.getCapacity());
+        recent.add(song(1));
+        recent.add(song(2));
+        recent.add(song(3));
+        assertEquals(Arrays.asList(song(3), song(2), song(1)), recent.toList());
+        assertEquals(song(3), recent.get(0));
+        assertEquals(2, recent.indexOf(song(1)));
+        assertEquals(-1, recent.indexOf(song(4)));
+    }
+
+    @Test
+    public void dropsTheOldestOnceFull() {
+        RecentSongs recent = new RecentSongs(SLOTS);
+        for (int i = 0; i < SLOTS + 5; i++) {
+            recent.add(song(i));
+        }
+        assertEquals(SLOTS, recent.size());
+        List<Song> expected = new ArrayList<Song>();
+        for (int i = SLOTS + 4; i >= 5; i--) {
+            expected.add(song(i));
+        }
+        assertEquals(expected, recent.toList());
+        assertEquals(-1, recent.indexOf(song(4)));
+        //many times around the ring
+        for (int i = 0; i < 3 * SLOTS + 3; i++) {
+            recent.add(song(100 + i));
+        }
+        assertEquals(song(100 + 3 * SLOTS + 2), recent.get(0));
+        assertEquals(song(100 + 2 * SLOTS + 3), recent.get(SLOTS - 1));
+    }
+
+    @Test
+    public void songPlayedAgainMovesToTheFront() {
+        RecentSongs recent = new RecentSongs(SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            recent.add(song(i));
+        }
+        //equal by path: another object of the oldest song
+        Song again = song(0);
+        recent.add(again);
+        assertEquals(SLOTS, recent.size());
+        assertSame(again, recent.get(0));
+        assertEquals(song(SLOTS - 1), recent.get(1));
+        assertEquals(song(1), recent.get(SLOTS - 1));
+
+        //the newest again changes nothing
+        recent.add(song(0));
+        assertEquals(SLOTS, recent.size());
+        assertEquals(song(SLOTS - 1), recent.get(1));
+
+        //one in the middle
+        recent.add(song(5));
+        List<Song> list = recent.toList();
+        assertEquals(song(5), list.get(0));
+        assertEquals(song(0), list.get(1));
+        assertEquals(SLOTS, list.size());
+        assertEquals(SLOTS, new HashSet<Song>(list).size());
+    }
+
+    @Test
+    public void getOutsideTheSongsThrows() {
+        RecentSongs recent = new RecentSongs(SLOTS);
+        recent.add(song(1));
+        try {
+            recent.get(1);
+            fail("no exception");
+        } catch (IndexOutOfBoundsException expected) {
+            //expected
+        }
+    }
+
+    private static Song song(int number) {
+        return new Song("/music/" + number + ".mp3", "Song " + number, "", "", "", "", "", 0);
+    }
+}
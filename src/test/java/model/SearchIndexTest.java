@@ -0,0 +1,191 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SearchIndex matches prefixes and misspellings of the tags, keeps its results right
+ * while songs are removed and their ids compacted, and times the searches of a library of 100k songs.
+ */
+public class SearchIndexTest {
+
+    private static final String[] WORDS = {
+            "love", "night", "blue", "road", "heart", "fire", "dream", "river", "light", "rain",
+            "summer", "city", "dance", "shadow", "silver", "golden", "wild", "ocean", "storm", "angel",
+            "beatles", "abbey", "queen", "bohemian", "rhapsody", "yesterday", "stone", "rolling", "purple", "haze"};
+    private static final String[] GENRES = {"Rock", "Pop", "Jazz", "Blues", "Folk", "Soul"};
+
+    @Test
+    public void matchesEveryWordAsAPrefix() {
+        SearchIndex index = new SearchIndex();
+        Song abbeyRoad = song(1, "Come Together", "The Beatles", "Abbey Road");
+        Song letItBe = song(2, "Let It Be", "The Beatles", "Let It Be");
+        Song beyonce = song(3, "Halo", "Beyoncé", "I Am... Sasha Fierce");
+        index.add(abbeyRoad);
+        index.add(letItBe);
+        index.add(beyonce);
+
+        SearchIndex.Result result = index.search("beat abb");
+        assertEquals(1, result.size());
+        assertTrue(result.contains(abbeyRoad));
+        assertFalse(result.isFuzzy());
+
+        assertEquals(2, index.search("the").size());
+        //accents are folded
+        assertTrue(index.search("BEYONCE").contains(beyonce));
+    }
+
+    @Test
+    public void placeholdersOfMissingTagsAreNotIndexed() {
+        SearchIndex index = new SearchIndex();
+        Song untagged = song(1, null, null, null);
+        Song album = song(2, "Disorder", "Joy Division", "Unknown Pleasures");
+        index.add(untagged);
+        index.add(album);
+
+        SearchIndex.Result result = index.search("unknown");
+        assertEquals(1, result.size());
+        assertTrue(result.contains(album));
+        assertFalse(result.contains(untagged));
+    }
+
+    @Test
+    public void misspelledWordsMatchSimilarTokens() {
+        SearchIndex index = new SearchIndex();
+        Song abbeyRoad = song(1, "Come Together", "The Beatles", "Abbey Road");
+        index.add(abbeyRoad);
+
+        SearchIndex.Result result = index.search("beetles");
+        assertTrue(result.isFuzzy());
+        assertTrue(result.contains(abbeyRoad));
+        assertEquals(0, index.search("zeppelin").size());
+    }
+
+    @Test
+    public void resultsFollowRemovedAndReaddedSongs() {
+        SearchIndex index = new SearchIndex();
+        Song first = song(1, "Blue Moon", "Billie Holiday", "Lady in Satin");
+        Song second = song(2, "Blue Train", "John Coltrane", "Blue Train");
+        index.add(first);
+        index.add(second);
+        SearchIndex.Result result = index.search("blue");
+        assertEquals(2, result.size());
+
+        index.remove(first);
+        assertEquals(1, result.size());
+        assertFalse(result.contains(first));
+        assertEquals(0, index.search("holiday").size());
+
+        //same path, new tags: the old tokens are gone
+        index.add(song(2, "Giant Steps", "John Coltrane", "Giant Steps"));
+        assertEquals(0, index.search("blue").size());
+        assertEquals(1, index.search("giant").size());
+        index.add(first);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(first));
+    }
+
+    @Test
+    public void compactionKeepsTheSongsLeft() {
+        SearchIndex index = new SearchIndex();
+        List<Song> songs = library(5000, new Random(7));
+        index.addAll(songs);
+        //remove enough songs to compact, a few times
+        for (int i = 0; i < songs.size(); i++) {
+            if (i % 5 != 0) {
+                index.remove(songs.get(i));
+            }
+        }
+        assertEquals(songs.size() / 5, index.size());
+        for (int i = 0; i < songs.size(); i += 97) {
+            Song song = songs.get(i);
+            SearchIndex.Result result = index.search(song.getTitle() + " " + song.getAlbum());
+            assertNotNull(result);
+            assertEquals("found " + song.getTitle(), i % 5 == 0, result.contains(song));
+        }
+        int expected = 0;
+        for (int i = 0; i < songs.size(); i += 5) {
+            if (SearchIndex.fold(songs.get(i).getGenre()).equals("jazz")) {
+                expected++;
+            }
+        }
+        assertEquals(expected, index.search("jazz").size());
+    }
+
+    /**
+     * Times indexing, removing and searching 100k songs. The numbers are printed, not checked,
+     * only the results are, e.g.
+     * mvn -Dtest=SearchIndexTest test
+     */
+    @Test
+    public void timeSearchesOfALargeLibrary() {
+        List<Song> songs = library(100000, new Random(42));
+        SearchIndex index = new SearchIndex();
+        long start = System.nanoTime();
+        index.addAll(songs);
+        report("index 100000 songs", start);
+
+        String[] queries = {"b", "the b", "s r", "abbey", "rolling stone", "bohemain rapsody"};
+        for (String query : queries) {
+            index.search(query).size();     //warm up
+            start = System.nanoTime();
+            int repeats = 20;
+            int size = 0;
+            for (int i = 0; i < repeats; i++) {
+                size = index.search(query).size();
+            }
+            System.out.println("[Benchmark] search '" + query + "': " + size + " songs in "
+                    + (System.nanoTime() - start) / repeats / 1000 + " us");
+            assertTrue(query, size > 0);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < songs.size(); i += 2) {
+            index.remove(songs.get(i));
+        }
+        report("remove 50000 songs", start);
+        assertEquals(songs.size() / 2, index.size());
+        SearchIndex.Result result = index.search("b");
+        assertFalse(result.contains(songs.get(0)));
+    }
+
+    private static void report(String what, long start) {
+        System.out.println("[Benchmark] " + what + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    static List<Song> library(int size, Random random) {
+        List<Song> songs = new ArrayList<Song>(size);
+        for (int i = 0; i < size; i++) {
+            String title = words(random, 1 + random.nextInt(3)) + " " + i;
+            String artist = (random.nextInt(10) == 0) ? null : "The " + words(random, 1);
+            String album = words(random, 2);
+            songs.add(new Song("/music/" + i + ".mp3", title, artist, album, "1970", "",
+                    GENRES[random.nextInt(GENRES.length)], 180));
+        }
+        return songs;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            text.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return text.toString();
+    }
+
+    private static Song song(int number, String title, String artist, String album) {
+        return new Song("/music/" + number + ".mp3", title, artist, album, "", "", "", 0);
+    }
+}
@@ -0,0 +1,201 @@
+package model;
+
+import org.junit.Test;
+
+import javax.swing.SortOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the path index of SongArray agrees with its list after every kind of change,
+ * with paths appearing more than once as in a playlist, and times lookups at 1k, 10k and 100k songs.
+ */
+public class SongArrayTest {
+
+    /**
+     * Counts the paths coming into and leaving the list, as SongLibrary does to index them for search.
+     */
+    private static class CountingSongArray extends SongArray {
+        final HashSet<String> paths = new HashSet<String>();
+
+        CountingSongArray() {
+            super("playlist");
+        }
+
+        @Override
+        protected void songAdded(Song song) {
+            assertTrue("added twice: " + song.getPath(), paths.add(song.getPath()));
+        }
+
+        @Override
+        protected void songRemoved(Song song) {
+            assertTrue("removed twice: " + song.getPath(), paths.remove(song.getPath()));
+        }
+    }
+
+    @Test
+    public void findsSongsAddedAnyWay() {
+        CountingSongArray songs = new CountingSongArray();
+        Song a = song("a");
+        Song b = song("b");
+        Song c = song("c");
+        Song d = song("d");
+        songs.add(a);
+        songs.add(0, b);
+        songs.addAll(Arrays.asList(c));
+        songs.addAll(1, Arrays.asList(d));
+        assertIndexed(songs);
+        assertSame(d, songs.getSongByPath("/music/d.mp3"));
+        //equal by path, another object
+        assertTrue(songs.contains(song("c")));
+        assertFalse(songs.contains(song("e")));
+        assertFalse(songs.contains("/music/a.mp3"));
+    }
+
+    @Test
+    public void duplicatePathsStayUntilTheLastIsRemoved() {
+        CountingSongArray songs = new CountingSongArray();
+        Song first = song("a");
+        Song second = song("a");
+        songs.add(first);
+        songs.add(song("b"));
+        songs.add(second);
+        assertSame(first, songs.getSongByPath("/music/a.mp3"));
+        assertEquals(2, songs.paths.size());
+
+        songs.remove(first);
+        assertTrue(songs.contains(first));
+        //the entry keeps its song, equal by path to the one left
+        assertEquals(second, songs.getSongByPath("/music/a.mp3"));
+        songs.remove(song("a"));
+        assertFalse(songs.contains(first));
+        assertNull(songs.getSongByPath("/music/a.mp3"));
+        assertFalse(songs.remove(song("a")));
+        assertIndexed(songs);
+    }
+
+    @Test
+    public void setReplacesThePathAtAnIndex() {
+        CountingSongArray songs = new CountingSongArray();
+        songs.addAll(Arrays.asList(song("a"), song("b"), song("a")));
+        assertEquals("/music/a.mp3", songs.set(0, song("c")).getPath());
+        assertTrue(songs.contains(song("a")));
+        songs.set(2, song("d"));
+        assertFalse(songs.contains(song("a")));
+        //the same path again
+        Song b = song("b");
+        songs.set(1, b);
+        assertSame(b, songs.getSongByPath("/music/b.mp3"));
+        assertIndexed(songs);
+    }
+
+    @Test
+    public void bulkRemovalsRebuildTheIndex() {
+        CountingSongArray songs = new CountingSongArray();
+        for (String name : new String[] {"a", "b", "c", "a", "d", "e", "b", "f"}) {
+            songs.add(song(name));
+        }
+        songs.removeIf(song -> song.getPath().contains("/c."));
+        assertFalse(songs.contains(song("c")));
+        assertIndexed(songs);
+
+        songs.removeAll(Arrays.asList(song("a"), song("e")));
+        assertFalse(songs.contains(song("a")));
+        assertFalse(songs.contains(song("e")));
+        assertEquals(4, songs.size());
+        assertIndexed(songs);
+
+        songs.retainAll(Collections.singletonList(song("b")));
+        assertEquals(2, songs.size());
+        assertIndexed(songs);
+
+        songs.add(song("g"));
+        songs.subList(0, 1).clear();
+        assertTrue(songs.contains(song("b")));
+        assertIndexed(songs);
+
+        songs.removeByPaths(new HashSet<String>(Arrays.asList("/music/b.mp3", "/music/x.mp3")));
+        assertEquals(Collections.singletonList(song("g")), songs);
+        assertIndexed(songs);
+
+        songs.clear();
+        assertFalse(songs.contains(song("g")));
+        assertTrue(songs.paths.isEmpty());
+    }
+
+    @Test
+    public void sortingKeepsTheIndex() {
+        CountingSongArray songs = new CountingSongArray();
+        songs.add(new Song("/music/2.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125));
+        songs.add(new Song("/music/1.mp3", "Angie", "The Rolling Stones", "Goats Head Soup", "1973", "", "Rock", 272));
+        songs.sortByColumn(SortOrder.ASCENDING, "Title");
+        assertEquals("Angie", songs.get(0).getTitle());
+        assertIndexed(songs);
+    }
+
+    /**
+     * Times getSongByPath() and contains() for every song at 1k, 10k and 100k songs,
+     * against the linear scan of an ArrayList. The numbers are printed, not checked, e.g.
+     * mvn -Dtest=SongArrayTest test
+     */
+    @Test
+    public void timeLookups() {
+        for (int size : new int[] {1000, 10000, 100000}) {
+            List<Song> generated = new ArrayList<Song>(size);
+            for (int i = 0; i < size; i++) {
+                generated.add(new Song("/music/" + i + ".mp3", "Title " + i, "Artist", "Album", "", "", "", 0));
+            }
+            long start = System.nanoTime();
+            SongArray songs = new SongArray("library", generated);
+            long built = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Song song : generated) {
+                assertSame(song, songs.getSongByPath(song.getPath()));
+            }
+            long indexed = System.nanoTime() - start;
+
+            //scan for at most 1000 songs, the whole list would take minutes at 100k
+            ArrayList<Song> plain = new ArrayList<Song>(generated);
+            int scanned = Math.min(size, 1000);
+            start = System.nanoTime();
+            for (int i = 0; i < scanned; i++) {
+                assertTrue(plain.contains(generated.get(size - 1 - i)));
+            }
+            long linear = System.nanoTime() - start;
+
+            System.out.println("[Benchmark] " + size + " songs: index built in " + built / 1000000 + " ms, "
+                    + indexed / size + " ns per lookup, ArrayList.contains " + linear / scanned + " ns per lookup");
+        }
+    }
+
+    /**
+     * Checks the index against a scan of the list.
+     */
+    private static void assertIndexed(CountingSongArray songs) {
+        HashSet<String> paths = new HashSet<String>();
+        for (Song song : songs) {
+            paths.add(song.getPath());
+            assertTrue(songs.contains(song));
+            assertEquals(song, songs.getSongByPath(song.getPath()));
+        }
+        assertEquals(paths, songs.paths);
+        for (String name : new String[] {"a", "b", "c", "d", "e", "f", "g"}) {
+            Song song = song(name);
+            assertEquals(name, paths.contains(song.getPath()), songs.contains(song));
+        }
+    }
+
+    private static Song song(String name) {
+        return new Song("/music/" + name + ".mp3", name, "", "", "", "", "", 0);
+    }
+}
@@ -0,0 +1,57 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that songs are identified by their paths alone, and that the cached hash follows the path.
+ */
+public class SongTest {
+
+    @Test
+    public void songsWithTheSamePathAreEqual() {
+        Song tagged = new Song("/music/a.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125);
+        Song retagged = new Song("/music/a.mp3", "Yesterday (Remastered)", "Beatles", "Help", "2009", "x", "Rock", 126);
+        assertEquals(tagged, retagged);
+        assertEquals(tagged.hashCode(), retagged.hashCode());
+
+        Song other = new Song("/music/b.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125);
+        assertNotEquals(tagged, other);
+        assertFalse(tagged.equals(null));
+        assertFalse(tagged.equals("/music/a.mp3"));
+    }
+
+    @Test
+    public void cachedHashIsTheHashOfThePath() {
+        Song song = new Song("/music/a.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125);
+        assertEquals("/music/a.mp3".hashCode(), song.hashCode());
+
+        song.setProperties("/music/moved/a.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125);
+        assertEquals(song.getPath().hashCode(), song.hashCode());
+
+        Song numbered = new Song(7);
+        assertEquals(numbered.getPath().hashCode(), numbered.hashCode());
+    }
+
+    @Test
+    public void hashedCollectionsFindSongsByPath() {
+        Song song = new Song("/music/a.mp3", "Yesterday", "The Beatles", "Help!", "1965", "", "Pop", 125);
+        HashSet<Song> songs = new HashSet<Song>();
+        songs.add(song);
+        assertTrue(songs.contains(new Song("/music/a.mp3", "", "", "", "", "", "", 0)));
+        assertFalse(songs.add(new Song("/music/a.mp3", "Other", "", "", "", "", "", 0)));
+
+        HashMap<Song, Integer> ids = new HashMap<Song, Integer>();
+        ids.put(song, 1);
+        assertEquals(Integer.valueOf(1), ids.get(new Song("/music/a.mp3", null, null, null, null, null, null, 0)));
+        assertSame(song, songs.iterator().next());
+    }
+}
@@ -0,0 +1,153 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bounded edit distance of TrigramIndex against a full Levenshtein distance,
+ * and which tokens findSimilar() accepts for the edits allowed by the length of a word.
+ */
+public class TrigramIndexTest {
+
+    @Test
+    public void boundedEditDistanceAgreesWithLevenshtein() {
+        assertEquals(1, TrigramIndex.editDistance("beetles", "beatles", 2));
+        assertEquals(0, TrigramIndex.editDistance("abbey", "abbey", 1));
+        assertEquals(1, TrigramIndex.editDistance("queen", "quen", 1));
+        assertEquals(2, TrigramIndex.editDistance("rapsody", "rhapsodi", 2));
+        //beyond the bound: maxEdits + 1
+        assertEquals(3, TrigramIndex.editDistance("kitten", "sitting", 2));
+        assertEquals(2, TrigramIndex.editDistance("abc", "abcdef", 1));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            String a = randomWord(random, 1 + random.nextInt(8), 4);
+            String b = randomWord(random, 1 + random.nextInt(8), 4);
+            int maxEdits = 1 + random.nextInt(2);
+            int expected = Math.min(levenshtein(a, b), maxEdits + 1);
+            assertEquals(a + " " + b, expected, TrigramIndex.editDistance(a, b, maxEdits));
+        }
+    }
+
+    @Test
+    public void findsTokensWithinTheAllowedEdits() {
+        TrigramIndex index = new TrigramIndex();
+        for (String term : new String[] {"beatles", "abbey", "queen", "rolling", "stones", "bohemian"}) {
+            index.add(term);
+        }
+        assertEquals(Arrays.asList("beatles"), index.findSimilar("beetles"));
+        assertEquals(Arrays.asList("beatles"), index.findSimilar("beatles"));
+        //two edits for words longer than 5 letters
+        assertEquals(Arrays.asList("rolling"), index.findSimilar("roling"));
+        assertEquals(Arrays.asList("bohemian"), index.findSimilar("bohemain"));
+        assertTrue(index.findSimilar("bxetlxs").isEmpty());
+        //one edit up to 5 letters
+        assertEquals(Arrays.asList("queen"), index.findSimilar("queem"));
+        assertTrue(index.findSimilar("qeeem").isEmpty());
+        assertEquals(Arrays.asList("abbey"), index.findSimilar("abey"));
+        //too short to be looked up
+        assertTrue(index.findSimilar("que").isEmpty());
+    }
+
+    @Test
+    public void closestTokensComeFirst() {
+        TrigramIndex index = new TrigramIndex();
+        index.add("stones");
+        index.add("stone");
+        index.add("stoned");
+        List<String> similar = index.findSimilar("stone");
+        assertEquals("stone", similar.get(0));
+        assertEquals(3, similar.size());
+    }
+
+    @Test
+    public void removedTokensAreNotFoundAndTheirIdsReused() {
+        TrigramIndex index = new TrigramIndex();
+        Random random = new Random(11);
+        List<String> terms = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 20000; i++) {
+            String term = randomWord(random, 6 + random.nextInt(5), 26) + i;
+            terms.add(term);
+            ids.add(index.add(term));
+        }
+        for (int i = 0; i < terms.size(); i += 2) {
+            index.remove(ids.get(i));
+        }
+        assertEquals(terms.size() / 2, index.size());
+        for (int i = 0; i < terms.size(); i += 101) {
+            String term = terms.get(i);
+            assertEquals(term, i % 2 != 0, index.findSimilar(term).contains(term));
+        }
+        int reused = index.add("reused");
+        assertTrue(reused < terms.size());
+        assertTrue(index.findSimilar("reused").contains("reused"));
+    }
+
+    /**
+     * Times adding 100k tokens and looking up misspellings among them. The numbers are printed, not checked, e.g.
+     * mvn -Dtest=TrigramIndexTest test
+     */
+    @Test
+    public void timeALargeIndex() {
+        Random random = new Random(42);
+        String[] terms = new String[100000];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = randomWord(random, 4 + random.nextInt(8), 26);
+        }
+        TrigramIndex index = new TrigramIndex();
+        long start = System.nanoTime();
+        for (String term : terms) {
+            index.add(term);
+        }
+        System.out.println("[Benchmark] add 100000 tokens: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            String term = terms[i];
+            //one letter changed
+            char[] letters = term.toCharArray();
+            letters[letters.length / 2] = (char) ('a' + (letters[letters.length / 2] - 'a' + 1) % 26);
+            if (index.findSimilar(new String(letters)).contains(term)) {
+                found++;
+            }
+        }
+        System.out.println("[Benchmark] 10000 misspelled lookups: " + (System.nanoTime() - start) / 1000000
+                + " ms, " + found + " found");
+        assertFalse(found == 0);
+    }
+
+    private static String randomWord(Random random, int length, int letters) {
+        char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = (char) ('a' + random.nextInt(letters));
+        }
+        return new String(word);
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1));
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
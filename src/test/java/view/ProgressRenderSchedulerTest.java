@@ -0,0 +1,127 @@
+package view;
+
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds ProgressRenderScheduler positions from a thread standing in for the decoder, without a window,
+ * and counts what reaches the view: no more renders than the frame rate allows, the last position always
+ * rendered, and nothing rendered while idle. Also times the event dispatch thread against an invokeLater()
+ * per position, which is how the progress was rendered before the scheduler.
+ */
+public class ProgressRenderSchedulerTest {
+
+    private static final long FEED_MILLIS = 2000;
+    private static final long POSITION_NANOS = 500000;     //2000 positions a second
+
+    /**
+     * Counts the renders instead of drawing them. Only used on the event dispatch thread.
+     */
+    private static class CountingControlView extends ControlView {
+        int renders;
+        int lastPlayed = -1;
+
+        @Override
+        public void updateProgressView(int played, int duration) {
+            renders++;
+            lastPlayed = played;
+        }
+    }
+
+    /**
+     * Feeds positions for two seconds, then goes idle for two seconds, and prints the renders and
+     * the CPU time of the event dispatch thread for both, e.g.
+     * mvn -Dtest=ProgressRenderSchedulerTest test
+     */
+    @Test
+    public void rendersAtTheFrameRateAndNothingWhileIdle() throws Exception {
+        CountingControlView view = onEdt(CountingControlView::new);
+        ProgressRenderScheduler scheduler = new ProgressRenderScheduler(view);
+        long edtThread = onEdt(() -> Thread.currentThread().getId());
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long cpu = threads.getThreadCpuTime(edtThread);
+        long start = System.nanoTime();
+        int positions = feed(scheduler::update);
+        long fed = (System.nanoTime() - start) / 1000000;
+        LockSupport.parkNanos(300 * 1000000L);          //a few frames to render the last position
+        int renders = onEdt(() -> view.renders);
+        System.out.println("[Benchmark] scheduler: " + positions + " positions in " + fed + " ms, "
+                + renders + " renders, " + (threads.getThreadCpuTime(edtThread) - cpu) / 1000000 + " ms EDT cpu");
+        assertTrue("renders " + renders, renders > 0);
+        assertTrue("renders " + renders, renders <= (fed + 300) * ProgressRenderScheduler.DEFAULT_FPS / 1000 + 2);
+        assertEquals(positions - 1, (int) onEdt(() -> view.lastPlayed));
+
+        //the timer stops after a second without positions
+        cpu = threads.getThreadCpuTime(edtThread);
+        LockSupport.parkNanos(2000 * 1000000L);
+        long idleCpu = threads.getThreadCpuTime(edtThread);
+        //without a window, AWT ends the event dispatch thread once it has nothing left to dispatch
+        String idle = (idleCpu < 0) ? "the EDT exited" : (idleCpu - cpu) / 1000000 + " ms EDT cpu";
+        int idleRenders = onEdt(() -> view.renders) - renders;
+        System.out.println("[Benchmark] scheduler idle for 2000 ms: " + idleRenders + " renders, " + idle);
+        assertEquals(0, idleRenders);
+
+        //and starts again on the next position
+        scheduler.update(123456, 300);
+        LockSupport.parkNanos(500 * 1000000L);
+        assertEquals(123456, (int) onEdt(() -> view.lastPlayed));
+    }
+
+    /**
+     * Renders every position with its own invokeLater(), for comparison with the scheduler.
+     */
+    @Test
+    public void timeAnInvokeLaterPerPosition() throws Exception {
+        CountingControlView view = onEdt(CountingControlView::new);
+        long edtThread = onEdt(() -> Thread.currentThread().getId());
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long cpu = threads.getThreadCpuTime(edtThread);
+        long start = System.nanoTime();
+        int positions = feed((played, duration) ->
+                SwingUtilities.invokeLater(() -> view.updateProgressView(played, duration)));
+        long fed = (System.nanoTime() - start) / 1000000;
+        int renders = onEdt(() -> view.renders);
+        System.out.println("[Benchmark] invokeLater per position: " + positions + " positions in " + fed + " ms, "
+                + renders + " renders, " + (threads.getThreadCpuTime(edtThread) - cpu) / 1000000 + " ms EDT cpu");
+        assertEquals(positions, renders);
+    }
+
+    private interface PositionListener {
+        void update(int played, int duration);
+    }
+
+    /**
+     * Sends positions one millisecond of playback apart for FEED_MILLIS, as a decoder would.
+     * @return the number of positions sent
+     */
+    private static int feed(PositionListener listener) {
+        long end = System.nanoTime() + FEED_MILLIS * 1000000;
+        int played = 0;
+        while (System.nanoTime() < end) {
+            listener.update(played++, 300);
+            LockSupport.parkNanos(POSITION_NANOS);
+        }
+        return played;
+    }
+
+    private interface EdtCall<T> {
+        T call();
+    }
+
+    private static <T> T onEdt(EdtCall<T> call) throws Exception {
+        Object[] result = new Object[1];
+        SwingUtilities.invokeAndWait(() -> result[0] = call.call());
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+}
@@ -0,0 +1,97 @@
+package view;
+
+import model.Song;
+import model.SongArray;
+import org.junit.Test;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the table sorted by SongRowSorter shows the songs in the order SongArray.sortByColumn() puts them,
+ * since rows are selected by view index and played in list order, and that both order by the collation keys.
+ */
+public class SongRowSorterTest {
+
+    private static final String[] TITLES = {"Car Wash", "Carry On", "carry on", "Café", "Cafe", "Angie", "angie",
+            "Élan", "Elan", "Zombie", "Yesterday", "", "unknown", "Help!", "Help", "99 Problems", "abc"};
+    private static final String[] ARTISTS = {"The Beatles", "Beatles", "ABBA", "Abba", "Björk", "Bjork", "Queen"};
+    private static final String[] YEARS = {"1965", "1973", "", "2001", "1999"};
+
+    @Test
+    public void sortKeysIgnoreCaseSpacesAndPunctuationButNotAccents() {
+        assertTrue(key("Carry On").compareTo(key("Car Wash")) < 0);
+        assertEquals(0, key("Angie").compareTo(key("angie")));
+        assertTrue(key("Cafe").compareTo(key("Café")) < 0);
+        assertTrue(key("Café").compareTo(key("Cafg")) < 0);
+        assertTrue(key("Help").compareTo(key("Help!")) <= 0);
+    }
+
+    @Test
+    public void tableAndListSortTheSame() {
+        Random random = new Random(5);
+        List<Song> songs = new ArrayList<Song>();
+        for (int i = 0; i < 500; i++) {
+            songs.add(new Song("/music/" + i + ".mp3", pick(random, TITLES), pick(random, ARTISTS),
+                    pick(random, TITLES), pick(random, YEARS), pick(random, ARTISTS), pick(random, TITLES), 0));
+        }
+        SongTableModel model = new SongTableModel();
+        SongRowSorter sorter = new SongRowSorter(model);
+        for (int column = 1; column < SongListView.columnHeader.length; column++) {
+            for (SortOrder order : new SortOrder[] {SortOrder.ASCENDING, SortOrder.DESCENDING}) {
+                SongArray list = new SongArray("library", songs);
+                model.setSongs(list);
+                sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(column, order)));
+                List<Song> shown = new ArrayList<Song>();
+                for (int row = 0; row < sorter.getViewRowCount(); row++) {
+                    shown.add(list.get(sorter.convertRowIndexToModel(row)));
+                }
+
+                list.sortByColumn(order, SongListView.columnHeader[column]);
+                String sortedOn = SongListView.columnHeader[column] + " " + order;
+                assertEquals(sortedOn, paths(shown), paths(list));
+                for (int i = 1; i < list.size(); i++) {
+                    int compared = list.get(i - 1).getSortKey(column).compareTo(list.get(i).getSortKey(column));
+                    assertTrue(sortedOn + " at " + i, (order == SortOrder.ASCENDING) ? compared <= 0 : compared >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keysStillSortAfterAStructureChange() {
+        SongArray list = new SongArray("library");
+        list.add(new Song("/music/1.mp3", "Car Wash", "", "", "", "", "", 0));
+        list.add(new Song("/music/2.mp3", "Carry On", "", "", "", "", "", 0));
+        SongTableModel model = new SongTableModel();
+        model.setSongs(list);
+        SongRowSorter sorter = new SongRowSorter(model);
+        model.fireTableStructureChanged();
+        sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(Song.TITLE_FIELD, SortOrder.ASCENDING)));
+        assertEquals(1, sorter.convertRowIndexToModel(0));
+    }
+
+    private static CollationKey key(String title) {
+        return new Song("/music/x.mp3", title, "", "", "", "", "", 0).getSortKey(Song.TITLE_FIELD);
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static List<String> paths(List<Song> songs) {
+        List<String> paths = new ArrayList<String>(songs.size());
+        for (Song song : songs) {
+            paths.add(song.getPath());
+        }
+        return paths;
+    }
+}